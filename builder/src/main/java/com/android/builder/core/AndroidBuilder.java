@@ -49,6 +49,7 @@ import com.android.builder.model.SigningConfig;
 import com.android.builder.packaging.PackagerException;
 import com.android.builder.sdk.SdkInfo;
 import com.android.builder.sdk.TargetInfo;
+import com.android.builder.symbols.SymbolTableCache;
 import com.android.ide.common.blame.MessageReceiver;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.CachedProcessOutputHandler;
@@ -456,7 +457,12 @@ public class AndroidBuilder {
         return mProcessExecutor.execute(processInfo, handler);
     }
 
-    /** Invoke the Manifest Merger version 2. */
+    /**
+     * Invoke the Manifest Merger version 2.
+     *
+     * @param checkpointDirectory the directory to persist the checkpoints of the {@link
+     *     Invoker.Feature#INCREMENTAL_MERGE} feature to, if any.
+     */
     public MergingReport mergeManifestsForApplication(
             @NonNull File mainManifest,
             @NonNull List<File> manifestOverlays,
@@ -475,7 +481,8 @@ public class AndroidBuilder {
             ManifestMerger2.MergeType mergeType,
             Map<String, Object> placeHolders,
             @NonNull Collection<Invoker.Feature> optionalFeatures,
-            @Nullable File reportFile) {
+            @Nullable File reportFile,
+            @Nullable File checkpointDirectory) {
 
         try {
 
@@ -490,6 +497,7 @@ public class AndroidBuilder {
                                     optionalFeatures.toArray(
                                             new Invoker.Feature[optionalFeatures.size()]))
                             .setMergeReportFile(reportFile)
+                            .setCheckpointDirectory(checkpointDirectory)
                             .setFeatureName(featureName);
 
             if (mergeType == ManifestMerger2.MergeType.APPLICATION) {
@@ -845,7 +853,7 @@ public class AndroidBuilder {
 
             // For each dependency, load its symbol file.
             Set<SymbolTable> depSymbolTables =
-                    SymbolUtils.loadDependenciesSymbolTables(
+                    SymbolTableCache.loadDependenciesSymbolTables(
                             aaptConfig.getLibrarySymbolTableFiles());
 
             boolean finalIds = true;
@@ -1059,10 +1067,11 @@ public class AndroidBuilder {
     }
 
     /**
-     * Compiles all the shader files found in the given source folders.
+     * Compiles all the shader files found in the given source folders, in parallel.
      *
      * @param sourceFolder the source folder with the merged shaders
      * @param outputDir the output dir in which to generate the output
+     * @param dependencyFileProcessor the dependency file processor, or null
      * @throws IOException failed
      * @throws InterruptedException failed
      */
@@ -1072,6 +1081,7 @@ public class AndroidBuilder {
             @NonNull List<String> defaultArgs,
             @NonNull Map<String, List<String>> scopedArgs,
             @Nullable File nkdLocation,
+            @Nullable DependencyFileProcessor dependencyFileProcessor,
             @NonNull ProcessOutputHandler processOutputHandler)
             throws IOException, InterruptedException, ProcessException {
         checkNotNull(sourceFolder, "sourceFolder cannot be null.");
@@ -1079,6 +1089,8 @@ public class AndroidBuilder {
         checkState(mTargetInfo != null,
                 "Cannot call compileAllShaderFiles() before setTargetInfo() is called.");
 
+        WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
+
         Supplier<ShaderProcessor> processor =
                 () ->
                         new ShaderProcessor(
@@ -1087,9 +1099,12 @@ public class AndroidBuilder {
                                 outputDir,
                                 defaultArgs,
                                 scopedArgs,
+                                dependencyFileProcessor != null
+                                        ? dependencyFileProcessor
+                                        : DependencyFileProcessor.NO_OP,
                                 mProcessExecutor,
                                 processOutputHandler,
-                                WaitableExecutor.useGlobalSharedThreadPool());
+                                executor);
 
         DirectoryWalker.builder()
                 .root(sourceFolder.toPath())
@@ -1103,14 +1118,17 @@ public class AndroidBuilder {
                 .action(processor)
                 .build()
                 .walk();
+
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
     }
 
     /**
-     * Compiles the given aidl file.
+     * Compiles the given shader file.
      *
      * @param sourceFolder the source folder containing the file
      * @param shaderFile the shader file to compile
      * @param outputDir the output dir
+     * @param dependencyFileProcessor the dependency file processor, or null
      * @throws IOException failed
      * @throws InterruptedException failed
      */
@@ -1121,13 +1139,14 @@ public class AndroidBuilder {
             @NonNull List<String> defaultArgs,
             @NonNull Map<String, List<String>> scopedArgs,
             @Nullable File nkdLocation,
+            @Nullable DependencyFileProcessor dependencyFileProcessor,
             @NonNull ProcessOutputHandler processOutputHandler)
             throws IOException, InterruptedException, ProcessException {
         checkNotNull(sourceFolder, "sourceFolder cannot be null.");
-        checkNotNull(shaderFile, "aidlFile cannot be null.");
+        checkNotNull(shaderFile, "shaderFile cannot be null.");
         checkNotNull(outputDir, "outputDir cannot be null.");
         checkState(mTargetInfo != null,
-                "Cannot call compileAidlFile() before setTargetInfo() is called.");
+                "Cannot call compileShaderFile() before setTargetInfo() is called.");
 
         ShaderProcessor processor =
                 new ShaderProcessor(
@@ -1136,6 +1155,9 @@ public class AndroidBuilder {
                         outputDir,
                         defaultArgs,
                         scopedArgs,
+                        dependencyFileProcessor != null
+                                ? dependencyFileProcessor
+                                : DependencyFileProcessor.NO_OP,
                         mProcessExecutor,
                         processOutputHandler,
                         null);
@@ -1150,6 +1172,10 @@ public class AndroidBuilder {
      *
      * <p>Therefore whenever a renderscript file or header changes, all must be recompiled.
      *
+     * <p>The dependencies of each file are sent to the given {@link DependencyFileProcessor}, so
+     * that {@link #compileRenderscriptFiles} can later compile only the changed files and the
+     * files including them.
+     *
      * @param sourceFolders all the source folders to find files to compile
      * @param importFolders all the import folders.
      * @param sourceOutputDir the output dir in which to generate the source code
@@ -1161,6 +1187,7 @@ public class AndroidBuilder {
      * @param supportMode support mode flag to generate .so files.
      * @param useAndroidX whether to use AndroidX dependencies
      * @param abiFilters ABI filters in case of support mode
+     * @param dependencyFileProcessor the dependency file processor, or null
      * @throws IOException failed
      * @throws InterruptedException failed
      */
@@ -1178,31 +1205,69 @@ public class AndroidBuilder {
             boolean supportMode,
             boolean useAndroidX,
             @Nullable Set<String> abiFilters,
+            @Nullable DependencyFileProcessor dependencyFileProcessor,
             @NonNull ProcessOutputHandler processOutputHandler)
             throws InterruptedException, ProcessException, IOException {
         checkNotNull(sourceFolders, "sourceFolders cannot be null.");
-        checkNotNull(importFolders, "importFolders cannot be null.");
-        checkNotNull(sourceOutputDir, "sourceOutputDir cannot be null.");
-        checkNotNull(resOutputDir, "resOutputDir cannot be null.");
         checkState(mTargetInfo != null,
                 "Cannot call compileAllRenderscriptFiles() before setTargetInfo() is called.");
 
-        BuildToolInfo buildToolInfo = mTargetInfo.getBuildTools();
+        createRenderScriptProcessor(
+                        sourceFolders,
+                        importFolders,
+                        sourceOutputDir,
+                        resOutputDir,
+                        objOutputDir,
+                        libOutputDir,
+                        targetApi,
+                        debugBuild,
+                        optimLevel,
+                        ndkMode,
+                        supportMode,
+                        useAndroidX,
+                        abiFilters,
+                        dependencyFileProcessor)
+                .build(mProcessExecutor, processOutputHandler);
+    }
 
-        String renderscript = buildToolInfo.getPath(BuildToolInfo.PathId.LLVM_RS_CC);
-        if (renderscript == null || !new File(renderscript).isFile()) {
-            throw new IllegalStateException("llvm-rs-cc is missing");
-        }
+    /**
+     * Compiles the given renderscript files, e.g. the files impacted by a change since the last
+     * call to {@link #compileAllRenderscriptFiles}.
+     *
+     * <p>The files are passed together to a single invocation of the renderscript compiler.
+     *
+     * @param renderscriptFiles the renderscript files to compile
+     * @see #compileAllRenderscriptFiles for the other parameters
+     */
+    public void compileRenderscriptFiles(
+            @NonNull Collection<File> renderscriptFiles,
+            @NonNull Collection<File> sourceFolders,
+            @NonNull Collection<File> importFolders,
+            @NonNull File sourceOutputDir,
+            @NonNull File resOutputDir,
+            @NonNull File objOutputDir,
+            @NonNull File libOutputDir,
+            int targetApi,
+            boolean debugBuild,
+            int optimLevel,
+            boolean ndkMode,
+            boolean supportMode,
+            boolean useAndroidX,
+            @Nullable Set<String> abiFilters,
+            @Nullable DependencyFileProcessor dependencyFileProcessor,
+            @NonNull ProcessOutputHandler processOutputHandler)
+            throws InterruptedException, ProcessException, IOException {
+        checkNotNull(renderscriptFiles, "renderscriptFiles cannot be null.");
+        checkState(mTargetInfo != null,
+                "Cannot call compileRenderscriptFiles() before setTargetInfo() is called.");
 
-        RenderScriptProcessor processor =
-                new RenderScriptProcessor(
+        createRenderScriptProcessor(
                         sourceFolders,
                         importFolders,
                         sourceOutputDir,
                         resOutputDir,
                         objOutputDir,
                         libOutputDir,
-                        buildToolInfo,
                         targetApi,
                         debugBuild,
                         optimLevel,
@@ -1210,8 +1275,56 @@ public class AndroidBuilder {
                         supportMode,
                         useAndroidX,
                         abiFilters,
-                        mLogger);
-        processor.build(mProcessExecutor, processOutputHandler);
+                        dependencyFileProcessor)
+                .build(renderscriptFiles, mProcessExecutor, processOutputHandler);
+    }
+
+    @NonNull
+    private RenderScriptProcessor createRenderScriptProcessor(
+            @NonNull Collection<File> sourceFolders,
+            @NonNull Collection<File> importFolders,
+            @NonNull File sourceOutputDir,
+            @NonNull File resOutputDir,
+            @NonNull File objOutputDir,
+            @NonNull File libOutputDir,
+            int targetApi,
+            boolean debugBuild,
+            int optimLevel,
+            boolean ndkMode,
+            boolean supportMode,
+            boolean useAndroidX,
+            @Nullable Set<String> abiFilters,
+            @Nullable DependencyFileProcessor dependencyFileProcessor) {
+        checkNotNull(importFolders, "importFolders cannot be null.");
+        checkNotNull(sourceOutputDir, "sourceOutputDir cannot be null.");
+        checkNotNull(resOutputDir, "resOutputDir cannot be null.");
+
+        BuildToolInfo buildToolInfo = mTargetInfo.getBuildTools();
+
+        String renderscript = buildToolInfo.getPath(BuildToolInfo.PathId.LLVM_RS_CC);
+        if (renderscript == null || !new File(renderscript).isFile()) {
+            throw new IllegalStateException("llvm-rs-cc is missing");
+        }
+
+        return new RenderScriptProcessor(
+                sourceFolders,
+                importFolders,
+                sourceOutputDir,
+                resOutputDir,
+                objOutputDir,
+                libOutputDir,
+                buildToolInfo,
+                targetApi,
+                debugBuild,
+                optimLevel,
+                ndkMode,
+                supportMode,
+                useAndroidX,
+                abiFilters,
+                dependencyFileProcessor != null
+                        ? dependencyFileProcessor
+                        : DependencyFileProcessor.NO_OP,
+                mLogger);
     }
 
     @NonNull
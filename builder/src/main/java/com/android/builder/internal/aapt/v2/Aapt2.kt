@@ -31,6 +31,19 @@ interface Aapt2: BlockingResourceLinker {
     /** Perform the requested compilation. Throws [Aapt2Exception] on failure */
     fun compile(request: CompileResourceRequest, logger: ILogger)
 
+    /**
+     * Perform all the requested compilations, sending requests that only differ by their input
+     * file to AAPT2 together.
+     *
+     * Errors in the users sources do not stop the other requests from being compiled, instead
+     * they are returned as one [Aapt2CompileFailure] per failing request.
+     * Throws [Aapt2InternalException] if there is an issue running AAPT itself.
+     */
+    fun compileBatch(
+        requests: List<CompileResourceRequest>,
+        logger: ILogger
+    ): List<Aapt2CompileFailure>
+
     /** Perform the requested linking. Throws [Aapt2Exception] on failure. */
     override fun link(request: AaptPackageConfig, logger: ILogger)
 }
\ No newline at end of file
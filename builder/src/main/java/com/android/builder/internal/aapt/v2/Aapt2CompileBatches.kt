@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+@file:JvmName("Aapt2CompileBatches")
+
+package com.android.builder.internal.aapt.v2
+
+import com.android.ide.common.resources.CompileResourceRequest
+
+/** Default maximum number of files sent to AAPT2 in one compile request. */
+const val DEFAULT_COMPILE_BATCH_MAX_FILES = 200
+
+/** Default maximum total size of the input files sent to AAPT2 in one compile request. */
+const val DEFAULT_COMPILE_BATCH_MAX_BYTES = 16L * 1024 * 1024
+
+/** A request from a batch that AAPT2 failed to compile, with the error for that file only. */
+data class Aapt2CompileFailure(
+    val request: CompileResourceRequest,
+    val exception: Aapt2Exception
+)
+
+/**
+ * Splits the given requests into batches of at most [maxFiles] requests, and of at most
+ * [maxBytes] total input size unless a single file is larger than that.
+ *
+ * The order of the requests is preserved.
+ */
+@JvmOverloads
+fun splitIntoCompileBatches(
+    requests: List<CompileResourceRequest>,
+    maxFiles: Int = DEFAULT_COMPILE_BATCH_MAX_FILES,
+    maxBytes: Long = DEFAULT_COMPILE_BATCH_MAX_BYTES
+): List<List<CompileResourceRequest>> {
+    require(maxFiles > 0) { "maxFiles must be positive, was $maxFiles" }
+    val batches = mutableListOf<List<CompileResourceRequest>>()
+    var current = mutableListOf<CompileResourceRequest>()
+    var currentBytes = 0L
+    for (request in requests) {
+        val size = request.inputFile.length()
+        if (!current.isEmpty() && (current.size >= maxFiles || currentBytes + size > maxBytes)) {
+            batches.add(current)
+            current = mutableListOf()
+            currentBytes = 0L
+        }
+        current.add(request)
+        currentBytes += size
+    }
+    if (!current.isEmpty()) {
+        batches.add(current)
+    }
+    return batches
+}
+
+/**
+ * Returns the exception to report for the given compile failures: the first failure, with the
+ * others attached as suppressed exceptions.
+ */
+fun toCompileException(failures: List<Aapt2CompileFailure>): Aapt2Exception {
+    require(!failures.isEmpty()) { "No compile failures to report" }
+    return failures.first().exception.apply {
+        failures.drop(1).forEach { addSuppressed(it.exception) }
+    }
+}
+
+/**
+ * Returns the key under which requests can be sent to AAPT2 in a single compile request,
+ * i.e. the compile command line without the input file.
+ */
+internal fun compileBatchKey(request: CompileResourceRequest): List<String> =
+    makeCompileCommand(request).let { it.subList(0, it.size - 1) }
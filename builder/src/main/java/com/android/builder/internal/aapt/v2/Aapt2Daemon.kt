@@ -26,9 +26,10 @@ import javax.annotation.concurrent.NotThreadSafe
  * Manages an AAPT2 daemon process. Implementations are not expected to be thread safe.
  *
  * This must be used in the following sequence:
- * Call [compile] or [link] as many times as needed.
+ * Call [compile], [compileBatch] or [link] as many times as needed.
  * These methods block until the operation requested is complete.
- * The first call to either of [compile] or [link] will start the underlying daemon process.
+ * The first call to any of [compile], [compileBatch] or [link] will start the underlying daemon
+ * process.
  * Call [shutDown()], which blocks until the daemon process has exited.
  *
  * Processes cannot be re-started.
@@ -65,6 +66,14 @@ abstract class Aapt2Daemon(
         }
     }
 
+    /**
+     * Starts the underlying daemon process if it has not been started yet, blocking until it is
+     * ready to receive commands.
+     *
+     * Calling this is optional, the first operation on the daemon will start it if needed.
+     */
+    fun start() = checkStarted()
+
     /**
      * Implementors must start the underlying AAPT2 daemon process.
      *
@@ -97,6 +106,70 @@ abstract class Aapt2Daemon(
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
     protected abstract fun doCompile(request: CompileResourceRequest, logger: ILogger)
 
+    override fun compileBatch(
+        requests: List<CompileResourceRequest>,
+        logger: ILogger
+    ): List<Aapt2CompileFailure> {
+        checkStarted()
+        val failures = mutableListOf<Aapt2CompileFailure>()
+        for (batch in requests.groupBy { compileBatchKey(it) }.values) {
+            try {
+                compileBatchAttributingFailures(batch, logger, failures)
+            } catch (e: TimeoutException) {
+                handleError("Compile of ${batch.size} files timed out", e)
+            } catch (e: Exception) {
+                handleError(
+                    "Unexpected error during compile of ${batch.size} files " +
+                            "starting with '${batch.first().inputFile}'", e
+                )
+            }
+        }
+        return failures
+    }
+
+    /**
+     * Compiles the batch, and if it fails, compiles each request on its own so that errors are
+     * reported against the file that caused them.
+     *
+     * AAPT2 only reports whether the whole invocation succeeded, so this is the only way to know
+     * which outputs were actually written.
+     */
+    private fun compileBatchAttributingFailures(
+        batch: List<CompileResourceRequest>,
+        logger: ILogger,
+        failures: MutableList<Aapt2CompileFailure>
+    ) {
+        try {
+            doCompileBatch(batch, logger)
+            return
+        } catch (e: Aapt2Exception) {
+            if (batch.size == 1) {
+                failures.add(Aapt2CompileFailure(batch.single(), e))
+                return
+            }
+        }
+        for (request in batch) {
+            try {
+                doCompile(request, logger)
+            } catch (e: Aapt2Exception) {
+                failures.add(Aapt2CompileFailure(request, e))
+            }
+        }
+    }
+
+    /**
+     * Implementors may compile all the files in the given requests in a single operation.
+     *
+     * All the requests are guaranteed to only differ by their input file.
+     * The default implementation compiles the requests one at a time using [doCompile].
+     *
+     * This will only be called after [startProcess] is called and before [stopProcess] is called
+     */
+    @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
+    protected open fun doCompileBatch(requests: List<CompileResourceRequest>, logger: ILogger) {
+        requests.forEach { doCompile(it, logger) }
+    }
+
     override fun link(request: AaptPackageConfig, logger: ILogger) {
         checkStarted()
         try {
@@ -155,6 +155,37 @@ class Aapt2DaemonImpl(
         }
     }
 
+    @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
+    override fun doCompileBatch(requests: List<CompileResourceRequest>, logger: ILogger) {
+        val waitForTask = WaitForTaskCompletion(displayName, logger)
+        try {
+            processOutput.delegate = waitForTask
+            Aapt2DaemonUtil.requestCompile(writer, requests)
+            // The timeout is per file, as a large batch can legitimately take a long time.
+            val result = waitForTask.future.get(
+                daemonTimeouts.compile * requests.size,
+                daemonTimeouts.compileUnit
+            )
+            when (result) {
+                is WaitForTaskCompletion.Result.Succeeded -> {}
+                is WaitForTaskCompletion.Result.Failed -> {
+                    val args = makeCompileBatchCommand(requests).joinToString(" \\\n        ")
+                    throw Aapt2Exception(
+                        description = "Android resource compilation failed",
+                        output = result.stdErr,
+                        processName = displayName,
+                        command = "$aaptPath compile $args"
+                    )
+                }
+                is WaitForTaskCompletion.Result.InternalAapt2Error -> {
+                    throw result.failure
+                }
+            }
+        } finally {
+            processOutput.delegate = noOutputExpected
+        }
+    }
+
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
     override fun doLink(request: AaptPackageConfig, logger: ILogger) {
         val waitForTask = WaitForTaskCompletion(displayName, logger)
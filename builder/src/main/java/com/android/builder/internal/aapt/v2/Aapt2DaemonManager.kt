@@ -24,7 +24,12 @@ import com.android.ide.common.resources.CompileResourceRequest
 import com.android.utils.ILogger
 import com.google.common.base.Preconditions
 import com.google.common.base.Ticker
+import com.google.common.util.concurrent.SettableFuture
 import java.io.Closeable
+import java.util.ArrayDeque
+import java.util.Deque
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
 import java.util.concurrent.TimeUnit
 import javax.annotation.concurrent.GuardedBy
 import javax.annotation.concurrent.NotThreadSafe
@@ -33,11 +38,15 @@ import javax.annotation.concurrent.ThreadSafe
 /**
  * Maintains a pool of AAPT2 daemon processes.
  *
- * The pool is expanded if all processes are busy when a request is received.
- * No attempt is made to limit the size of the pool.
+ * The pool is expanded if all processes are busy when a request is received, up to
+ * [maxPoolSize] processes. Once that limit is reached, callers of [leaseDaemon] wait for a daemon
+ * to be returned, and are served in the order they arrived.
  * Users of this class are expected to manage the desired concurrency level through the use of
  * gradle workers, a thread pool or similar.
  *
+ * When the first daemon is started, [minPoolSize] daemons are started in the background using
+ * [prewarmExecutor] so that the following requests do not pay the process startup cost.
+ *
  * Users of this class are expected to call leaseProcess on a worker thread in a
  * try-with-resources/use block. The operations on the [LeasedAaptDaemon] are then blocking on that
  * thread.
@@ -49,7 +58,18 @@ class Aapt2DaemonManager(
         expiryTime: Long,
         expiryTimeUnit: TimeUnit,
         private val listener: Listener = NoOpListener(),
-        private val timeSource: Ticker = Ticker.systemTicker()) {
+        private val timeSource: Ticker = Ticker.systemTicker(),
+        private val minPoolSize: Int = 0,
+        private val maxPoolSize: Int = Int.MAX_VALUE,
+        private val prewarmExecutor: Executor = ForkJoinPool.commonPool()) {
+
+    init {
+        Preconditions.checkArgument(maxPoolSize > 0,
+                "maxPoolSize must be positive, was %s", maxPoolSize)
+        Preconditions.checkArgument(minPoolSize in 0..maxPoolSize,
+                "minPoolSize must be between 0 and maxPoolSize (%s), was %s",
+                maxPoolSize, minPoolSize)
+    }
 
     private val expiryTimeNanoSeconds = expiryTimeUnit.toNanos(expiryTime)
 
@@ -59,10 +79,41 @@ class Aapt2DaemonManager(
     @GuardedBy("this")
     private val pool: MutableList<LeasableAaptDaemon> = mutableListOf()
 
+    /** Callers of [leaseDaemon] waiting for a daemon to be handed to them, in arrival order. */
+    @GuardedBy("this")
+    private val waiting: Deque<SettableFuture<LeasableAaptDaemon>> = ArrayDeque()
+
+    @GuardedBy("this")
+    private var leaseCount: Long = 0
+
+    @GuardedBy("this")
+    private var totalLeaseWaitNanoSeconds: Long = 0
+
+    @GuardedBy("this")
+    private var maxLeaseWaitNanoSeconds: Long = 0
+
+    @GuardedBy("this")
+    private var processStartCount: Long = 0
+
+    @GuardedBy("this")
+    private var totalProcessStartNanoSeconds: Long = 0
+
+    /** Time spent leased by daemons, not including the current leases. */
+    @GuardedBy("this")
+    private var completedBusyNanoSeconds: Long = 0
+
+    /** Time spent in the pool by daemons, not including the daemons currently in the pool. */
+    @GuardedBy("this")
+    private var completedAliveNanoSeconds: Long = 0
+
     internal class LeasableAaptDaemon(
             val daemon: Aapt2Daemon,
             var lastUsedNanoSeconds: Long,
-            var busy: Boolean = false) {
+            var busy: Boolean = false,
+            /** Whether the daemon is being started in the background. Prewarming daemons are busy. */
+            var prewarming: Boolean = false) {
+        val createdNanoSeconds: Long = lastUsedNanoSeconds
+        var leasedNanoSeconds: Long = lastUsedNanoSeconds
         fun shutdown() = daemon.shutDown()
     }
 
@@ -70,16 +121,96 @@ class Aapt2DaemonManager(
      * Returns a [LeasedAaptDaemon], either from a pool of started daemons,
      * Or starting a new process if all the existing daemons in the pool are in use
      *
+     * If the pool is at its maximum size, waits for a daemon to be returned.
+     *
      * Blocks until the daemon is ready to receive commands.
      */
-    @Synchronized
     fun leaseDaemon(): LeasedAaptDaemon {
-        val daemon =
-                pool.find { !it.busy } ?: newAaptDaemon()
-        daemon.busy = true
+        val requestedNanoSeconds = timeSource.read()
+        val daemon = takeDaemon()
+        val waitNanoSeconds = timeSource.read() - requestedNanoSeconds
+        synchronized(this) {
+            leaseCount++
+            totalLeaseWaitNanoSeconds += waitNanoSeconds
+            maxLeaseWaitNanoSeconds = maxOf(maxLeaseWaitNanoSeconds, waitNanoSeconds)
+        }
+        listener.daemonLeased(waitNanoSeconds)
+        if (daemon.daemon.state == Aapt2Daemon.State.NEW) {
+            try {
+                startDaemon(daemon)
+            } catch (e: Exception) {
+                // The daemon shut itself down, so this just removes it from the pool.
+                returnProcess(daemon)
+                throw e
+            }
+        }
         return LeasedAaptDaemon(daemon, this::returnProcess)
     }
 
+    /** Takes an idle daemon, creates a new one, or waits for one to be handed over. */
+    private fun takeDaemon(): LeasableAaptDaemon {
+        val handOver: SettableFuture<LeasableAaptDaemon>
+        synchronized(this) {
+            if (waiting.isEmpty()) {
+                pool.find { !it.busy }?.let { return markLeased(it) }
+                if (pool.count { it.prewarming } == 0 && pool.size < maxPoolSize) {
+                    return markLeased(newAaptDaemon())
+                }
+            }
+            handOver = SettableFuture.create()
+            waiting.addLast(handOver)
+            dispatchToWaiting()
+        }
+        try {
+            return handOver.get()
+        } catch (e: InterruptedException) {
+            synchronized(this) {
+                if (!waiting.remove(handOver)) {
+                    // A daemon was handed over just as this thread was interrupted.
+                    returnProcess(handOver.get())
+                }
+            }
+            throw e
+        }
+    }
+
+    /**
+     * Hands idle daemons over to waiting callers, starting new daemons for callers that could not
+     * be served by the daemons being prewarmed if the pool is not full.
+     */
+    @GuardedBy("this")
+    private fun dispatchToWaiting() {
+        while (!waiting.isEmpty()) {
+            val idle = pool.find { !it.busy }
+            val daemon = when {
+                idle != null -> idle
+                waiting.size > pool.count { it.prewarming } && pool.size < maxPoolSize ->
+                    newAaptDaemon()
+                else -> return
+            }
+            waiting.removeFirst().set(markLeased(daemon))
+        }
+    }
+
+    @GuardedBy("this")
+    private fun markLeased(daemon: LeasableAaptDaemon): LeasableAaptDaemon {
+        daemon.busy = true
+        daemon.leasedNanoSeconds = timeSource.read()
+        return daemon
+    }
+
+    /** Starts the daemon process, recording how long it took. */
+    private fun startDaemon(daemon: LeasableAaptDaemon) {
+        val startNanoSeconds = timeSource.read()
+        daemon.daemon.start()
+        val durationNanoSeconds = timeSource.read() - startNanoSeconds
+        synchronized(this) {
+            processStartCount++
+            totalProcessStartNanoSeconds += durationNanoSeconds
+        }
+        listener.daemonProcessStarted(durationNanoSeconds)
+    }
+
     /**
      * Checks if any processes are not needed in the pool any more and blocks while they shut down.
      */
@@ -89,51 +220,110 @@ class Aapt2DaemonManager(
         expiredDaemons.forEach { it.shutdown() }
     }
 
-    /** Shuts down this AAPT process manager. */
+    /**
+     * Shuts down this AAPT process manager.
+     *
+     * Daemons still being prewarmed are shut down by the prewarming thread once they are started.
+     */
     @Synchronized
     fun shutdown() {
-        if (pool.any { it.busy }) {
+        if (pool.any { it.busy && !it.prewarming }) {
             error("AAPT Process manager cannot be shut down while daemons are in use")
         }
         if (!pool.isEmpty()) {
             listener.lastDaemonStopped()
         }
-        pool.forEach { it.shutdown() }
+        logger.info("AAPT2 daemon pool: %1\$s", stats())
+        val now = timeSource.read()
+        pool.forEach { completedAliveNanoSeconds += now - it.createdNanoSeconds }
+        pool.filter { !it.prewarming }.forEach { it.shutdown() }
         pool.clear()
     }
 
-    @GuardedBy("this")  // Only called from leaseDaemon, so already synchronized
+    @GuardedBy("this")  // Only called from synchronized code.
     private fun newAaptDaemon(): LeasableAaptDaemon {
-        val displayId = latestDisplayId++
-        val process = daemonFactory.invoke(displayId)
-        val daemon = LeasableAaptDaemon(process, timeSource.read())
+        val daemon = createDaemon()
         if (pool.isEmpty()) {
             listener.firstDaemonStarted(this)
+            pool.add(daemon)
+            prewarm(minPoolSize - 1)
+        } else {
+            pool.add(daemon)
         }
-        pool.add(daemon)
         return daemon
     }
 
+    @GuardedBy("this")
+    private fun createDaemon(): LeasableAaptDaemon {
+        val displayId = latestDisplayId++
+        val process = daemonFactory.invoke(displayId)
+        return LeasableAaptDaemon(process, timeSource.read())
+    }
+
+    /** Adds up to [count] daemons to the pool, and starts them in the background. */
+    @GuardedBy("this")
+    private fun prewarm(count: Int) {
+        repeat(count) {
+            if (pool.size >= maxPoolSize) {
+                return
+            }
+            val daemon = createDaemon()
+            daemon.busy = true
+            daemon.prewarming = true
+            pool.add(daemon)
+            prewarmExecutor.execute { finishPrewarming(daemon) }
+        }
+    }
+
+    private fun finishPrewarming(daemon: LeasableAaptDaemon) {
+        try {
+            startDaemon(daemon)
+        } catch (e: Exception) {
+            logger.verbose("Failed to prewarm AAPT2 daemon: %1\$s", e)
+        }
+        val shutDownAfterStart = synchronized(this) {
+            val inPool = pool.contains(daemon)
+            if (inPool) {
+                returnProcess(daemon)
+            }
+            daemon.prewarming = false
+            // If the manager was shut down while this daemon was starting, stop it now.
+            !inPool && daemon.daemon.state == Aapt2Daemon.State.RUNNING
+        }
+        if (shutDownAfterStart) {
+            daemon.shutdown()
+        }
+    }
+
     /** Marks the process as returned, and updates when it was last used */
     @Synchronized
     private fun returnProcess(key: LeasableAaptDaemon) {
+        val now = timeSource.read()
+        if (!key.prewarming) {
+            completedBusyNanoSeconds += now - key.leasedNanoSeconds
+        }
         if (key.daemon.state != Aapt2Daemon.State.RUNNING) {
             // If the daemon was not started or has stopped there's no point keeping it in the pool.
             // No need to shut it down either, that would have already happened if needed.
-            pool.remove(key)
+            if (pool.remove(key)) {
+                completedAliveNanoSeconds += now - key.createdNanoSeconds
+            }
             if (pool.isEmpty()) {
                 listener.lastDaemonStopped()
             }
+            dispatchToWaiting()
             return
         }
-        key.lastUsedNanoSeconds = timeSource.read()
+        key.lastUsedNanoSeconds = now
         key.busy = false
+        dispatchToWaiting()
     }
 
     @Synchronized
     private fun takeExpiredDaemonsFromPool(): List<LeasableAaptDaemon> {
         val expired = mutableListOf<LeasableAaptDaemon>()
-        val expireHorizon = timeSource.read() - expiryTimeNanoSeconds
+        val now = timeSource.read()
+        val expireHorizon = now - expiryTimeNanoSeconds
         val oldPool = ArrayList(pool)
         pool.clear()
         for (daemon in oldPool) {
@@ -143,6 +333,14 @@ class Aapt2DaemonManager(
                 else -> expired.add(daemon)
             }
         }
+        // While the pool is in use, keep the most recently used daemons up to the minimum size.
+        if (!pool.isEmpty()) {
+            expired.sortByDescending { it.lastUsedNanoSeconds }
+            while (pool.size < minPoolSize && !expired.isEmpty()) {
+                pool.add(expired.removeAt(0))
+            }
+        }
+        expired.forEach { completedAliveNanoSeconds += now - it.createdNanoSeconds }
         if (pool.isEmpty()) {
             listener.lastDaemonStopped()
         }
@@ -170,6 +368,14 @@ class Aapt2DaemonManager(
             leasableDaemon.daemon.compile(request, logger)
         }
 
+        override fun compileBatch(
+            requests: List<CompileResourceRequest>,
+            logger: ILogger
+        ): List<Aapt2CompileFailure> {
+            Preconditions.checkState(leaseValid, "Leased process is already closed")
+            return leasableDaemon.daemon.compileBatch(requests, logger)
+        }
+
         @Throws(Aapt2Exception::class)
         override fun link(request: AaptPackageConfig, logger: ILogger) {
             Preconditions.checkState(leaseValid, "Leased process is already closed")
@@ -184,7 +390,7 @@ class Aapt2DaemonManager(
     }
 
     /**
-     * This is intended to be used to schedule maintenance.
+     * This is intended to be used to schedule maintenance and to export metrics.
      *
      * The maintenance service should be started on [firstDaemonStarted] and stopped on [lastDaemonStopped].
      *
@@ -193,6 +399,12 @@ class Aapt2DaemonManager(
     interface Listener {
         fun firstDaemonStarted(manager: Aapt2DaemonManager)
         fun lastDaemonStopped()
+
+        /** Called each time a daemon process is started, with how long it took to be ready. */
+        fun daemonProcessStarted(startNanoSeconds: Long) {}
+
+        /** Called each time a daemon is leased, with how long the caller waited for it. */
+        fun daemonLeased(waitNanoSeconds: Long) {}
     }
 
     class NoOpListener : Listener {
@@ -204,9 +416,53 @@ class Aapt2DaemonManager(
     }
 
     @Synchronized
-    fun stats(): Stats = Stats(poolSize = pool.size, busyCount = pool.count { it.busy })
+    fun stats(): Stats {
+        val now = timeSource.read()
+        return Stats(
+                poolSize = pool.size,
+                busyCount = pool.count { it.busy && !it.prewarming },
+                prewarmingCount = pool.count { it.prewarming },
+                waitingCount = waiting.size,
+                leaseCount = leaseCount,
+                totalLeaseWaitNanoSeconds = totalLeaseWaitNanoSeconds,
+                maxLeaseWaitNanoSeconds = maxLeaseWaitNanoSeconds,
+                processStartCount = processStartCount,
+                totalProcessStartNanoSeconds = totalProcessStartNanoSeconds,
+                busyNanoSeconds = completedBusyNanoSeconds + pool
+                        .filter { it.busy && !it.prewarming }
+                        .sumByLong { now - it.leasedNanoSeconds },
+                aliveNanoSeconds = completedAliveNanoSeconds + pool
+                        .sumByLong { now - it.createdNanoSeconds })
+    }
 
-    data class Stats(val poolSize: Int, val busyCount: Int)
+    /**
+     * A snapshot of the state of the pool, and of the metrics accumulated since it was created.
+     *
+     * [busyNanoSeconds] and [aliveNanoSeconds] are summed over all daemons, so [utilization] is the
+     * fraction of the daemon processes lifetime that was spent leased.
+     */
+    data class Stats(
+            val poolSize: Int,
+            val busyCount: Int,
+            val prewarmingCount: Int = 0,
+            val waitingCount: Int = 0,
+            val leaseCount: Long = 0,
+            val totalLeaseWaitNanoSeconds: Long = 0,
+            val maxLeaseWaitNanoSeconds: Long = 0,
+            val processStartCount: Long = 0,
+            val totalProcessStartNanoSeconds: Long = 0,
+            val busyNanoSeconds: Long = 0,
+            val aliveNanoSeconds: Long = 0) {
+        val utilization: Double
+            get() = if (aliveNanoSeconds == 0L) 0.0 else busyNanoSeconds.toDouble() / aliveNanoSeconds
+    }
 
 }
 
+private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+    var sum = 0L
+    for (element in this) {
+        sum += selector(element)
+    }
+    return sum
+}
@@ -24,6 +24,7 @@ import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collections;
+import java.util.List;
 
 public class Aapt2DaemonUtil {
 
@@ -34,6 +35,12 @@ public class Aapt2DaemonUtil {
         request(writer, "c", AaptV2CommandBuilder.makeCompileCommand(command));
     }
 
+    public static void requestCompile(
+            @NonNull Writer writer, @NonNull List<CompileResourceRequest> commands)
+            throws IOException {
+        request(writer, "c", AaptV2CommandBuilder.makeCompileBatchCommand(commands));
+    }
+
     public static void requestLink(@NonNull Writer writer, @NonNull AaptPackageConfig command)
             throws IOException {
         ImmutableList<String> args;
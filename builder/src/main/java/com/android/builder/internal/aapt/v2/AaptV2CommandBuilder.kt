@@ -72,6 +72,30 @@ fun makeCompileCommand(request: CompileResourceRequest): ImmutableList<String> {
     return parameters.build()
 }
 
+/**
+ * Creates the command line used to compile several resources in a single AAPT2 invocation.
+ *
+ * All the requests must have the same [compileBatchKey], i.e. their compile command lines must
+ * differ only by the input file.
+ *
+ * @return the command line arguments
+ */
+fun makeCompileBatchCommand(requests: List<CompileResourceRequest>): ImmutableList<String> {
+    Preconditions.checkArgument(!requests.isEmpty(), "No resources to compile")
+    val key = compileBatchKey(requests.first())
+    val parameters = ImmutableList.Builder<String>()
+    parameters.addAll(key)
+    for (request in requests) {
+        Preconditions.checkArgument(
+                compileBatchKey(request) == key,
+                "Cannot compile '%s' in the same batch as '%s'",
+                request.inputFile,
+                requests.first().inputFile)
+        parameters.add(request.inputFile.absolutePath)
+    }
+    return parameters.build()
+}
+
 /**
  * Creates the command line used to link the package.
  *
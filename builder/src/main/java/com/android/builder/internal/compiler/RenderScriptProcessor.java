@@ -26,6 +26,8 @@ import static com.android.SdkConstants.FN_RENDERSCRIPT_V8_PACKAGE;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.builder.compiling.DependencyFileProcessor;
+import com.android.builder.internal.incremental.DependencyData;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.ProcessException;
 import com.android.ide.common.process.ProcessExecutor;
@@ -33,16 +35,19 @@ import com.android.ide.common.process.ProcessInfoBuilder;
 import com.android.ide.common.process.ProcessOutputHandler;
 import com.android.ide.common.process.ProcessResult;
 import com.android.sdklib.BuildToolInfo;
+import com.android.utils.FileUtils;
 import com.android.utils.ILogger;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
 
 /**
  * Compiles Renderscript files.
@@ -121,6 +126,7 @@ public class RenderScriptProcessor {
 
     private final Set<String> mAbiFilters;
 
+    @NonNull private final DependencyFileProcessor mDependencyFileProcessor;
 
     private final File mRsLib;
     private final Map<String, File> mLibClCore = Maps.newHashMap();
@@ -140,6 +146,7 @@ public class RenderScriptProcessor {
             boolean supportMode,
             boolean useAndroidX,
             @Nullable Set<String> abiFilters,
+            @NonNull DependencyFileProcessor dependencyFileProcessor,
             @NonNull ILogger logger) {
         mSourceFolders = sourceFolders;
         mImportFolders = importFolders;
@@ -154,6 +161,7 @@ public class RenderScriptProcessor {
         mSupportMode = supportMode;
         mUseAndroidX = useAndroidX;
         mAbiFilters = abiFilters;
+        mDependencyFileProcessor = dependencyFileProcessor;
         mLogger = logger;
 
         if (supportMode) {
@@ -210,10 +218,32 @@ public class RenderScriptProcessor {
                     .walk();
         }
 
+        build(renderscriptFiles, processExecutor, processOutputHandler);
+    }
+
+    /**
+     * Compiles the given Renderscript files, and generates their support libraries in support
+     * mode.
+     *
+     * <p>The files are compiled in a single pass, as llvm-rs-cc writes the reflected classes of
+     * all the given scripts to the same folders. The dependency file of each script is sent to the
+     * {@link DependencyFileProcessor}, so that only the changed files and the files including them
+     * can be compiled in the next build.
+     */
+    public void build(
+            @NonNull Collection<File> renderscriptFiles,
+            @NonNull ProcessExecutor processExecutor,
+            @NonNull ProcessOutputHandler processOutputHandler)
+            throws InterruptedException, ProcessException, IOException {
         if (renderscriptFiles.isEmpty()) {
             return;
         }
 
+        String renderscript = mBuildToolInfo.getPath(BuildToolInfo.PathId.LLVM_RS_CC);
+        if (renderscript == null || !new File(renderscript).isFile()) {
+            throw new IllegalStateException(BuildToolInfo.PathId.LLVM_RS_CC + " is missing");
+        }
+
         // get the env var
         Map<String, String> env = Maps.newHashMap();
         if (SdkConstants.CURRENT_PLATFORM == SdkConstants.PLATFORM_DARWIN) {
@@ -222,26 +252,23 @@ public class RenderScriptProcessor {
             env.put("LD_LIBRARY_PATH", mBuildToolInfo.getLocation().getAbsolutePath());
         }
 
-        doMainCompilation(renderscriptFiles, processExecutor, processOutputHandler, env);
+        doMainCompilation(
+                renderscript, renderscriptFiles, processExecutor, processOutputHandler, env);
 
         if (mSupportMode) {
-            createSupportFiles(processExecutor, processOutputHandler, env);
+            createSupportFiles(renderscriptFiles, processExecutor, processOutputHandler, env);
         }
     }
 
     private void doMainCompilation(
-            @NonNull List<File> inputFiles,
+            @NonNull String renderscript,
+            @NonNull Collection<File> inputFiles,
             @NonNull ProcessExecutor processExecutor,
             @NonNull ProcessOutputHandler processOutputHandler,
             @NonNull Map<String, String> env)
-            throws ProcessException {
+            throws ProcessException, IOException {
         ProcessInfoBuilder builder = new ProcessInfoBuilder();
 
-        String renderscript = mBuildToolInfo.getPath(BuildToolInfo.PathId.LLVM_RS_CC);
-        if (renderscript == null || !new File(renderscript).isFile()) {
-            throw new IllegalStateException(BuildToolInfo.PathId.LLVM_RS_CC + " is missing");
-        }
-
         String rsPath = mBuildToolInfo.getPath(BuildToolInfo.PathId.ANDROID_RS);
         String rsClangPath = mBuildToolInfo.getPath(BuildToolInfo.PathId.ANDROID_RS_CLANG);
 
@@ -295,113 +322,169 @@ public class RenderScriptProcessor {
         builder.addArgs(rawFolder.getAbsolutePath());
 
         builder.addArgs("-target-api");
-        int targetApi = mTargetApi < 11 ? 11 : mTargetApi;
-        targetApi = (mSupportMode && targetApi < 18) ? 18 : targetApi;
-        builder.addArgs(Integer.toString(targetApi));
+        builder.addArgs(Integer.toString(getTargetApi()));
+
+        // dependency output, one file named after each script, in a folder of its own.
+        File depFolder = Files.createTempDirectory(RS_DEPS).toFile();
+        builder.addArgs("-d");
+        builder.addArgs(depFolder.getAbsolutePath());
+        builder.addArgs("-MD");
 
         // input files
         for (File sourceFile : inputFiles) {
             builder.addArgs(sourceFile.getAbsolutePath());
         }
 
-        ProcessResult result = processExecutor.execute(
-                builder.createProcess(), processOutputHandler);
-        result.rethrowFailure().assertNormalExitValue();
+        try {
+            ProcessResult result =
+                    processExecutor.execute(builder.createProcess(), processOutputHandler);
+            result.rethrowFailure().assertNormalExitValue();
+
+            // send the dependency file of each script to the processor.
+            for (File sourceFile : inputFiles) {
+                DependencyData data =
+                        mDependencyFileProcessor.processFile(
+                                new File(depFolder, getScriptName(sourceFile) + ".d"));
+
+                if (data != null) {
+                    // store the outputs that are not in the dependency file in the secondary
+                    // outputs, so that they can be removed with the script.
+                    for (File output : getSecondaryOutputFiles(sourceFile)) {
+                        data.addSecondaryOutputFile(output.getAbsolutePath());
+                    }
+                }
+            }
+        } finally {
+            FileUtils.deletePath(depFolder);
+        }
     }
 
-    private void createSupportFiles(
-            @NonNull final ProcessExecutor processExecutor,
-            @NonNull final ProcessOutputHandler processOutputHandler,
-            @NonNull final Map<String, String> env)
-            throws IOException, InterruptedException, ProcessException {
-        // get the generated BC files.
+    private int getTargetApi() {
         int targetApi = mTargetApi < 11 ? 11 : mTargetApi;
-        targetApi = (mSupportMode && targetApi < 18) ? 18 : targetApi;
-        if (targetApi < 21) {
+        return (mSupportMode && targetApi < 18) ? 18 : targetApi;
+    }
+
+    @NonNull
+    private static String getScriptName(@NonNull File sourceFile) {
+        String name = sourceFile.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /** Returns the bitcode files compiled from the given script, with their ABIs. */
+    @NonNull
+    private Map<File, Abi[]> getBitcodeFiles(@NonNull File sourceFile) {
+        String bcName = getScriptName(sourceFile) + '.' + EXT_BC;
+        if (getTargetApi() < 21) {
             File rawFolder = new File(mResOutputDir, SdkConstants.FD_RES_RAW);
-            createSupportFilesHelper(rawFolder, ABIS_32, processExecutor, processOutputHandler, env);
+            return ImmutableMap.of(new File(rawFolder, bcName), ABIS_32);
         } else {
             File rawFolder32 = new File(mResOutputDir, SdkConstants.FD_RES_RAW + "/bc32");
-            createSupportFilesHelper(rawFolder32, ABIS_32, processExecutor,
-                    processOutputHandler, env);
             File rawFolder64 = new File(mResOutputDir, SdkConstants.FD_RES_RAW + "/bc64");
-            createSupportFilesHelper(rawFolder64, ABIS_64, processExecutor,
-                    processOutputHandler, env);
+            return ImmutableMap.of(
+                    new File(rawFolder32, bcName), ABIS_32, new File(rawFolder64, bcName), ABIS_64);
+        }
+    }
 
+    /** Returns the outputs of the given script that may be missing from its dependency file. */
+    @NonNull
+    private List<File> getSecondaryOutputFiles(@NonNull File sourceFile) {
+        String name = getScriptName(sourceFile);
+        List<File> outputs = Lists.newArrayList();
+        if (mNdkMode) {
+            outputs.add(new File(mSourceOutputDir, "ScriptC_" + name + ".cpp"));
+            outputs.add(new File(mSourceOutputDir, "ScriptC_" + name + ".h"));
         }
+        for (Map.Entry<File, Abi[]> bcEntry : getBitcodeFiles(sourceFile).entrySet()) {
+            outputs.add(bcEntry.getKey());
+            if (mSupportMode) {
+                for (Abi abi : bcEntry.getValue()) {
+                    File objAbiFolder = new File(mObjOutputDir, abi.mDevice);
+                    File libAbiFolder = new File(mLibOutputDir, abi.mDevice);
+                    outputs.add(new File(objAbiFolder, name + ".o"));
+                    outputs.add(new File(libAbiFolder, "librs." + name + ".so"));
+                }
+            }
+        }
+        return outputs;
     }
 
-    private void createSupportFilesHelper(
-            @NonNull final File rawFolder,
-            @NonNull final Abi[] abis,
+    /**
+     * Creates the support libraries of the given scripts, for all the ABIs, in parallel on a
+     * single executor.
+     */
+    private void createSupportFiles(
+            @NonNull Collection<File> renderscriptFiles,
             @NonNull final ProcessExecutor processExecutor,
             @NonNull final ProcessOutputHandler processOutputHandler,
             @NonNull final Map<String, String> env)
             throws IOException, InterruptedException, ProcessException {
         WaitableExecutor mExecutor = WaitableExecutor.useGlobalSharedThreadPool();
 
-        Collection<File> files = Lists.newLinkedList();
-        DirectoryWalker.builder()
-                .root(rawFolder.toPath())
-                .extensions(EXT_BC)
-                .action((start, path) -> files.add(path.toFile()))
-                .build()
-                .walk();
-
-        for (final File bcFile : files) {
-            String name = bcFile.getName();
-            final String objName = name.replaceAll("\\.bc", ".o");
-            final String soName = "librs." + name.replaceAll("\\.bc", ".so");
-
-            for (final Abi abi : abis) {
-                if (mAbiFilters != null && !mAbiFilters.contains(abi.mDevice)) {
-                    continue;
-                }
-                // only build for the ABIs bundled in Build-Tools.
-                if (mLibClCore.get(abi.mDevice) == null) {
-                    // warn the user to update Build-Tools if the desired ABI is not found.
-                    mLogger.warning("Skipped RenderScript support mode compilation for "
-                                    + abi.mDevice
-                                    + " : required components not found in Build-Tools "
-                                    + mBuildToolInfo.getRevision().toString()
-                                    + '\n'
-                                    + "Please check and update your BuildTools.");
+        Set<Abi> skippedAbis = Sets.newHashSet();
+        for (File sourceFile : renderscriptFiles) {
+            for (Map.Entry<File, Abi[]> bcEntry : getBitcodeFiles(sourceFile).entrySet()) {
+                final File bcFile = bcEntry.getKey();
+                if (!bcFile.isFile()) {
                     continue;
                 }
+                String name = bcFile.getName();
+                final String objName = name.replaceAll("\\.bc", ".o");
+                final String soName = "librs." + name.replaceAll("\\.bc", ".so");
 
-                // make sure the dest folders exist
-                final File objAbiFolder = new File(mObjOutputDir, abi.mDevice);
-                if (!objAbiFolder.isDirectory() && !objAbiFolder.mkdirs()) {
-                    throw new IOException("Unable to create dir " + objAbiFolder.getAbsolutePath());
-                }
+                for (final Abi abi : bcEntry.getValue()) {
+                    if (mAbiFilters != null && !mAbiFilters.contains(abi.mDevice)) {
+                        continue;
+                    }
+                    // only build for the ABIs bundled in Build-Tools.
+                    if (mLibClCore.get(abi.mDevice) == null) {
+                        // warn the user to update Build-Tools if the desired ABI is not found.
+                        if (skippedAbis.add(abi)) {
+                            mLogger.warning(
+                                    "Skipped RenderScript support mode compilation for "
+                                            + abi.mDevice
+                                            + " : required components not found in Build-Tools "
+                                            + mBuildToolInfo.getRevision().toString()
+                                            + '\n'
+                                            + "Please check and update your BuildTools.");
+                        }
+                        continue;
+                    }
 
-                final File libAbiFolder = new File(mLibOutputDir, abi.mDevice);
-                if (!libAbiFolder.isDirectory() && !libAbiFolder.mkdirs()) {
-                    throw new IOException("Unable to create dir " + libAbiFolder.getAbsolutePath());
-                }
+                    // make sure the dest folders exist
+                    final File objAbiFolder = new File(mObjOutputDir, abi.mDevice);
+                    if (!objAbiFolder.isDirectory() && !objAbiFolder.mkdirs()) {
+                        throw new IOException(
+                                "Unable to create dir " + objAbiFolder.getAbsolutePath());
+                    }
 
-                mExecutor.execute(new Callable<Void>() {
-                    @Override
-                    public Void call() throws Exception {
-                        File objFile = createSupportObjFile(
-                                bcFile,
-                                abi,
-                                objName,
-                                objAbiFolder,
-                                processExecutor,
-                                processOutputHandler,
-                                env);
-                        createSupportLibFile(
-                                objFile,
-                                abi,
-                                soName,
-                                libAbiFolder,
-                                processExecutor,
-                                processOutputHandler,
-                                env);
-                        return null;
+                    final File libAbiFolder = new File(mLibOutputDir, abi.mDevice);
+                    if (!libAbiFolder.isDirectory() && !libAbiFolder.mkdirs()) {
+                        throw new IOException(
+                                "Unable to create dir " + libAbiFolder.getAbsolutePath());
                     }
-                });
+
+                    mExecutor.execute(
+                            () -> {
+                                File objFile =
+                                        createSupportObjFile(
+                                                bcFile,
+                                                abi,
+                                                objName,
+                                                objAbiFolder,
+                                                processExecutor,
+                                                processOutputHandler,
+                                                env);
+                                createSupportLibFile(
+                                        objFile,
+                                        abi,
+                                        soName,
+                                        libAbiFolder,
+                                        processExecutor,
+                                        processOutputHandler,
+                                        env);
+                                return null;
+                            });
+                }
             }
         }
 
@@ -24,6 +24,8 @@ import static com.android.SdkConstants.currentPlatform;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.builder.compiling.DependencyFileProcessor;
+import com.android.builder.internal.incremental.DependencyData;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.ProcessException;
 import com.android.ide.common.process.ProcessExecutor;
@@ -39,7 +41,11 @@ import java.util.Map;
 import java.util.concurrent.Callable;
 
 /**
- * A Source File processor for AIDL files. This compiles each aidl file found by the SourceSearcher.
+ * A Source File processor for shader files. This compiles each shader file found by the
+ * SourceSearcher.
+ *
+ * <p>When an executor is given, the files are compiled in parallel and the caller must wait for
+ * the executor tasks.
  */
 public class ShaderProcessor implements DirectoryWalker.FileAction {
 
@@ -63,6 +69,8 @@ public class ShaderProcessor implements DirectoryWalker.FileAction {
     @NonNull
     private Map<String, List<String>> mScopedArgs;
 
+    @NonNull private final DependencyFileProcessor mDependencyFileProcessor;
+
     @NonNull
     private final ProcessExecutor mProcessExecutor;
     @NonNull
@@ -78,6 +86,7 @@ public class ShaderProcessor implements DirectoryWalker.FileAction {
             @NonNull File outputDir,
             @NonNull List<String> defaultArgs,
             @NonNull Map<String, List<String>> scopedArgs,
+            @NonNull DependencyFileProcessor dependencyFileProcessor,
             @NonNull ProcessExecutor processExecutor,
             @NonNull ProcessOutputHandler processOutputHandler,
             @Nullable WaitableExecutor executor) {
@@ -86,6 +95,7 @@ public class ShaderProcessor implements DirectoryWalker.FileAction {
         mOutputDir = new File(outputDir, "shaders");
         mDefaultArgs = defaultArgs;
         mScopedArgs = scopedArgs;
+        mDependencyFileProcessor = dependencyFileProcessor;
         mProcessExecutor = processExecutor;
         mProcessOutputHandler = processOutputHandler;
         mExecutor = executor;
@@ -156,6 +166,10 @@ public class ShaderProcessor implements DirectoryWalker.FileAction {
                     // add the output file
                     builder.addArgs("-o", destFile.getPath());
 
+                    // create a temp file for the dependency
+                    File depFile = File.createTempFile("glslc", ".d");
+                    builder.addArgs("-MD", "-MF", depFile.getPath());
+
                     // make sure the output file's parent folder is created.
                     FileUtils.mkdirs(destFile.getParentFile());
 
@@ -166,19 +180,22 @@ public class ShaderProcessor implements DirectoryWalker.FileAction {
                     try {
                         result.rethrowFailure().assertNormalExitValue();
                     } catch (ProcessException pe) {
+                        FileUtils.deleteIfExists(depFile);
                         throw new IOException(pe);
                     }
 
+                    // send the dependency file to the processor.
+                    DependencyData data = mDependencyFileProcessor.processFile(depFile);
+                    if (data != null && data.getOutputFiles().isEmpty()) {
+                        data.addSecondaryOutputFile(destFile.getPath());
+                    }
+
+                    FileUtils.delete(depFile);
                     return null;
                 };
 
         if (mExecutor != null) {
             mExecutor.execute(c);
-            try {
-                mExecutor.waitForAllTasks();
-            } catch (InterruptedException e) {
-                throw new IOException(e);
-            }
         } else {
             try {
                 c.call();
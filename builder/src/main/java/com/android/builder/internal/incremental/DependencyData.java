@@ -170,6 +170,96 @@ public class DependencyData {
         return data;
     }
 
+    /**
+     * Parses the given dependency file written by a clang based compiler, e.g. llvm-rs-cc, and
+     * returns the parsed data.
+     *
+     * <p>Unlike {@link #parseDependencyFile(File)}, several paths can be on the same line, with
+     * their spaces escaped. Only the first rule is read, its first prerequisite being the main
+     * file.
+     *
+     * @param dependencyFile the dependency file
+     */
+    @Nullable
+    public static DependencyData parseMakeDependencyFile(@NonNull File dependencyFile)
+            throws IOException {
+        if (!dependencyFile.isFile()) {
+            return null;
+        }
+
+        return processMakeDependencyData(
+                new String(Files.readAllBytes(dependencyFile.toPath()), Charsets.UTF_8));
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static DependencyData processMakeDependencyData(@NonNull String content) {
+        DependencyData data = new DependencyData();
+        StringBuilder path = new StringBuilder();
+        boolean prerequisites = false;
+
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            char next = i + 1 < length ? content.charAt(i + 1) : '\n';
+
+            if (c == '\\' && (next == ' ' || next == '#')) {
+                path.append(next);
+                i++;
+                continue;
+            }
+            if (c == '$' && next == '$') {
+                path.append('$');
+                i++;
+                continue;
+            }
+            if (c == '\\' && (next == '\n' || next == '\r')) {
+                // line continuation, skip the end of line.
+                i++;
+                if (next == '\r' && i + 1 < length && content.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                c = ' ';
+            }
+
+            // the separator is a colon followed by a space, so that windows drives are kept.
+            if (!prerequisites && c == ':' && Character.isWhitespace(next)) {
+                addMakePath(data, path, false);
+                prerequisites = true;
+            } else if (Character.isWhitespace(c)) {
+                addMakePath(data, path, prerequisites);
+                if (prerequisites && (c == '\n' || c == '\r')) {
+                    // end of the first rule.
+                    break;
+                }
+            } else {
+                path.append(c);
+            }
+        }
+        addMakePath(data, path, prerequisites);
+
+        if (data.getMainFile() == null) {
+            return null;
+        }
+
+        return data;
+    }
+
+    private static void addMakePath(
+            @NonNull DependencyData data, @NonNull StringBuilder path, boolean prerequisite) {
+        if (path.length() == 0) {
+            return;
+        }
+        if (!prerequisite) {
+            data.addOutputFile(path.toString());
+        } else if (data.getMainFile() == null) {
+            data.setMainFile(path.toString());
+        } else {
+            data.addSecondaryFile(path.toString());
+        }
+        path.setLength(0);
+    }
+
     @Override
     public String toString() {
         return "DependencyData{" +
@@ -14,262 +14,708 @@
  * limitations under the License.
  */
 
+
 package com.android.builder.internal.incremental;
 
 import com.android.annotations.NonNull;
-import com.android.annotations.VisibleForTesting;
+import com.android.annotations.Nullable;
+import com.android.builder.utils.MappedFiles;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
-import com.google.common.io.Closer;
+import com.google.common.collect.Sets;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
 /**
+ * Stores a collection of {@link DependencyData}, indexed by main file, by secondary file and by
+ * output file.
  *
- * Stores a collection of {@link DependencyData}.
- *
- * The format is binary and follows the following format:
+ * <p>The format is binary and follows the following format:
  *
- * (Header Tag)(version number: int)
- * (Start Tag)(Main File)[(secondary Tag)(secondary File)...][(Output tag)(output file)...][(secondary Output tag)(output file)...]
- * (Start Tag)(Main File)[(secondary Tag)(secondary File)...][(Output tag)(output file)...][(secondary Output tag)(output file)...]
+ * <pre>
+ * (Header Tag)(version: int)(records end: long)(deleted bytes: long)
+ *         (main file index offset: long)(secondary file index offset: long)
+ *         (output file index offset: long)
+ * (Record Tag)(capacity: int)(Main File)(count: int)[(secondary File)...]
+ *         (count: int)[(output file)...](count: int)[(secondary output file)...](padding)
+ * (Record Tag)(capacity: int)...
  * ...
+ * (main file index)
+ * (secondary file index)
+ * (output file index)
+ * </pre>
+ *
+ * <p>The capacity of a record is the size of its content and padding, so that it can be
+ * rewritten in place when it grows a little. Removed records have a (Deleted Tag) instead of the
+ * (Record Tag). The indexes are hash tables from a file to the offsets of the records having it as
+ * main file, as secondary file, or as output or secondary output file:
+ *
+ * <pre>
+ * (slot count: int)(entry count: int)[(entry offset: long)...]
+ * [(file)(count: int)[(record offset: long)...]...]
+ * </pre>
+ *
+ * <p>All files are written as (size in int)(byte array, using UTF8 encoding).
  *
- * All files are written as (size in int)(byte array, using UTF8 encoding).
+ * <p>The loaded file is memory-mapped, except on Windows, and its records are only read when
+ * queried, so finding the data impacted by a changed file doesn't read the whole store. When the
+ * store is saved to the file it was loaded from, the changed records are rewritten in place, or
+ * appended when they don't fit anymore, and only the indexes are rewritten.
  */
 public class DependencyDataStore {
 
     private static final byte TAG_HEADER = 0x7F;
-    private static final byte TAG_START = 0x70;
-    private static final byte TAG_SECONDARY_FILE = 0x71;
-    private static final byte TAG_OUTPUT = 0x73;
-    private static final byte TAG_SECONDARY_OUTPUT = 0x74;
-    private static final byte TAG_END = 0x77;
+    private static final byte TAG_RECORD = 0x70;
+    private static final byte TAG_DELETED = 0x78;
 
-    private static final int CURRENT_VERSION = 1;
+    private static final int CURRENT_VERSION = 3;
 
+    /** Version of a file being updated in place, so that it fails to load if interrupted. */
+    private static final int UPDATING_VERSION = 0;
+
+    private static final int HEADER_SIZE = 1 + 4 + 5 * 8;
+    private static final int RECORD_HEADER_SIZE = 1 + 4;
+
+    private static final long[] NO_OFFSETS = new long[0];
+
+    /** The data read from the file or added to the store, by main file. */
     private final Map<String, DependencyData> mMainFileMap = Maps.newHashMap();
 
+    /** The main files of the data added, updated or removed since the file was loaded. */
+    private final Set<String> mChangedMainFiles = Sets.newHashSet();
+
+    /** The main files of the data added since the file was loaded, by secondary file. */
+    private final Multimap<String, String> mAddedSecondaryFiles = HashMultimap.create();
+
+    /** The main files of the data added since the file was loaded, by output file. */
+    private final Multimap<String, String> mAddedOutputFiles = HashMultimap.create();
+
+    /** The loaded file, if any. */
+    @Nullable private MappedStore mStore;
+
+    /** Whether all the data of the loaded file is in {@link #mMainFileMap}. */
+    private boolean mAllRead = true;
+
     public DependencyDataStore() {
     }
 
     public void addData(@NonNull List<DependencyData> dataList) {
         for (DependencyData data : dataList) {
-            mMainFileMap.put(data.getMainFile(), data);
+            addData(data);
         }
     }
 
     public void addData(@NonNull DependencyData data) {
-        mMainFileMap.put(data.getMainFile(), data);
+        String mainFile = data.getMainFile();
+        forgetAddedData(mMainFileMap.put(mainFile, data));
+        mChangedMainFiles.add(mainFile);
+        for (String path : data.getSecondaryFiles()) {
+            mAddedSecondaryFiles.put(path, mainFile);
+        }
+        for (String path : getAllOutputFiles(data)) {
+            mAddedOutputFiles.put(path, mainFile);
+        }
     }
 
     public void remove(@NonNull DependencyData data) {
-        mMainFileMap.remove(data.getMainFile());
+        String mainFile = data.getMainFile();
+        forgetAddedData(mMainFileMap.remove(mainFile));
+        mChangedMainFiles.add(mainFile);
     }
 
-    public void updateAll(@NonNull List<DependencyData> dataList) {
-        for (DependencyData data : dataList) {
-            mMainFileMap.put(data.getMainFile(), data);
+    /** Removes the previous data of a main file from the added files, if it was added. */
+    private void forgetAddedData(@Nullable DependencyData previous) {
+        if (previous == null || !mChangedMainFiles.contains(previous.getMainFile())) {
+            return;
+        }
+        String mainFile = previous.getMainFile();
+        for (String path : previous.getSecondaryFiles()) {
+            mAddedSecondaryFiles.remove(path, mainFile);
+        }
+        for (String path : getAllOutputFiles(previous)) {
+            mAddedOutputFiles.remove(path, mainFile);
         }
     }
 
+    public void updateAll(@NonNull List<DependencyData> dataList) {
+        addData(dataList);
+    }
+
+    /** Returns all the data, reading the whole loaded file. */
     @NonNull
     public Collection<DependencyData> getData() {
-        return mMainFileMap.values();
+        return getMainFileMap().values();
     }
 
-    @VisibleForTesting
-    DependencyData getByMainFile(String path) {
-        return mMainFileMap.get(path);
+    /**
+     * Returns the data with the given main file, or null if there is none.
+     *
+     * @see com.android.builder.internal.incremental.DependencyData#getMainFile()
+     */
+    @Nullable
+    public DependencyData getByMainFile(@NonNull String path) {
+        DependencyData data = mMainFileMap.get(path);
+        if (data != null || mStore == null || mChangedMainFiles.contains(path)) {
+            return data;
+        }
+
+        long[] offsets = mStore.lookup(mStore.mMainFileIndex, path);
+        if (offsets.length == 0) {
+            return null;
+        }
+        data = mStore.readRecord(offsets[0]);
+        mMainFileMap.put(path, data);
+        return data;
     }
 
     /**
-     * Returns the map of data using the main file as key.
+     * Returns the data impacted by a change of the given file, i.e. the data having it as main
+     * file or as secondary file.
+     */
+    @NonNull
+    public Collection<DependencyData> getImpactedData(@NonNull String path) {
+        Set<String> mainFiles = Sets.newLinkedHashSet();
+        mainFiles.add(path);
+        if (mStore != null) {
+            for (long offset : mStore.lookup(mStore.mSecondaryFileIndex, path)) {
+                mainFiles.add(mStore.readMainFile(offset));
+            }
+        }
+        mainFiles.addAll(mAddedSecondaryFiles.get(path));
+
+        List<DependencyData> impactedData = Lists.newArrayList();
+        for (String mainFile : mainFiles) {
+            DependencyData data = getByMainFile(mainFile);
+            // the data of the file may have been updated since it was loaded.
+            if (data != null
+                    && (mainFile.equals(path) || data.getSecondaryFiles().contains(path))) {
+                impactedData.add(data);
+            }
+        }
+        return impactedData;
+    }
+
+    /**
+     * Returns the data having the given file as output file or as secondary output file.
+     *
+     * @see com.android.builder.internal.incremental.DependencyData#getOutputFiles()
+     * @see com.android.builder.internal.incremental.DependencyData#getSecondaryOutputFiles()
+     */
+    @NonNull
+    public Collection<DependencyData> getByOutputFile(@NonNull String path) {
+        Set<String> mainFiles = Sets.newLinkedHashSet();
+        if (mStore != null) {
+            for (long offset : mStore.lookup(mStore.mOutputFileIndex, path)) {
+                mainFiles.add(mStore.readMainFile(offset));
+            }
+        }
+        mainFiles.addAll(mAddedOutputFiles.get(path));
+
+        List<DependencyData> producingData = Lists.newArrayList();
+        for (String mainFile : mainFiles) {
+            DependencyData data = getByMainFile(mainFile);
+            // the data of the file may have been updated since it was loaded.
+            if (data != null
+                    && (data.getOutputFiles().contains(path)
+                            || data.getSecondaryOutputFiles().contains(path))) {
+                producingData.add(data);
+            }
+        }
+        return producingData;
+    }
+
+    /**
+     * Returns the map of data using the main file as key, reading the whole loaded file.
      *
      * @see com.android.builder.internal.incremental.DependencyData#getMainFile()
      */
     @NonNull
     public Map<String, DependencyData> getMainFileMap() {
-        return mMainFileMap;
+        if (!mAllRead && mStore != null) {
+            MappedStore store = mStore;
+            store.forEachRecord(
+                    offset -> {
+                        String mainFile = store.readMainFile(offset);
+                        if (!mChangedMainFiles.contains(mainFile)
+                                && !mMainFileMap.containsKey(mainFile)) {
+                            mMainFileMap.put(mainFile, store.readRecord(offset));
+                        }
+                    });
+        }
+        mAllRead = true;
+        return Collections.unmodifiableMap(mMainFileMap);
     }
 
     /**
      * Saves the dependency data to a given file.
      *
+     * <p>If the store was loaded from this file, only the changed records and the indexes are
+     * written.
+     *
      * @param file the file to save the data to.
      * @throws IOException
      */
     public void saveTo(@NonNull File file) throws IOException {
+        if (mStore == null
+                || !mStore.mFile.getAbsoluteFile().equals(file.getAbsoluteFile())
+                || !updateInPlace(mStore)) {
+            writeAll(file);
+        }
 
-        Closer closer = Closer.create();
-        try {
-            FileOutputStream fos = closer.register(new FileOutputStream(file));
-            fos.write(TAG_HEADER);
-            writeInt(fos, CURRENT_VERSION);
+        mStore = MappedStore.open(file);
+        mChangedMainFiles.clear();
+        mAddedSecondaryFiles.clear();
+        mAddedOutputFiles.clear();
+    }
 
-            for (DependencyData data : getData()) {
-                fos.write(TAG_START);
-                writePath(fos, data.getMainFile());
+    /**
+     * Loads the dependency data from the given file. The data is read when it's queried.
+     *
+     * @param file the file to load the data from.
+     * @throws IOException
+     */
+    public void loadFrom(@NonNull File file) throws IOException {
+        MappedStore store = MappedStore.open(file);
+
+        mMainFileMap.clear();
+        mChangedMainFiles.clear();
+        mAddedSecondaryFiles.clear();
+        mAddedOutputFiles.clear();
+        mStore = store;
+        mAllRead = false;
+    }
 
-                for (String path : data.getSecondaryFiles()) {
-                    fos.write(TAG_SECONDARY_FILE);
-                    writePath(fos, path);
-                }
+    /** Writes a new file with all the data, and replaces the given file with it. */
+    private void writeAll(@NonNull File file) throws IOException {
+        // read all the data before replacing the file it may be read from.
+        Collection<DependencyData> dataList = getData();
+
+        Multimap<String, Long> mainFileIndex = ArrayListMultimap.create();
+        Multimap<String, Long> secondaryFileIndex = ArrayListMultimap.create();
+        Multimap<String, Long> outputFileIndex = ArrayListMultimap.create();
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileChannel channel =
+                FileChannel.open(
+                        tmpFile.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            long recordsEnd = HEADER_SIZE;
+            for (DependencyData data : dataList) {
+                addToIndexes(
+                        data, recordsEnd, mainFileIndex, secondaryFileIndex, outputFileIndex);
+                recordsEnd = appendRecord(channel, recordsEnd, data);
+            }
+            writeIndexes(
+                    channel, recordsEnd, 0, mainFileIndex, secondaryFileIndex, outputFileIndex);
+        }
 
-                for (String path : data.getOutputFiles()) {
-                    fos.write(TAG_OUTPUT);
-                    writePath(fos, path);
-                }
+        // the file may still be mapped, replace it rather than writing over it.
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
 
-                for (String path : data.getSecondaryOutputFiles()) {
-                    fos.write(TAG_SECONDARY_OUTPUT);
-                    writePath(fos, path);
+    /**
+     * Writes the changed records and the indexes over the file of the given store.
+     *
+     * @return false if the file should be rewritten instead, to drop the deleted records.
+     */
+    private boolean updateInPlace(@NonNull MappedStore store) throws IOException {
+        Multimap<String, Long> mainFileIndex = store.readIndex(store.mMainFileIndex);
+        if (mChangedMainFiles.size() * 2 > mainFileIndex.size()
+                || store.mDeletedBytes * 2 > store.mRecordsEnd) {
+            return false;
+        }
+        Multimap<String, Long> secondaryFileIndex = store.readIndex(store.mSecondaryFileIndex);
+        Multimap<String, Long> outputFileIndex = store.readIndex(store.mOutputFileIndex);
+
+        // read the previous records of the changed data before writing over them.
+        Map<String, Long> previousOffsets = Maps.newHashMap();
+        Map<String, Integer> previousCapacities = Maps.newHashMap();
+        for (String mainFile : mChangedMainFiles) {
+            Collection<Long> offsets = mainFileIndex.removeAll(mainFile);
+            if (offsets.isEmpty()) {
+                continue;
+            }
+            long offset = offsets.iterator().next();
+            DependencyData previousData = store.readRecord(offset);
+            for (String path : previousData.getSecondaryFiles()) {
+                secondaryFileIndex.remove(path, offset);
+            }
+            for (String path : getAllOutputFiles(previousData)) {
+                outputFileIndex.remove(path, offset);
+            }
+            previousOffsets.put(mainFile, offset);
+            previousCapacities.put(mainFile, store.readCapacity(offset));
+        }
+
+        long recordsEnd = store.mRecordsEnd;
+        long deletedBytes = store.mDeletedBytes;
+        try (FileChannel channel =
+                FileChannel.open(store.mFile.toPath(), StandardOpenOption.WRITE)) {
+            write(channel, 1, (ByteBuffer) ByteBuffer.allocate(4).putInt(UPDATING_VERSION).flip());
+
+            for (String mainFile : mChangedMainFiles) {
+                Long previousOffset = previousOffsets.get(mainFile);
+                DependencyData data = mMainFileMap.get(mainFile);
+                byte[] content = data != null ? encode(data) : null;
+
+                if (previousOffset != null) {
+                    int previousCapacity = previousCapacities.get(mainFile);
+                    if (content != null && content.length <= previousCapacity) {
+                        writeRecord(channel, previousOffset, content, previousCapacity);
+                        addToIndexes(
+                                data,
+                                previousOffset,
+                                mainFileIndex,
+                                secondaryFileIndex,
+                                outputFileIndex);
+                        continue;
+                    }
+                    write(
+                            channel,
+                            previousOffset,
+                            (ByteBuffer) ByteBuffer.allocate(1).put(TAG_DELETED).flip());
+                    deletedBytes += RECORD_HEADER_SIZE + previousCapacity;
                 }
 
+                if (data != null) {
+                    addToIndexes(
+                            data, recordsEnd, mainFileIndex, secondaryFileIndex, outputFileIndex);
+                    recordsEnd = appendRecord(channel, recordsEnd, data);
+                }
             }
-        } catch (Throwable e) {
-            throw closer.rethrow(e);
-        } finally {
-            closer.close();
+
+            // the file is not truncated, as it may still be mapped.
+            writeIndexes(
+                    channel,
+                    recordsEnd,
+                    deletedBytes,
+                    mainFileIndex,
+                    secondaryFileIndex,
+                    outputFileIndex);
         }
+        return true;
     }
 
-    private static class ReusableBuffer {
-        byte[] intBuffer = new byte[4];
-        byte[] pathBuffer = null;
+    private static void addToIndexes(
+            @NonNull DependencyData data,
+            long offset,
+            @NonNull Multimap<String, Long> mainFileIndex,
+            @NonNull Multimap<String, Long> secondaryFileIndex,
+            @NonNull Multimap<String, Long> outputFileIndex) {
+        mainFileIndex.put(data.getMainFile(), offset);
+        for (String path : data.getSecondaryFiles()) {
+            secondaryFileIndex.put(path, offset);
+        }
+        for (String path : getAllOutputFiles(data)) {
+            outputFileIndex.put(path, offset);
+        }
+    }
+
+    /** Returns the output files and the secondary output files of the data, without duplicates. */
+    @NonNull
+    private static Set<String> getAllOutputFiles(@NonNull DependencyData data) {
+        Set<String> outputFiles = Sets.newLinkedHashSet(data.getOutputFiles());
+        outputFiles.addAll(data.getSecondaryOutputFiles());
+        return outputFiles;
     }
 
     /**
-     * Loads the dependency data from the given file.
+     * Writes a record with room to grow at the given offset.
      *
-     * @param file the file to load the data from.
-     * @return a map of file-> list of impacted dependency data.
-     * @throws IOException
+     * @return the end of the record.
      */
-    public Multimap<String, DependencyData> loadFrom(@NonNull File file) throws IOException {
-        Multimap<String, DependencyData> inputMap = ArrayListMultimap.create();
+    private static long appendRecord(
+            @NonNull FileChannel channel, long offset, @NonNull DependencyData data)
+            throws IOException {
+        byte[] content = encode(data);
+        int capacity = content.length + content.length / 4;
+        writeRecord(channel, offset, content, capacity);
+        return offset + RECORD_HEADER_SIZE + capacity;
+    }
 
-        Closer closer = Closer.create();
-        FileInputStream fis = closer.register(new FileInputStream(file));
+    private static void writeRecord(
+            @NonNull FileChannel channel, long offset, @NonNull byte[] content, int capacity)
+            throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + capacity);
+        record.put(TAG_RECORD).putInt(capacity).put(content);
+        record.rewind();
+        write(channel, offset, record);
+    }
 
-        //  reusable buffer
-        ReusableBuffer buffers = new ReusableBuffer();
+    /** Writes the indexes after the records, then the header. */
+    private static void writeIndexes(
+            @NonNull FileChannel channel,
+            long recordsEnd,
+            long deletedBytes,
+            @NonNull Multimap<String, Long> mainFileIndex,
+            @NonNull Multimap<String, Long> secondaryFileIndex,
+            @NonNull Multimap<String, Long> outputFileIndex)
+            throws IOException {
+        byte[] mainIndex = encodeIndex(recordsEnd, mainFileIndex);
+        long secondaryIndexOffset = recordsEnd + mainIndex.length;
+        byte[] secondaryIndex = encodeIndex(secondaryIndexOffset, secondaryFileIndex);
+        long outputIndexOffset = secondaryIndexOffset + secondaryIndex.length;
+        byte[] outputIndex = encodeIndex(outputIndexOffset, outputFileIndex);
+
+        write(channel, recordsEnd, ByteBuffer.wrap(mainIndex));
+        write(channel, secondaryIndexOffset, ByteBuffer.wrap(secondaryIndex));
+        write(channel, outputIndexOffset, ByteBuffer.wrap(outputIndex));
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(TAG_HEADER)
+                .putInt(CURRENT_VERSION)
+                .putLong(recordsEnd)
+                .putLong(deletedBytes)
+                .putLong(recordsEnd)
+                .putLong(secondaryIndexOffset)
+                .putLong(outputIndexOffset);
+        header.rewind();
+        write(channel, 0, header);
+    }
 
-        // read the header
-        if (readByte(fis, buffers) != TAG_HEADER) {
-            throw new IllegalStateException("Wrong first byte on " + file.getAbsolutePath());
+    private static void write(@NonNull FileChannel channel, long position, @NonNull ByteBuffer b)
+            throws IOException {
+        while (b.hasRemaining()) {
+            position += channel.write(b, position);
         }
+    }
 
-        int version = readInt(fis, buffers);
-        if (version != CURRENT_VERSION) {
-            throw new IOException("Unsupported file version: " + version);
+    @NonNull
+    private static byte[] encode(@NonNull DependencyData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writePath(out, data.getMainFile());
+        writePaths(out, data.getSecondaryFiles());
+        writePaths(out, data.getOutputFiles());
+        writePaths(out, data.getSecondaryOutputFiles());
+        return bytes.toByteArray();
+    }
+
+    /** Encodes a hash table, with open addressing, of the given index starting at the offset. */
+    @NonNull
+    private static byte[] encodeIndex(long indexOffset, @NonNull Multimap<String, Long> index)
+            throws IOException {
+        Map<String, Collection<Long>> entries = index.asMap();
+        int slotCount = 2;
+        while (slotCount < entries.size() * 2) {
+            slotCount <<= 1;
         }
 
-        try {
-            // just read the first byte since it should be the TAG_START
-            byte currentTag = readByte(fis, buffers);
-            if (currentTag != TAG_START) {
-                throw new IllegalStateException("Wrong first tag on " + file.getAbsolutePath());
+        long[] slots = new long[slotCount];
+        long entriesOffset = indexOffset + 8 + 8L * slotCount;
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        DataOutputStream entryOut = new DataOutputStream(entryBytes);
+        for (Map.Entry<String, Collection<Long>> entry : entries.entrySet()) {
+            int slot = hash(entry.getKey()) & (slotCount - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slotCount - 1);
             }
+            slots[slot] = entriesOffset + entryBytes.size();
 
-            DependencyData currentData = new DependencyData();
-
-            while (currentTag != TAG_END) {
-                // read the path
-                String path = readPath(fis, buffers);
-
-                switch (currentTag) {
-                    case TAG_START:
-                        currentData.setMainFile(path);
-                        mMainFileMap.put(path, currentData);
-                        inputMap.put(path, currentData);
-                        break;
-                    case TAG_SECONDARY_FILE:
-                        currentData.addSecondaryFile(path);
-                        inputMap.put(path, currentData);
-                        break;
-                    case TAG_OUTPUT:
-                        currentData.addOutputFile(path);
-                        break;
-                    case TAG_SECONDARY_OUTPUT:
-                        currentData.addSecondaryOutputFile(path);
-                        break;
-                }
-
-                // read the next tag.
-                currentTag = readByte(fis, buffers);
-
-                if (currentTag == TAG_START) {
-                    currentData = new DependencyData();
-                }
+            writePath(entryOut, entry.getKey());
+            entryOut.writeInt(entry.getValue().size());
+            for (long offset : entry.getValue()) {
+                entryOut.writeLong(offset);
             }
+        }
 
-            return inputMap;
-        } catch (Throwable e) {
-            throw closer.rethrow(e);
-        } finally {
-            closer.close();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(slotCount);
+        out.writeInt(entries.size());
+        for (long slot : slots) {
+            out.writeLong(slot);
         }
+        entryBytes.writeTo(out);
+        return bytes.toByteArray();
     }
 
-    private static void writeInt(@NonNull FileOutputStream fos, int value) throws IOException {
-        ByteBuffer b = ByteBuffer.allocate(4);
-        b.putInt(value);
-        fos.write(b.array());
+    private static int hash(@NonNull String path) {
+        // String.hashCode() is specified, so the hash doesn't change from a JVM to another.
+        return Integer.rotateLeft(path.hashCode() * 0xcc9e2d51, 15) * 0x1b873593;
+    }
+
+    private static void writePaths(@NonNull DataOutputStream out, @NonNull List<String> paths)
+            throws IOException {
+        out.writeInt(paths.size());
+        for (String path : paths) {
+            writePath(out, path);
+        }
     }
 
-    private static void writePath(@NonNull FileOutputStream fos, String path) throws IOException {
+    private static void writePath(@NonNull DataOutputStream out, @NonNull String path)
+            throws IOException {
         byte[] pathBytes = path.getBytes(Charsets.UTF_8);
 
-        writeInt(fos, pathBytes.length);
-        fos.write(pathBytes);
+        out.writeInt(pathBytes.length);
+        out.write(pathBytes);
     }
 
-    private static byte readByte(@NonNull FileInputStream fis, @NonNull ReusableBuffer buffers)
-            throws IOException {
-        int read = fis.read(buffers.intBuffer, 0, 1);
-        if (read != 1) {
-            return TAG_END;
+    @NonNull
+    private static String readPath(@NonNull ByteBuffer in) {
+        byte[] pathBytes = new byte[in.getInt()];
+        in.get(pathBytes);
+        return new String(pathBytes, Charsets.UTF_8);
+    }
+
+    /** A loaded store file, whose records are read when queried. */
+    private static final class MappedStore {
+        @NonNull private final File mFile;
+        @NonNull private final ByteBuffer mBuffer;
+        private final long mRecordsEnd;
+        private final long mDeletedBytes;
+        private final long mMainFileIndex;
+        private final long mSecondaryFileIndex;
+        private final long mOutputFileIndex;
+
+        private MappedStore(@NonNull File file, @NonNull ByteBuffer buffer) throws IOException {
+            mFile = file;
+            mBuffer = buffer;
+
+            // read the header
+            if (buffer.limit() < HEADER_SIZE || buffer.get(0) != TAG_HEADER) {
+                throw new IOException("Wrong first byte on " + file.getAbsolutePath());
+            }
+
+            int version = buffer.getInt(1);
+            if (version != CURRENT_VERSION) {
+                throw new IOException("Unsupported file version: " + version);
+            }
+
+            mRecordsEnd = buffer.getLong(5);
+            mDeletedBytes = buffer.getLong(13);
+            mMainFileIndex = buffer.getLong(21);
+            mSecondaryFileIndex = buffer.getLong(29);
+            mOutputFileIndex = buffer.getLong(37);
+            if (mRecordsEnd < HEADER_SIZE
+                    || mMainFileIndex < mRecordsEnd
+                    || mSecondaryFileIndex < mMainFileIndex
+                    || mOutputFileIndex < mSecondaryFileIndex
+                    || mOutputFileIndex + 8 > buffer.limit()) {
+                throw new IOException("Corrupted file " + file.getAbsolutePath());
+            }
         }
 
-        return buffers.intBuffer[0];
-    }
+        @NonNull
+        static MappedStore open(@NonNull File file) throws IOException {
+            return new MappedStore(file, MappedFiles.mapReadOnly(file.toPath()));
+        }
 
-    private static int readInt(@NonNull FileInputStream fis, @NonNull ReusableBuffer buffers)
-            throws IOException {
-        int read = fis.read(buffers.intBuffer);
+        /** Returns a view of the file starting at the given offset. */
+        @NonNull
+        private ByteBuffer at(long offset) {
+            ByteBuffer view = mBuffer.duplicate();
+            view.position((int) offset);
+            return view;
+        }
+
+        /** Returns the offsets stored for the given file in the index at the given offset. */
+        @NonNull
+        long[] lookup(long indexOffset, @NonNull String path) {
+            byte[] pathBytes = path.getBytes(Charsets.UTF_8);
+            int index = (int) indexOffset;
+            int slotCount = mBuffer.getInt(index);
+            int slot = hash(path) & (slotCount - 1);
+            while (true) {
+                int entry = (int) mBuffer.getLong(index + 8 + 8 * slot);
+                if (entry == 0) {
+                    return NO_OFFSETS;
+                }
+                if (matches(entry, pathBytes)) {
+                    ByteBuffer in = at(entry + 4 + pathBytes.length);
+                    long[] offsets = new long[in.getInt()];
+                    for (int i = 0; i < offsets.length; i++) {
+                        offsets[i] = in.getLong();
+                    }
+                    return offsets;
+                }
+                slot = (slot + 1) & (slotCount - 1);
+            }
+        }
 
-        // there must always be 4 bytes for the path length
-        if (read != 4) {
-            throw new IOException("Failed to read path length");
+        private boolean matches(int entry, @NonNull byte[] pathBytes) {
+            if (mBuffer.getInt(entry) != pathBytes.length) {
+                return false;
+            }
+            for (int i = 0; i < pathBytes.length; i++) {
+                if (mBuffer.get(entry + 4 + i) != pathBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        // get the int value.
-        ByteBuffer b = ByteBuffer.wrap(buffers.intBuffer);
-        return b.getInt();
-    }
+        /** Reads all the entries of the index at the given offset. */
+        @NonNull
+        Multimap<String, Long> readIndex(long indexOffset) {
+            Multimap<String, Long> index = ArrayListMultimap.create();
+            ByteBuffer in = at(indexOffset);
+            int slotCount = in.getInt();
+            int entryCount = in.getInt();
+            in.position(in.position() + 8 * slotCount);
+            for (int i = 0; i < entryCount; i++) {
+                String path = readPath(in);
+                for (int j = in.getInt(); j > 0; j--) {
+                    index.put(path, in.getLong());
+                }
+            }
+            return index;
+        }
 
-    private static String readPath(@NonNull FileInputStream fis, @NonNull ReusableBuffer buffers)
-            throws IOException {
-        int length = readInt(fis, buffers);
+        int readCapacity(long offset) {
+            return mBuffer.getInt((int) offset + 1);
+        }
 
-        if (buffers.pathBuffer == null || buffers.pathBuffer.length < length) {
-            buffers.pathBuffer = new byte[length];
+        @NonNull
+        String readMainFile(long offset) {
+            return readPath(at(offset + RECORD_HEADER_SIZE));
         }
 
-        int read = fis.read(buffers.pathBuffer, 0, length);
-        if (read != length) {
-            throw new IOException("Failed to read path");
+        @NonNull
+        DependencyData readRecord(long offset) {
+            ByteBuffer in = at(offset + RECORD_HEADER_SIZE);
+            DependencyData data = new DependencyData();
+            data.setMainFile(readPath(in));
+            for (int i = in.getInt(); i > 0; i--) {
+                data.addSecondaryFile(readPath(in));
+            }
+            for (int i = in.getInt(); i > 0; i--) {
+                data.addOutputFile(readPath(in));
+            }
+            for (int i = in.getInt(); i > 0; i--) {
+                data.addSecondaryOutputFile(readPath(in));
+            }
+            return data;
         }
 
-        return new String(buffers.pathBuffer, 0, length, Charsets.UTF_8);
+        /** Calls the given consumer with the offset of each record that is not deleted. */
+        void forEachRecord(@NonNull LongConsumer consumer) {
+            long offset = HEADER_SIZE;
+            while (offset < mRecordsEnd) {
+                if (mBuffer.get((int) offset) == TAG_RECORD) {
+                    consumer.accept(offset);
+                }
+                offset += RECORD_HEADER_SIZE + readCapacity(offset);
+            }
+        }
     }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.testing;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.utils.ILogger;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * {@link ShardedTestCallable.ShardProvider} balancing the shards with the durations of the test
+ * classes in previous results.
+ *
+ * <p>Once the test classes of the installed test APK are known, they are packed into the shards
+ * longest first, each class going to the shard with the smallest total duration. The shards are
+ * then handed out longest first, so the devices that finish early pick up the small shards left.
+ * Classes without a previous duration are assumed to take the average duration. If the test
+ * classes cannot be listed, or listing them fails, the shards are selected by the instrumentation
+ * from their index.
+ */
+public class DurationShardProvider implements ShardedTestCallable.ShardProvider {
+
+    @NonNull private final Map<String, Long> testClassDurations;
+    private final int numShards;
+    @NonNull private final ILogger logger;
+
+    /** The test classes of the shards, longest first, or null if not planned yet. */
+    @Nullable private List<List<String>> shards;
+
+    private boolean useShardIndex;
+    private int nextShard = 0;
+
+    public DurationShardProvider(
+            @NonNull Map<String, Long> testClassDurations,
+            int numShards,
+            @NonNull ILogger logger) {
+        this.testClassDurations = ImmutableMap.copyOf(testClassDurations);
+        this.numShards = numShards;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void onTestsInstalled(
+            @NonNull Callable<Collection<String>> testClassLister) {
+        if (shards != null) {
+            return;
+        }
+        Collection<String> testClasses;
+        try {
+            testClasses = testClassLister.call();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.verbose("Failed to list the test classes: %s", e);
+            testClasses = ImmutableList.of();
+        }
+        if (testClasses.isEmpty()) {
+            logger.warning("Unable to list the test classes, sharding tests by index.");
+            useShardIndex = true;
+            shards = ImmutableList.of();
+        } else {
+            shards = planShards(testClasses, testClassDurations, numShards);
+            logger.verbose(
+                    "Planned %d shards for %d test classes", shards.size(), testClasses.size());
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized Integer getNextShard() {
+        int shardCount = useShardIndex || shards == null ? numShards : shards.size();
+        return nextShard < shardCount ? nextShard++ : null;
+    }
+
+    @Override
+    public int getTotalShards() {
+        return numShards;
+    }
+
+    @Nullable
+    @Override
+    public synchronized List<String> getTestClasses(int shard) {
+        if (useShardIndex || shards == null) {
+            return null;
+        }
+        return shards.get(shard);
+    }
+
+    /**
+     * Packs the test classes into at most {@code numShards} shards, and returns the non empty
+     * shards, longest first.
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<List<String>> planShards(
+            @NonNull Collection<String> testClasses,
+            @NonNull Map<String, Long> testClassDurations,
+            int numShards) {
+        long knownTotal = 0;
+        int knownCount = 0;
+        for (String testClass : testClasses) {
+            Long duration = testClassDurations.get(testClass);
+            if (duration != null) {
+                knownTotal += duration;
+                knownCount++;
+            }
+        }
+        long defaultDuration = knownCount == 0 ? 1 : Math.max(1, knownTotal / knownCount);
+
+        List<String> sortedClasses = Lists.newArrayList(testClasses);
+        Comparator<String> byDuration =
+                Comparator.comparingLong(
+                        testClass -> testClassDurations.getOrDefault(testClass, defaultDuration));
+        sortedClasses.sort(byDuration.reversed().thenComparing(Comparator.naturalOrder()));
+
+        PriorityQueue<Shard> queue =
+                new PriorityQueue<>(
+                        Comparator.<Shard>comparingLong(shard -> shard.duration)
+                                .thenComparingInt(shard -> shard.index));
+        for (int i = 0; i < Math.max(1, numShards); i++) {
+            queue.add(new Shard(i));
+        }
+        for (String testClass : sortedClasses) {
+            Shard shard = queue.remove();
+            shard.testClasses.add(testClass);
+            shard.duration += testClassDurations.getOrDefault(testClass, defaultDuration);
+            queue.add(shard);
+        }
+
+        List<Shard> planned = new ArrayList<>(queue);
+        planned.removeIf(shard -> shard.testClasses.isEmpty());
+        planned.sort(
+                Comparator.<Shard>comparingLong(shard -> shard.duration)
+                        .reversed()
+                        .thenComparingInt(shard -> shard.index));
+        ImmutableList.Builder<List<String>> result = ImmutableList.builder();
+        for (Shard shard : planned) {
+            result.add(ImmutableList.copyOf(shard.testClasses));
+        }
+        return result.build();
+    }
+
+    /**
+     * Returns the duration in milliseconds of each test class in the XML results of the given
+     * folder. When a class is in several results, e.g. run on several devices, the longest
+     * duration is kept.
+     */
+    @NonNull
+    public static Map<String, Long> readTestClassDurations(@NonNull File resultsDir)
+            throws IOException {
+        File[] files = resultsDir.listFiles((dir, name) -> name.endsWith(".xml"));
+        if (files == null || files.length == 0) {
+            return ImmutableMap.of();
+        }
+
+        SAXParser parser;
+        try {
+            parser = SAXParserFactory.newInstance().newSAXParser();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        }
+
+        Map<String, Long> durations = Maps.newHashMap();
+        for (File file : files) {
+            Map<String, Long> fileDurations = Maps.newHashMap();
+            try {
+                parser.parse(
+                        file,
+                        new DefaultHandler() {
+                            @Override
+                            public void startElement(
+                                    String uri,
+                                    String localName,
+                                    String qName,
+                                    Attributes attributes) {
+                                if (!"testcase".equals(qName)) {
+                                    return;
+                                }
+                                String className = attributes.getValue("classname");
+                                String time = attributes.getValue("time");
+                                if (className == null || time == null) {
+                                    return;
+                                }
+                                long millis;
+                                try {
+                                    millis = Math.round(Double.parseDouble(time) * 1000);
+                                } catch (NumberFormatException e) {
+                                    return;
+                                }
+                                fileDurations.merge(className, millis, Long::sum);
+                            }
+                        });
+            } catch (SAXException e) {
+                // a result file from an interrupted run, ignore it.
+                continue;
+            } finally {
+                parser.reset();
+            }
+            fileDurations.forEach(
+                    (className, millis) -> durations.merge(className, millis, Math::max));
+        }
+        return durations;
+    }
+
+    private static final class Shard {
+        private final int index;
+        @NonNull private final List<String> testClasses = new ArrayList<>();
+        private long duration;
+
+        private Shard(int index) {
+            this.index = index;
+        }
+    }
+}
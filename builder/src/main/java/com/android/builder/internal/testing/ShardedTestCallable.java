@@ -23,6 +23,7 @@ import com.android.builder.testing.api.DeviceConnector;
 import com.android.builder.testing.api.DeviceException;
 import com.android.ddmlib.InstallException;
 import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.testrunner.CollectingTestListener;
 import com.android.ddmlib.testrunner.RemoteAndroidTestRunner;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.ddmlib.testrunner.TestRunResult;
@@ -34,9 +35,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
@@ -163,19 +167,12 @@ public class ShardedTestCallable implements Callable<Boolean> {
                 logger.verbose("Installed test apk on %s", deviceName);
             }
             isInstalled = true;
+            shardProvider.onTestsInstalled(this::listTestClasses);
             Integer shard;
 
             while ((shard = shardProvider.getNextShard()) != null) {
                 logger.verbose("Running shard %d on %s", shard, deviceName);
-                RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner(
-                        testData.getApplicationId(),
-                        testData.getInstrumentationRunner(),
-                        device);
-
-                for (Map.Entry<String, String> argument :
-                        testData.getInstrumentationRunnerArguments().entrySet()) {
-                    runner.addInstrumentationArg(argument.getKey(), argument.getValue());
-                }
+                RemoteAndroidTestRunner runner = createRunner();
 
                 if (testData.isTestCoverageEnabled()) {
                     runner.addInstrumentationArg("coverage", "true");
@@ -184,9 +181,14 @@ public class ShardedTestCallable implements Callable<Boolean> {
                     runner.addInstrumentationArg("coverageFile",
                             coverageFileLocation + coverageFileName);
                 }
-                runner.addInstrumentationArg("shardIndex", String.valueOf(shard));
-                runner.addInstrumentationArg("numShards",
-                        String.valueOf(shardProvider.getTotalShards()));
+                List<String> testClasses = shardProvider.getTestClasses(shard);
+                if (testClasses != null) {
+                    runner.setClassNames(testClasses.toArray(new String[0]));
+                } else {
+                    runner.addInstrumentationArg("shardIndex", String.valueOf(shard));
+                    runner.addInstrumentationArg(
+                            "numShards", String.valueOf(shardProvider.getTotalShards()));
+                }
 
                 runner.setRunName(deviceName);
                 runner.setMaxtimeToOutputResponse(timeoutInMs);
@@ -279,6 +281,35 @@ public class ShardedTestCallable implements Callable<Boolean> {
         }
     }
 
+    @NonNull
+    private RemoteAndroidTestRunner createRunner() {
+        RemoteAndroidTestRunner runner =
+                new RemoteAndroidTestRunner(
+                        testData.getApplicationId(), testData.getInstrumentationRunner(), device);
+
+        for (Map.Entry<String, String> argument :
+                testData.getInstrumentationRunnerArguments().entrySet()) {
+            runner.addInstrumentationArg(argument.getKey(), argument.getValue());
+        }
+        return runner;
+    }
+
+    /** Returns the test classes of the installed test APK, without running them. */
+    @NonNull
+    private Collection<String> listTestClasses() throws Exception {
+        RemoteAndroidTestRunner runner = createRunner();
+        runner.setLogOnly(true);
+        runner.setMaxtimeToOutputResponse(timeoutInMs);
+        CollectingTestListener listener = new CollectingTestListener();
+        runner.run(listener);
+
+        Set<String> testClasses = new LinkedHashSet<>();
+        for (TestIdentifier test : listener.getCurrentRunResults().getTestResults().keySet()) {
+            testClasses.add(test.getClassName());
+        }
+        return testClasses;
+    }
+
     private void uninstall(@NonNull File apkFile, @Nullable String packageName,
             @NonNull String deviceName)
             throws DeviceException {
@@ -298,6 +329,23 @@ public class ShardedTestCallable implements Callable<Boolean> {
         Integer getNextShard();
 
         int getTotalShards();
+
+        /**
+         * Called by each device once the test APKs are installed, before asking for shards.
+         *
+         * @param testClassLister lists the test classes of the installed test APK.
+         */
+        default void onTestsInstalled(@NonNull Callable<Collection<String>> testClassLister)
+                throws Exception {}
+
+        /**
+         * Returns the test classes of the given shard, or null to let the instrumentation select
+         * the tests of the shard from its index and the total number of shards.
+         */
+        @Nullable
+        default List<String> getTestClasses(int shard) {
+            return null;
+        }
     }
 
     private static final class ShardedTestListener extends CustomTestRunListener {
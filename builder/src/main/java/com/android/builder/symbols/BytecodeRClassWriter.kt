@@ -22,6 +22,8 @@ import com.android.ide.common.symbols.SymbolTable
 import com.android.ide.common.symbols.canonicalizeValueResourceName
 import com.android.resources.ResourceType
 import com.google.common.base.Splitter
+import com.android.tools.build.apkzlib.zip.StoredEntryType
+import com.android.tools.build.apkzlib.zip.ZFile
 import org.objectweb.asm.ClassWriter
 import org.objectweb.asm.ClassWriter.COMPUTE_MAXS
 import org.objectweb.asm.MethodVisitor
@@ -35,40 +37,97 @@ import org.objectweb.asm.Opcodes.ALOAD
 import org.objectweb.asm.Opcodes.BIPUSH
 import org.objectweb.asm.Opcodes.DUP
 import org.objectweb.asm.Opcodes.IASTORE
+import org.objectweb.asm.Opcodes.ICONST_0
 import org.objectweb.asm.Opcodes.INVOKESPECIAL
+import org.objectweb.asm.Opcodes.INVOKESTATIC
 import org.objectweb.asm.Opcodes.NEWARRAY
 import org.objectweb.asm.Opcodes.PUTSTATIC
 import org.objectweb.asm.Opcodes.RETURN
+import org.objectweb.asm.Opcodes.SIPUSH
 import org.objectweb.asm.Opcodes.T_INT
 import java.io.BufferedOutputStream
+import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.nio.file.Files
 import java.nio.file.Path
+import java.util.Arrays
 import java.util.EnumSet
 import java.util.jar.JarOutputStream
 import java.util.zip.ZipEntry
 
 private val VALUE_ID_SPLITTER = Splitter.on(',').trimResults()
 
+/** The maximum number of entries in the constant pool of a class file. */
+private const val MAX_CONSTANT_POOL_SIZE = 65535
+
+/** The maximum size of the code of a method, in bytes. */
+private const val MAX_METHOD_CODE_SIZE = 65535
+
+/**
+ * Constant pool entries used by every R class regardless of its fields: the class, super class
+ * and outer class names, the constructor and the attribute names.
+ */
+private const val FIXED_CONSTANT_POOL_SIZE = 20
+
+/**
+ * Writes the compiled R classes for the given symbol tables to [outJar].
+ *
+ * Classes are generated and written one at a time, so only one class is held in memory at any
+ * given time.
+ *
+ * If [incremental] is true and [outJar] already exists, the jar is updated in place: only the
+ * classes whose content changed are written, and the classes that are not generated anymore are
+ * removed.
+ */
+@JvmOverloads
 @Throws(IOException::class)
-fun exportToCompiledJava(tables: Iterable<SymbolTable>, outJar: Path) {
+fun exportToCompiledJava(
+        tables: Iterable<SymbolTable>,
+        outJar: Path,
+        incremental: Boolean = false) {
+    if (incremental && Files.exists(outJar)) {
+        updateCompiledJava(tables, outJar)
+        return
+    }
     JarOutputStream(BufferedOutputStream(Files.newOutputStream(outJar))).use { jarOutputStream ->
-        tables.forEach { table ->
-            val resourceTypes = EnumSet.noneOf(ResourceType::class.java)
-            for (resType in ResourceType.values()) {
-                // Don't write empty R$ classes.
-                val bytes = generateResourceTypeClass(table, resType) ?: continue
-                resourceTypes.add(resType)
-                val innerR = internalName(table, resType)
-                jarOutputStream.putNextEntry(ZipEntry(innerR + SdkConstants.DOT_CLASS))
-                jarOutputStream.write(bytes)
+        generateRClasses(tables) { entryName, bytes ->
+            jarOutputStream.putNextEntry(ZipEntry(entryName))
+            jarOutputStream.write(bytes)
+        }
+    }
+}
+
+private fun updateCompiledJava(tables: Iterable<SymbolTable>, outJar: Path) {
+    ZFile(outJar.toFile()).use { jar ->
+        val staleEntries = jar.entries()
+                .filter { it.type == StoredEntryType.FILE }
+                .mapTo(HashSet()) { it.centralDirectoryHeader.name }
+        generateRClasses(tables) { entryName, bytes ->
+            staleEntries.remove(entryName)
+            val existing = jar.get(entryName)
+            if (existing == null || !Arrays.equals(existing.read(), bytes)) {
+                jar.add(entryName, ByteArrayInputStream(bytes))
             }
+        }
+        staleEntries.forEach { jar.get(it)?.delete() }
+    }
+}
 
-            // Generate and write the main R class file.
-            val packageR = internalName(table, null)
-            jarOutputStream.putNextEntry(ZipEntry(packageR + SdkConstants.DOT_CLASS))
-            jarOutputStream.write(generateOuterRClass(resourceTypes, packageR))
+private fun generateRClasses(
+        tables: Iterable<SymbolTable>,
+        consumer: (entryName: String, bytes: ByteArray) -> Unit) {
+    tables.forEach { table ->
+        val resourceTypes = EnumSet.noneOf(ResourceType::class.java)
+        for (resType in ResourceType.values()) {
+            // Don't write empty R$ classes.
+            val bytes = generateResourceTypeClass(table, resType) ?: continue
+            resourceTypes.add(resType)
+            consumer(internalName(table, resType) + SdkConstants.DOT_CLASS, bytes)
         }
+
+        // Generate and write the main R class file.
+        val packageR = internalName(table, null)
+        consumer(packageR + SdkConstants.DOT_CLASS, generateOuterRClass(resourceTypes, packageR))
     }
 }
 
@@ -108,8 +167,10 @@ private fun generateResourceTypeClass(table: SymbolTable, resType: ResourceType)
     if (symbols.isEmpty()) {
         return null
     }
-    val cw = ClassWriter(COMPUTE_MAXS)
     val internalName = internalName(table, resType)
+    checkConstantPoolSize(internalName, symbols)
+
+    val cw = ClassWriter(COMPUTE_MAXS)
     cw.visit(
             Opcodes.V1_8,
             ACC_PUBLIC + ACC_FINAL + ACC_SUPER,
@@ -156,26 +217,7 @@ private fun generateResourceTypeClass(table: SymbolTable, resType: ResourceType)
 
     // init method
     if (resType == ResourceType.STYLEABLE) {
-        val clinit = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null)
-        clinit.visitCode()
-        for (s in symbols) {
-            s as Symbol.StyleableSymbol
-            val values = s.values
-            clinit.visitIntInsn(BIPUSH, values.size)
-            clinit.visitIntInsn(NEWARRAY, T_INT)
-
-            for ((i, value) in values.withIndex()) {
-                clinit.visitInsn(DUP)
-                clinit.visitIntInsn(BIPUSH, i)
-                clinit.visitLdcInsn(value)
-                clinit.visitInsn(IASTORE)
-            }
-
-            clinit.visitFieldInsn(PUTSTATIC, internalName, s.name, "[I")
-        }
-        clinit.visitInsn(RETURN)
-        clinit.visitMaxs(0, 0)
-        clinit.visitEnd()
+        writeStyleableInitializers(cw, internalName, symbols.map { it as Symbol.StyleableSymbol })
     }
 
     cw.visitEnd()
@@ -183,6 +225,136 @@ private fun generateResourceTypeClass(table: SymbolTable, resType: ResourceType)
     return cw.toByteArray()
 }
 
+/**
+ * Writes the static initializer of an R$styleable class.
+ *
+ * The arrays are initialized in code, which is limited to [MAX_METHOD_CODE_SIZE] bytes per method.
+ * When the initialization of all the arrays does not fit in `<clinit>`, it is split into private
+ * static methods, each initializing a subset of the arrays, which `<clinit>` calls in order.
+ */
+private fun writeStyleableInitializers(
+        cw: ClassWriter,
+        internalName: String,
+        symbols: List<Symbol.StyleableSymbol>) {
+    // Leave room for the return instruction.
+    val maxSize = MAX_METHOD_CODE_SIZE - 1
+    val chunks = mutableListOf<MutableList<Symbol.StyleableSymbol>>()
+    var chunkSize = 0
+    for (s in symbols) {
+        val size = styleableInitializerSize(s)
+        if (size > maxSize) {
+            throw IOException(
+                    "Styleable ${s.name} in $internalName has too many attributes " +
+                            "(${s.values.size}) to be initialized in a class file.")
+        }
+        if (chunks.isEmpty() || chunkSize + size > maxSize) {
+            chunks.add(mutableListOf())
+            chunkSize = 0
+        }
+        chunks.last().add(s)
+        chunkSize += size
+    }
+
+    val clinit = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null)
+    clinit.visitCode()
+    if (chunks.size == 1) {
+        initializeStyleables(clinit, internalName, chunks.single())
+    } else {
+        for ((i, chunk) in chunks.withIndex()) {
+            val methodName = "init\$$i"
+            val init = cw.visitMethod(ACC_PRIVATE + ACC_STATIC, methodName, "()V", null, null)
+            init.visitCode()
+            initializeStyleables(init, internalName, chunk)
+            init.visitInsn(RETURN)
+            init.visitMaxs(0, 0)
+            init.visitEnd()
+
+            clinit.visitMethodInsn(INVOKESTATIC, internalName, methodName, "()V", false)
+        }
+    }
+    clinit.visitInsn(RETURN)
+    clinit.visitMaxs(0, 0)
+    clinit.visitEnd()
+}
+
+private fun initializeStyleables(
+        mv: MethodVisitor,
+        internalName: String,
+        symbols: List<Symbol.StyleableSymbol>) {
+    for (s in symbols) {
+        val values = s.values
+        mv.pushInt(values.size)
+        mv.visitIntInsn(NEWARRAY, T_INT)
+
+        for ((i, value) in values.withIndex()) {
+            mv.visitInsn(DUP)
+            mv.pushInt(i)
+            mv.visitLdcInsn(value)
+            mv.visitInsn(IASTORE)
+        }
+
+        mv.visitFieldInsn(PUTSTATIC, internalName, s.name, "[I")
+    }
+}
+
+/**
+ * Returns an upper bound of the size of the code initializing the given styleable array: pushing
+ * the size (3), allocating the array (2) and storing it (3), then for each value duplicating the
+ * array reference (1), pushing the index (3), loading the value (3) and storing it (1).
+ */
+private fun styleableInitializerSize(symbol: Symbol.StyleableSymbol) = 8 + 8 * symbol.values.size
+
+/**
+ * Checks that the R class for the given symbols will not need more constant pool entries than a
+ * class file can hold.
+ *
+ * An R class cannot be split in several classes without breaking the references to its fields,
+ * so instead of writing an invalid class, this fails with an explicit error.
+ */
+private fun checkConstantPoolSize(internalName: String, symbols: Collection<Symbol>) {
+    val names = HashSet<String>()
+    val values = HashSet<Int>()
+    var fieldReferences = 0
+    var initializerSize = 0
+    for (s in symbols) {
+        names.add(s.name)
+        when (s) {
+            is Symbol.NormalSymbol -> values.add(s.intValue)
+            is Symbol.StyleableSymbol -> {
+                values.addAll(s.values)
+                // The name and type and the field reference used to initialize the array.
+                fieldReferences += 2
+                initializerSize += styleableInitializerSize(s)
+                for ((i, child) in s.children.withIndex()) {
+                    names.add("${s.name}_${canonicalizeValueResourceName(child)}")
+                    values.add(i)
+                }
+            }
+        }
+    }
+    // The name, name and type and method reference of each initializer method, allowing for
+    // the chunks not being completely filled.
+    val initializerMethods = 2 * (initializerSize / MAX_METHOD_CODE_SIZE + 1)
+    val size = FIXED_CONSTANT_POOL_SIZE + names.size + values.size + fieldReferences +
+            3 * initializerMethods
+    if (size > MAX_CONSTANT_POOL_SIZE) {
+        throw IOException(
+                "$internalName has too many resources to fit in a class file " +
+                        "(${symbols.size} symbols need about $size constant pool entries, " +
+                        "the limit is $MAX_CONSTANT_POOL_SIZE).")
+    }
+}
+
+/** Pushes the given int constant using the shortest instruction. */
+private fun MethodVisitor.pushInt(value: Int) {
+    when (value) {
+        in -1..5 -> visitInsn(ICONST_0 + value)
+        in Byte.MIN_VALUE..Byte.MAX_VALUE -> visitIntInsn(BIPUSH, value)
+        in Short.MIN_VALUE..Short.MAX_VALUE -> visitIntInsn(SIPUSH, value)
+        else -> visitLdcInsn(value)
+    }
+}
+
 private fun internalName(table: SymbolTable, type: ResourceType?): String {
     val className = if (type == null) "R" else "R$${type.getName()}"
 
@@ -17,12 +17,12 @@
 
 package com.android.builder.symbols
 
+import com.android.builder.utils.FileCache
 import com.android.ide.common.symbols.RGeneration
 import com.android.ide.common.symbols.SymbolIo
 import com.android.ide.common.symbols.SymbolTable
 import com.android.ide.common.symbols.generateMinifyKeepRules
 import com.android.ide.common.symbols.getPackageNameFromManifest
-import com.android.ide.common.symbols.loadDependenciesSymbolTables
 import com.android.ide.common.symbols.mergeAndRenumberSymbols
 import com.android.ide.common.symbols.parseManifest
 import com.android.utils.FileUtils
@@ -44,6 +44,8 @@ import java.nio.file.Files
  * @param symbolFileOut R.txt file location
  * @param proguardOut directory to contain proguard rules
  * @param mergedResources directory containing merged resources
+ * @param buildCache optional cache where the parsed symbol tables of the libraries are stored,
+ *     see [SymbolTableCache]
  */
 @Throws(IOException::class)
 fun processLibraryMainSymbolTable(
@@ -57,7 +59,8 @@ fun processLibraryMainSymbolTable(
         proguardOut: File?,
         mergedResources: File?,
         platformSymbols: SymbolTable,
-        disableMergeInLib: Boolean) {
+        disableMergeInLib: Boolean,
+        buildCache: FileCache? = null) {
 
     // Parse the manifest only when necessary.
     val finalPackageName = if (mainPackageName == null || proguardOut != null) {
@@ -74,7 +77,7 @@ fun processLibraryMainSymbolTable(
     }
 
     // Get symbol tables of the libraries we depend on.
-    val depSymbolTables = loadDependenciesSymbolTables(libraries)
+    val depSymbolTables = SymbolTableCache.loadDependenciesSymbolTables(libraries, buildCache)
 
     val mainSymbolTable: SymbolTable
     mainSymbolTable = if (disableMergeInLib) {
@@ -101,8 +104,9 @@ fun processLibraryMainSymbolTable(
     }
 
     if (rClassOutputJar != null) {
-        FileUtils.deleteIfExists(rClassOutputJar)
-        exportToCompiledJava(tablesToWrite, rClassOutputJar.toPath())
+        // Only rewrite the R classes that changed since the previous run, so that their
+        // consumers see as few changes as possible.
+        exportToCompiledJava(tablesToWrite, rClassOutputJar.toPath(), incremental = true)
     }
 }
 
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.symbols
+
+import com.android.builder.utils.FileCache
+import com.android.ide.common.symbols.Symbol
+import com.android.ide.common.symbols.SymbolIo
+import com.android.ide.common.symbols.SymbolTable
+import com.android.resources.ResourceType
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSet
+import com.google.common.collect.Interner
+import com.google.common.collect.Interners
+import com.google.common.hash.Hashing
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.ExecutionException
+
+/**
+ * Daemon-wide cache of parsed [SymbolTable]s, keyed by the content of the symbol files they were
+ * parsed from.
+ *
+ * Large dependency graphs make every module and variant read the same R.txt and R-def files of
+ * the same libraries. Parsed tables are kept in memory (softly referenced, so they are dropped
+ * under memory pressure) for the lifetime of the daemon. When a [FileCache] is given, tables are
+ * also stored there in a compact binary form, so that new daemons do not need to parse them again.
+ *
+ * Symbol and package names are interned, so that tables of libraries that repeat the symbols of
+ * their dependencies do not keep their own copies of the same names.
+ */
+object SymbolTableCache {
+
+    /** The formats of the symbol files that can be read through this cache. */
+    enum class Format(internal val parse: (Path) -> SymbolTable) {
+        /** Files written by [SymbolIo.writeRDef]. */
+        R_DEF({ SymbolIo.readRDef(it) }),
+        /** Files written by [SymbolIo.writeSymbolListWithPackageName]. */
+        SYMBOL_LIST_WITH_PACKAGE_NAME({ SymbolIo.readSymbolListWithPackageName(it) }),
+    }
+
+    /** Bump when the binary format changes. */
+    private const val BINARY_FORMAT_VERSION = 1
+
+    private val memoryCache: Cache<String, SymbolTable> =
+        CacheBuilder.newBuilder().softValues().build()
+
+    private val names: Interner<String> = Interners.newWeakInterner()
+
+    /**
+     * Returns the symbol table in the given file, parsing it only if a file with the same content
+     * has not been read before.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun read(file: Path, format: Format, buildCache: FileCache? = null): SymbolTable {
+        val key = format.name + ':' +
+                com.google.common.io.Files.asByteSource(file.toFile()).hash(Hashing.sha256())
+        try {
+            return memoryCache.get(key) { load(file, format, key, buildCache) }
+        } catch (e: ExecutionException) {
+            throw (e.cause as? IOException) ?: IOException(e.cause)
+        }
+    }
+
+    /**
+     * Loads the symbol tables of the given libraries, as
+     * [com.android.ide.common.symbols.loadDependenciesSymbolTables] does, reading them through
+     * this cache. Files that do not exist are ignored.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun loadDependenciesSymbolTables(
+        libraries: Iterable<File>,
+        buildCache: FileCache? = null
+    ): ImmutableSet<SymbolTable> {
+        val tables = ImmutableSet.builder<SymbolTable>()
+        for (library in libraries) {
+            if (library.isFile) {
+                tables.add(read(library.toPath(), Format.SYMBOL_LIST_WITH_PACKAGE_NAME, buildCache))
+            }
+        }
+        return tables.build()
+    }
+
+    /** Clears the in-memory cache. */
+    @JvmStatic
+    fun clear() = memoryCache.invalidateAll()
+
+    private fun load(file: Path, format: Format, key: String, buildCache: FileCache?): SymbolTable {
+        if (buildCache == null) {
+            return intern(format.parse(file))
+        }
+        val inputs = FileCache.Inputs.Builder(FileCache.Command.PARSE_SYMBOL_TABLE)
+            .putString("key", key)
+            .putLong("binaryFormatVersion", BINARY_FORMAT_VERSION.toLong())
+            .build()
+        var parsed: SymbolTable? = null
+        val result = buildCache.createFileInCacheIfAbsent(inputs) { cachedFile ->
+            val table = intern(format.parse(file))
+            parsed = table
+            writeBinary(table, cachedFile.toPath())
+        }
+        parsed?.let { return it }
+        val cachedFile = result.cachedFile
+        return try {
+            if (cachedFile != null && cachedFile.length() > 0) {
+                readBinary(cachedFile.toPath())
+            } else {
+                // The table could not be stored in binary form, see writeBinary.
+                intern(format.parse(file))
+            }
+        } catch (e: IOException) {
+            // Don't fail the build because of a corrupted cache entry.
+            intern(format.parse(file))
+        }
+    }
+
+    private fun intern(table: SymbolTable): SymbolTable {
+        val builder = SymbolTable.builder().tablePackage(names.intern(table.tablePackage))
+        for (type in ResourceType.values()) {
+            for (symbol in table.getSymbolByResourceType(type)) {
+                builder.add(internSymbol(symbol))
+            }
+        }
+        return builder.build()
+    }
+
+    private fun internSymbol(symbol: Symbol): Symbol =
+        when (symbol) {
+            is Symbol.StyleableSymbol -> Symbol.StyleableSymbol(
+                names.intern(symbol.name),
+                ImmutableList.copyOf(symbol.values),
+                ImmutableList.copyOf(symbol.children.map { names.intern(it) }))
+            // Keep the original if it carries information the short constructor does not.
+            is Symbol.NormalSymbol -> if (isRepresentable(symbol)) {
+                Symbol.NormalSymbol(symbol.resourceType, names.intern(symbol.name), symbol.intValue)
+            } else {
+                symbol
+            }
+            else -> symbol
+        }
+
+    /**
+     * Writes the table in binary form.
+     *
+     * The format is: the table package, a pool of all the names used in the table, then the
+     * symbols, referring to names by their index in the pool.
+     *
+     * If the table contains symbols this format cannot represent exactly, an empty file is
+     * written instead, and readers fall back to parsing the original file.
+     */
+    private fun writeBinary(table: SymbolTable, file: Path) {
+        val symbols = ResourceType.values().flatMap { table.getSymbolByResourceType(it) }
+        if (!symbols.all { isRepresentable(it) }) {
+            Files.write(file, ByteArray(0))
+            return
+        }
+        val pool = LinkedHashMap<String, Int>()
+        fun indexOf(name: String) = pool.getOrPut(name) { pool.size }
+        val encoded = symbols.map { symbol ->
+            when (symbol) {
+                is Symbol.StyleableSymbol -> EncodedSymbol(
+                    type = null,
+                    name = indexOf(symbol.name),
+                    values = symbol.values.toList(),
+                    children = symbol.children.map { indexOf(it) })
+                is Symbol.NormalSymbol -> EncodedSymbol(
+                    type = indexOf(symbol.resourceType.getName()),
+                    name = indexOf(symbol.name),
+                    values = listOf(symbol.intValue),
+                    children = emptyList())
+                else -> throw IllegalStateException("Unexpected symbol $symbol")
+            }
+        }
+        DataOutputStream(BufferedOutputStream(Files.newOutputStream(file))).use { out ->
+            out.writeInt(BINARY_FORMAT_VERSION)
+            out.writeUTF(table.tablePackage)
+            out.writeInt(pool.size)
+            pool.keys.forEach { out.writeUTF(it) }
+            out.writeInt(encoded.size)
+            for (symbol in encoded) {
+                out.writeInt(symbol.type ?: -1)
+                out.writeInt(symbol.name)
+                out.writeInt(symbol.values.size)
+                symbol.values.forEach { out.writeInt(it) }
+                out.writeInt(symbol.children.size)
+                symbol.children.forEach { out.writeInt(it) }
+            }
+        }
+    }
+
+    private class EncodedSymbol(
+        /** Index of the resource type name, or null for declare-styleables. */
+        val type: Int?,
+        val name: Int,
+        val values: List<Int>,
+        val children: List<Int>
+    )
+
+    private fun isRepresentable(symbol: Symbol): Boolean =
+        when (symbol) {
+            is Symbol.StyleableSymbol -> true
+            is Symbol.NormalSymbol ->
+                Symbol.NormalSymbol(symbol.resourceType, symbol.name, symbol.intValue) == symbol
+            else -> false
+        }
+
+    private fun readBinary(file: Path): SymbolTable {
+        DataInputStream(BufferedInputStream(Files.newInputStream(file))).use { input ->
+            val version = input.readInt()
+            if (version != BINARY_FORMAT_VERSION) {
+                throw IOException("Unexpected symbol table format version $version in $file")
+            }
+            val builder = SymbolTable.builder().tablePackage(names.intern(input.readUTF()))
+            val pool = Array(input.readInt()) { names.intern(input.readUTF()) }
+            repeat(input.readInt()) {
+                val type = input.readInt()
+                val name = pool[input.readInt()]
+                val values = IntArray(input.readInt()) { input.readInt() }
+                val children = Array(input.readInt()) { pool[input.readInt()] }
+                builder.add(
+                    if (type == -1) {
+                        Symbol.StyleableSymbol(
+                            name,
+                            ImmutableList.copyOf(values.toList()),
+                            ImmutableList.copyOf(children))
+                    } else {
+                        val resourceType = ResourceType.getEnum(pool[type])
+                                ?: throw IOException("Unknown resource type ${pool[type]} in $file")
+                        Symbol.NormalSymbol(resourceType, name, values.single())
+                    })
+            }
+            return builder.build()
+        }
+    }
+}
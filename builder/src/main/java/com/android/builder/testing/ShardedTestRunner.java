@@ -18,12 +18,14 @@ package com.android.builder.testing;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.builder.internal.testing.DurationShardProvider;
 import com.android.builder.internal.testing.ShardedTestCallable;
 import com.android.builder.testing.api.DeviceConnector;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.ProcessExecutor;
 import com.android.utils.ILogger;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.util.Collection;
 import java.util.Map;
@@ -33,14 +35,35 @@ import java.util.concurrent.atomic.AtomicInteger;
 /** A {@link TestRunner} that uses all connected devices to execute tests in parallel. */
 public class ShardedTestRunner extends BaseTestRunner {
 
+    /**
+     * The default number of shards per device when sharding by duration, so that the devices that
+     * finish early can pick up the small shards left.
+     */
+    private static final int SHARDS_PER_DEVICE = 4;
+
     @Nullable private final Integer numShards;
+    @NonNull private final Map<String, Long> testClassDurations;
 
     public ShardedTestRunner(
             @Nullable File splitSelectExec,
             @NonNull ProcessExecutor processExecutor,
             @Nullable Integer numShards) {
+        this(splitSelectExec, processExecutor, numShards, ImmutableMap.of());
+    }
+
+    /**
+     * Creates a runner balancing the shards with the given durations of the test classes, e.g.
+     * from {@link DurationShardProvider#readTestClassDurations(File)}. The tests are sharded by
+     * index when there are no durations.
+     */
+    public ShardedTestRunner(
+            @Nullable File splitSelectExec,
+            @NonNull ProcessExecutor processExecutor,
+            @Nullable Integer numShards,
+            @NonNull Map<String, Long> testClassDurations) {
         super(splitSelectExec, processExecutor);
         this.numShards = numShards;
+        this.testClassDurations = testClassDurations;
     }
 
     @Override
@@ -59,31 +82,24 @@ public class ShardedTestRunner extends BaseTestRunner {
         WaitableExecutor executor =
                 WaitableExecutor.useNewFixedSizeThreadPool(apksForDevice.keySet().size());
 
+        ShardedTestCallable.ShardProvider shardProvider;
         int numShards;
-        if (this.numShards == null) {
-            numShards = apksForDevice.size();
+        // the test classes of a shard would replace a test filter given to the instrumentation.
+        if (!testClassDurations.isEmpty()
+                && !testData.getInstrumentationRunnerArguments().containsKey("class")) {
+            numShards =
+                    this.numShards != null
+                            ? this.numShards
+                            : apksForDevice.size() * SHARDS_PER_DEVICE;
+            shardProvider = new DurationShardProvider(testClassDurations, numShards, logger);
+            logger.lifecycle("will shard tests into %d shards by duration", numShards);
         } else {
-            numShards = this.numShards;
+            numShards = this.numShards != null ? this.numShards : apksForDevice.size();
+            shardProvider = createIndexShardProvider(numShards);
+            logger.lifecycle("will shard tests into %d shards", numShards);
         }
-
-        AtomicInteger currentShard = new AtomicInteger(-1);
         ShardedTestCallable.ProgressListener progressListener =
                 new ShardedTestCallable.ProgressListener(numShards, logger);
-        ShardedTestCallable.ShardProvider shardProvider =
-                new ShardedTestCallable.ShardProvider() {
-                    @Nullable
-                    @Override
-                    public Integer getNextShard() {
-                        int shard = currentShard.incrementAndGet();
-                        return shard < numShards ? shard : null;
-                    }
-
-                    @Override
-                    public int getTotalShards() {
-                        return numShards;
-                    }
-                };
-        logger.lifecycle("will shard tests into %d shards", numShards);
         for (Map.Entry<DeviceConnector, ImmutableList<File>> runners : apksForDevice.entrySet()) {
             ShardedTestCallable shardedTestCallable =
                     new ShardedTestCallable(
@@ -102,4 +118,22 @@ public class ShardedTestRunner extends BaseTestRunner {
         }
         return executor;
     }
+
+    @NonNull
+    private static ShardedTestCallable.ShardProvider createIndexShardProvider(int numShards) {
+        AtomicInteger currentShard = new AtomicInteger(-1);
+        return new ShardedTestCallable.ShardProvider() {
+            @Nullable
+            @Override
+            public Integer getNextShard() {
+                int shard = currentShard.incrementAndGet();
+                return shard < numShards ? shard : null;
+            }
+
+            @Override
+            public int getTotalShards() {
+                return numShards;
+            }
+        };
+    }
 }
@@ -1074,6 +1074,12 @@ public class FileCache {
 
         /** Fix stack frames. */
         FIX_STACK_FRAMES,
+
+        /** Parse a symbol table into its binary form. */
+        PARSE_SYMBOL_TABLE,
+
+        /** Read the class headers of a jar into their binary form. */
+        READ_TYPE_HIERARCHY,
     }
 
     /**
@@ -82,6 +82,62 @@ class Aapt2DaemonImplTest {
                         requests.map { Aapt2RenamingConventions.compilationRename(it.inputFile) })
     }
 
+    @Test
+    fun testCompileBatch() {
+        val outDir = temporaryFolder.newFolder()
+        val requests = listOf(
+                CompileResourceRequest(
+                        inputFile = valuesFile("strings", "<resources></resources>"),
+                        outputDirectory = outDir),
+                CompileResourceRequest(
+                        inputFile = valuesFile("styles", "<resources></resources>"),
+                        outputDirectory = outDir),
+                CompileResourceRequest(
+                        inputFile = resourceFile("raw", "foo.txt", "content"),
+                        outputDirectory = outDir)
+        )
+        val daemon = createDaemon()
+        assertThat(daemon.compileBatch(requests, logger)).isEmpty()
+        assertThat(outDir.list()).asList()
+                .containsExactlyElementsIn(
+                        requests.map { Aapt2RenamingConventions.compilationRename(it.inputFile) })
+    }
+
+    @Test
+    fun testCompileBatchReportsFailuresPerFile() {
+        val outDir = temporaryFolder.newFolder()
+        val valid = CompileResourceRequest(
+                inputFile = valuesFile("strings", "<resources></resources>"),
+                outputDirectory = outDir)
+        val invalid = CompileResourceRequest(
+                inputFile = resourceFile("values", "foo.txt", "content"),
+                outputDirectory = outDir)
+        val daemon = createDaemon()
+        val failures = daemon.compileBatch(listOf(valid, invalid), logger)
+        assertThat(failures.map { it.request }).containsExactly(invalid)
+        assertThat(failures.single().exception.message).contains("error: invalid file path")
+        assertThat(outDir.list()).asList()
+                .containsExactly(Aapt2RenamingConventions.compilationRename(valid.inputFile))
+    }
+
+    @Test
+    fun testSplitIntoCompileBatches() {
+        val outDir = temporaryFolder.newFolder()
+        val requests = (1..5).map {
+            CompileResourceRequest(
+                    inputFile = resourceFile("raw", "file$it.txt", "0123456789"),
+                    outputDirectory = outDir)
+        }
+        assertThat(splitIntoCompileBatches(requests, maxFiles = 2, maxBytes = 1000))
+                .containsExactly(requests.subList(0, 2), requests.subList(2, 4), requests.subList(4, 5))
+                .inOrder()
+        assertThat(splitIntoCompileBatches(requests, maxFiles = 10, maxBytes = 25))
+                .containsExactly(requests.subList(0, 2), requests.subList(2, 4), requests.subList(4, 5))
+                .inOrder()
+        assertThat(splitIntoCompileBatches(requests, maxFiles = 10, maxBytes = 5))
+                .hasSize(5)
+    }
+
     @Test
     fun testWarningsDoNotFailBuild() {
         val outDir = temporaryFolder.newFolder()
@@ -24,11 +24,14 @@ import com.android.testutils.NoErrorsOrWarningsLogger
 import com.android.utils.ILogger
 import com.google.common.base.Ticker
 import com.google.common.truth.Truth.assertThat
+import com.google.common.util.concurrent.MoreExecutors
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
 import org.junit.rules.Timeout
 import java.io.File
+import java.util.Collections
+import java.util.concurrent.Executor
 import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
@@ -238,6 +241,75 @@ class Aapt2DaemonManagerTest {
         Listener.assertStopCountEquals(1)
     }
 
+    @Test
+    fun testPrewarming() {
+        val daemons = mutableListOf<TestAapt2Daemon>()
+        val manager = createManager(minPoolSize = 3) { TestAapt2Daemon(it).also { daemons.add(it) } }
+        manager.leaseDaemon().use {
+            // The first daemon is started by the caller, the others in the background.
+            assertThat(daemons).hasSize(3)
+            assertThat(daemons.map { it.state }).containsExactly(
+                    Aapt2Daemon.State.RUNNING,
+                    Aapt2Daemon.State.RUNNING,
+                    Aapt2Daemon.State.RUNNING)
+            assertThat(manager.stats().poolSize).isEqualTo(3)
+            assertThat(manager.stats().busyCount).isEqualTo(1)
+            assertThat(manager.stats().prewarmingCount).isEqualTo(0)
+        }
+        assertThat(manager.stats().processStartCount).isEqualTo(3)
+        Listener.assertStartCountEquals(1)
+
+        // The pool is kept at its minimum size while in use.
+        setTime(2, TimeUnit.MINUTES)
+        manager.leaseDaemon().use { }
+        manager.maintain()
+        assertThat(manager.stats().poolSize).isEqualTo(3)
+        assertThat(daemons).hasSize(3)
+
+        // But not once all the daemons have expired.
+        setTime(4, TimeUnit.MINUTES)
+        manager.maintain()
+        assertThat(manager.stats().poolSize).isEqualTo(0)
+        assertThat(daemons.map { it.state }).containsExactly(
+                Aapt2Daemon.State.SHUTDOWN,
+                Aapt2Daemon.State.SHUTDOWN,
+                Aapt2Daemon.State.SHUTDOWN)
+        Listener.assertStopCountEquals(1)
+        manager.shutdown()
+    }
+
+    @Test
+    fun testMaxPoolSizeServesWaitingCallersInOrder() {
+        val manager = createManager(maxPoolSize = 1) { TestAapt2Daemon(it) }
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val first = manager.leaseDaemon()
+        val threads = (1..3).map { index ->
+            Thread(Runnable {
+                manager.leaseDaemon().use { order.add(index) }
+            })
+        }
+        for ((index, thread) in threads.withIndex()) {
+            thread.start()
+            // Wait for each thread to be queued before starting the next one.
+            while (manager.stats().waitingCount != index + 1) {
+                Thread.yield()
+            }
+        }
+        assertThat(manager.stats().poolSize).isEqualTo(1)
+        nanoTime = TimeUnit.MILLISECONDS.toNanos(10)
+        first.close()
+        threads.forEach(Thread::join)
+        assertThat(order).containsExactly(1, 2, 3).inOrder()
+
+        val stats = manager.stats()
+        assertThat(stats.poolSize).isEqualTo(1)
+        assertThat(stats.waitingCount).isEqualTo(0)
+        assertThat(stats.leaseCount).isEqualTo(4)
+        assertThat(stats.maxLeaseWaitNanoSeconds).isAtLeast(TimeUnit.MILLISECONDS.toNanos(10))
+        assertThat(stats.processStartCount).isEqualTo(1)
+        manager.shutdown()
+    }
+
     class TestAapt2Daemon(displayId: Int) : Aapt2Daemon("Test AAPT Daemon #$displayId",
             NoErrorsOrWarningsLogger()) {
         val compileRequests = mutableListOf<CompileResourceRequest>()
@@ -258,14 +330,21 @@ class Aapt2DaemonManagerTest {
         }
     }
 
-    private fun createManager(daemonFactory: (Int) -> Aapt2Daemon) =
+    private fun createManager(
+            minPoolSize: Int = 0,
+            maxPoolSize: Int = Int.MAX_VALUE,
+            prewarmExecutor: Executor = MoreExecutors.directExecutor(),
+            daemonFactory: (Int) -> Aapt2Daemon) =
             Aapt2DaemonManager(
                     logger = NoErrorsOrWarningsLogger(),
                     daemonFactory = daemonFactory,
                     expiryTime = 1,
                     expiryTimeUnit = TimeUnit.MINUTES,
                     timeSource = ticker,
-                    listener = Listener)
+                    listener = Listener,
+                    minPoolSize = minPoolSize,
+                    maxPoolSize = maxPoolSize,
+                    prewarmExecutor = prewarmExecutor)
 
     private fun setTime(value: Long, timeUnit: TimeUnit) {
         nanoTime = timeUnit.toNanos(value)
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.incremental;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Stopwatch;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the incremental use of a {@link DependencyDataStore} of 10k records: load, lookup of the
+ * data impacted by a changed header, update of one record, and save. Simply run inside Intellij,
+ * optionally with the record and iteration counts as arguments.
+ */
+public class DependencyDataStoreBenchmark {
+
+    private static final int WARM_UP_ITERATIONS = 20;
+
+    public static void main(String... args) throws IOException {
+        int recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        File file = File.createTempFile("DependencyDataStoreBenchmark", "");
+        file.deleteOnExit();
+
+        DependencyDataStore store = new DependencyDataStore();
+        for (int i = 0; i < recordCount; i++) {
+            store.addData(createData(i, i % 100));
+        }
+        store.saveTo(file);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            runIteration(file, i);
+        }
+
+        long[] timesInUs = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            runIteration(file, i);
+            timesInUs[i] = stopwatch.elapsed(TimeUnit.MICROSECONDS);
+        }
+        Arrays.sort(timesInUs);
+
+        System.out.println(
+                String.format(
+                        "%d records, %d bytes: min %.2f ms, median %.2f ms, max %.2f ms",
+                        recordCount,
+                        file.length(),
+                        timesInUs[0] / 1000.0,
+                        timesInUs[iterations / 2] / 1000.0,
+                        timesInUs[iterations - 1] / 1000.0));
+    }
+
+    /** Runs the store operations of an incremental task run where one header changed. */
+    private static void runIteration(@NonNull File file, int iteration) throws IOException {
+        DependencyDataStore store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        String header = getHeader(iteration % 100);
+        Collection<DependencyData> impactedData = store.getImpactedData(header);
+        if (impactedData.isEmpty()) {
+            throw new IllegalStateException("No data impacted by " + header);
+        }
+
+        // move a record to the next header, as when an include changes.
+        DependencyData previous = impactedData.iterator().next();
+        DependencyData data = new DependencyData();
+        data.setMainFile(previous.getMainFile());
+        data.addSecondaryFile(getHeader((iteration + 1) % 100));
+        previous.getOutputFiles().forEach(data::addOutputFile);
+        store.updateAll(Collections.singletonList(data));
+        store.saveTo(file);
+    }
+
+    @NonNull
+    private static DependencyData createData(int index, int header) {
+        DependencyData data = new DependencyData();
+        data.setMainFile("/src/com/example/IService" + index + ".aidl");
+        data.addSecondaryFile(getHeader(header));
+        data.addOutputFile("/out/com/example/IService" + index + ".java");
+        return data;
+    }
+
+    @NonNull
+    private static String getHeader(int header) {
+        return "/src/com/example/IParcelable" + header + ".aidl";
+    }
+}
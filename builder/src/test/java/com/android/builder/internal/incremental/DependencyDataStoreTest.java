@@ -16,9 +16,11 @@
 
 package com.android.builder.internal.incremental;
 
+import com.google.common.collect.Iterables;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import junit.framework.TestCase;
 
 public class DependencyDataStoreTest extends TestCase {
@@ -227,4 +229,177 @@ public class DependencyDataStoreTest extends TestCase {
         assertEquals(0, secondData.getSecondaryFiles().size());
         assertEquals(0, secondData.getOutputFiles().size());
     }
+
+    public void testImpactedData() throws IOException {
+        DependencyData data = new DependencyData();
+        data.setMainFile("/1/main/file");
+        data.addSecondaryFile("/common/file");
+
+        DependencyData data2 = new DependencyData();
+        data2.setMainFile("/2/main/file");
+        data2.addSecondaryFile("/common/file");
+        data2.addSecondaryFile("/2/secondary/file");
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(data);
+        store.addData(data2);
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        assertEquals(2, store.getImpactedData("/common/file").size());
+        assertEquals(
+                "/2/main/file",
+                Iterables.getOnlyElement(store.getImpactedData("/2/secondary/file"))
+                        .getMainFile());
+        assertEquals(
+                "/1/main/file",
+                Iterables.getOnlyElement(store.getImpactedData("/1/main/file")).getMainFile());
+        assertTrue(store.getImpactedData("/unknown/file").isEmpty());
+    }
+
+    public void testByOutputFile() throws IOException {
+        DependencyData data = new DependencyData();
+        data.setMainFile("/1/main/file");
+        data.addOutputFile("/1/output/file");
+        data.addSecondaryOutputFile("/common/output/file");
+
+        DependencyData data2 = new DependencyData();
+        data2.setMainFile("/2/main/file");
+        data2.addOutputFile("/2/output/file");
+        data2.addSecondaryOutputFile("/common/output/file");
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(data);
+        store.addData(data2);
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        assertEquals(2, store.getByOutputFile("/common/output/file").size());
+        assertEquals(
+                "/1/main/file",
+                Iterables.getOnlyElement(store.getByOutputFile("/1/output/file")).getMainFile());
+        assertTrue(store.getByOutputFile("/1/main/file").isEmpty());
+
+        // the outputs of the updated data are seen before and after the store is saved.
+        DependencyData updated = new DependencyData();
+        updated.setMainFile("/2/main/file");
+        updated.addOutputFile("/2/new/output/file");
+        store.updateAll(Collections.singletonList(updated));
+
+        assertEquals(1, store.getByOutputFile("/common/output/file").size());
+        assertTrue(store.getByOutputFile("/2/output/file").isEmpty());
+        assertEquals(1, store.getByOutputFile("/2/new/output/file").size());
+
+        store.saveTo(file);
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        assertEquals(
+                "/1/main/file",
+                Iterables.getOnlyElement(store.getByOutputFile("/common/output/file"))
+                        .getMainFile());
+        assertTrue(store.getByOutputFile("/2/output/file").isEmpty());
+        assertEquals(
+                "/2/main/file",
+                Iterables.getOnlyElement(store.getByOutputFile("/2/new/output/file"))
+                        .getMainFile());
+    }
+
+    public void testUpdateInPlace() throws IOException {
+        DependencyDataStore store = new DependencyDataStore();
+        for (int i = 0; i < 10; i++) {
+            DependencyData data = new DependencyData();
+            data.setMainFile("/" + i + "/main/file");
+            data.addSecondaryFile("/common/file");
+            data.addOutputFile("/" + i + "/output/file");
+            store.addData(data);
+        }
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        // a record that fits in place, a record that grows, a removed record and a new one.
+        DependencyData fitting = new DependencyData();
+        fitting.setMainFile("/1/main/file");
+        fitting.addSecondaryFile("/1/secondary");
+        DependencyData growing = new DependencyData();
+        growing.setMainFile("/2/main/file");
+        growing.addSecondaryFile("/common/file");
+        growing.addSecondaryFile("/2/secondary/file/with/a/very/long/path/that/does/not/fit");
+        growing.addOutputFile("/2/output/file");
+        DependencyData added = new DependencyData();
+        added.setMainFile("/new/main/file");
+        added.addSecondaryFile("/common/file");
+
+        store.addData(fitting);
+        store.addData(growing);
+        store.addData(added);
+        store.remove(store.getByMainFile("/3/main/file"));
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        assertEquals(10, store.getData().size());
+        assertNull(store.getByMainFile("/3/main/file"));
+        DependencyData fittingData = store.getByMainFile("/1/main/file");
+        assertNotNull(fittingData);
+        assertEquals(fitting.getSecondaryFiles(), fittingData.getSecondaryFiles());
+        assertEquals(0, fittingData.getOutputFiles().size());
+        DependencyData growingData = store.getByMainFile("/2/main/file");
+        assertNotNull(growingData);
+        assertEquals(growing.getSecondaryFiles(), growingData.getSecondaryFiles());
+        assertEquals(growing.getOutputFiles(), growingData.getOutputFiles());
+        assertEquals(
+                "/new/main/file",
+                Iterables.getOnlyElement(store.getImpactedData("/new/main/file")).getMainFile());
+        // 10 records with the common file, minus the fitting and removed ones, plus the new one.
+        assertEquals(9, store.getImpactedData("/common/file").size());
+    }
+
+    public void testLargeStore() throws IOException {
+        DependencyDataStore store = new DependencyDataStore();
+        for (int i = 0; i < 10000; i++) {
+            DependencyData data = new DependencyData();
+            data.setMainFile("/src/com/example/IService" + i + ".aidl");
+            data.addSecondaryFile("/src/com/example/IParcelable" + (i % 100) + ".aidl");
+            data.addOutputFile("/out/com/example/IService" + i + ".java");
+            store.addData(data);
+        }
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+        assertEquals(100, store.getImpactedData("/src/com/example/IParcelable42.aidl").size());
+
+        DependencyData data = new DependencyData();
+        data.setMainFile("/src/com/example/IService42.aidl");
+        data.addSecondaryFile("/src/com/example/IParcelable43.aidl");
+        data.addOutputFile("/out/com/example/IService42.java");
+        store.updateAll(Collections.singletonList(data));
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+        assertEquals(99, store.getImpactedData("/src/com/example/IParcelable42.aidl").size());
+        assertEquals(101, store.getImpactedData("/src/com/example/IParcelable43.aidl").size());
+        assertEquals(10000, store.getData().size());
+    }
 }
@@ -84,6 +84,49 @@ public class DependencyDataTest extends TestCase {
         assertEquals("/path/to/project/build/source/aidl/debug/com/example/IService.java", outputs.get(0));
     }
 
+    public void testMakeRule() throws Exception {
+        File depFile = TestResources.getFile("/testData/dependencyData/make_rule.d");
+        DependencyData data = DependencyData.parseMakeDependencyFile(depFile);
+        assertNotNull(data);
+
+        assertEquals("/path/to/project/src/main/rs/mono.rs", data.getMainFile());
+
+        List<String> secondaryFiles = data.getSecondaryFiles();
+        assertEquals(2, secondaryFiles.size());
+        assertEquals("/path/to/sdk/rs_core.rsh", secondaryFiles.get(0));
+        assertEquals("/path/to/project/src/main/rs/my headers/common.rsh", secondaryFiles.get(1));
+
+        List<String> outputs = data.getOutputFiles();
+        assertEquals(2, outputs.size());
+        assertEquals("/path/to/project/build/rs/raw/mono.bc", outputs.get(0));
+        assertEquals(
+                "/path/to/project/build/rs/src/com/example/ScriptC_mono.java", outputs.get(1));
+    }
+
+    public void testMakeRuleWindowsMode() throws Exception {
+        DependencyData data =
+                DependencyData.processMakeDependencyData(
+                        "C:\\out\\raw\\mono.bc: C:\\src\\rs\\mono.rs \\\r\n"
+                                + "  C:\\src\\rs\\my\\ headers\\common.rsh\r\n"
+                                + "\r\n"
+                                + "C:\\src\\rs\\my\\ headers\\common.rsh:\r\n");
+        assertNotNull(data);
+
+        assertEquals("C:\\src\\rs\\mono.rs", data.getMainFile());
+
+        List<String> secondaryFiles = data.getSecondaryFiles();
+        assertEquals(1, secondaryFiles.size());
+        assertEquals("C:\\src\\rs\\my headers\\common.rsh", secondaryFiles.get(0));
+
+        List<String> outputs = data.getOutputFiles();
+        assertEquals(1, outputs.size());
+        assertEquals("C:\\out\\raw\\mono.bc", outputs.get(0));
+    }
+
+    public void testMakeRuleWithoutPrerequisites() throws Exception {
+        assertNull(DependencyData.processMakeDependencyData("/path/to/output.bc:\n"));
+    }
+
     private static DependencyData getData(String name) throws IOException {
         File depFile = TestResources.getFile("/testData/dependencyData/" + name);
         DependencyData data = DependencyData.parseDependencyFile(depFile);
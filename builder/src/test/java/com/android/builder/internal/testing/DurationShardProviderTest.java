@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.testing;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.testutils.MockLog;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DurationShardProviderTest {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final Map<String, Long> DURATIONS =
+            ImmutableMap.<String, Long>builder()
+                    .put("com.example.A", 100L)
+                    .put("com.example.B", 60L)
+                    .put("com.example.C", 50L)
+                    .put("com.example.D", 40L)
+                    .put("com.example.E", 10L)
+                    .build();
+
+    @Test
+    public void testPlanShardsLongestFirst() {
+        List<List<String>> shards =
+                DurationShardProvider.planShards(DURATIONS.keySet(), DURATIONS, 2);
+        assertThat(shards)
+                .containsExactly(
+                        ImmutableList.of("com.example.A", "com.example.D"),
+                        ImmutableList.of("com.example.B", "com.example.C", "com.example.E"))
+                .inOrder();
+    }
+
+    @Test
+    public void testPlanShardsSkipsEmptyShards() {
+        List<List<String>> shards =
+                DurationShardProvider.planShards(
+                        ImmutableList.of("com.example.A", "com.example.E"), DURATIONS, 4);
+        assertThat(shards)
+                .containsExactly(
+                        ImmutableList.of("com.example.A"), ImmutableList.of("com.example.E"))
+                .inOrder();
+    }
+
+    @Test
+    public void testUnknownClassesTakeAverageDuration() {
+        List<List<String>> shards =
+                DurationShardProvider.planShards(
+                        ImmutableList.of("com.example.A", "com.example.E", "com.example.New"),
+                        DURATIONS,
+                        2);
+        // com.example.New is assumed to take (100 + 10) / 2 = 55.
+        assertThat(shards)
+                .containsExactly(
+                        ImmutableList.of("com.example.A"),
+                        ImmutableList.of("com.example.New", "com.example.E"))
+                .inOrder();
+    }
+
+    @Test
+    public void testSimulatedDevicesAreBalanced() throws Exception {
+        DurationShardProvider provider = new DurationShardProvider(DURATIONS, 8, new MockLog());
+        provider.onTestsInstalled(DURATIONS::keySet);
+
+        // each simulated device picks the next shard as soon as it is done with the previous one.
+        PriorityQueue<long[]> devices =
+                new PriorityQueue<>((first, second) -> Long.compare(first[0], second[0]));
+        devices.add(new long[] {0});
+        devices.add(new long[] {0});
+        long makespan = 0;
+        Integer shard;
+        while ((shard = provider.getNextShard()) != null) {
+            long[] device = devices.remove();
+            List<String> testClasses = provider.getTestClasses(shard);
+            assertThat(testClasses).isNotNull();
+            for (String testClass : testClasses) {
+                device[0] += DURATIONS.get(testClass);
+            }
+            makespan = Math.max(makespan, device[0]);
+            devices.add(device);
+        }
+
+        // 260ms of tests on 2 devices, with a class of 100ms.
+        assertThat(makespan).isEqualTo(140L);
+    }
+
+    @Test
+    public void testShardsByIndexWhenTestClassesAreUnknown() throws Exception {
+        MockLog logger = new MockLog();
+        DurationShardProvider provider = new DurationShardProvider(DURATIONS, 3, logger);
+        provider.onTestsInstalled(ImmutableList::of);
+
+        assertThat(provider.getNextShard()).isEqualTo(0);
+        assertThat(provider.getTestClasses(0)).isNull();
+        assertThat(provider.getNextShard()).isEqualTo(1);
+        assertThat(provider.getNextShard()).isEqualTo(2);
+        assertThat(provider.getNextShard()).isNull();
+        assertThat(logger.getMessages()).isNotEmpty();
+    }
+
+    @Test
+    public void testReadTestClassDurations() throws Exception {
+        File resultsDir = temporaryFolder.newFolder();
+        write(
+                new File(resultsDir, "TEST-device1-project-flavor-shard-0.xml"),
+                "<testsuite name=\"com.example.A\">\n"
+                        + "  <testcase name=\"one\" classname=\"com.example.A\" time=\"0.1\" />\n"
+                        + "  <testcase name=\"two\" classname=\"com.example.A\" time=\"0.25\" />\n"
+                        + "  <testcase name=\"one\" classname=\"com.example.B\" time=\"1.0\" />\n"
+                        + "</testsuite>");
+        write(
+                new File(resultsDir, "TEST-device2-project-flavor-shard-1.xml"),
+                "<testsuite name=\"com.example.A\">\n"
+                        + "  <testcase name=\"one\" classname=\"com.example.A\" time=\"0.5\" />\n"
+                        + "</testsuite>");
+        write(new File(resultsDir, "TEST-interrupted.xml"), "<testsuite><testcase");
+
+        assertThat(DurationShardProvider.readTestClassDurations(resultsDir))
+                .containsExactly("com.example.A", 500L, "com.example.B", 1000L);
+    }
+
+    @Test
+    public void testReadTestClassDurationsWithoutResults() throws Exception {
+        assertThat(DurationShardProvider.readTestClassDurations(temporaryFolder.newFolder()))
+                .isEmpty();
+        assertThat(
+                        DurationShardProvider.readTestClassDurations(
+                                new File(temporaryFolder.getRoot(), "missing")))
+                .isEmpty();
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(Charsets.UTF_8));
+    }
+}
@@ -170,6 +170,61 @@ class BytecodeRClassWriterTest {
         }
     }
 
+    @Test
+    fun incrementalExportOnlyKeepsCurrentClasses() {
+        val rJar = mTemporaryFolder.newFile("R.jar")
+        rJar.delete()
+
+        val symbols = SymbolTable.builder()
+                .tablePackage("com.example.foo")
+                .add(Symbol.NormalSymbol(ResourceType.ID, "foo", 0x1))
+                .add(Symbol.NormalSymbol(ResourceType.STRING, "bar", 0x2))
+                .build()
+        exportToCompiledJava(listOf(symbols), rJar.toPath(), incremental = true)
+
+        val updatedSymbols = SymbolTable.builder()
+                .tablePackage("com.example.foo")
+                .add(Symbol.NormalSymbol(ResourceType.ID, "foo", 0x3))
+                .build()
+        exportToCompiledJava(listOf(updatedSymbols), rJar.toPath(), incremental = true)
+
+        Zip(rJar).use {
+            assertThat(it.entries.map { f -> f.toString() }).containsExactly(
+                    "/com/example/foo/R.class",
+                    "/com/example/foo/R\$id.class")
+        }
+        URLClassLoader(arrayOf(rJar.toURI().toURL()), null).use { classLoader ->
+            assertThat(loadFields(classLoader, "com.example.foo.R\$id"))
+                    .containsExactly("int foo = 3")
+        }
+    }
+
+    @Test
+    fun largeStyleablesInitializerIsSplit() {
+        val rJar = mTemporaryFolder.newFile("R.jar")
+
+        // Enough values for the initialization of the arrays not to fit in a single method.
+        val builder = SymbolTable.builder().tablePackage("com.example.foo")
+        for (i in 0 until 100) {
+            builder.add(
+                    Symbol.StyleableSymbol(
+                            "styleable$i",
+                            ImmutableList.copyOf((0 until 200).map { 0x7f010000 + i * 200 + it }),
+                            ImmutableList.of()))
+        }
+        exportToCompiledJava(listOf(builder.build()), rJar.toPath())
+
+        URLClassLoader(arrayOf(rJar.toURI().toURL()), null).use { classLoader ->
+            val styleable = classLoader.loadClass("com.example.foo.R\$styleable")
+            for (i in 0 until 100) {
+                val values = styleable.getField("styleable$i").get(null) as IntArray
+                assertThat(values.asList())
+                        .containsExactlyElementsIn((0 until 200).map { 0x7f010000 + i * 200 + it })
+                        .inOrder()
+            }
+        }
+    }
+
     @Test
     fun testParseArrayLiteral() {
         assertThat(parseArrayLiteral(0, "{}").asList()).isEmpty()
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.symbols
+
+import com.android.builder.utils.FileCache
+import com.android.ide.common.symbols.Symbol
+import com.android.ide.common.symbols.SymbolIo
+import com.android.ide.common.symbols.SymbolTable
+import com.android.resources.ResourceType
+import com.google.common.collect.ImmutableList
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class SymbolTableCacheTest {
+    @Rule
+    @JvmField
+    var temporaryFolder = TemporaryFolder()
+
+    private val table = SymbolTable.builder()
+        .tablePackage("com.example.lib")
+        .add(Symbol.NormalSymbol(ResourceType.STRING, "app_name", 0))
+        .add(Symbol.NormalSymbol(ResourceType.ATTR, "color", 0))
+        .add(
+            Symbol.StyleableSymbol(
+                "LibStyleable",
+                ImmutableList.of(),
+                ImmutableList.of("color", "android:textColor")))
+        .build()
+
+    @After
+    fun clearCache() {
+        SymbolTableCache.clear()
+    }
+
+    @Test
+    fun readsTablesWithSameContentOnce() {
+        val first = temporaryFolder.newFile("first-R-def.txt").toPath()
+        val second = temporaryFolder.newFile("second-R-def.txt").toPath()
+        SymbolIo.writeRDef(table, first)
+        SymbolIo.writeRDef(table, second)
+
+        val firstTable = SymbolTableCache.read(first, SymbolTableCache.Format.R_DEF)
+        assertThat(firstTable).isEqualTo(SymbolIo.readRDef(first))
+        assertThat(SymbolTableCache.read(second, SymbolTableCache.Format.R_DEF))
+            .isSameAs(firstTable)
+    }
+
+    @Test
+    fun internsNamesAcrossTables() {
+        val lib = temporaryFolder.newFile("lib-R-def.txt").toPath()
+        val app = temporaryFolder.newFile("app-R-def.txt").toPath()
+        SymbolIo.writeRDef(table, lib)
+        SymbolIo.writeRDef(
+            SymbolTable.builder()
+                .tablePackage("com.example.app")
+                .add(Symbol.NormalSymbol(ResourceType.STRING, "app_name", 0))
+                .build(),
+            app)
+
+        val libName = SymbolTableCache.read(lib, SymbolTableCache.Format.R_DEF)
+            .getSymbolByResourceType(ResourceType.STRING).single().name
+        val appName = SymbolTableCache.read(app, SymbolTableCache.Format.R_DEF)
+            .getSymbolByResourceType(ResourceType.STRING).single().name
+        assertThat(appName).isSameAs(libName)
+    }
+
+    @Test
+    fun roundTripsThroughBuildCache() {
+        val rDef = temporaryFolder.newFile("R-def.txt").toPath()
+        SymbolIo.writeRDef(table, rDef)
+        val buildCache =
+            FileCache.getInstanceWithSingleProcessLocking(temporaryFolder.newFolder("cache"))
+
+        // First read parses the file and stores the binary form in the build cache.
+        val parsed = SymbolTableCache.read(rDef, SymbolTableCache.Format.R_DEF, buildCache)
+        assertThat(buildCache.cacheDirectory.listFiles()).isNotEmpty()
+
+        // Simulate a new daemon: the table is now read from its binary form.
+        SymbolTableCache.clear()
+        val fromCache = SymbolTableCache.read(rDef, SymbolTableCache.Format.R_DEF, buildCache)
+        assertThat(fromCache).isNotSameAs(parsed)
+        assertThat(fromCache).isEqualTo(parsed)
+        assertThat(fromCache).isEqualTo(SymbolIo.readRDef(rDef))
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.testing;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.android.annotations.NonNull;
+import com.android.builder.testing.api.DeviceConnector;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.android.ide.common.process.ProcessExecutor;
+import com.android.testutils.MockLog;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+/**
+ * Runs {@link ShardedTestRunner} against fake devices that answer the instrumentation commands,
+ * listing {@link #listedClasses} for the log only runs and running the requested classes.
+ */
+public class ShardedTestRunnerTest {
+    private static final int TIMEOUT = 4000;
+
+    private static final Map<String, Long> DURATIONS =
+            ImmutableMap.of(
+                    "com.example.A", 100L,
+                    "com.example.B", 60L,
+                    "com.example.C", 50L,
+                    "com.example.D", 40L);
+
+    private static final Pattern CLASS_ARGUMENT = Pattern.compile("-e class (\\S+)");
+    private static final Pattern SHARD_INDEX_ARGUMENT = Pattern.compile("-e shardIndex (\\d+)");
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+    private Collection<String> listedClasses = DURATIONS.keySet();
+    private boolean listingFails = false;
+
+    private StubTestData testData;
+
+    @Before
+    public void setUp() throws Exception {
+        testData =
+                new StubTestData(
+                        "com.example.app.test", "android.support.test.runner.AndroidJUnitRunner");
+        testData.setTestApk(new File(temporaryFolder.newFolder(), "test.apk"));
+    }
+
+    @Test
+    public void testShardsListedClassesByDuration() throws Exception {
+        runTests(DURATIONS);
+
+        assertThat(getLogOnlyCommands()).hasSize(1);
+        List<String> runClasses = new ArrayList<>();
+        for (String command : getRunCommands()) {
+            assertThat(command).doesNotContain("shardIndex");
+            Matcher matcher = CLASS_ARGUMENT.matcher(command);
+            assertThat(matcher.find()).isTrue();
+            runClasses.addAll(Splitter.on(',').splitToList(matcher.group(1)));
+        }
+        assertThat(runClasses).containsExactlyElementsIn(DURATIONS.keySet());
+    }
+
+    @Test
+    public void testShardsByIndexWhenNoTestClassIsListed() throws Exception {
+        listedClasses = ImmutableList.of();
+        runTests(DURATIONS);
+
+        assertThat(getLogOnlyCommands()).hasSize(1);
+        // 4 shards for each of the 2 devices.
+        assertThat(getShardIndexes()).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+    }
+
+    @Test
+    public void testShardsByIndexWhenListingFails() throws Exception {
+        listingFails = true;
+        runTests(DURATIONS);
+
+        assertThat(getLogOnlyCommands()).hasSize(1);
+        assertThat(getShardIndexes()).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+    }
+
+    @Test
+    public void testShardsByIndexWithoutDurations() throws Exception {
+        runTests(ImmutableMap.of());
+
+        assertThat(getLogOnlyCommands()).isEmpty();
+        assertThat(getShardIndexes()).containsExactly(0, 1);
+    }
+
+    private void runTests(@NonNull Map<String, Long> durations) throws Exception {
+        ShardedTestRunner runner =
+                new ShardedTestRunner(
+                        null, Mockito.mock(ProcessExecutor.class), null, durations);
+        WaitableExecutor executor =
+                runner.scheduleTests(
+                        "project",
+                        "flavor",
+                        testData,
+                        ImmutableMap.of(
+                                createDevice("device1"),
+                                ImmutableList.of(),
+                                createDevice("device2"),
+                                ImmutableList.of()),
+                        ImmutableSet.of(),
+                        TIMEOUT,
+                        ImmutableList.of(),
+                        temporaryFolder.newFolder(),
+                        temporaryFolder.newFolder(),
+                        new MockLog());
+
+        for (WaitableExecutor.TaskResult<Boolean> result : executor.waitForAllTasks()) {
+            assertThat(result.getException()).isNull();
+            assertThat(result.getValue()).isTrue();
+        }
+    }
+
+    @NonNull
+    private DeviceConnector createDevice(@NonNull String name) throws Exception {
+        DeviceConnector device = Mockito.mock(DeviceConnector.class);
+        when(device.getName()).thenReturn(name);
+        doAnswer(
+                        invocation -> {
+                            String command = (String) invocation.getArguments()[0];
+                            IShellOutputReceiver receiver =
+                                    (IShellOutputReceiver) invocation.getArguments()[1];
+                            commands.add(command);
+
+                            Collection<String> testClasses;
+                            if (command.contains("-e log true")) {
+                                if (listingFails) {
+                                    throw new IOException("device offline");
+                                }
+                                testClasses = listedClasses;
+                            } else {
+                                Matcher matcher = CLASS_ARGUMENT.matcher(command);
+                                testClasses =
+                                        matcher.find()
+                                                ? Splitter.on(',').splitToList(matcher.group(1))
+                                                : ImmutableList.of("com.example.A");
+                            }
+                            byte[] output =
+                                    getInstrumentationOutput(testClasses)
+                                            .getBytes(Charsets.UTF_8);
+                            receiver.addOutput(output, 0, output.length);
+                            receiver.flush();
+                            return null;
+                        })
+                .when(device)
+                .executeShellCommand(anyString(), any(), anyLong(), anyLong(), any());
+        return device;
+    }
+
+    @NonNull
+    private List<String> getLogOnlyCommands() {
+        List<String> result = new ArrayList<>();
+        for (String command : commands) {
+            if (command.contains("-e log true")) {
+                result.add(command);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private List<String> getRunCommands() {
+        List<String> result = new ArrayList<>();
+        for (String command : commands) {
+            if (command.startsWith("am instrument") && !command.contains("-e log true")) {
+                result.add(command);
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private List<Integer> getShardIndexes() {
+        List<Integer> result = new ArrayList<>();
+        for (String command : getRunCommands()) {
+            assertThat(command).doesNotContain("-e class");
+            Matcher matcher = SHARD_INDEX_ARGUMENT.matcher(command);
+            assertThat(matcher.find()).isTrue();
+            result.add(Integer.valueOf(matcher.group(1)));
+        }
+        return result;
+    }
+
+    /** Returns the output of an instrumentation run where one test of each class passes. */
+    @NonNull
+    private static String getInstrumentationOutput(@NonNull Collection<String> testClasses) {
+        StringBuilder output = new StringBuilder();
+        int current = 0;
+        for (String testClass : testClasses) {
+            current++;
+            appendStatus(output, testClass, current, testClasses.size(), 1);
+            appendStatus(output, testClass, current, testClasses.size(), 0);
+        }
+        output.append("INSTRUMENTATION_RESULT: stream=\n")
+                .append("\n")
+                .append("OK (")
+                .append(testClasses.size())
+                .append(" tests)\n")
+                .append("\n")
+                .append("INSTRUMENTATION_CODE: -1\n");
+        return output.toString();
+    }
+
+    private static void appendStatus(
+            @NonNull StringBuilder output,
+            @NonNull String testClass,
+            int current,
+            int numTests,
+            int code) {
+        output.append("INSTRUMENTATION_STATUS: class=")
+                .append(testClass)
+                .append("\n")
+                .append("INSTRUMENTATION_STATUS: current=")
+                .append(current)
+                .append("\n")
+                .append("INSTRUMENTATION_STATUS: id=AndroidJUnitRunner\n")
+                .append("INSTRUMENTATION_STATUS: numtests=")
+                .append(numTests)
+                .append("\n")
+                .append("INSTRUMENTATION_STATUS: stream=\n")
+                .append("INSTRUMENTATION_STATUS: test=test\n")
+                .append("INSTRUMENTATION_STATUS_CODE: ")
+                .append(code)
+                .append("\n");
+    }
+}
@@ -874,6 +874,10 @@ public abstract class BasePlugin<E extends BaseExtension2>
                                     "Thread was interrupted while native build JSON generation"
                                             + " was in progress.",
                                     e);
+                        } finally {
+                            // Don't keep the threads alive in the daemon between builds.
+                            nativeJsonGenExecutor.shutdown();
+                            nativeJsonGenExecutor = null;
                         }
                     } else {
                         for (VariantScope variantScope : variantManager.getVariantScopes()) {
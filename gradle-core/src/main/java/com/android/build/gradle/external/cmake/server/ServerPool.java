@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.external.cmake.server;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.build.gradle.external.cmake.server.receiver.DiagnosticReceiver;
+import com.android.build.gradle.external.cmake.server.receiver.MessageReceiver;
+import com.android.build.gradle.external.cmake.server.receiver.ProgressReceiver;
+import com.android.build.gradle.external.cmake.server.receiver.ServerReceiver;
+import com.android.build.gradle.external.cmake.server.receiver.SignalReceiver;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the Cmake servers connected between JSON generations, so that the following generations
+ * of the same build directory skip starting Cmake and the handshake.
+ *
+ * <p>A handshake binds a Cmake server to a source directory, a build directory and a generator,
+ * and the toolchain of a build directory can't change once configured, so a server is only reused
+ * for the same {@link Key}. At most one user holds a server at a time. The pool lives as long as
+ * the plugin classes, i.e. as long as the Gradle daemon.
+ */
+public final class ServerPool {
+
+    /** Number of idle servers kept, the least recently used ones are disconnected first. */
+    @VisibleForTesting static final int MAX_IDLE_SERVERS = 16;
+
+    @NonNull private static final ServerPool INSTANCE = new ServerPool(MAX_IDLE_SERVERS);
+
+    /** Creates and connects a new Cmake server. */
+    public interface ServerCreator {
+        @NonNull
+        Server create(@NonNull ServerReceiver serverReceiver) throws IOException;
+    }
+
+    private final int maxIdleServers;
+
+    /** Idle servers, from the least recently used to the most recently used. */
+    @NonNull private final LinkedHashMap<Key, PooledServer> idleServers = new LinkedHashMap<>();
+
+    @VisibleForTesting
+    ServerPool(int maxIdleServers) {
+        this.maxIdleServers = maxIdleServers;
+    }
+
+    @NonNull
+    public static ServerPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a connected server for the given key, reusing an idle one when possible. The server
+     * sends its messages to the given receiver until it is released.
+     *
+     * <p>The server must be given back to the pool with {@link #release(PooledServer)} once the
+     * generation succeeded, or disconnected with {@link #discard(PooledServer)} otherwise.
+     */
+    @NonNull
+    public PooledServer acquire(
+            @NonNull Key key,
+            @NonNull ServerReceiver serverReceiver,
+            @NonNull ServerCreator creator)
+            throws IOException {
+        PooledServer server;
+        synchronized (this) {
+            server = idleServers.remove(key);
+        }
+        if (server != null && server.server.isConnected()) {
+            server.receiver.delegate = serverReceiver;
+            server.reused = true;
+            return server;
+        }
+        if (server != null) {
+            server.server.disconnect();
+        }
+
+        ForwardingReceiver receiver = new ForwardingReceiver();
+        receiver.delegate = serverReceiver;
+        return new PooledServer(key, creator.create(receiver.asServerReceiver()), receiver);
+    }
+
+    /** Makes the given server available to the next generation of the same key. */
+    public void release(@NonNull PooledServer server) throws IOException {
+        server.receiver.delegate = null;
+        PooledServer evicted = null;
+        synchronized (this) {
+            PooledServer previous = idleServers.put(server.key, server);
+            if (previous != null) {
+                evicted = previous;
+            } else if (idleServers.size() > maxIdleServers) {
+                Iterator<PooledServer> iterator = idleServers.values().iterator();
+                evicted = iterator.next();
+                iterator.remove();
+            }
+        }
+        if (evicted != null) {
+            evicted.server.disconnect();
+        }
+    }
+
+    /** Disconnects the given server, which may be in an unknown state. */
+    public void discard(@NonNull PooledServer server) throws IOException {
+        server.receiver.delegate = null;
+        server.server.disconnect();
+    }
+
+    /** Disconnects the idle server of the given key, for instance when its build was deleted. */
+    public void evict(@NonNull Key key) throws IOException {
+        PooledServer server;
+        synchronized (this) {
+            server = idleServers.remove(key);
+        }
+        if (server != null) {
+            server.server.disconnect();
+        }
+    }
+
+    /** Disconnects all the idle servers. */
+    public void clear() throws IOException {
+        Map<Key, PooledServer> servers;
+        synchronized (this) {
+            servers = new LinkedHashMap<>(idleServers);
+            idleServers.clear();
+        }
+        for (PooledServer server : servers.values()) {
+            server.server.disconnect();
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getIdleServerCount() {
+        return idleServers.size();
+    }
+
+    /** A server of the pool. */
+    public static final class PooledServer {
+        @NonNull private final Key key;
+        @NonNull private final Server server;
+        @NonNull private final ForwardingReceiver receiver;
+        private boolean reused = false;
+
+        private PooledServer(
+                @NonNull Key key, @NonNull Server server, @NonNull ForwardingReceiver receiver) {
+            this.key = key;
+            this.server = server;
+            this.receiver = receiver;
+        }
+
+        @NonNull
+        public Server getServer() {
+            return server;
+        }
+
+        /** Returns true if the server was used before, and so has already done its handshake. */
+        public boolean isReused() {
+            return reused;
+        }
+    }
+
+    /** What a server is bound to. */
+    public static final class Key {
+        @NonNull private final String cmakePath;
+        @NonNull private final String generator;
+        @NonNull private final String sourceDirectory;
+        @NonNull private final String buildDirectory;
+        @NonNull private final String toolchainFile;
+
+        public Key(
+                @NonNull String cmakePath,
+                @NonNull String generator,
+                @NonNull String sourceDirectory,
+                @NonNull String buildDirectory,
+                @NonNull String toolchainFile) {
+            this.cmakePath = cmakePath;
+            this.generator = generator;
+            this.sourceDirectory = sourceDirectory;
+            this.buildDirectory = buildDirectory;
+            this.toolchainFile = toolchainFile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return cmakePath.equals(key.cmakePath)
+                    && generator.equals(key.generator)
+                    && sourceDirectory.equals(key.sourceDirectory)
+                    && buildDirectory.equals(key.buildDirectory)
+                    && toolchainFile.equals(key.toolchainFile);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    cmakePath, generator, sourceDirectory, buildDirectory, toolchainFile);
+        }
+    }
+
+    /**
+     * Receiver given to the server when it is created, which forwards the messages to the receiver
+     * of the current user of the server.
+     */
+    private static final class ForwardingReceiver {
+        @Nullable private volatile ServerReceiver delegate;
+
+        @NonNull
+        ServerReceiver asServerReceiver() {
+            return new ServerReceiver()
+                    .setMessageReceiver(
+                            message -> {
+                                ServerReceiver current = delegate;
+                                MessageReceiver receiver =
+                                        current != null ? current.getMessageReceiver() : null;
+                                if (receiver != null) {
+                                    receiver.receive(message);
+                                }
+                            })
+                    .setDiagnosticReceiver(
+                            message -> {
+                                ServerReceiver current = delegate;
+                                DiagnosticReceiver receiver =
+                                        current != null ? current.getDiagnosticReceiver() : null;
+                                if (receiver != null) {
+                                    receiver.receive(message);
+                                }
+                            })
+                    .setProgressReceiver(
+                            progress -> {
+                                ServerReceiver current = delegate;
+                                ProgressReceiver receiver =
+                                        current != null ? current.getProgressReceiver() : null;
+                                if (receiver != null) {
+                                    receiver.receive(progress);
+                                }
+                            })
+                    .setSignalReceiver(
+                            signal -> {
+                                ServerReceiver current = delegate;
+                                SignalReceiver receiver =
+                                        current != null ? current.getSignalReceiver() : null;
+                                if (receiver != null) {
+                                    receiver.receive(signal);
+                                }
+                            });
+        }
+    }
+}
@@ -23,8 +23,13 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -52,19 +57,12 @@ class CommandClassifier {
             @NonNull String commands,
             @NonNull OsFileConventions policy,
             @NonNull List<BuildTool> classifiers) {
-        List<CommandLine> commandLines = CommandLineParser.parse(commands, policy);
-
         List<BuildStepInfo> commandSummaries = new ArrayList<>();
-
-        for (CommandLine expr : commandLines) {
-            for (BuildTool classifier : classifiers) {
-                if (classifier.isMatch(expr)) {
-                    BuildStepInfo buildStepInfo = classifier.createCommand(expr);
-                    if (buildStepInfo != null) {
-                        commandSummaries.add(buildStepInfo);
-                    }
-                }
-            }
+        try {
+            classify(new StringReader(commands), policy, classifiers, commandSummaries::add);
+        } catch (IOException e) {
+            // Can't happen with a StringReader.
+            throw new UncheckedIOException(e);
         }
         return commandSummaries;
     }
@@ -79,6 +77,31 @@ class CommandClassifier {
         return classify(commands, policy, DEFAULT_CLASSIFIERS);
     }
 
+    /**
+     * Recognizes the interesting calls of the commands as they are read and passes them to the
+     * consumer. The other commands are dropped as soon as they are classified.
+     */
+    static void classify(
+            @NonNull Reader commands,
+            @NonNull OsFileConventions policy,
+            @NonNull List<BuildTool> classifiers,
+            @NonNull Consumer<BuildStepInfo> consumer)
+            throws IOException {
+        CommandLineParser.parse(
+                commands,
+                policy,
+                expr -> {
+                    for (BuildTool classifier : classifiers) {
+                        if (classifier.isMatch(expr)) {
+                            BuildStepInfo buildStepInfo = classifier.createCommand(expr);
+                            if (buildStepInfo != null) {
+                                consumer.accept(buildStepInfo);
+                            }
+                        }
+                    }
+                });
+    }
+
     interface BuildTool {
         @Nullable
         BuildStepInfo createCommand(@NonNull CommandLine command);
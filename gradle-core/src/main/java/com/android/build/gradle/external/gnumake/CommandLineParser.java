@@ -17,11 +17,20 @@ package com.android.build.gradle.external.gnumake;
 
 
 import com.android.annotations.NonNull;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
- * Parse a series of shell command line calls.
+ * Parse a series of shell command line calls, either all at once or one line at a time as they
+ * are read.
  */
 class CommandLineParser {
     /**
@@ -33,19 +42,46 @@ class CommandLineParser {
      */
     @NonNull
     static List<CommandLine> parse(@NonNull String commands, @NonNull OsFileConventions policy) {
-        String[] lines = commands.split("[\r\n]+");
         List<CommandLine> commandLines = new ArrayList<>();
-        for (String line : lines) {
+        try {
+            parse(new StringReader(commands), policy, commandLines::add);
+        } catch (IOException e) {
+            // Can't happen with a StringReader.
+            throw new UncheckedIOException(e);
+        }
+        return commandLines;
+    }
+
+    /**
+     * Same as {@link #parse(String, OsFileConventions)} but passes each command to the consumer as
+     * soon as its line is read, so that the whole ndk-build output is never held in memory.
+     *
+     * <p>Executables, flags and paths are interned because most of them are repeated by every
+     * compile command.
+     */
+    static void parse(
+            @NonNull Reader commands,
+            @NonNull OsFileConventions policy,
+            @NonNull Consumer<CommandLine> consumer)
+            throws IOException {
+        Interner<String> interner = Interners.newStrongInterner();
+        BufferedReader reader = new BufferedReader(commands);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
             List<String> commandList = policy.splitCommandLine(line);
             for (String commandString : commandList) {
                 List<String> escapedFlags = policy.tokenizeCommandLineToEscaped(commandString);
                 List<String> rawFlags = policy.tokenizeCommandLineToRaw(commandString);
-                String command = escapedFlags.get(0);
+                String command = interner.intern(escapedFlags.get(0));
                 escapedFlags.remove(0);
                 rawFlags.remove(0);
-                commandLines.add(new CommandLine(command, escapedFlags, rawFlags));
+                escapedFlags.replaceAll(interner::intern);
+                rawFlags.replaceAll(interner::intern);
+                consumer.accept(new CommandLine(command, escapedFlags, rawFlags));
             }
         }
-        return commandLines;
     }
 }
@@ -16,13 +16,22 @@
 package com.android.build.gradle.external.gnumake;
 
 import com.android.annotations.NonNull;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.utils.SparseArray;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -30,10 +39,27 @@ import java.util.Map;
 import java.util.Set;
 
 /**
- * Analyze flow of inputs and outputs between commands (where ordering is important).
- * Result is a mapping from output file to input file(s).
+ * Analyze flow of inputs and outputs between commands (where ordering is important). Commands are
+ * traced as they are read. Result is a mapping from output file to input file(s).
  */
 class FlowAnalyzer {
+    // For each command, the classification of the command.
+    @NonNull private final List<BuildStepInfo> commandSummaries = new ArrayList<>();
+
+    // For each filename, record the last command that created it.
+    @NonNull private final Map<String, Integer> outputToCommand = new HashMap<>();
+
+    // For each command, the commands that created its inputs.
+    @NonNull private final List<int[]> commandInputCommands = new ArrayList<>();
+
+    // The commands that are terminal inputs, i.e. that compile a source file.
+    @NonNull private final BitSet terminalCommands = new BitSet();
+
+    // For each command, the set of outputs that was consumed.
+    @NonNull private final SparseArray<Set<String>> commandOutputsConsumed = new SparseArray<>();
+
+    private FlowAnalyzer() {}
+
     /**
      * Build the flow analysis for the given set of classifications. This tracks library files back
      * through the {@link BuildStepInfo} call chain and attributes source input files (.c and .cpp)
@@ -45,69 +71,146 @@ class FlowAnalyzer {
     @NonNull
     static ListMultimap<String, List<BuildStepInfo>> analyze(
             @NonNull String commands, @NonNull OsFileConventions policy) {
-        List<BuildStepInfo> commandSummaries = CommandClassifier.classify(commands, policy);
+        try {
+            return analyze(new StringReader(commands), policy);
+        } catch (IOException e) {
+            // Can't happen with a StringReader.
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        // For each filename, record the last command that created it.
-        Map<String, Integer> outputToCommand = new HashMap<>();
+    /**
+     * Same as {@link #analyze(String, OsFileConventions)} but classifies each command as soon as it
+     * is read, so that only the recognized commands are kept in memory.
+     */
+    @NonNull
+    static ListMultimap<String, List<BuildStepInfo>> analyze(
+            @NonNull Reader commands, @NonNull OsFileConventions policy) throws IOException {
+        FlowAnalyzer analyzer = new FlowAnalyzer();
+        CommandClassifier.classify(
+                commands, policy, CommandClassifier.DEFAULT_CLASSIFIERS, analyzer::trace);
+        return analyzer.getTerminalOutputs();
+    }
 
-        // For each command, the set of terminal inputs.
-        ArrayList<Set<BuildStepInfo>> outputToTerminals = new ArrayList<>();
+    /**
+     * Records the commands that created the inputs of the next command. The terminal inputs are
+     * only traced once all the commands are known, see {@link #getTerminalOutputs()}.
+     */
+    private void trace(@NonNull BuildStepInfo current) {
+        if (current.inputsAreSourceFiles()) {
+            if (current.getInputs().size() != 1) {
+                throw new RuntimeException(
+                        String.format(
+                                "GNUMAKE: Expected exactly one source file in compile step:"
+                                        + " %s\nbut received: \n%s",
+                                current,
+                                Joiner.on("\n").join(current.getInputs())));
+            }
+        }
+        int i = commandSummaries.size();
+        commandSummaries.add(current);
+        commandOutputsConsumed.put(i, new HashSet<>());
 
-        // For each command, the set of outputs that was consumed.
-        SparseArray<Set<String>> commandOutputsConsumed = new SparseArray<>();
+        // For each input, find the line that created it or null if this is a terminal input.
+        int[] inputCommands = new int[current.getInputs().size()];
+        int inputCommandCount = 0;
+        for (String input : current.getInputs()) {
+            Integer inputCommandIndex = outputToCommand.get(input);
+            if (inputCommandIndex != null) {
+                inputCommands[inputCommandCount++] = inputCommandIndex;
 
-        for (int i = 0; i < commandSummaries.size(); ++i) {
-            BuildStepInfo current = commandSummaries.get(i);
-            if (current.inputsAreSourceFiles()) {
-                if (current.getInputs().size() != 1) {
-                    throw new RuntimeException(
-                            String.format(
-                                    "GNUMAKE: Expected exactly one source file in compile step:"
-                                            + " %s\nbut received: \n%s",
-                                    current,
-                                    Joiner.on("\n").join(current.getInputs())));
-                }
+                // Record this a consumed output.
+                commandOutputsConsumed.get(inputCommandIndex).add(input);
+                continue;
             }
-            commandOutputsConsumed.put(i, new HashSet<>());
-
-            // For each input, find the line that created it or null if this is a terminal input.
-            Set<BuildStepInfo> terminals = new HashSet<>();
-            for (String input : current.getInputs()) {
-                if (outputToCommand.containsKey(input)) {
-                    int inputCommandIndex = outputToCommand.get(input);
-                    terminals.addAll(outputToTerminals.get(inputCommandIndex));
-
-                    // Record this a consumed output.
-                    commandOutputsConsumed.get(inputCommandIndex).add(input);
-                    continue;
-                }
-                if (current.inputsAreSourceFiles()) {
-                    terminals.add(current);
-                }
+            if (current.inputsAreSourceFiles()) {
+                terminalCommands.set(i);
             }
-            outputToTerminals.add(terminals);
+        }
+        commandInputCommands.add(Arrays.copyOf(inputCommands, inputCommandCount));
 
-            // Record the files output by this command
+        // Record the files output by this command
+        for (String output : current.getOutputs()) {
+            outputToCommand.put(output, i);
+        }
+    }
+
+    /**
+     * Returns the outputs that are never consumed with their terminal inputs. Each output is traced
+     * back to its terminal inputs in parallel, as the outputs are typically libraries with many
+     * source files.
+     */
+    @NonNull
+    private ListMultimap<String, List<BuildStepInfo>> getTerminalOutputs() {
+        List<Integer> emittingCommands = new ArrayList<>();
+        for (int i = 0; i < commandSummaries.size(); ++i) {
+            BuildStepInfo current = commandSummaries.get(i);
+            Set<String> outputsConsumed = commandOutputsConsumed.get(i);
             for (String output : current.getOutputs()) {
-                outputToCommand.put(output, i);
+                if (!outputsConsumed.contains(output) || !current.inputsAreSourceFiles()) {
+                    emittingCommands.add(i);
+                    break;
+                }
             }
         }
 
+        // Trace and sort the inputs
+        List<List<BuildStepInfo>> orderedTerminals =
+                new ArrayList<>(Collections.nCopies(commandSummaries.size(), null));
+        WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (int i : emittingCommands) {
+            executor.execute(
+                    () -> {
+                        orderedTerminals.set(i, getOrderedTerminals(i));
+                        return null;
+                    });
+        }
+        try {
+            executor.waitForTasksWithQuickFail(true /* cancelRemaining */);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
         // Emit the outputs that are never consumed.
         ListMultimap<String, List<BuildStepInfo>> result = ArrayListMultimap.create();
-        for (int i = 0; i < commandSummaries.size(); ++i) {
+        for (int i : emittingCommands) {
             BuildStepInfo current = commandSummaries.get(i);
             Set<String> outputsConsumed = commandOutputsConsumed.get(i);
             for (String output : current.getOutputs()) {
                 if (!outputsConsumed.contains(output) || !current.inputsAreSourceFiles()) {
-                    // Sort the inputs
-                    List<BuildStepInfo> ordered = new ArrayList<>();
-                    ordered.addAll(outputToTerminals.get(i));
-                    Collections.sort(ordered, Comparator.comparing(BuildStepInfo::getOnlyInput));
-                    result.put(output, ordered);
+                    result.put(output, new ArrayList<>(orderedTerminals.get(i)));
                 }
             }
         }
         return result;
     }
+
+    /**
+     * Walks back from the given command through the commands that created its inputs, and returns
+     * the terminal inputs that were reached sorted by source file.
+     */
+    @NonNull
+    private List<BuildStepInfo> getOrderedTerminals(int command) {
+        Set<BuildStepInfo> terminals = new HashSet<>();
+        BitSet visited = new BitSet(commandSummaries.size());
+        Deque<Integer> pending = new ArrayDeque<>();
+        visited.set(command);
+        pending.push(command);
+        while (!pending.isEmpty()) {
+            int current = pending.pop();
+            if (terminalCommands.get(current)) {
+                terminals.add(commandSummaries.get(current));
+            }
+            for (int inputCommand : commandInputCommands.get(current)) {
+                if (!visited.get(inputCommand)) {
+                    visited.set(inputCommand);
+                    pending.push(inputCommand);
+                }
+            }
+        }
+        List<BuildStepInfo> ordered = new ArrayList<>(terminals);
+        ordered.sort(Comparator.comparing(BuildStepInfo::getOnlyInput));
+        return ordered;
+    }
 }
@@ -21,6 +21,7 @@ import com.android.build.gradle.internal.cxx.json.NativeBuildConfigValue;
 import com.android.build.gradle.internal.cxx.json.NativeLibraryValue;
 import com.android.build.gradle.internal.cxx.json.NativeSourceFileValue;
 import com.android.build.gradle.internal.cxx.json.NativeToolchainValue;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.utils.NativeSourceFileExtensions;
 import com.android.utils.NdkUtils;
 import com.google.common.base.Joiner;
@@ -29,6 +30,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -47,18 +50,19 @@ import java.util.stream.Collectors;
 
  This involves several stages of processing:
 
- (1) CommandLineParser.parse accepts a single string which is the ndk-build -n output. It tokenizes
- each command in the string according to shell parsing rules on Windows or bash (includes mac).
- The result is a list of CommandLine.
+ (1) CommandLineParser.parse accepts the ndk-build -n output. It tokenizes each command in the
+ output according to shell parsing rules on Windows or bash (includes mac), line by line. The
+ result is a stream of CommandLine.
 
  (2) CommandClassifier.classify accepts the output of (1). It looks at each command for something it
  recognizes. This will typically be calls to clang, gcc or gcc-ar. Once a command is recognized,
- its file inputs and outputs are recorded. The result is a list of Classification.
+ its file inputs and outputs are recorded. The result is a stream of BuildStepInfo, the other
+ commands are dropped.
 
- (3) FlowAnalyzer.analyze accepts the output of (2). It traces the flow of inputs and outputs. This
- flow tracing will involve intermediate steps through linking and possibly archiving (gcc-ar).
- Files involved are typically .c, .cpp, .o, .a and .so. The result of this step is a map from
- terminal outputs (.so) to original inputs (.c and .cpp).
+ (3) FlowAnalyzer.analyze accepts the output of (2). It traces the flow of inputs and outputs as the
+ commands arrive. This flow tracing will involve intermediate steps through linking and possibly
+ archiving (gcc-ar). Files involved are typically .c, .cpp, .o, .a and .so. The result of this
+ step is a map from terminal outputs (.so) to original inputs (.c and .cpp).
 
  (4) NativeBuildConfigValueBuilder.build accepts the output of (3). It examines the terminal outputs
  and input information to build up an instance of NativeBuildConfigValue.
@@ -127,8 +131,37 @@ public class NativeBuildConfigValueBuilder {
             String cleanCommand,
             String variantName,
             @NonNull String commands) {
-        ListMultimap<String, List<BuildStepInfo>> outputs =
-                FlowAnalyzer.analyze(commands, fileConventions);
+        return addOutputs(
+                buildCommand,
+                cleanCommand,
+                variantName,
+                FlowAnalyzer.analyze(commands, fileConventions));
+    }
+
+    /**
+     * Add commands for a particular variant, reading them as they are produced, e.g. directly from
+     * the output of ndk-build.
+     */
+    @NonNull
+    public NativeBuildConfigValueBuilder addCommands(
+            String buildCommand,
+            String cleanCommand,
+            String variantName,
+            @NonNull Reader commands)
+            throws IOException {
+        return addOutputs(
+                buildCommand,
+                cleanCommand,
+                variantName,
+                FlowAnalyzer.analyze(commands, fileConventions));
+    }
+
+    @NonNull
+    private NativeBuildConfigValueBuilder addOutputs(
+            String buildCommand,
+            String cleanCommand,
+            String variantName,
+            @NonNull ListMultimap<String, List<BuildStepInfo>> outputs) {
         for (Map.Entry<String, List<BuildStepInfo>> entry : outputs.entries()) {
             this.outputs.add(
                     new Output(
@@ -264,50 +297,73 @@ public class NativeBuildConfigValueBuilder {
         return Lists.newArrayList(cleanCommands);
     }
 
+    /**
+     * Generates the libraries in parallel, as stripping the flags of each source file is the most
+     * expensive part of the build for projects with many source files.
+     */
     @NonNull
     private Map<String, NativeLibraryValue> generateLibraries() {
+        List<NativeLibraryValue> values =
+                new ArrayList<>(Collections.nCopies(outputs.size(), null));
+        WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (int i = 0; i < outputs.size(); ++i) {
+            int index = i;
+            executor.execute(
+                    () -> {
+                        values.set(index, generateLibrary(outputs.get(index)));
+                        return null;
+                    });
+        }
+        try {
+            executor.waitForTasksWithQuickFail(true /* cancelRemaining */);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
 
         Map<String, NativeLibraryValue> librariesMap = new HashMap<>();
+        for (int i = 0; i < outputs.size(); ++i) {
+            librariesMap.put(outputs.get(i).libraryName, values.get(i));
+        }
+        return librariesMap;
+    }
 
-        for (Output output : outputs) {
-            NativeLibraryValue value = new NativeLibraryValue();
-            librariesMap.put(output.libraryName, value);
-            value.buildCommand = output.buildCommand + " " + output.outputFileName;
-            value.abi =
-                    fileConventions.getFileName(
-                            fileConventions.getFileParent(output.outputFileName));
-            value.artifactName = output.artifactName;
-            value.toolchain = output.toolchain;
-            value.output = fileConventions.toFile(output.outputFileName);
-            value.files = new ArrayList<>();
-
-            for (BuildStepInfo input : output.commandInputs) {
-                NativeSourceFileValue file = new NativeSourceFileValue();
-                value.files.add(file);
-                file.src = fileConventions.toFile(input.getOnlyInput());
-                if (!fileConventions.isPathAbsolute(input.getOnlyInput())) {
-                    file.src = fileConventions.toFile(executionRootPath, input.getOnlyInput());
+    @NonNull
+    private NativeLibraryValue generateLibrary(@NonNull Output output) {
+        NativeLibraryValue value = new NativeLibraryValue();
+        value.buildCommand = output.buildCommand + " " + output.outputFileName;
+        value.abi =
+                fileConventions.getFileName(fileConventions.getFileParent(output.outputFileName));
+        value.artifactName = output.artifactName;
+        value.toolchain = output.toolchain;
+        value.output = fileConventions.toFile(output.outputFileName);
+        value.files = new ArrayList<>();
+
+        for (BuildStepInfo input : output.commandInputs) {
+            NativeSourceFileValue file = new NativeSourceFileValue();
+            value.files.add(file);
+            file.src = fileConventions.toFile(input.getOnlyInput());
+            if (!fileConventions.isPathAbsolute(input.getOnlyInput())) {
+                file.src = fileConventions.toFile(executionRootPath, input.getOnlyInput());
+            }
+            List<String> flags = new ArrayList<>();
+            for (int i = 0; i < input.getCommand().escapedFlags.size(); ++i) {
+                String arg = input.getCommand().escapedFlags.get(i);
+                if (STRIP_FLAGS_WITH_ARG.contains(arg)) {
+                    ++i; // skip the next argument.
+                    continue;
                 }
-                List<String> flags = new ArrayList<>();
-                for (int i = 0; i < input.getCommand().escapedFlags.size(); ++i) {
-                    String arg = input.getCommand().escapedFlags.get(i);
-                    if (STRIP_FLAGS_WITH_ARG.contains(arg)) {
-                        ++i; // skip the next argument.
-                        continue;
-                    }
-                    if (startsWithStripFlag(arg)) {
-                        continue;
-                    }
-                    if (STRIP_FLAGS_WITHOUT_ARG.contains(arg)) {
-                        continue;
-                    }
-                    flags.add(input.getCommand().rawFlags.get(i));
+                if (startsWithStripFlag(arg)) {
+                    continue;
                 }
-                file.flags = Joiner.on(" ").join(flags);
+                if (STRIP_FLAGS_WITHOUT_ARG.contains(arg)) {
+                    continue;
+                }
+                flags.add(input.getCommand().rawFlags.get(i));
             }
+            file.flags = Joiner.on(" ").join(flags);
         }
-
-        return librariesMap;
+        return value;
     }
 
     private static boolean startsWithStripFlag(@NonNull String arg) {
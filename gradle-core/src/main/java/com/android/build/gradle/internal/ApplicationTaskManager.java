@@ -34,6 +34,7 @@ import com.android.build.gradle.internal.incremental.BuildInfoWriterTask;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.android.build.gradle.internal.pipeline.TransformTask;
 import com.android.build.gradle.internal.res.Aapt2MavenUtils;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonManagerService;
 import com.android.build.gradle.internal.scope.AnchorOutputType;
 import com.android.build.gradle.internal.scope.BuildArtifactsHolder;
 import com.android.build.gradle.internal.scope.GlobalScope;
@@ -293,6 +294,7 @@ public class ApplicationTaskManager extends TaskManager {
                         variantScope.getInstantRunBuildContext(),
                         variantScope.getGlobalScope().getAndroidBuilder(),
                         Aapt2MavenUtils.getAapt2FromMavenIfEnabled(globalScope),
+                        Aapt2DaemonManagerService.getAaptDaemonPoolSizes(projectOptions),
                         variantScope.getVariantConfiguration()::getApplicationId,
                         variantScope.getVariantConfiguration().getSigningConfig(),
                         AaptGeneration.fromProjectOptions(projectOptions),
@@ -324,6 +326,7 @@ public class ApplicationTaskManager extends TaskManager {
                         variantScope.getInstantRunBuildContext(),
                         variantScope.getGlobalScope().getAndroidBuilder(),
                         Aapt2MavenUtils.getAapt2FromMavenIfEnabled(globalScope),
+                        Aapt2DaemonManagerService.getAaptDaemonPoolSizes(projectOptions),
                         variantScope.getVariantConfiguration()::getApplicationId,
                         variantScope.getVariantConfiguration().getSigningConfig(),
                         AaptGeneration.fromProjectOptions(projectOptions),
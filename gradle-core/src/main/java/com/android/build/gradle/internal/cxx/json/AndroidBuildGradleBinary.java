@@ -0,0 +1,600 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.cxx.json;
+
+import com.android.annotations.NonNull;
+import com.android.builder.utils.MappedFiles;
+import com.google.common.base.Charsets;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of android_build_gradle.json, written next to it so that the JSON, which
+ * can be hundreds of MB for projects with many source files, is only parsed once.
+ *
+ * <p>The binary form records the calls to {@link AndroidBuildGradleJsonStreamingVisitor} made by
+ * {@link AndroidBuildGradleJsonStreamingParser}, and replays them to other visitors. Each distinct
+ * string, such as the flags shared by most of the files of a library, is stored once. The files of
+ * each library are stored as a block preceded by its size, so that the readers that don't need the
+ * files, like the mini config readers, skip them entirely.
+ *
+ * <p>Strings are only decoded when they are visited, and the file is memory-mapped except on
+ * Windows, where a mapped file can't be replaced until the mapping is garbage collected.
+ */
+public final class AndroidBuildGradleBinary {
+
+    private static final int MAGIC = 0x41474242; // "AGBB"
+    private static final int VERSION = 2;
+
+    // Header layout: magic, version, string count, offset of the string offsets, offset of the
+    // events, size of the events. The header is followed by the events, the strings, and the
+    // offsets of the strings.
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+
+    // Events, followed by their operands. Strings are referenced by their index.
+    private static final byte BEGIN_STRING_TABLE = 1;
+    private static final byte END_STRING_TABLE = 2;
+    private static final byte BEGIN_LIBRARY = 3;
+    private static final byte END_LIBRARY = 4;
+    private static final byte BEGIN_LIBRARY_FILE = 5;
+    private static final byte END_LIBRARY_FILE = 6;
+    private static final byte BEGIN_TOOLCHAIN = 7;
+    private static final byte END_TOOLCHAIN = 8;
+    private static final byte STRING_TABLE_ENTRY = 9;
+    private static final byte BUILD_FILE = 10;
+    private static final byte LIBRARY_ABI = 11;
+    private static final byte LIBRARY_ARTIFACT_NAME = 12;
+    private static final byte LIBRARY_BUILD_COMMAND = 13;
+    private static final byte LIBRARY_BUILD_TYPE = 14;
+    private static final byte LIBRARY_OUTPUT = 15;
+    private static final byte LIBRARY_TOOLCHAIN = 16;
+    private static final byte LIBRARY_GROUP_NAME = 17;
+    private static final byte TOOLCHAIN_C_COMPILER_EXECUTABLE = 18;
+    private static final byte TOOLCHAIN_CPP_COMPILER_EXECUTABLE = 19;
+    private static final byte LIBRARY_FILE_FLAGS = 20;
+    private static final byte LIBRARY_FILE_FLAGS_ORDINAL = 21;
+    private static final byte LIBRARY_FILE_SRC = 22;
+    private static final byte LIBRARY_FILE_WORKING_DIRECTORY = 23;
+    private static final byte LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL = 24;
+    private static final byte CLEAN_COMMAND = 25;
+    private static final byte C_FILE_EXTENSION = 26;
+    private static final byte CPP_FILE_EXTENSION = 27;
+    private static final byte LIBRARY_RUNTIME_FILE = 28;
+    /** Start of the files of a library, followed by the size of the block as a fixed int. */
+    private static final byte LIBRARY_FILES = 29;
+
+    private AndroidBuildGradleBinary() {}
+
+    /**
+     * Replays the content of the given binary file to the visitor.
+     *
+     * @param includeFiles whether to visit the source files of the libraries
+     * @return false, without calling the visitor, if the file is not in the current format
+     */
+    public static boolean read(
+            @NonNull File binary,
+            @NonNull AndroidBuildGradleJsonStreamingVisitor visitor,
+            boolean includeFiles)
+            throws IOException {
+        ByteBuffer buffer = MappedFiles.mapReadOnly(binary.toPath());
+        if (buffer.remaining() < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(Integer.BYTES) != VERSION) {
+            return false;
+        }
+        new Reader(buffer, visitor, includeFiles).read();
+        return true;
+    }
+
+    /** Replays the events of a binary file. */
+    private static final class Reader {
+        @NonNull private final ByteBuffer buffer;
+        @NonNull private final AndroidBuildGradleJsonStreamingVisitor visitor;
+        private final boolean includeFiles;
+        private final int stringOffsets;
+        @NonNull private final String[] strings;
+
+        Reader(
+                @NonNull ByteBuffer buffer,
+                @NonNull AndroidBuildGradleJsonStreamingVisitor visitor,
+                boolean includeFiles) {
+            this.buffer = buffer;
+            this.visitor = visitor;
+            this.includeFiles = includeFiles;
+            this.strings = new String[buffer.getInt(2 * Integer.BYTES)];
+            this.stringOffsets = buffer.getInt(3 * Integer.BYTES);
+        }
+
+        void read() {
+            int eventsOffset = buffer.getInt(4 * Integer.BYTES);
+            int eventsEnd = eventsOffset + buffer.getInt(5 * Integer.BYTES);
+            buffer.position(eventsOffset);
+            while (buffer.position() < eventsEnd) {
+                byte event = buffer.get();
+                switch (event) {
+                    case BEGIN_STRING_TABLE:
+                        visitor.beginStringTable();
+                        break;
+                    case END_STRING_TABLE:
+                        visitor.endStringTable();
+                        break;
+                    case BEGIN_LIBRARY:
+                        visitor.beginLibrary(nextString());
+                        break;
+                    case END_LIBRARY:
+                        visitor.endLibrary();
+                        break;
+                    case BEGIN_LIBRARY_FILE:
+                        visitor.beginLibraryFile();
+                        break;
+                    case END_LIBRARY_FILE:
+                        visitor.endLibraryFile();
+                        break;
+                    case BEGIN_TOOLCHAIN:
+                        visitor.beginToolchain(nextString());
+                        break;
+                    case END_TOOLCHAIN:
+                        visitor.endToolchain();
+                        break;
+                    case STRING_TABLE_ENTRY:
+                        int index = nextInt();
+                        visitor.visitStringTableEntry(index, nextString());
+                        break;
+                    case BUILD_FILE:
+                        visitor.visitBuildFile(nextString());
+                        break;
+                    case LIBRARY_ABI:
+                        visitor.visitLibraryAbi(nextString());
+                        break;
+                    case LIBRARY_ARTIFACT_NAME:
+                        visitor.visitLibraryArtifactName(nextString());
+                        break;
+                    case LIBRARY_BUILD_COMMAND:
+                        visitor.visitLibraryBuildCommand(nextString());
+                        break;
+                    case LIBRARY_BUILD_TYPE:
+                        visitor.visitLibraryBuildType(nextString());
+                        break;
+                    case LIBRARY_OUTPUT:
+                        visitor.visitLibraryOutput(nextString());
+                        break;
+                    case LIBRARY_TOOLCHAIN:
+                        visitor.visitLibraryToolchain(nextString());
+                        break;
+                    case LIBRARY_GROUP_NAME:
+                        visitor.visitLibraryGroupName(nextString());
+                        break;
+                    case TOOLCHAIN_C_COMPILER_EXECUTABLE:
+                        visitor.visitToolchainCCompilerExecutable(nextString());
+                        break;
+                    case TOOLCHAIN_CPP_COMPILER_EXECUTABLE:
+                        visitor.visitToolchainCppCompilerExecutable(nextString());
+                        break;
+                    case LIBRARY_FILE_FLAGS:
+                        visitor.visitLibraryFileFlags(nextString());
+                        break;
+                    case LIBRARY_FILE_FLAGS_ORDINAL:
+                        visitor.visitLibraryFileFlagsOrdinal(nextInt());
+                        break;
+                    case LIBRARY_FILE_SRC:
+                        visitor.visitLibraryFileSrc(nextString());
+                        break;
+                    case LIBRARY_FILE_WORKING_DIRECTORY:
+                        visitor.visitLibraryFileWorkingDirectory(nextString());
+                        break;
+                    case LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL:
+                        visitor.visitLibraryFileWorkingDirectoryOrdinal(nextInt());
+                        break;
+                    case CLEAN_COMMAND:
+                        visitor.visitCleanCommands(nextString());
+                        break;
+                    case C_FILE_EXTENSION:
+                        visitor.visitCFileExtensions(nextString());
+                        break;
+                    case CPP_FILE_EXTENSION:
+                        visitor.visitCppFileExtensions(nextString());
+                        break;
+                    case LIBRARY_RUNTIME_FILE:
+                        visitor.visitLibraryRuntimeFile(nextString());
+                        break;
+                    case LIBRARY_FILES:
+                        int size = buffer.getInt();
+                        if (!includeFiles) {
+                            buffer.position(buffer.position() + size);
+                        }
+                        break;
+                    default:
+                        throw new RuntimeException(
+                                String.format(
+                                        "Unexpected event %d in binary native build config",
+                                        event));
+                }
+            }
+        }
+
+        private int nextInt() {
+            int result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get();
+                result |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        @NonNull
+        private String nextString() {
+            int index = nextInt();
+            String result = strings[index];
+            if (result == null) {
+                int start = buffer.getInt(stringOffsets + index * Integer.BYTES);
+                int end = buffer.getInt(stringOffsets + (index + 1) * Integer.BYTES);
+                byte[] bytes = new byte[end - start];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = buffer.get(start + i);
+                }
+                result = new String(bytes, Charsets.UTF_8);
+                strings[index] = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Visitor that writes the calls made by {@link AndroidBuildGradleJsonStreamingParser} to a
+     * temporary file as they are made. The binary file is only replaced by {@link #commit()}, once
+     * the JSON is parsed, and the temporary file is deleted on {@link #close()}.
+     *
+     * <p>Only the distinct strings are kept in memory, as they are written after the events.
+     */
+    public static final class Writer extends AndroidBuildGradleJsonStreamingVisitor
+            implements Closeable {
+        @NonNull private final File binary;
+        @NonNull private final Path temp;
+        @NonNull private final FileChannel channel;
+        @NonNull private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        @NonNull private final Map<String, Integer> stringIndices = new HashMap<>();
+        @NonNull private final List<String> strings = new ArrayList<>();
+        /** Position in the file of the start of the buffer. */
+        private long flushed = HEADER_SIZE;
+        /** Position in the file of the size of the current block of library files, or -1. */
+        private long filesBlockStart = -1;
+
+        public Writer(@NonNull File binary) throws IOException {
+            this.binary = binary;
+            this.temp =
+                    Files.createTempFile(
+                            binary.getParentFile().toPath(), binary.getName(), ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+        }
+
+        /**
+         * Writes the strings after the recorded calls, then replaces the binary file atomically
+         * as other builds of the same project may be reading it.
+         */
+        public void commit() throws IOException {
+            endFilesBlock();
+            long eventsSize = position() - HEADER_SIZE;
+            long[] offsets = new long[strings.size() + 1];
+            for (int i = 0; i < strings.size(); i++) {
+                offsets[i] = position();
+                writeBytes(strings.get(i).getBytes(Charsets.UTF_8));
+            }
+            offsets[strings.size()] = position();
+            long stringOffsets = position();
+            if (stringOffsets + offsets.length * (long) Integer.BYTES > Integer.MAX_VALUE) {
+                // Too big to be mapped, keep reading the JSON.
+                return;
+            }
+            for (long offset : offsets) {
+                ensureRemaining(Integer.BYTES);
+                buffer.putInt((int) offset);
+            }
+            flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(strings.size())
+                    .putInt((int) stringOffsets)
+                    .putInt(HEADER_SIZE)
+                    .putInt((int) eventsSize);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.close();
+            Files.move(
+                    temp,
+                    binary.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(temp);
+        }
+
+        private long position() {
+            return flushed + buffer.position();
+        }
+
+        private void event(byte event) {
+            boolean fileEvent =
+                    event == BEGIN_LIBRARY_FILE
+                            || event == END_LIBRARY_FILE
+                            || (event >= LIBRARY_FILE_FLAGS
+                                    && event <= LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL);
+            try {
+                if (fileEvent && filesBlockStart < 0) {
+                    writeByte(LIBRARY_FILES);
+                    filesBlockStart = position();
+                    ensureRemaining(Integer.BYTES);
+                    buffer.putInt(0);
+                } else if (!fileEvent) {
+                    endFilesBlock();
+                }
+                writeByte(event);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void event(byte event, @NonNull String value) {
+            event(event);
+            writeString(value);
+        }
+
+        private void event(byte event, int value) {
+            event(event);
+            writeInt(value);
+        }
+
+        /** Writes the size of the current block of library files, in the buffer or the file. */
+        private void endFilesBlock() throws IOException {
+            if (filesBlockStart < 0) {
+                return;
+            }
+            int blockSize = (int) (position() - filesBlockStart - Integer.BYTES);
+            if (filesBlockStart >= flushed) {
+                buffer.putInt((int) (filesBlockStart - flushed), blockSize);
+            } else {
+                ByteBuffer size = ByteBuffer.allocate(Integer.BYTES).putInt(blockSize);
+                size.flip();
+                while (size.hasRemaining()) {
+                    channel.write(size, filesBlockStart + size.position());
+                }
+            }
+            filesBlockStart = -1;
+        }
+
+        private void writeString(@NonNull String value) {
+            Integer index = stringIndices.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                stringIndices.put(value, index);
+            }
+            writeInt(index);
+        }
+
+        private void writeInt(int value) {
+            try {
+                while ((value & ~0x7F) != 0) {
+                    writeByte((byte) ((value & 0x7F) | 0x80));
+                    value >>>= 7;
+                }
+                writeByte((byte) value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeByte(byte value) throws IOException {
+            ensureRemaining(1);
+            buffer.put(value);
+        }
+
+        private void writeBytes(@NonNull byte[] bytes) throws IOException {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    channel.write(wrapped);
+                }
+                flushed += bytes.length;
+                return;
+            }
+            ensureRemaining(bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void ensureRemaining(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            flushed += buffer.limit();
+            buffer.clear();
+        }
+
+        @Override
+        protected void beginStringTable() {
+            event(BEGIN_STRING_TABLE);
+        }
+
+        @Override
+        protected void endStringTable() {
+            event(END_STRING_TABLE);
+        }
+
+        @Override
+        protected void beginLibrary(@NonNull String libraryName) {
+            event(BEGIN_LIBRARY, libraryName);
+        }
+
+        @Override
+        protected void endLibrary() {
+            event(END_LIBRARY);
+        }
+
+        @Override
+        protected void beginLibraryFile() {
+            event(BEGIN_LIBRARY_FILE);
+        }
+
+        @Override
+        protected void endLibraryFile() {
+            event(END_LIBRARY_FILE);
+        }
+
+        @Override
+        protected void beginToolchain(@NonNull String toolchain) {
+            event(BEGIN_TOOLCHAIN, toolchain);
+        }
+
+        @Override
+        protected void endToolchain() {
+            event(END_TOOLCHAIN);
+        }
+
+        @Override
+        protected void visitStringTableEntry(int index, @NonNull String value) {
+            event(STRING_TABLE_ENTRY, index);
+            writeString(value);
+        }
+
+        @Override
+        protected void visitBuildFile(@NonNull String buildFile) {
+            event(BUILD_FILE, buildFile);
+        }
+
+        @Override
+        protected void visitLibraryAbi(@NonNull String abi) {
+            event(LIBRARY_ABI, abi);
+        }
+
+        @Override
+        protected void visitLibraryArtifactName(@NonNull String artifact) {
+            event(LIBRARY_ARTIFACT_NAME, artifact);
+        }
+
+        @Override
+        protected void visitLibraryBuildCommand(@NonNull String buildCommand) {
+            event(LIBRARY_BUILD_COMMAND, buildCommand);
+        }
+
+        @Override
+        protected void visitLibraryBuildType(@NonNull String buildType) {
+            event(LIBRARY_BUILD_TYPE, buildType);
+        }
+
+        @Override
+        protected void visitLibraryOutput(@NonNull String output) {
+            event(LIBRARY_OUTPUT, output);
+        }
+
+        @Override
+        protected void visitLibraryToolchain(@NonNull String toolchain) {
+            event(LIBRARY_TOOLCHAIN, toolchain);
+        }
+
+        @Override
+        protected void visitLibraryGroupName(@NonNull String groupName) {
+            event(LIBRARY_GROUP_NAME, groupName);
+        }
+
+        @Override
+        protected void visitToolchainCCompilerExecutable(@NonNull String executable) {
+            event(TOOLCHAIN_C_COMPILER_EXECUTABLE, executable);
+        }
+
+        @Override
+        protected void visitToolchainCppCompilerExecutable(@NonNull String executable) {
+            event(TOOLCHAIN_CPP_COMPILER_EXECUTABLE, executable);
+        }
+
+        @Override
+        protected void visitLibraryFileFlags(@NonNull String flags) {
+            event(LIBRARY_FILE_FLAGS, flags);
+        }
+
+        @Override
+        protected void visitLibraryFileFlagsOrdinal(@NonNull Integer flagsOrdinal) {
+            event(LIBRARY_FILE_FLAGS_ORDINAL, flagsOrdinal);
+        }
+
+        @Override
+        protected void visitLibraryFileSrc(@NonNull String src) {
+            event(LIBRARY_FILE_SRC, src);
+        }
+
+        @Override
+        protected void visitLibraryFileWorkingDirectory(@NonNull String workingDirectory) {
+            event(LIBRARY_FILE_WORKING_DIRECTORY, workingDirectory);
+        }
+
+        @Override
+        protected void visitLibraryFileWorkingDirectoryOrdinal(
+                @NonNull Integer workingDirectoryOrdinal) {
+            event(LIBRARY_FILE_WORKING_DIRECTORY_ORDINAL, workingDirectoryOrdinal);
+        }
+
+        @Override
+        protected void visitCleanCommands(@NonNull String cleanCommand) {
+            event(CLEAN_COMMAND, cleanCommand);
+        }
+
+        @Override
+        protected void visitCFileExtensions(@NonNull String extension) {
+            event(C_FILE_EXTENSION, extension);
+        }
+
+        @Override
+        protected void visitCppFileExtensions(@NonNull String extension) {
+            event(CPP_FILE_EXTENSION, extension);
+        }
+
+        @Override
+        protected void visitLibraryRuntimeFile(@NonNull String runtimeFile) {
+            event(LIBRARY_RUNTIME_FILE, runtimeFile);
+        }
+    }
+}
@@ -19,7 +19,6 @@ package com.android.build.gradle.internal.cxx.json;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.build.gradle.tasks.ExternalNativeBuildTaskUtils;
-import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -29,7 +28,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 /** Methods for dealing with files and streams of type android_build_gradle.json. */
@@ -63,25 +62,6 @@ public class AndroidBuildGradleJsons {
         }
     }
 
-    /**
-     * Given a JsonReader that represents an android_build_gradle structure produce a small random
-     * access structure called {@link NativeBuildConfigValueMini}
-     *
-     * @param reader the Json reader
-     * @return the mini config
-     * @throws IOException if there was an IO problem reading the Json.
-     */
-    @NonNull
-    private static NativeBuildConfigValueMini parseToMiniConfig(@NonNull JsonReader reader)
-            throws IOException {
-        MiniConfigBuildingVisitor miniConfigVisitor = new MiniConfigBuildingVisitor();
-        try (AndroidBuildGradleJsonStreamingParser parser =
-                new AndroidBuildGradleJsonStreamingParser(reader, miniConfigVisitor)) {
-            parser.parse();
-            return miniConfigVisitor.miniConfig;
-        }
-    }
-
     /**
      * Given a list of Json files and the current variant name produce a list of
      * NativeBuildConfigValueMini. Json parsing is done in a streaming manner so that the entire
@@ -110,23 +90,53 @@ public class AndroidBuildGradleJsons {
     @NonNull
     public static NativeBuildConfigValueMini getNativeBuildMiniConfig(
             @NonNull File json, @Nullable GradleBuildVariant.Builder stats) throws IOException {
-        File persistedMiniConfig = ExternalNativeBuildTaskUtils.getJsonMiniConfigFile(json);
-        if (ExternalNativeBuildTaskUtils.fileIsUpToDate(json, persistedMiniConfig)) {
-            // The mini json has already been created for us. Just read it instead of parsing
-            // again.
-            try (JsonReader reader = new JsonReader(new FileReader(persistedMiniConfig))) {
-                return parseToMiniConfig(reader);
-            }
+        MiniConfigBuildingVisitor miniConfigVisitor = new MiniConfigBuildingVisitor();
+        if (stats == null) {
+            visit(json, miniConfigVisitor, false);
+            return miniConfigVisitor.miniConfig;
+        }
+        GradleBuildVariant.NativeBuildConfigInfo.Builder config =
+                GradleBuildVariant.NativeBuildConfigInfo.newBuilder();
+        visit(
+                json,
+                new AndroidBuildGradleJsonCompositeVisitor(
+                        new AndroidBuildGradleJsonStatsBuildingVisitor(config), miniConfigVisitor),
+                true);
+        stats.addNativeBuildConfig(config);
+        return miniConfigVisitor.miniConfig;
+    }
+
+    /**
+     * Streams the content of a File that contains an android_build_gradle structure to the given
+     * visitor. The content is read from the binary form of the file, which is created the first
+     * time the file is read after it changed.
+     *
+     * @param json the Json file
+     * @param visitor the visitor
+     * @param includeFiles false if the visitor doesn't need the source files of the libraries, in
+     *     which case they are skipped when possible
+     * @throws IOException if there was an IO problem reading the Json.
+     */
+    public static void visit(
+            @NonNull File json,
+            @NonNull AndroidBuildGradleJsonStreamingVisitor visitor,
+            boolean includeFiles)
+            throws IOException {
+        File binary = ExternalNativeBuildTaskUtils.getJsonBinaryFile(json);
+        if (ExternalNativeBuildTaskUtils.fileIsUpToDate(json, binary)
+                && AndroidBuildGradleBinary.read(binary, visitor, includeFiles)) {
+            return;
         }
-        NativeBuildConfigValueMini result;
-        try (JsonReader reader = new JsonReader(new FileReader(json))) {
-            result =
-                    stats == null
-                            ? parseToMiniConfig(reader)
-                            : parseToMiniConfigAndGatherStatistics(reader, stats);
+        try (AndroidBuildGradleBinary.Writer writer = new AndroidBuildGradleBinary.Writer(binary);
+                AndroidBuildGradleJsonStreamingParser parser =
+                        new AndroidBuildGradleJsonStreamingParser(
+                                new JsonReader(new FileReader(json)),
+                                new AndroidBuildGradleJsonCompositeVisitor(writer, visitor))) {
+            parser.parse();
+            writer.commit();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        writeNativeBuildMiniConfigValueToJsonFile(persistedMiniConfig, result);
-        return result;
     }
 
     /**
@@ -149,23 +159,6 @@ public class AndroidBuildGradleJsons {
         }
     }
 
-    /**
-     * Writes the given object as JSON to the given json file.
-     *
-     * @throws IOException I/O failure
-     */
-    private static void writeNativeBuildMiniConfigValueToJsonFile(
-            @NonNull File outputJson, @NonNull NativeBuildConfigValueMini miniConfig)
-            throws IOException {
-        String actualResult =
-                new GsonBuilder()
-                        .registerTypeAdapter(File.class, new PlainFileGsonTypeAdaptor())
-                        .setPrettyPrinting()
-                        .create()
-                        .toJson(miniConfig);
-        Files.write(outputJson.toPath(), actualResult.getBytes(Charsets.UTF_8));
-    }
-
     /**
      * Streams over android_build_gradle.json and produces a random-access but small structure
      * called a NativeBuildConfigValueMini.
@@ -216,6 +209,16 @@ public class AndroidBuildGradleJsons {
             miniConfig.libraries.get(libraryName).output = new File(output);
         }
 
+        @Override
+        protected void visitLibraryRuntimeFile(@NonNull String runtimeFile) {
+            super.visitLibraryRuntimeFile(runtimeFile);
+            NativeLibraryValueMini library = miniConfig.libraries.get(libraryName);
+            if (library.runtimeFiles == null) {
+                library.runtimeFiles = Lists.newArrayList();
+            }
+            library.runtimeFiles.add(new File(runtimeFile));
+        }
+
         @Override
         protected void visitBuildFile(@NonNull String buildFile) {
             super.visitBuildFile(buildFile);
@@ -18,6 +18,7 @@ package com.android.build.gradle.internal.cxx.json;
 
 import com.android.annotations.Nullable;
 import java.io.File;
+import java.util.Collection;
 
 /**
  * Subset of normal NativeBuildConfigValue that does not include potentially large structures like
@@ -31,4 +32,10 @@ public class NativeLibraryValueMini {
     @Nullable public String buildCommand;
     @Nullable public String abi;
     @Nullable public File output;
+
+    /**
+     * The files needed at runtime by the library, which include the outputs of the other libraries
+     * it depends on. Null when the JSON did not list any.
+     */
+    @Nullable public Collection<File> runtimeFiles;
 }
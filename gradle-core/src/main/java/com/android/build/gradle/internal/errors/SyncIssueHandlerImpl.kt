@@ -33,7 +33,7 @@ class SyncIssueHandlerImpl(
         private val logger: Logger)
     : SyncIssueHandler {
 
-    private val _syncIssues = Maps.newHashMap<SyncIssueKey, SyncIssue>()
+    private val _syncIssues = Maps.newConcurrentMap<SyncIssueKey, SyncIssue>()
 
     override val syncIssues: ImmutableList<SyncIssue>
         get() = ImmutableList.copyOf(_syncIssues.values)
@@ -59,6 +59,9 @@ import com.android.utils.FileUtils;
 import com.android.utils.ImmutableCollectors;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
@@ -70,6 +73,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -103,7 +107,16 @@ public class ArtifactDependencyGraph {
 
     private static final CreatingCache<HashableResolvedArtifactResult, Library> sLibraryCache =
             new CreatingCache<>(ArtifactDependencyGraph::instantiateLibrary);
-    private static final Map<String, Library> sGlobalLibrary = Maps.newHashMap();
+    private static final Map<String, Library> sGlobalLibrary = new ConcurrentHashMap<>();
+
+    /**
+     * The models of the external libraries, kept for the life of the daemon and shared by all the
+     * projects and builds, as they only depend on the artifact files and their address.
+     */
+    private static final LoadingCache<ExternalLibraryKey, Library> sExternalLibraryCache =
+            CacheBuilder.newBuilder()
+                    .softValues()
+                    .build(CacheLoader.from(ExternalLibraryKey::createLibrary));
 
     private DependencyFailureHandler dependencyFailureHandler = new DependencyFailureHandler();
 
@@ -119,19 +132,15 @@ public class ArtifactDependencyGraph {
         String address = ArtifactDependencyGraph.computeAddress(artifact);
 
         if (!(id instanceof ProjectComponentIdentifier) || artifact.isWrappedModule()) {
-            if (artifact.getDependencyType() == ANDROID) {
-                File explodedFolder = artifact.getFile();
-                library =
-                        new AndroidLibraryImpl(
-                                address,
-                                artifact.bundleResult != null
-                                        ? artifact.bundleResult.getFile()
-                                        : explodedFolder, // fallback so that the value is non-null
-                                explodedFolder,
-                                findLocalJarsAsStrings(explodedFolder));
-            } else {
-                library = new JavaLibraryImpl(address, artifact.getFile());
-            }
+            library =
+                    sExternalLibraryCache.getUnchecked(
+                            new ExternalLibraryKey(
+                                    address,
+                                    artifact.getDependencyType(),
+                                    artifact.getFile(),
+                                    artifact.bundleResult != null
+                                            ? artifact.bundleResult.getFile()
+                                            : null));
         } else {
             // get the build ID
             final ProjectComponentIdentifier projectId = (ProjectComponentIdentifier) id;
@@ -142,9 +151,7 @@ public class ArtifactDependencyGraph {
                             address, buildId, projectId.getProjectPath(), getVariant(artifact));
         }
 
-        synchronized (sGlobalLibrary) {
-            sGlobalLibrary.put(library.getArtifactAddress(), library);
-        }
+        sGlobalLibrary.put(library.getArtifactAddress(), library);
 
         return library;
     }
@@ -702,10 +709,8 @@ public class ArtifactDependencyGraph {
         // the DependencyGraphs instance.
 
         List<Library> libs = cdg.getLibraries();
-        synchronized (sGlobalLibrary) {
-            for (Library library : libs) {
-                sGlobalLibrary.put(library.getArtifactAddress(), library);
-            }
+        for (Library library : libs) {
+            sGlobalLibrary.put(library.getArtifactAddress(), library);
         }
 
         final List<GraphItem> nodes = cdg.getCompileDependencies();
@@ -823,6 +828,69 @@ public class ArtifactDependencyGraph {
         return ImmutableList.of();
     }
 
+    /**
+     * Identifies the model of an external library. The timestamp of the local jars folder of an
+     * exploded AAR is part of the key, so that a library whose local jars changed is recreated.
+     */
+    private static final class ExternalLibraryKey {
+        @NonNull private final String address;
+        @NonNull private final DependencyType dependencyType;
+        @NonNull private final File artifactFile;
+        @Nullable private final File bundleFile;
+        private final long localJarsTimestamp;
+
+        ExternalLibraryKey(
+                @NonNull String address,
+                @NonNull DependencyType dependencyType,
+                @NonNull File artifactFile,
+                @Nullable File bundleFile) {
+            this.address = address;
+            this.dependencyType = dependencyType;
+            this.artifactFile = artifactFile;
+            this.bundleFile = bundleFile;
+            this.localJarsTimestamp =
+                    dependencyType == ANDROID
+                            ? FileUtils.join(artifactFile, FD_JARS, FD_AAR_LIBS).lastModified()
+                            : 0;
+        }
+
+        @NonNull
+        Library createLibrary() {
+            if (dependencyType == ANDROID) {
+                return new AndroidLibraryImpl(
+                        address,
+                        bundleFile != null
+                                ? bundleFile
+                                : artifactFile, // fallback so that the value is non-null
+                        artifactFile,
+                        findLocalJarsAsStrings(artifactFile));
+            }
+            return new JavaLibraryImpl(address, artifactFile);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ExternalLibraryKey that = (ExternalLibraryKey) o;
+            return localJarsTimestamp == that.localJarsTimestamp
+                    && dependencyType == that.dependencyType
+                    && Objects.equal(address, that.address)
+                    && Objects.equal(artifactFile, that.artifactFile)
+                    && Objects.equal(bundleFile, that.bundleFile);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(
+                    address, dependencyType, artifactFile, bundleFile, localJarsTimestamp);
+        }
+    }
+
     public static class HashableResolvedArtifactResult implements ResolvedArtifactResult {
         @NonNull private final ResolvedArtifactResult delegate;
         @NonNull private final DependencyType dependencyType;
@@ -93,6 +93,7 @@ import com.android.builder.model.Version;
 import com.android.builder.model.level2.DependencyGraphs;
 import com.android.builder.model.level2.GlobalLibraryMap;
 import com.android.ide.common.build.ApkInfo;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.utils.Pair;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
@@ -112,6 +113,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.gradle.api.Project;
@@ -153,6 +155,19 @@ public class ModelBuilder<Extension extends AndroidConfig>
 
     private Set<SyncIssue> syncIssues = Sets.newLinkedHashSet();
 
+    /**
+     * The variant models already built by this builder, so that the models requested again during
+     * the same build (e.g. by lint, or by the IDE after a project model without variants) are not
+     * resolved again. Keyed by {@link #getVariantModelKey(VariantScope)}.
+     */
+    @NonNull private final Map<String, BuiltVariant> builtVariants = new ConcurrentHashMap<>();
+
+    /** The mockable android.jar, resolved at most once as it is shared by all the variants. */
+    @Nullable private File mockableJar;
+
+    /** The APKs of the android test helpers, resolved at most once. */
+    @Nullable private List<File> testHelperApks;
+
     public ModelBuilder(
             @NonNull GlobalScope globalScope,
             @NonNull VariantManager variantManager,
@@ -372,14 +387,16 @@ public class ModelBuilder<Extension extends AndroidConfig>
                     extraModelInfo.getExtraFlavorSourceProviders(pfData.getProductFlavor().getName())));
         }
 
+        List<VariantScope> variantScopes = Lists.newArrayList();
         for (VariantScope variantScope : variantManager.getVariantScopes()) {
             if (!variantScope.getVariantData().getType().isTestComponent()) {
                 variantNames.add(variantScope.getFullVariantName());
                 if (shouldBuildVariant) {
-                    variants.add(createVariant(variantScope.getVariantData()));
+                    variantScopes.add(variantScope);
                 }
             }
         }
+        variants.addAll(buildVariants(variantScopes));
 
         return new DefaultAndroidProject(
                 project.getName(),
@@ -450,33 +467,115 @@ public class ModelBuilder<Extension extends AndroidConfig>
         for (VariantScope variantScope : variantManager.getVariantScopes()) {
             if (!variantScope.getVariantData().getType().isTestComponent()
                     && variantScope.getFullVariantName().equals(variantName)) {
-                return createVariant(variantScope.getVariantData());
+                return Iterables.getOnlyElement(buildVariants(ImmutableList.of(variantScope)));
             }
         }
         throw new IllegalArgumentException(
                 String.format("Variant with name '%s' doesn't exist.", variantName));
     }
 
+    /**
+     * Returns the models of the given variants, in order, and adds their sync issues to the project
+     * ones.
+     *
+     * <p>The dependencies, files and configuration of each variant are read from Gradle on the
+     * calling thread, as Gradle requires, while the rest of the model of the previous variant is
+     * built on the shared thread pool. A model already built by this builder is reused.
+     */
+    @VisibleForTesting
     @NonNull
-    private VariantImpl createVariant(@NonNull BaseVariantData variantData) {
-        AndroidArtifact mainArtifact = createAndroidArtifact(ARTIFACT_MAIN, variantData);
+    List<VariantImpl> buildVariants(@NonNull List<VariantScope> variantScopes) {
+        BuiltVariant[] results = new BuiltVariant[variantScopes.size()];
+        WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (int i = 0; i < variantScopes.size(); i++) {
+            VariantScope variantScope = variantScopes.get(i);
+            String key = getVariantModelKey(variantScope);
+            BuiltVariant previous = builtVariants.get(key);
+            if (previous != null) {
+                results[i] = previous;
+                continue;
+            }
 
-        GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
-        File manifest = variantConfiguration.getMainManifest();
-        if (manifest != null) {
-            ManifestAttributeSupplier attributeSupplier =
-                    new DefaultManifestParser(
-                            manifest, () -> true, extraModelInfo.getSyncIssueHandler());
-            validateMinSdkVersion(attributeSupplier);
-            validateTargetSdkVersion(attributeSupplier);
+            BaseVariantData variantData = variantScope.getVariantData();
+            ResolvedVariant resolved = resolveVariant(variantData);
+            int index = i;
+            executor.execute(
+                    () -> {
+                        Set<SyncIssue> issues = Sets.newLinkedHashSet(resolved.issues);
+                        VariantImpl variant = createVariant(variantData, resolved, issues);
+                        results[index] = new BuiltVariant(variant, ImmutableList.copyOf(issues));
+                        return null;
+                    });
+        }
+        try {
+            executor.waitForTasksWithQuickFail(true /* cancelRemaining */);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
 
-        String variantName = variantConfiguration.getFullName();
+        List<VariantImpl> variants = Lists.newArrayListWithCapacity(results.length);
+        for (int i = 0; i < results.length; i++) {
+            String key = getVariantModelKey(variantScopes.get(i));
+            builtVariants.putIfAbsent(key, results[i]);
+            syncIssues.addAll(results[i].issues);
+            variants.add(results[i].variant);
+        }
+        return variants;
+    }
 
-        List<AndroidArtifact> extraAndroidArtifacts = Lists.newArrayList(
-                extraModelInfo.getExtraAndroidArtifacts(variantName));
+    /** Returns the sync issues of the project and of the variants built so far. */
+    @VisibleForTesting
+    @NonNull
+    Set<SyncIssue> getSyncIssues() {
+        return syncIssues;
+    }
+
+    /** Returns the key of a variant model, which also depends on the requested model. */
+    @NonNull
+    private String getVariantModelKey(@NonNull VariantScope variantScope) {
+        return variantScope.getFullVariantName()
+                + ":"
+                + modelLevel
+                + ":"
+                + modelWithFullDependency;
+    }
+
+    /**
+     * Reads from Gradle what the model of a variant and of its test components is built from,
+     * resolving their dependencies.
+     */
+    @VisibleForTesting
+    @NonNull
+    ResolvedVariant resolveVariant(@NonNull BaseVariantData variantData) {
+        ResolvedVariant resolved = new ResolvedVariant();
+        resolveArtifact(variantData, resolved);
+        if (variantData instanceof TestedVariantData) {
+            for (VariantType variantType : VariantType.Companion.getTestComponents()) {
+                TestVariantData testVariantData =
+                        ((TestedVariantData) variantData).getTestVariantData(variantType);
+                if (testVariantData != null) {
+                    resolveArtifact(testVariantData, resolved);
+                    if (variantType == VariantTypeImpl.ANDROID_TEST) {
+                        if (testHelperApks == null) {
+                            testHelperApks = getTestHelperApks();
+                        }
+                        resolved.testHelperApks = testHelperApks;
+                    } else if (variantType == VariantTypeImpl.UNIT_TEST) {
+                        if (mockableJar == null) {
+                            mockableJar = globalScope.getMockableJarArtifact().getSingleFile();
+                        }
+                        resolved.mockableJar = mockableJar;
+                    }
+                }
+            }
+        }
+
+        String variantName = variantData.getVariantConfiguration().getFullName();
+        resolved.extraAndroidArtifacts =
+                ImmutableList.copyOf(extraModelInfo.getExtraAndroidArtifacts(variantName));
         // Make sure all extra artifacts are serializable.
-        List<JavaArtifact> clonedExtraJavaArtifacts =
+        resolved.extraJavaArtifacts =
                 extraModelInfo
                         .getExtraJavaArtifacts(variantName)
                         .stream()
@@ -485,6 +584,122 @@ public class ModelBuilder<Extension extends AndroidConfig>
                                         JavaArtifactImpl.clone(
                                                 javaArtifact, modelLevel, modelWithFullDependency))
                         .collect(Collectors.toList());
+        resolved.testTargetVariants = getTestTargetVariants(variantData, resolved.issues);
+        return resolved;
+    }
+
+    /** Reads from Gradle what the model of a variant or of a test component is built from. */
+    private void resolveArtifact(
+            @NonNull BaseVariantData variantData, @NonNull ResolvedVariant resolved) {
+        VariantScope scope = variantData.getScope();
+        GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
+        boolean unitTest = variantData.getType() == VariantTypeImpl.UNIT_TEST;
+
+        ResolvedArtifact artifact = new ResolvedArtifact();
+        artifact.dependencies =
+                getDependencies(
+                        scope,
+                        buildMapping,
+                        extraModelInfo,
+                        resolved.issues,
+                        modelLevel,
+                        modelWithFullDependency);
+        artifact.sourceProviders = determineSourceProviders(variantData);
+        artifact.additionalClasses = getAdditionalClasses(variantData, unitTest);
+        artifact.javacOutput =
+                Iterables.getOnlyElement(scope.getArtifacts().getArtifactFiles(JAVAC));
+        artifact.javaResources = variantData.getJavaResourcesForUnitTesting();
+        if (unitTest) {
+            artifact.generatedSourceFolders = getGeneratedSourceFoldersForUnitTests(variantData);
+        } else {
+            artifact.generatedSourceFolders = getGeneratedSourceFolders(variantData);
+            artifact.generatedResourceFolders = getGeneratedResourceFolders(variantData);
+            artifact.nativeLibraries = getNativeLibraries(variantData);
+            artifact.outputs = getBuildOutputSupplier(variantData);
+            artifact.manifests = getManifestsSupplier(variantData);
+            artifact.instantRun =
+                    new InstantRunImpl(
+                            BuildInfoWriterTask.ConfigAction.getBuildInfoFile(scope),
+                            variantConfiguration.getInstantRunSupportStatus(globalScope));
+        }
+
+        resolved.artifacts.put(scope.getFullVariantName(), artifact);
+    }
+
+    @NonNull
+    private static Set<File> getAdditionalClasses(
+            @NonNull BaseVariantData variantData, boolean unitTest) {
+        Set<File> additionalClasses = new HashSet<>();
+        additionalClasses.addAll(variantData.getAllPreJavacGeneratedBytecode().getFiles());
+        additionalClasses.addAll(variantData.getAllPostJavacGeneratedBytecode().getFiles());
+        if (!unitTest) {
+            return additionalClasses;
+        }
+
+        VariantScope scope = variantData.getScope();
+        if (scope.getArtifacts().hasArtifact(InternalArtifactType.UNIT_TEST_CONFIG_DIRECTORY)) {
+            additionalClasses.add(
+                    BuildableArtifactUtil.singleFile(
+                            scope.getArtifacts()
+                                    .getFinalArtifactFiles(
+                                            InternalArtifactType.UNIT_TEST_CONFIG_DIRECTORY)));
+        }
+        // The separately compile R class, if applicable.
+        VariantScope testedScope = Objects.requireNonNull(scope.getTestedVariantData()).getScope();
+        if (testedScope
+                .getArtifacts()
+                .hasArtifact(InternalArtifactType.COMPILE_ONLY_NOT_NAMESPACED_R_CLASS_JAR)) {
+            additionalClasses.add(
+                    Iterables.getOnlyElement(
+                            testedScope
+                                    .getArtifacts()
+                                    .getFinalArtifactFiles(
+                                            InternalArtifactType
+                                                    .COMPILE_ONLY_NOT_NAMESPACED_R_CLASS_JAR)));
+        }
+        return additionalClasses;
+    }
+
+    @NonNull
+    private List<File> getTestHelperApks() {
+        Configuration testHelpers =
+                globalScope
+                        .getProject()
+                        .getConfigurations()
+                        .findByName(SdkConstants.GRADLE_ANDROID_TEST_UTIL_CONFIGURATION);
+
+        // This may be the case with the experimental plugin.
+        if (testHelpers == null) {
+            return ImmutableList.of();
+        }
+        return ImmutableList.copyOf(testHelpers.getFiles());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    VariantImpl createVariant(
+            @NonNull BaseVariantData variantData,
+            @NonNull ResolvedVariant resolved,
+            @NonNull Set<SyncIssue> issues) {
+        AndroidArtifact mainArtifact =
+                createAndroidArtifact(ARTIFACT_MAIN, variantData, resolved, issues);
+
+        GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
+        File manifest = variantConfiguration.getMainManifest();
+        if (manifest != null) {
+            ManifestAttributeSupplier attributeSupplier =
+                    new DefaultManifestParser(
+                            manifest, () -> true, extraModelInfo.getSyncIssueHandler());
+            validateMinSdkVersion(attributeSupplier, issues);
+            validateTargetSdkVersion(attributeSupplier, issues);
+        }
+
+        String variantName = variantConfiguration.getFullName();
+
+        List<AndroidArtifact> extraAndroidArtifacts =
+                Lists.newArrayList(resolved.extraAndroidArtifacts);
+        List<JavaArtifact> clonedExtraJavaArtifacts =
+                Lists.newArrayList(resolved.extraJavaArtifacts);
 
         if (variantData instanceof TestedVariantData) {
             for (VariantType variantType : VariantType.Companion.getTestComponents()) {
@@ -494,11 +709,15 @@ public class ModelBuilder<Extension extends AndroidConfig>
                         case ANDROID_TEST:
                             extraAndroidArtifacts.add(
                                     createAndroidArtifact(
-                                            variantType.getArtifactName(), testVariantData));
+                                            variantType.getArtifactName(),
+                                            testVariantData,
+                                            resolved,
+                                            issues));
                             break;
                         case UNIT_TEST:
                             clonedExtraJavaArtifacts.add(
-                                    createUnitTestsJavaArtifact(variantType, testVariantData));
+                                    createUnitTestsJavaArtifact(
+                                            variantType, testVariantData, resolved));
                             break;
                         default:
                             throw new IllegalArgumentException(
@@ -508,9 +727,6 @@ public class ModelBuilder<Extension extends AndroidConfig>
             }
         }
 
-        // used for test only modules
-        Collection<TestedTargetVariant> testTargetVariants = getTestTargetVariants(variantData);
-
         return new VariantImpl(
                 variantName,
                 variantConfiguration.getBaseName(),
@@ -520,11 +736,13 @@ public class ModelBuilder<Extension extends AndroidConfig>
                 mainArtifact,
                 extraAndroidArtifacts,
                 clonedExtraJavaArtifacts,
-                testTargetVariants);
+                resolved.testTargetVariants);
     }
 
+    /** Returns the variants tested by a variant of a test only module. */
     @NonNull
-    private Collection<TestedTargetVariant> getTestTargetVariants(BaseVariantData variantData) {
+    private Collection<TestedTargetVariant> getTestTargetVariants(
+            @NonNull BaseVariantData variantData, @NonNull Set<SyncIssue> issues) {
         if (extension instanceof TestAndroidConfig) {
             TestAndroidConfig testConfig = (TestAndroidConfig) extension;
 
@@ -550,7 +768,7 @@ public class ModelBuilder<Extension extends AndroidConfig>
                 VariantScope variantScope = variantData.getScope();
 
                 // probably there was an error...
-                syncIssues.addAll(
+                issues.addAll(
                         new DependencyFailureHandler()
                                 .addErrors(
                                         variantScope.getGlobalScope().getProject().getPath()
@@ -566,57 +784,26 @@ public class ModelBuilder<Extension extends AndroidConfig>
     }
 
     private JavaArtifactImpl createUnitTestsJavaArtifact(
-            @NonNull VariantType variantType, @NonNull BaseVariantData variantData) {
-        SourceProviders sourceProviders = determineSourceProviders(variantData);
-
+            @NonNull VariantType variantType,
+            @NonNull BaseVariantData variantData,
+            @NonNull ResolvedVariant resolved) {
         final VariantScope scope = variantData.getScope();
-        Pair<Dependencies, DependencyGraphs> result =
-                getDependencies(
-                        scope,
-                        buildMapping,
-                        extraModelInfo,
-                        syncIssues,
-                        modelLevel,
-                        modelWithFullDependency);
-
-        Set<File> additionalTestClasses = new HashSet<>();
-        additionalTestClasses.addAll(variantData.getAllPreJavacGeneratedBytecode().getFiles());
-        additionalTestClasses.addAll(variantData.getAllPostJavacGeneratedBytecode().getFiles());
-        if (scope.getArtifacts().hasArtifact(InternalArtifactType.UNIT_TEST_CONFIG_DIRECTORY)) {
-            additionalTestClasses.add(
-                    BuildableArtifactUtil.singleFile(
-                            scope.getArtifacts()
-                                    .getFinalArtifactFiles(
-                                            InternalArtifactType.UNIT_TEST_CONFIG_DIRECTORY)));
-        }
-        // The separately compile R class, if applicable.
-        VariantScope testedScope = Objects.requireNonNull(scope.getTestedVariantData()).getScope();
-        if (testedScope
-                .getArtifacts()
-                .hasArtifact(InternalArtifactType.COMPILE_ONLY_NOT_NAMESPACED_R_CLASS_JAR)) {
-            additionalTestClasses.add(
-                    Iterables.getOnlyElement(
-                            testedScope
-                                    .getArtifacts()
-                                    .getFinalArtifactFiles(
-                                            InternalArtifactType
-                                                    .COMPILE_ONLY_NOT_NAMESPACED_R_CLASS_JAR)));
-        }
+        ResolvedArtifact artifact = resolved.artifacts.get(scope.getFullVariantName());
 
         return new JavaArtifactImpl(
                 variantType.getArtifactName(),
                 scope.getTaskContainer().getAssembleTask().getName(),
                 scope.getTaskContainer().getCompileTask().getName(),
                 Sets.newHashSet(taskManager.createMockableJar.getName()),
-                getGeneratedSourceFoldersForUnitTests(variantData),
-                Iterables.getOnlyElement(scope.getArtifacts().getArtifactFiles(JAVAC)),
-                additionalTestClasses,
-                variantData.getJavaResourcesForUnitTesting(),
-                globalScope.getMockableJarArtifact().getSingleFile(),
-                result.getFirst(),
-                result.getSecond(),
-                sourceProviders.variantSourceProvider,
-                sourceProviders.multiFlavorSourceProvider);
+                artifact.generatedSourceFolders,
+                artifact.javacOutput,
+                artifact.additionalClasses,
+                artifact.javaResources,
+                Objects.requireNonNull(resolved.mockableJar),
+                artifact.dependencies.getFirst(),
+                artifact.dependencies.getSecond(),
+                artifact.sourceProviders.variantSourceProvider,
+                artifact.sourceProviders.multiFlavorSourceProvider);
     }
 
     /** Gather the dependency graph for the specified <code>variantScope</code>. */
@@ -692,25 +879,10 @@ public class ModelBuilder<Extension extends AndroidConfig>
         return nativeLibraries;
     }
 
-    private AndroidArtifact createAndroidArtifact(
-            @NonNull String name, @NonNull BaseVariantData variantData) {
+    /** Returns the native libraries of a variant, with one library for each ABI. */
+    @NonNull
+    private Collection<NativeLibrary> getNativeLibraries(@NonNull BaseVariantData variantData) {
         VariantScope scope = variantData.getScope();
-        GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
-
-        SigningConfig signingConfig = variantConfiguration.getSigningConfig();
-        String signingConfigName = null;
-        if (signingConfig != null) {
-            signingConfigName = signingConfig.getName();
-        }
-
-        SourceProviders sourceProviders = determineSourceProviders(variantData);
-
-        // get the outputs
-        BuildOutputSupplier<Collection<EarlySyncBuildOutput>> splitOutputsProxy =
-                getBuildOutputSupplier(variantData);
-        BuildOutputSupplier<Collection<EarlySyncBuildOutput>> manifestsProxy =
-                getManifestsSupplier(variantData);
-
         CoreNdkOptions ndkConfig = variantData.getVariantConfiguration().getNdkConfig();
         Collection<NativeLibrary> nativeLibraries = ImmutableList.of();
 
@@ -735,44 +907,34 @@ public class ModelBuilder<Extension extends AndroidConfig>
                 }
             }
         }
+        return nativeLibraries;
+    }
 
-        InstantRunImpl instantRun =
-                new InstantRunImpl(
-                        BuildInfoWriterTask.ConfigAction.getBuildInfoFile(scope),
-                        variantConfiguration.getInstantRunSupportStatus(globalScope));
-
-        Pair<Dependencies, DependencyGraphs> dependencies =
-                getDependencies(
-                        scope,
-                        buildMapping,
-                        extraModelInfo,
-                        syncIssues,
-                        modelLevel,
-                        modelWithFullDependency);
+    private AndroidArtifact createAndroidArtifact(
+            @NonNull String name,
+            @NonNull BaseVariantData variantData,
+            @NonNull ResolvedVariant resolved,
+            @NonNull Set<SyncIssue> issues) {
+        VariantScope scope = variantData.getScope();
+        GradleVariantConfiguration variantConfiguration = variantData.getVariantConfiguration();
+        ResolvedArtifact artifact = resolved.artifacts.get(scope.getFullVariantName());
 
-        Set<File> additionalTestClasses = new HashSet<>();
-        additionalTestClasses.addAll(variantData.getAllPreJavacGeneratedBytecode().getFiles());
-        additionalTestClasses.addAll(variantData.getAllPostJavacGeneratedBytecode().getFiles());
+        SigningConfig signingConfig = variantConfiguration.getSigningConfig();
+        String signingConfigName = null;
+        if (signingConfig != null) {
+            signingConfigName = signingConfig.getName();
+        }
 
         List<File> additionalRuntimeApks = new ArrayList<>();
         TestOptionsImpl testOptions = null;
 
         if (variantData.getType().isTestComponent()) {
-            Configuration testHelpers =
-                    scope.getGlobalScope()
-                            .getProject()
-                            .getConfigurations()
-                            .findByName(SdkConstants.GRADLE_ANDROID_TEST_UTIL_CONFIGURATION);
-
-            // This may be the case with the experimental plugin.
-            if (testHelpers != null) {
-                additionalRuntimeApks.addAll(testHelpers.getFiles());
-            }
+            additionalRuntimeApks.addAll(Objects.requireNonNull(resolved.testHelperApks));
 
             DeviceProviderInstrumentTestTask.checkForNonApks(
                     additionalRuntimeApks,
                     message ->
-                            syncIssues.add(
+                            issues.add(
                                     new SyncIssueImpl(
                                             Type.GENERIC,
                                             EvalIssueReporter.Severity.ERROR,
@@ -795,7 +957,7 @@ public class ModelBuilder<Extension extends AndroidConfig>
         } catch (RuntimeException e) {
             // don't crash. just throw a sync error.
             applicationId = "";
-            syncIssues.add(
+            issues.add(
                     new SyncIssueImpl(
                             Type.GENERIC, EvalIssueReporter.Severity.ERROR, null, e.getMessage()));
         }
@@ -815,23 +977,23 @@ public class ModelBuilder<Extension extends AndroidConfig>
                         ? scope.getTaskName("generate", "Sources")
                         : taskContainer.getSourceGenTask().getName(),
                 taskContainer.getCompileTask().getName(),
-                getGeneratedSourceFolders(variantData),
-                getGeneratedResourceFolders(variantData),
-                Iterables.getOnlyElement(scope.getArtifacts().getArtifactFiles(JAVAC)),
-                additionalTestClasses,
-                scope.getVariantData().getJavaResourcesForUnitTesting(),
-                dependencies.getFirst(),
-                dependencies.getSecond(),
+                artifact.generatedSourceFolders,
+                artifact.generatedResourceFolders,
+                artifact.javacOutput,
+                artifact.additionalClasses,
+                artifact.javaResources,
+                artifact.dependencies.getFirst(),
+                artifact.dependencies.getSecond(),
                 additionalRuntimeApks,
-                sourceProviders.variantSourceProvider,
-                sourceProviders.multiFlavorSourceProvider,
+                artifact.sourceProviders.variantSourceProvider,
+                artifact.sourceProviders.multiFlavorSourceProvider,
                 variantConfiguration.getSupportedAbis(),
-                nativeLibraries,
+                artifact.nativeLibraries,
                 variantConfiguration.getMergedBuildConfigFields(),
                 variantConfiguration.getMergedResValues(),
-                instantRun,
-                splitOutputsProxy,
-                manifestsProxy,
+                Objects.requireNonNull(artifact.instantRun),
+                Objects.requireNonNull(artifact.outputs),
+                Objects.requireNonNull(artifact.manifests),
                 testOptions,
                 taskContainer.getConnectedTask() == null
                         ? null
@@ -842,10 +1004,11 @@ public class ModelBuilder<Extension extends AndroidConfig>
                 ExtractApksTask.Companion.getTaskName(scope));
     }
 
-    private void validateMinSdkVersion(@NonNull ManifestAttributeSupplier supplier) {
+    private static void validateMinSdkVersion(
+            @NonNull ManifestAttributeSupplier supplier, @NonNull Set<SyncIssue> issues) {
         if (supplier.getMinSdkVersion() != null) {
             // report an error since min sdk version should not be in the manifest.
-            syncIssues.add(
+            issues.add(
                     new SyncIssueImpl(
                             EvalIssueReporter.Type.MIN_SDK_VERSION_IN_MANIFEST,
                             EvalIssueReporter.Severity.ERROR,
@@ -856,10 +1019,11 @@ public class ModelBuilder<Extension extends AndroidConfig>
         }
     }
 
-    private void validateTargetSdkVersion(@NonNull ManifestAttributeSupplier supplier) {
+    private static void validateTargetSdkVersion(
+            @NonNull ManifestAttributeSupplier supplier, @NonNull Set<SyncIssue> issues) {
         if (supplier.getTargetSdkVersion() != null) {
             // report a warning since target sdk version should not be in the manifest.
-            syncIssues.add(
+            issues.add(
                     new SyncIssueImpl(
                             EvalIssueReporter.Type.TARGET_SDK_VERSION_IN_MANIFEST,
                             EvalIssueReporter.Severity.WARNING,
@@ -1185,4 +1349,47 @@ public class ModelBuilder<Extension extends AndroidConfig>
 
         return builder.build();
     }
+
+    /**
+     * What the model of a variant and of its test components is built from, read from Gradle on
+     * the model thread, with the sync issues found reading it.
+     */
+    @VisibleForTesting
+    static final class ResolvedVariant {
+        /** The artifacts of the variant and of its test components, by full variant name. */
+        @NonNull private final Map<String, ResolvedArtifact> artifacts = Maps.newHashMap();
+
+        @NonNull final Set<SyncIssue> issues = Sets.newLinkedHashSet();
+        @NonNull private Collection<TestedTargetVariant> testTargetVariants = ImmutableList.of();
+        @NonNull private List<AndroidArtifact> extraAndroidArtifacts = ImmutableList.of();
+        @NonNull private List<JavaArtifact> extraJavaArtifacts = ImmutableList.of();
+        @Nullable private File mockableJar;
+        @Nullable private List<File> testHelperApks;
+    }
+
+    /** What the model of a variant or of a test component is built from. */
+    private static final class ResolvedArtifact {
+        private Pair<Dependencies, DependencyGraphs> dependencies;
+        private SourceProviders sourceProviders;
+        private Set<File> additionalClasses;
+        private File javacOutput;
+        private File javaResources;
+        private List<File> generatedSourceFolders;
+        @NonNull private List<File> generatedResourceFolders = ImmutableList.of();
+        @NonNull private Collection<NativeLibrary> nativeLibraries = ImmutableList.of();
+        @Nullable private InstantRunImpl instantRun;
+        @Nullable private BuildOutputSupplier<Collection<EarlySyncBuildOutput>> outputs;
+        @Nullable private BuildOutputSupplier<Collection<EarlySyncBuildOutput>> manifests;
+    }
+
+    /** A variant model, with the sync issues to report again when it is reused. */
+    private static final class BuiltVariant {
+        @NonNull private final VariantImpl variant;
+        @NonNull private final List<SyncIssue> issues;
+
+        private BuiltVariant(@NonNull VariantImpl variant, @NonNull List<SyncIssue> issues) {
+            this.variant = variant;
+            this.issues = issues;
+        }
+    }
 }
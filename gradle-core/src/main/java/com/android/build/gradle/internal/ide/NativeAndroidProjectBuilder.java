@@ -22,7 +22,6 @@ import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonCompositeVisitor;
 import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStatsBuildingVisitor;
-import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStreamingParser;
 import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStreamingVisitor;
 import com.android.builder.model.NativeAndroidProject;
 import com.android.builder.model.NativeArtifact;
@@ -35,10 +34,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.gson.stream.JsonReader;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import java.io.File;
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,6 +48,8 @@ class NativeAndroidProjectBuilder {
     @NonNull private final List<NativeArtifact> artifacts = Lists.newArrayList();
     @NonNull private final List<NativeToolchain> toolChains = Lists.newArrayList();
     @NonNull private final Map<List<String>, NativeSettings> settingsMap = Maps.newHashMap();
+    /** Names of the settings of each flags string, as most files share their flags. */
+    @NonNull private final Map<String, String> settingsNamesByFlags = Maps.newHashMap();
     @NonNull private final Set<String> buildSystems = Sets.newHashSet();
     int settingIndex = 0;
 
@@ -65,24 +64,14 @@ class NativeAndroidProjectBuilder {
         this.buildSystems.add(buildSystem);
     }
 
-    /**
-     * Add a per-variant Json to builder. JSon is streamed so it is not read into memory all at
-     * once.
-     */
-    void addJson(
-            @NonNull JsonReader reader,
+    /** Returns a visitor that adds a per-variant Json to builder as it is parsed. */
+    @NonNull
+    AndroidBuildGradleJsonStreamingVisitor createVisitor(
             @NonNull String variantName,
-            @NonNull GradleBuildVariant.NativeBuildConfigInfo.Builder config)
-            throws IOException {
-        JsonStreamingVisitor modelBuildingVisitor = new JsonStreamingVisitor(this, variantName);
-        AndroidBuildGradleJsonStatsBuildingVisitor statsVisitor =
-                new AndroidBuildGradleJsonStatsBuildingVisitor(config);
-        AndroidBuildGradleJsonCompositeVisitor composite =
-                new AndroidBuildGradleJsonCompositeVisitor(statsVisitor, modelBuildingVisitor);
-        try (AndroidBuildGradleJsonStreamingParser parser =
-                new AndroidBuildGradleJsonStreamingParser(reader, composite)) {
-            parser.parse();
-        }
+            @NonNull GradleBuildVariant.NativeBuildConfigInfo.Builder config) {
+        return new AndroidBuildGradleJsonCompositeVisitor(
+                new AndroidBuildGradleJsonStatsBuildingVisitor(config),
+                new JsonStreamingVisitor(this, variantName));
     }
 
     /**
@@ -243,7 +232,9 @@ class NativeAndroidProjectBuilder {
         @Override
         public void visitLibraryFileFlags(@NonNull String flags) {
             this.currentLibraryFileSettingsName =
-                    getSettingsName(StringHelper.tokenizeCommandLineToEscaped(flags));
+                    builder.settingsNamesByFlags.computeIfAbsent(
+                            flags,
+                            key -> getSettingsName(StringHelper.tokenizeCommandLineToEscaped(key)));
         }
 
         @Override
@@ -71,13 +71,7 @@ public class NativeModelBuilder implements ToolingModelBuilder {
 
             try {
                 generator.forEachNativeBuildConfiguration(
-                        jsonReader -> {
-                            try {
-                                builder.addJson(jsonReader, generator.getVariantName(), config);
-                            } catch (IOException e) {
-                                throw new RuntimeException("Failed to read native JSON data", e);
-                            }
-                        });
+                        () -> builder.createVisitor(generator.getVariantName(), config));
             } catch (IOException e) {
                 throw new RuntimeException("Failed to read native JSON data", e);
             }
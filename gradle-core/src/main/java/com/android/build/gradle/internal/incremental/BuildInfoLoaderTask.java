@@ -42,6 +42,7 @@ public class BuildInfoLoaderTask extends AndroidVariantTask {
 
     // Inputs
     File buildInfoFile;
+    File binaryBuildInfoFile;
     File tmpBuildInfoFile;
 
     Logger logger;
@@ -55,7 +56,13 @@ public class BuildInfoLoaderTask extends AndroidVariantTask {
         try {
             // load the persisted state, this will give us previous build-ids in case we need them.
             if (buildInfoFile.exists()) {
-                buildContext.loadFromXmlFile(buildInfoFile);
+                // the binary form is written right after the xml, prefer it when it is up to date.
+                boolean loaded =
+                        binaryBuildInfoFile.lastModified() >= buildInfoFile.lastModified()
+                                && buildContext.loadFromBinaryFile(binaryBuildInfoFile);
+                if (!loaded) {
+                    buildContext.loadFromXmlFile(buildInfoFile);
+                }
             } else {
                 buildContext.setVerifierStatus(InstantRunVerifierStatus.INITIAL_BUILD);
             }
@@ -140,6 +147,8 @@ public class BuildInfoLoaderTask extends AndroidVariantTask {
             task.setDescription("InstantRun task to load and backup previous iterations artifacts");
             task.setVariantName(variantScope.getFullVariantName());
             task.buildInfoFile = BuildInfoWriterTask.ConfigAction.getBuildInfoFile(variantScope);
+            task.binaryBuildInfoFile =
+                    BuildInfoWriterTask.ConfigAction.getBinaryBuildInfoFile(variantScope);
             task.tmpBuildInfoFile =
                     BuildInfoWriterTask.ConfigAction.getTmpBuildInfoFile(variantScope);
             task.pastBuildsFolder = variantScope.getInstantRunPastIterationsFolder();
@@ -45,6 +45,9 @@ public class BuildInfoWriterTask extends AndroidVariantTask {
      */
     File buildInfoFile;
 
+    /** Binary form of the build info, loaded by the next build instead of the xml. */
+    File binaryBuildInfoFile;
+
     /** Input */
     File tmpBuildInfoFile;
 
@@ -75,6 +78,7 @@ public class BuildInfoWriterTask extends AndroidVariantTask {
             }
             Files.createParentDirs(buildInfoFile);
             Files.write(xml, buildInfoFile, Charsets.UTF_8);
+            buildContext.writeBinaryBuildInfo(binaryBuildInfoFile);
         } catch (Exception e) {
             throw new RuntimeException("Exception while saving build-info.xml", e);
         }
@@ -95,6 +99,10 @@ public class BuildInfoWriterTask extends AndroidVariantTask {
             return new File(scope.getBuildInfoOutputFolder(), "tmp-build-info.xml");
         }
 
+        public static File getBinaryBuildInfoFile(@NonNull InstantRunVariantScope scope) {
+            return new File(scope.getBuildInfoOutputFolder(), "build-info.bin");
+        }
+
 
         private final String taskName;
         private final InstantRunVariantScope variantScope;
@@ -124,6 +132,7 @@ public class BuildInfoWriterTask extends AndroidVariantTask {
             task.setDescription("InstantRun task to build incremental artifacts");
             task.setVariantName(variantScope.getFullVariantName());
             task.buildInfoFile = getBuildInfoFile(variantScope);
+            task.binaryBuildInfoFile = getBinaryBuildInfoFile(variantScope);
             task.tmpBuildInfoFile = getTmpBuildInfoFile(variantScope);
             task.buildContext = variantScope.getInstantRunBuildContext();
             task.logger = logger;
@@ -32,9 +32,17 @@ import com.google.common.base.Charsets;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
@@ -107,6 +115,14 @@ public class InstantRunBuildContext {
     // method.)
     static final String CURRENT_FORMAT = "10";
 
+    /** Magic number and version of the binary build info, read by the plugin only. */
+    private static final int BINARY_MAGIC = 0x49524249;
+
+    private static final int BINARY_FORMAT = 1;
+
+    /** Default number of past builds kept in the build info, besides the initial full build. */
+    public static final int DEFAULT_MAX_BUILD_HISTORY = 50;
+
     public enum TaskType {
         JAVAC,
         INSTANT_RUN_DEX,
@@ -194,6 +210,38 @@ public class InstantRunBuildContext {
             return build;
         }
 
+        private void write(@NonNull DataOutputStream out) throws IOException {
+            out.writeLong(buildId);
+            out.writeUTF(verifierStatus.name());
+            out.writeUTF(buildMode.name());
+            out.writeBoolean(eligibilityStatus != null);
+            if (eligibilityStatus != null) {
+                out.writeUTF(eligibilityStatus.name());
+            }
+            out.writeInt(artifacts.size());
+            for (Artifact artifact : artifacts) {
+                out.writeUTF(artifact.fileType.name());
+                out.writeUTF(artifact.location.getAbsolutePath());
+            }
+        }
+
+        @NonNull
+        private static Build read(@NonNull DataInputStream in) throws IOException {
+            long buildId = in.readLong();
+            InstantRunVerifierStatus verifierStatus =
+                    InstantRunVerifierStatus.valueOf(in.readUTF());
+            InstantRunBuildMode buildMode = InstantRunBuildMode.valueOf(in.readUTF());
+            InstantRunVerifierStatus eligibility =
+                    in.readBoolean() ? InstantRunVerifierStatus.valueOf(in.readUTF()) : null;
+            Build build = new Build(buildId, verifierStatus, buildMode, eligibility);
+            int artifactCount = in.readInt();
+            for (int i = 0; i < artifactCount; i++) {
+                FileType fileType = FileType.valueOf(in.readUTF());
+                build.artifacts.add(new Artifact(fileType, new File(in.readUTF())));
+            }
+            return build;
+        }
+
         public long getBuildId() {
             return buildId;
         }
@@ -284,6 +332,8 @@ public class InstantRunBuildContext {
     private final boolean isInstantRunMode;
     @NonNull private final AtomicLong token = new AtomicLong(0);
     @NonNull private final AtomicBoolean buildHasFailed = new AtomicBoolean(false);
+    private int maxBuildHistory = DEFAULT_MAX_BUILD_HISTORY;
+    @Nullable private PersistenceMode lastPersistenceMode;
 
     public InstantRunBuildContext(
             boolean isInstantRunMode,
@@ -518,6 +568,15 @@ public class InstantRunBuildContext {
         return previousBuilds.values();
     }
 
+    /**
+     * Sets the number of past builds kept in the build info, besides the initial full build, so
+     * that reading and writing it doesn't get slower over long sessions.
+     */
+    public void setMaxBuildHistory(int maxBuildHistory) {
+        Preconditions.checkArgument(maxBuildHistory > 0, "maxBuildHistory must be positive");
+        this.maxBuildHistory = maxBuildHistory;
+    }
+
 
     /**
      * Remove all unwanted changes :
@@ -618,6 +677,8 @@ public class InstantRunBuildContext {
                 "Purge: SplitFilesAlreadyFound: {} ",
                 splitFilesAlreadyFound.stream().collect(Collectors.joining("\n")));
 
+        compactHistory(initialFullBuild);
+
         // bunch of builds can be empty, either because we did nothing or all its artifact got
         // rebuilt in a more recent iteration, in such a case, remove it.
         for (Long aBuildId : new ArrayList<>(previousBuilds.descendingKeySet())) {
@@ -676,6 +737,27 @@ public class InstantRunBuildContext {
         }
     }
 
+    /**
+     * Drops the reload dex files of the builds older than the history bound, as a device that
+     * missed that many builds is updated with a cold swap anyway. The accumulative artifacts are
+     * kept as they may still be the most recent version of a split, and the builds that end up
+     * empty are removed with the other empty builds.
+     */
+    private void compactHistory(long initialFullBuild) {
+        int toCompact = previousBuilds.size() - 1 - maxBuildHistory;
+        for (Build build : previousBuilds.values()) {
+            if (toCompact <= 0) {
+                break;
+            }
+            if (build.buildId == initialFullBuild || build.buildId == currentBuild.buildId) {
+                continue;
+            }
+            LOG.debug("Compacting build {} beyond the history bound", build.buildId);
+            build.artifacts.removeIf(artifact -> !artifact.isAccumulative());
+            toCompact--;
+        }
+    }
+
     private void collapseMainArtifactsIntoCurrentBuild() {
         LOG.debug(
                 ""
@@ -814,6 +896,72 @@ public class InstantRunBuildContext {
         }
     }
 
+    /**
+     * Loads the binary form of the previous iteration build info, written by {@link
+     * #writeBinaryBuildInfo(File)} along with the build-info.xml, which avoids parsing the xml.
+     *
+     * @return false if the file is not in the current binary format, in which case nothing was
+     *     loaded and the build-info.xml should be loaded instead.
+     */
+    public synchronized boolean loadFromBinaryFile(@NonNull File persistedState)
+            throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(persistedState)))) {
+            if (in.readInt() != BINARY_MAGIC || in.readInt() != BINARY_FORMAT) {
+                return false;
+            }
+            if (!Version.ANDROID_GRADLE_PLUGIN_VERSION.equals(in.readUTF())) {
+                // Don't load if the plugin version has changed.
+                Logging.getLogger(InstantRunBuildContext.class)
+                        .quiet("Instant Run: Android plugin version has changed.");
+                setVerifierStatus(InstantRunVerifierStatus.INITIAL_BUILD);
+                return true;
+            }
+            long persistedToken = in.readLong();
+            List<Build> builds = new ArrayList<>();
+            int buildCount = in.readInt();
+            for (int i = 0; i < buildCount; i++) {
+                builds.add(Build.read(in));
+            }
+            if (persistedToken != 0) {
+                token.set(persistedToken);
+            }
+            for (Build build : builds) {
+                previousBuilds.put(build.buildId, build);
+            }
+            return true;
+        } catch (EOFException | IllegalArgumentException e) {
+            LOG.debug("Ignoring corrupted binary build info {}", persistedState);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the builds persisted in the build-info.xml in a binary form, for {@link
+     * #loadFromBinaryFile(File)}. Must be called after {@link #toXml()}.
+     */
+    public void writeBinaryBuildInfo(@NonNull File binaryBuildInfo) throws IOException {
+        Files.createParentDirs(binaryBuildInfo);
+        try (DataOutputStream out =
+                new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(binaryBuildInfo)))) {
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_FORMAT);
+            out.writeUTF(Version.ANDROID_GRADLE_PLUGIN_VERSION);
+            out.writeLong(isInInstantRunMode() ? token.get() : 0);
+            List<Build> builds =
+                    getPersistedBuilds(
+                            Preconditions.checkNotNull(
+                                    lastPersistenceMode, "The xml must be written first"));
+            out.writeInt(builds.size() + 1);
+            currentBuild.write(out);
+            for (Build build : builds) {
+                build.write(out);
+            }
+        }
+    }
+
     /**
      * Merges the artifacts of a temporary build info into this build's artifacts. If this build
      * finishes the build-info.xml will contain the artifacts produced by this iteration as well as
@@ -894,10 +1042,32 @@ public class InstantRunBuildContext {
      * @return the xml persisted information as a {@link String}
      */
     public String toXml() throws ParserConfigurationException {
-        return toXml(
-                currentBuild.buildMode == InstantRunBuildMode.FULL
-                        ? PersistenceMode.FULL_BUILD
-                        : PersistenceMode.INCREMENTAL_BUILD);
+        return toXml(getPersistenceMode());
+    }
+
+    @NonNull
+    private PersistenceMode getPersistenceMode() {
+        return currentBuild.buildMode == InstantRunBuildMode.FULL
+                ? PersistenceMode.FULL_BUILD
+                : PersistenceMode.INCREMENTAL_BUILD;
+    }
+
+    /** Returns the previous builds persisted along with the current build. */
+    @NonNull
+    private List<Build> getPersistedBuilds(@NonNull PersistenceMode persistenceMode) {
+        switch (persistenceMode) {
+            case FULL_BUILD:
+                // only include the last build.
+                return previousBuilds.isEmpty()
+                        ? ImmutableList.of()
+                        : ImmutableList.of(previousBuilds.lastEntry().getValue());
+            case INCREMENTAL_BUILD:
+                return ImmutableList.copyOf(previousBuilds.values());
+            case TEMP_BUILD:
+                return ImmutableList.of();
+            default:
+                throw new RuntimeException("PersistenceMode not handled" + persistenceMode);
+        }
     }
 
     /**
@@ -922,6 +1092,7 @@ public class InstantRunBuildContext {
     }
 
     private void toXml(Document document, PersistenceMode persistenceMode) {
+        lastPersistenceMode = persistenceMode;
         Element instantRun = document.createElement(TAG_INSTANT_RUN);
         document.appendChild(instantRun);
 
@@ -960,22 +1131,8 @@ public class InstantRunBuildContext {
         instantRun.setAttribute(ATTR_FORMAT, CURRENT_FORMAT);
         instantRun.setAttribute(ATTR_PLUGIN_VERSION, Version.ANDROID_GRADLE_PLUGIN_VERSION);
 
-        switch (persistenceMode) {
-            case FULL_BUILD:
-                // only include the last build.
-                if (!previousBuilds.isEmpty()) {
-                    instantRun.appendChild(previousBuilds.lastEntry().getValue().toXml(document));
-                }
-                break;
-            case INCREMENTAL_BUILD:
-                for (Build build : previousBuilds.values()) {
-                    instantRun.appendChild(build.toXml(document));
-                }
-                break;
-            case TEMP_BUILD:
-                break;
-            default:
-                throw new RuntimeException("PersistenceMode not handled" + persistenceMode);
+        for (Build build : getPersistedBuilds(persistenceMode)) {
+            instantRun.appendChild(build.toXml(document));
         }
     }
 
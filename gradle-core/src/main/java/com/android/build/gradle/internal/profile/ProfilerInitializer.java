@@ -72,7 +72,8 @@ public final class ProfilerInitializer {
                     project.getRootProject().getProjectDir(),
                     project.getGradle().getGradleVersion(),
                     new LoggerWrapper(project.getLogger()),
-                    projectOptions.get(BooleanOption.ENABLE_PROFILE_JSON));
+                    projectOptions.get(BooleanOption.ENABLE_PROFILE_JSON),
+                    projectOptions.get(BooleanOption.ENABLE_PROFILE_RESOURCE_USAGE));
             recordingBuildListener = new RecordingBuildListener(ProcessProfileWriter.get());
             project.getGradle().addListener(recordingBuildListener);
         }
@@ -54,6 +54,7 @@ public class RecordingBuildListener implements TaskExecutionListener {
         builder.setType(ExecutionType.TASK_EXECUTION);
         builder.setId(recordWriter.allocateRecordId());
         builder.setStartTimeInMs(System.currentTimeMillis());
+        recordWriter.startResourceUsage(builder.getId());
 
         taskRecords.put(task.getPath(), builder);
     }
@@ -19,7 +19,8 @@ package com.android.build.gradle.internal.res
 import com.android.build.gradle.internal.LoggerWrapper
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey
 import com.android.build.gradle.internal.res.namespaced.useAaptDaemon
-import com.android.builder.internal.aapt.v2.Aapt2Exception
+import com.android.builder.internal.aapt.v2.splitIntoCompileBatches
+import com.android.builder.internal.aapt.v2.toCompileException
 import com.android.ide.common.resources.CompileResourceRequest
 import org.gradle.api.logging.Logging
 import java.io.Serializable
@@ -32,11 +33,12 @@ class Aapt2CompileWithBlameRunnable @Inject constructor(
     override fun run() {
         val logger = LoggerWrapper(Logging.getLogger(this::class.java))
         useAaptDaemon(params.aapt2ServiceKey) { daemon ->
-            params.requests.forEach { request ->
-                try {
-                    daemon.compile(request, logger)
-                } catch (e: Aapt2Exception) {
-                    throw rewriteCompileException(e, request)
+            for (batch in splitIntoCompileBatches(params.requests)) {
+                val failures = daemon.compileBatch(batch, logger)
+                if (!failures.isEmpty()) {
+                    throw toCompileException(failures.map {
+                        it.copy(exception = rewriteCompileException(it.exception, it.request))
+                    })
                 }
             }
         }
@@ -27,6 +27,7 @@ import com.android.build.gradle.internal.tasks.TaskInputHelper
 import com.android.build.gradle.options.BooleanOption
 import com.android.build.gradle.tasks.ProcessAndroidResources
 import com.android.builder.symbols.processLibraryMainSymbolTable
+import com.android.builder.utils.FileCache
 import com.android.ide.common.symbols.IdProvider
 import com.android.ide.common.symbols.SymbolIo
 import com.android.ide.common.symbols.SymbolTable
@@ -93,6 +94,9 @@ open class GenerateLibraryRFileTask : ProcessAndroidResources() {
     lateinit var inputResourcesDir: BuildableArtifact
         private set
 
+    @get:Internal var buildCache: FileCache? = null
+        private set
+
     @Throws(IOException::class)
     override fun doFullTaskAction() {
         val manifest = Iterables.getOnlyElement(
@@ -117,7 +121,8 @@ open class GenerateLibraryRFileTask : ProcessAndroidResources() {
                 proguardOut = proguardOutputFile,
                 mergedResources = inputResourcesDir.single(),
                 platformSymbols = androidAttrSymbol,
-                disableMergeInLib = true)
+                disableMergeInLib = true,
+                buildCache = buildCache)
 
         SymbolIo.writeSymbolListWithPackageName(
                 textSymbolOutputFile.toPath(),
@@ -191,6 +196,8 @@ open class GenerateLibraryRFileTask : ProcessAndroidResources() {
                 InternalArtifactType.PACKAGED_RES)
 
             task.outputScope = variantScope.outputScope
+
+            task.buildCache = variantScope.globalScope.buildCache
         }
     }
 }
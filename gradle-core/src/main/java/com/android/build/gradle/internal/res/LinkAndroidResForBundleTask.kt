@@ -22,6 +22,8 @@ import com.android.build.gradle.internal.dsl.convert
 import com.android.build.gradle.internal.publishing.AndroidArtifacts.ArtifactScope.MODULE
 import com.android.build.gradle.internal.publishing.AndroidArtifacts.ArtifactType.FEATURE_RESOURCE_PKG
 import com.android.build.gradle.internal.publishing.AndroidArtifacts.ConsumedConfigType.COMPILE_CLASSPATH
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes
+import com.android.build.gradle.internal.res.namespaced.getAaptDaemonPoolSizes
 import com.android.build.gradle.internal.res.namespaced.registerAaptService
 import com.android.build.gradle.internal.scope.ExistingBuildElements
 import com.android.build.gradle.internal.scope.InternalArtifactType
@@ -129,6 +131,8 @@ open class LinkAndroidResForBundleTask
     var aapt2FromMaven: FileCollection? = null
         private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     @TaskAction
     fun taskAction() {
 
@@ -171,7 +175,8 @@ open class LinkAndroidResForBundleTask
         val aapt2ServiceKey = registerAaptService(
             aapt2FromMaven = aapt2FromMaven,
             buildToolInfo = null,
-            logger = builder.logger
+            logger = builder.logger,
+            poolSizes = aapt2DaemonPoolSizes
         )
         //TODO: message rewriting.
         workers.use {
@@ -278,6 +283,7 @@ open class LinkAndroidResForBundleTask
 
             processResources.mergeBlameLogFolder = variantScope.resourceBlameLogDir
             processResources.aapt2FromMaven = getAapt2FromMaven(variantScope.globalScope)
+            processResources.aapt2DaemonPoolSizes = getAaptDaemonPoolSizes(projectOptions)
             processResources.minSdkVersion = variantScope.minSdkVersion.apiLevel
 
             processResources.resConfig =
@@ -42,6 +42,7 @@ import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
 import com.android.build.gradle.internal.incremental.InstantRunPatchingPolicy;
 import com.android.build.gradle.internal.publishing.AndroidArtifacts;
 import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonManagerService;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes;
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey;
 import com.android.build.gradle.internal.scope.BuildElements;
 import com.android.build.gradle.internal.scope.BuildOutput;
@@ -138,6 +139,8 @@ public class LinkApplicationAndroidResourcesTask extends ProcessAndroidResources
 
     @Nullable private FileCollection aapt2FromMaven;
 
+    private Aapt2DaemonPoolSizes aapt2DaemonPoolSizes;
+
     private boolean debuggable;
 
     private boolean pseudoLocalesEnabled;
@@ -254,7 +257,10 @@ public class LinkApplicationAndroidResourcesTask extends ProcessAndroidResources
             if (aaptGeneration == AaptGeneration.AAPT_V2_DAEMON_SHARED_POOL) {
                 aapt2ServiceKey =
                         Aapt2DaemonManagerService.registerAaptService(
-                                aapt2FromMaven, getBuildTools(), getILogger());
+                                aapt2FromMaven,
+                                getBuildTools(),
+                                getILogger(),
+                                aapt2DaemonPoolSizes);
             } else {
                 aapt2ServiceKey = null;
             }
@@ -714,6 +720,8 @@ public class LinkApplicationAndroidResourcesTask extends ProcessAndroidResources
             processResources.aaptGeneration = AaptGeneration.fromProjectOptions(projectOptions);
             processResources.aapt2FromMaven =
                     Aapt2MavenUtils.getAapt2FromMavenIfEnabled(variantScope.getGlobalScope());
+            processResources.aapt2DaemonPoolSizes =
+                    Aapt2DaemonManagerService.getAaptDaemonPoolSizes(projectOptions);
 
             if (variantData.getType().isAar()) {
                 throw new IllegalArgumentException("Use GenerateLibraryRFileTask");
@@ -894,6 +902,8 @@ public class LinkApplicationAndroidResourcesTask extends ProcessAndroidResources
                             .appendArtifact(InternalArtifactType.PROCESSED_RES, task, "out");
             task.aaptGeneration = AaptGeneration.fromProjectOptions(projectOptions);
             task.aapt2FromMaven = Aapt2MavenUtils.getAapt2FromMaven(variantScope.getGlobalScope());
+            task.aapt2DaemonPoolSizes =
+                    Aapt2DaemonManagerService.getAaptDaemonPoolSizes(projectOptions);
             task.setEnableAapt2(true);
 
             task.applicationId = TaskInputHelper.memoize(config::getApplicationId);
@@ -17,6 +17,8 @@
 package com.android.build.gradle.internal.res.namespaced
 
 import com.android.build.gradle.internal.LoggerWrapper
+import com.android.builder.internal.aapt.v2.splitIntoCompileBatches
+import com.android.builder.internal.aapt.v2.toCompileException
 import com.android.ide.common.resources.CompileResourceRequest
 import com.android.repository.Revision
 import org.gradle.api.logging.Logging
@@ -29,7 +31,12 @@ class Aapt2CompileRunnable @Inject constructor(
     override fun run() {
         val logger = LoggerWrapper(Logging.getLogger(this::class.java))
         useAaptDaemon(params.aapt2ServiceKey) { daemon ->
-            params.requests.forEach { daemon.compile(it, logger) }
+            for (batch in splitIntoCompileBatches(params.requests)) {
+                val failures = daemon.compileBatch(batch, logger)
+                if (!failures.isEmpty()) {
+                    throw toCompileException(failures)
+                }
+            }
         }
     }
 
@@ -21,6 +21,8 @@ package com.android.build.gradle.internal.res.namespaced
 import com.android.SdkConstants
 import com.android.annotations.concurrency.GuardedBy
 import com.android.build.gradle.internal.workeractions.WorkerActionServiceRegistry
+import com.android.build.gradle.options.IntegerOption
+import com.android.build.gradle.options.ProjectOptions
 import com.android.builder.internal.aapt.v2.Aapt2DaemonImpl
 import com.android.builder.internal.aapt.v2.Aapt2DaemonManager
 import com.android.builder.internal.aapt.v2.Aapt2DaemonTimeouts
@@ -31,6 +33,7 @@ import com.android.utils.ILogger
 import org.gradle.api.file.FileCollection
 import java.io.File
 import java.io.IOException
+import java.io.Serializable
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
@@ -46,14 +49,51 @@ import java.util.concurrent.TimeUnit
 private val daemonTimeouts = Aapt2DaemonTimeouts()
 private val daemonExpiryTimeSeconds = TimeUnit.MINUTES.toSeconds(3)
 private val maintenanceIntervalSeconds = TimeUnit.MINUTES.toSeconds(1)
+private val slowLeaseThresholdNanoSeconds = TimeUnit.MILLISECONDS.toNanos(100)
+
+/**
+ * Sizes of an AAPT2 daemon pool.
+ *
+ * They are part of the [Aapt2ServiceKey], so that projects configured with different sizes get
+ * their own pool instead of silently sharing the first one registered.
+ */
+data class Aapt2DaemonPoolSizes(
+    val minPoolSize: Int = 0,
+    val maxPoolSize: Int = Int.MAX_VALUE
+) : Serializable
+
+/**
+ * Returns the size of the AAPT2 daemon pools from the project options.
+ *
+ * Uses [IntegerOption.AAPT2_DAEMON_MIN_POOL_SIZE] and [IntegerOption.AAPT2_DAEMON_MAX_POOL_SIZE].
+ */
+fun getAaptDaemonPoolSizes(options: ProjectOptions): Aapt2DaemonPoolSizes {
+    val maxPoolSize = options.get(IntegerOption.AAPT2_DAEMON_MAX_POOL_SIZE) ?: Int.MAX_VALUE
+    val minPoolSize = options.get(IntegerOption.AAPT2_DAEMON_MIN_POOL_SIZE) ?: 0
+    if (maxPoolSize <= 0 || minPoolSize < 0 || minPoolSize > maxPoolSize) {
+        throw IllegalArgumentException(
+            "Invalid AAPT2 daemon pool sizes: " +
+                    "${IntegerOption.AAPT2_DAEMON_MIN_POOL_SIZE.propertyName}=$minPoolSize, " +
+                    "${IntegerOption.AAPT2_DAEMON_MAX_POOL_SIZE.propertyName}=$maxPoolSize"
+        )
+    }
+    return Aapt2DaemonPoolSizes(minPoolSize = minPoolSize, maxPoolSize = maxPoolSize)
+}
 
 sealed class Aapt2ServiceKey : WorkerActionServiceRegistry.ServiceKey<Aapt2DaemonManager> {
     final override val type: Class<Aapt2DaemonManager> get() = Aapt2DaemonManager::class.java
+    abstract val poolSizes: Aapt2DaemonPoolSizes
 }
 
-private data class Aapt2SdkServiceKey(val aapt2Version: Revision) : Aapt2ServiceKey()
+private data class Aapt2SdkServiceKey(
+    val aapt2Version: Revision,
+    override val poolSizes: Aapt2DaemonPoolSizes
+) : Aapt2ServiceKey()
 
-private data class Aapt2FileServiceKey(val file: File) : Aapt2ServiceKey()
+private data class Aapt2FileServiceKey(
+    val file: File,
+    override val poolSizes: Aapt2DaemonPoolSizes
+) : Aapt2ServiceKey()
 
 private class RegisteredAaptService(override val service: Aapt2DaemonManager)
     : WorkerActionServiceRegistry.RegisteredService<Aapt2DaemonManager> {
@@ -91,6 +131,7 @@ fun registerAaptService(
     aapt2FromMaven: FileCollection?,
     buildToolInfo: BuildToolInfo? = null,
     logger: ILogger,
+    poolSizes: Aapt2DaemonPoolSizes,
     serviceRegistry: WorkerActionServiceRegistry = WorkerActionServiceRegistry.INSTANCE
 ): Aapt2ServiceKey {
     val key: Aapt2ServiceKey
@@ -98,11 +139,11 @@ fun registerAaptService(
     when {
         aapt2FromMaven != null -> {
             val dir = aapt2FromMaven.singleFile
-            key = Aapt2FileServiceKey(dir)
+            key = Aapt2FileServiceKey(dir, poolSizes)
             aaptExecutablePath =  dir.toPath().resolve(SdkConstants.FN_AAPT2)
         }
         buildToolInfo != null -> {
-            key = Aapt2SdkServiceKey(buildToolInfo.revision)
+            key = Aapt2SdkServiceKey(buildToolInfo.revision, poolSizes)
             aaptExecutablePath = Paths.get(buildToolInfo.getPath(BuildToolInfo.PathId.AAPT2))
         }
         else -> throw IllegalArgumentException(
@@ -124,16 +165,20 @@ fun registerAaptService(
                 },
                 expiryTime = daemonExpiryTimeSeconds,
                 expiryTimeUnit = TimeUnit.SECONDS,
-                listener = Aapt2DaemonManagerMaintainer())
+                listener = Aapt2DaemonManagerMaintainer(logger),
+                minPoolSize = poolSizes.minPoolSize,
+                maxPoolSize = poolSizes.maxPoolSize)
         RegisteredAaptService(manager)
     })
     return key
 }
 
 /**
- * Responsible for scheduling maintenance on the Aapt2Service.
+ * Responsible for scheduling maintenance on the Aapt2Service, and for reporting its metrics.
  */
-private class Aapt2DaemonManagerMaintainer : Aapt2DaemonManager.Listener {
+private class Aapt2DaemonManagerMaintainer(
+    private val logger: ILogger
+) : Aapt2DaemonManager.Listener {
     @GuardedBy("this")
     private var maintainExecutor: ScheduledExecutorService? = null
     @GuardedBy("this")
@@ -150,6 +195,20 @@ private class Aapt2DaemonManagerMaintainer : Aapt2DaemonManager.Listener {
                         TimeUnit.SECONDS)
     }
 
+    override fun daemonProcessStarted(startNanoSeconds: Long) {
+        logger.info(
+            "AAPT2 daemon started in %1\$d ms",
+            TimeUnit.NANOSECONDS.toMillis(startNanoSeconds))
+    }
+
+    override fun daemonLeased(waitNanoSeconds: Long) {
+        if (waitNanoSeconds >= slowLeaseThresholdNanoSeconds) {
+            logger.info(
+                "Waited %1\$d ms for an AAPT2 daemon",
+                TimeUnit.NANOSECONDS.toMillis(waitNanoSeconds))
+        }
+    }
+
     @Synchronized
     override fun lastDaemonStopped() {
         maintainAction!!.cancel(false)
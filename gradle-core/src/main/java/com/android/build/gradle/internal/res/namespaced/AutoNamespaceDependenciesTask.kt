@@ -25,14 +25,18 @@ import com.android.build.gradle.internal.scope.InternalArtifactType
 import com.android.build.gradle.internal.scope.TaskConfigAction
 import com.android.build.gradle.internal.scope.VariantScope
 import com.android.build.gradle.internal.tasks.AndroidBuilderTask
+import com.android.builder.symbols.SymbolTableCache
 import com.android.builder.symbols.exportToCompiledJava
-import com.android.ide.common.symbols.SymbolIo
+import com.android.builder.utils.FileCache
+import com.android.ide.common.internal.WaitableExecutor
 import com.android.ide.common.symbols.SymbolTable
 import com.android.tools.build.apkzlib.zip.StoredEntryType
 import com.android.tools.build.apkzlib.zip.ZFile
 import com.android.utils.FileUtils
 import com.google.common.collect.ImmutableList
 import com.google.common.collect.ImmutableMap
+import com.google.common.hash.HashCode
+import com.google.common.hash.Hashing
 import org.gradle.api.artifacts.ArtifactCollection
 import org.gradle.api.artifacts.ResolvableDependencies
 import org.gradle.api.artifacts.component.ProjectComponentIdentifier
@@ -40,11 +44,13 @@ import org.gradle.api.file.FileCollection
 import org.gradle.api.logging.Logger
 import org.gradle.api.tasks.CacheableTask
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.TaskAction
 import java.io.File
 import java.nio.file.Files
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Rewrites the classes.jar files of the module's dependencies to be fully resource namespaced. It
@@ -64,9 +70,18 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
     @InputFiles fun getDependenciesFiles(): FileCollection = dependencies.files
 
     @VisibleForTesting internal var log: Logger? = null
-    private var symbolTablesCache: HashMap<File, SymbolTable> = HashMap()
+    private val fileHashesCache: ConcurrentHashMap<File, HashCode> = ConcurrentHashMap()
     private var usedSanitizedDependencyNames: HashSet<String> = HashSet()
 
+    /**
+     * Directory where the namespaced outputs of each dependency are kept between runs, keyed by
+     * the hash of the inputs of that dependency. If null, every dependency is rewritten.
+     */
+    @get:Internal var incrementalDir: File? = null
+
+    /** Optional cache for the parsed R-def files, see [SymbolTableCache]. */
+    @get:Internal var buildCache: FileCache? = null
+
     @get:OutputDirectory lateinit var outputRewrittenClasses: File private set
     @get:OutputDirectory lateinit var outputRClasses: File private set
     @get:OutputFile lateinit var outputClassesJar: File private set
@@ -86,15 +101,14 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
         outputRClasses: File = this.outputRClasses,
         outputClassesJar: File = this.outputClassesJar,
         outputRClassesJar: File = this.outputRClassesJar,
-        outputManifests: File = this.outputRewrittenManifests
+        outputManifests: File = this.outputRewrittenManifests,
+        incrementalDir: File? = this.incrementalDir
     ) {
-        if (outputDirectory.exists()) {
-            outputDirectory.deleteRecursively()
-            FileUtils.mkdirs(outputDirectory)
-        }
-        if (outputRClasses.exists()) {
-            outputRClasses.deleteRecursively()
-            FileUtils.mkdirs(outputRClasses)
+        for (directory in listOf(outputDirectory, outputRClasses, outputManifests)) {
+            if (directory.exists()) {
+                directory.deleteRecursively()
+                FileUtils.mkdirs(directory)
+            }
         }
         outputClassesJar.delete()
         outputRClassesJar.delete()
@@ -117,14 +131,38 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
 
         // The rewriting works per node, since for rewriting a library the only files from its
         // dependencies we need are their R-def.txt files, which were already generated by the
-        // [LibraryDefinedSymbolTableTransform].
-        // TODO: do this in parallel
-        for (dependency in graph.allNodes) {
-            namespaceDependency(dependency, outputDirectory, outputRClasses, outputManifests)
+        // [LibraryDefinedSymbolTableTransform]. This means the nodes can be rewritten in parallel.
+        // They are still submitted in topological order, so that when the graph is partially
+        // cached the libraries are rewritten leaves first, as they would be if done serially.
+        val executor = WaitableExecutor.useGlobalSharedThreadPool()
+        val usedCacheEntries = ConcurrentHashMap.newKeySet<String>()
+        for (dependency in topologicalOrder(graph)) {
+            // Everything that is not thread safe (the graph, the sanitized names) is computed here.
+            val work = createNodeWork(
+                    dependency, outputDirectory, outputRClasses, outputManifests) ?: continue
+            executor.execute {
+                if (incrementalDir == null) {
+                    namespaceDependency(
+                            work, work.outputClassesJar, work.outputRJar, work.outputManifest)
+                } else {
+                    usedCacheEntries.add(namespaceDependencyWithCache(work, incrementalDir))
+                }
+                null
+            }
+        }
+        try {
+            executor.waitForTasksWithQuickFail<Any>(true /* cancelRemaining */)
+        } finally {
+            fileHashesCache.clear()
+            usedSanitizedDependencyNames.clear()
         }
 
-        symbolTablesCache.clear()
-        usedSanitizedDependencyNames.clear()
+        // Remove the outputs of dependencies that are not used anymore, or that have changed.
+        incrementalDir?.listFiles()?.forEach { entry ->
+            if (!usedCacheEntries.contains(entry.name)) {
+                FileUtils.deletePath(entry)
+            }
+        }
 
         // Jar all the classes into two JAR files - one for namespaced classes, one for R classes.
         jarOutputs(outputClassesJar, outputDirectory)
@@ -148,50 +186,133 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
         }
     }
 
-    private fun namespaceDependency(
+    /** Returns all the nodes of the graph, each node coming after all of its dependencies. */
+    private fun topologicalOrder(graph: DependenciesGraph): List<DependenciesGraph.Node> {
+        val visited = HashSet<DependenciesGraph.Node>()
+        val ordered = ArrayList<DependenciesGraph.Node>(graph.allNodes.size)
+        fun visit(node: DependenciesGraph.Node) {
+            if (!visited.add(node)) {
+                return
+            }
+            node.dependencies.sortedBy { it.id.displayName }.forEach { visit(it) }
+            ordered.add(node)
+        }
+        graph.allNodes.sortedBy { it.id.displayName }.forEach { visit(it) }
+        return ordered
+    }
+
+    /** Everything needed to rewrite one dependency, computed before the rewriting starts. */
+    private class NodeWork(
+        val name: String,
+        val classesJar: File,
+        val manifest: File,
+        val rDefFiles: ImmutableList<File>,
+        val outputClassesJar: File,
+        val outputRJar: File,
+        val outputManifest: File
+    )
+
+    private fun createNodeWork(
         dependency: DependenciesGraph.Node,
         outputDirectory: File,
         outputRClassesDirectory: File,
         outputManifests: File
-    ) {
+    ): NodeWork? {
         val input = dependency.getFile(ArtifactType.NON_NAMESPACED_CLASSES)
         val manifest = dependency.getFile(ArtifactType.NON_NAMESPACED_MANIFEST)
         // Only convert external nodes and non-namespaced libraries. Already namespaced libraries
         // and JAR files can be present in the graph, but they will not contain the
         // NON_NAMESPACED_CLASSES artifacts. Only try to rewrite non-namespaced libraries' classes.
-        if (dependency.id !is ProjectComponentIdentifier && input != null) {
-            Preconditions.checkNotNull(
-                    manifest,
-                    "Manifest missing for library ${dependency.id.displayName}")
-            val dependencyName = dependency.id.displayName
-            val sanitizedDependencyName = getUniqueSanitizedDependencyName(dependencyName)
-            val out = File(
-                    outputDirectory,
-                    "namespaced-$sanitizedDependencyName-${input.name}"
-            )
+        if (dependency.id is ProjectComponentIdentifier || input == null) {
+            return null
+        }
+        Preconditions.checkNotNull(
+                manifest,
+                "Manifest missing for library ${dependency.id.displayName}")
+        val sanitizedDependencyName = getUniqueSanitizedDependencyName(dependency.id.displayName)
+        return NodeWork(
+                name = dependency.id.displayName,
+                classesJar = input,
+                manifest = manifest!!,
+                rDefFiles = dependency.getTransitiveFiles(ArtifactType.DEFINED_ONLY_SYMBOL_LIST),
+                outputClassesJar = File(
+                        outputDirectory,
+                        "namespaced-$sanitizedDependencyName-${input.name}"),
+                outputRJar = File(
+                        outputRClassesDirectory,
+                        "namespaced-$sanitizedDependencyName-R.jar"),
+                outputManifest = File(
+                        outputManifests,
+                        "${sanitizedDependencyName}_AndroidManifest.xml"))
+    }
 
-            // The rewriting algorithm uses ordered symbol tables, with this library's table at the
-            // top of the list. It looks up resources starting from the top of the list, trying to
-            // find where the references resource was defined (or overridden), closest to the root
-            // (this node) in the dependency graph.
-            val symbolTables = getSymbolTables(dependency)
-            logger.info("Started rewriting $dependencyName")
-            val rewriter = NamespaceRewriter(symbolTables, log ?: logger)
-            rewriter.rewriteJar(input, out)
-            rewriter.rewriteManifest(
-                    manifest!!,
-                    File(outputManifests, "${sanitizedDependencyName}_AndroidManifest.xml"))
-            logger.info("Finished rewriting $dependencyName")
-
-            // Also generate fake R classes for compilation.
-            exportToCompiledJava(
-                    ImmutableList.of(symbolTables[0]),
-                    File(
-                            outputRClassesDirectory,
-                            "namespaced-$sanitizedDependencyName-R.jar"
-                    ).toPath()
-            )
+    /**
+     * Copies the namespaced outputs of the dependency from the cache in [incrementalDir],
+     * rewriting the dependency first if its inputs have changed since the last run.
+     *
+     * The cache key covers the classes jar, the manifest and the R-def files of the dependency
+     * and of all its transitive dependencies, so a change in a library also invalidates all the
+     * libraries that depend on it.
+     *
+     * Returns the cache key.
+     */
+    private fun namespaceDependencyWithCache(work: NodeWork, incrementalDir: File): String {
+        val hasher = Hashing.sha256().newHasher()
+        hasher.putInt(CACHE_VERSION)
+        hasher.putBytes(hashFile(work.classesJar).asBytes())
+        hasher.putBytes(hashFile(work.manifest).asBytes())
+        for (rDefFile in work.rDefFiles) {
+            hasher.putBytes(hashFile(rDefFile).asBytes())
+        }
+        val key = hasher.hash().toString()
+        val cacheEntry = File(incrementalDir, key)
+        if (cacheEntry.isDirectory) {
+            logger.info("Reusing namespaced ${work.name}")
+        } else {
+            // Write to a temporary directory first, so that a failure does not leave a partial
+            // entry that would be reused by the next run.
+            val tmpEntry = File(incrementalDir, "$key.tmp")
+            FileUtils.cleanOutputDir(tmpEntry)
+            namespaceDependency(
+                    work,
+                    File(tmpEntry, CACHED_CLASSES_JAR),
+                    File(tmpEntry, CACHED_R_JAR),
+                    File(tmpEntry, CACHED_MANIFEST))
+            if (cacheEntry.exists()) {
+                FileUtils.deletePath(cacheEntry)
+            }
+            FileUtils.renameTo(tmpEntry, cacheEntry)
         }
+        FileUtils.copyFile(File(cacheEntry, CACHED_CLASSES_JAR), work.outputClassesJar)
+        FileUtils.copyFile(File(cacheEntry, CACHED_R_JAR), work.outputRJar)
+        FileUtils.copyFile(File(cacheEntry, CACHED_MANIFEST), work.outputManifest)
+        return key
+    }
+
+    private fun hashFile(file: File): HashCode =
+        fileHashesCache.computeIfAbsent(file) {
+            com.google.common.io.Files.asByteSource(it).hash(Hashing.sha256())
+        }
+
+    private fun namespaceDependency(
+        work: NodeWork,
+        outputClassesJar: File,
+        outputRJar: File,
+        outputManifest: File
+    ) {
+        // The rewriting algorithm uses ordered symbol tables, with this library's table at the
+        // top of the list. It looks up resources starting from the top of the list, trying to
+        // find where the references resource was defined (or overridden), closest to the root
+        // (this node) in the dependency graph.
+        val symbolTables = getSymbolTables(work.rDefFiles)
+        logger.info("Started rewriting ${work.name}")
+        val rewriter = NamespaceRewriter(symbolTables, log ?: logger)
+        rewriter.rewriteJar(work.classesJar, outputClassesJar)
+        rewriter.rewriteManifest(work.manifest, outputManifest)
+        logger.info("Finished rewriting ${work.name}")
+
+        // Also generate fake R classes for compilation.
+        exportToCompiledJava(ImmutableList.of(symbolTables[0]), outputRJar.toPath())
     }
 
     private fun getUniqueSanitizedDependencyName(name: String): String {
@@ -206,21 +327,15 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
         return sanitizedName
     }
 
-    private fun getSymbolTables(node: DependenciesGraph.Node): ImmutableList<SymbolTable> {
-        synchronized(symbolTablesCache) {
-            val builder = ImmutableList.builder<SymbolTable>()
-
-            // Reading the R files and building symbol tables is very costly, remember them in the
-            // cache when reading for the first time, then just fetch the already build table.
-            for (rFile in node.getTransitiveFiles(ArtifactType.DEFINED_ONLY_SYMBOL_LIST)) {
-                if (!symbolTablesCache.contains(rFile)) {
-                    val table = SymbolIo.readRDef(rFile.toPath())
-                    symbolTablesCache[rFile] = table
-                }
-                builder.add(symbolTablesCache[rFile]!!)
-            }
-            return builder.build()
+    private fun getSymbolTables(rDefFiles: List<File>): ImmutableList<SymbolTable> {
+        // Reading the R files and building symbol tables is very costly, they are shared with
+        // the other tasks (and daemons, through the build cache) that read the same files.
+        val builder = ImmutableList.builder<SymbolTable>()
+        for (rFile in rDefFiles) {
+            builder.add(
+                    SymbolTableCache.read(rFile.toPath(), SymbolTableCache.Format.R_DEF, buildCache))
         }
+        return builder.build()
     }
 
     private fun ArtifactCollection.toMap(): ImmutableMap<String, File> =
@@ -230,6 +345,14 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
             }
         }.build()
 
+    companion object {
+        /** Bump when the format of the rewritten outputs changes, to invalidate cached outputs. */
+        private const val CACHE_VERSION = 1
+        private const val CACHED_CLASSES_JAR = "classes.jar"
+        private const val CACHED_R_JAR = "R.jar"
+        private const val CACHED_MANIFEST = "AndroidManifest.xml"
+    }
+
     class ConfigAction(private val variantScope: VariantScope)
         : TaskConfigAction<AutoNamespaceDependenciesTask> {
 
@@ -279,6 +402,9 @@ open class AutoNamespaceDependenciesTask : AndroidBuilderTask() {
 
             task.dependencies =
                     variantScope.variantData.variantDependency.runtimeClasspath.incoming
+
+            task.incrementalDir = variantScope.getIncrementalDir(name)
+            task.buildCache = variantScope.globalScope.buildCache
         }
     }
 }
\ No newline at end of file
@@ -51,6 +51,8 @@ open class CompileSourceSetResources
     @get:PathSensitive(PathSensitivity.RELATIVE)
     lateinit var aapt2FromMaven: FileCollection private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     @get:InputFiles @get:SkipWhenEmpty lateinit var inputDirectories: BuildableArtifact private set
     @get:Input var isPngCrunching: Boolean = false; private set
     @get:Input var isPseudoLocalize: Boolean = false; private set
@@ -149,7 +151,8 @@ open class CompileSourceSetResources
         }
         val aapt2ServiceKey = registerAaptService(
             aapt2FromMaven = aapt2FromMaven,
-            logger = iLogger
+            logger = iLogger,
+            poolSizes = aapt2DaemonPoolSizes
         )
         for (request in requests) {
             workers.submit(Aapt2CompileRunnable::class.java,
@@ -183,6 +186,8 @@ open class CompileSourceSetResources
             task.isPseudoLocalize =
                     variantScope.variantData.variantConfiguration.buildType.isPseudoLocalesEnabled
             task.aapt2FromMaven = getAapt2FromMaven(variantScope.globalScope)
+            task.aapt2DaemonPoolSizes =
+                    getAaptDaemonPoolSizes(variantScope.globalScope.projectOptions)
         }
     }
 }
@@ -62,14 +62,14 @@ open class GenerateNamespacedLibraryRFilesTask : DefaultTask() {
            partialRFiles.addAll(directory.listFiles{ f -> f.isFile }.asIterable())
         }
 
-        FileUtils.deleteIfExists(rJarFile)
         FileUtils.deleteIfExists(resIdsFile)
 
         // Read the symbol tables from the partial R.txt files and merge them into one.
         val resources = SymbolTable.mergePartialTables(partialRFiles.build(), packageForR)
 
-        // Generate the R.jar file containing compiled R class and its' inner classes.
-        exportToCompiledJava(ImmutableList.of(resources), rJarFile.toPath())
+        // Generate the R.jar file containing compiled R class and its' inner classes, only
+        // rewriting the classes that changed since the previous run.
+        exportToCompiledJava(ImmutableList.of(resources), rJarFile.toPath(), incremental = true)
 
         // Finally, generate the res-ids.txt file containing the package name and the resources list.
         SymbolIo.writeRDef(resources, resIdsFile.toPath())
@@ -66,6 +66,8 @@ open class LinkLibraryAndroidResourcesTask @Inject constructor(workerExecutor: W
     @get:PathSensitive(PathSensitivity.RELATIVE)
     lateinit var aapt2FromMaven: FileCollection private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     @get:OutputDirectory lateinit var aaptIntermediateDir: File private set
     @get:OutputFile lateinit var staticLibApk: File private set
 
@@ -93,7 +95,8 @@ open class LinkLibraryAndroidResourcesTask @Inject constructor(workerExecutor: W
 
         val aapt2ServiceKey = registerAaptService(
             aapt2FromMaven = aapt2FromMaven,
-            logger = iLogger
+            logger = iLogger,
+            poolSizes = aapt2DaemonPoolSizes
         )
         workers.use {
             it.submit(Aapt2LinkRunnable::class.java,
@@ -142,6 +145,7 @@ open class LinkLibraryAndroidResourcesTask @Inject constructor(workerExecutor: W
             task.setAndroidBuilder(scope.globalScope.androidBuilder)
             task.packageForRSupplier = Suppliers.memoize(scope.variantConfiguration::getOriginalApplicationId)
             task.aapt2FromMaven = getAapt2FromMaven(scope.globalScope)
+            task.aapt2DaemonPoolSizes = getAaptDaemonPoolSizes(scope.globalScope.projectOptions)
         }
     }
 
@@ -68,6 +68,8 @@ open class ProcessAndroidAppResourcesTask
     @get:InputFiles @get:Optional @get:PathSensitive(PathSensitivity.RELATIVE)
     lateinit var aapt2FromMaven: FileCollection private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     @get:OutputDirectory lateinit var aaptIntermediateDir: File private set
     @get:OutputDirectory lateinit var rClassSource: File private set
     @get:OutputFile lateinit var resourceApUnderscore: File private set
@@ -92,7 +94,9 @@ open class ProcessAndroidAppResourcesTask
                 intermediateDir = aaptIntermediateDir)
 
         val aapt2ServiceKey = registerAaptService(
-            aapt2FromMaven = aapt2FromMaven, logger = iLogger
+            aapt2FromMaven = aapt2FromMaven,
+            logger = iLogger,
+            poolSizes = aapt2DaemonPoolSizes
         )
         workers.use {
             it.submit(Aapt2LinkRunnable::class.java,
@@ -147,6 +151,7 @@ open class ProcessAndroidAppResourcesTask
                     "res.apk")
             task.setAndroidBuilder(scope.globalScope.androidBuilder)
             task.aapt2FromMaven = getAapt2FromMaven(scope.globalScope)
+            task.aapt2DaemonPoolSizes = getAaptDaemonPoolSizes(scope.globalScope.projectOptions)
         }
     }
 
@@ -193,6 +193,10 @@ public class VariantScopeImpl extends GenericVariantScopeImpl implements Variant
                         projectOptions.get(StringOption.IDE_BUILD_TARGET_ABI),
                         projectOptions.get(StringOption.IDE_BUILD_TARGET_DENSITY),
                         projectOptions.get(BooleanOption.ENABLE_SEPARATE_APK_RESOURCES));
+        Integer maxBuildHistory = projectOptions.get(IntegerOption.INSTANT_RUN_MAX_BUILD_HISTORY);
+        if (maxBuildHistory != null) {
+            this.instantRunBuildContext.setMaxBuildHistory(maxBuildHistory);
+        }
         this.buildArtifactsHolder =
                 new VariantBuildArtifactsHolder(
                         getProject(),
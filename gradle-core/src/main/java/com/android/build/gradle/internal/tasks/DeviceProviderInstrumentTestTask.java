@@ -38,6 +38,7 @@ import com.android.build.gradle.internal.variant.TestVariantData;
 import com.android.build.gradle.options.BooleanOption;
 import com.android.build.gradle.options.IntegerOption;
 import com.android.build.gradle.options.ProjectOptions;
+import com.android.builder.internal.testing.DurationShardProvider;
 import com.android.builder.internal.testing.SimpleTestCallable;
 import com.android.builder.model.TestOptions;
 import com.android.builder.sdk.TargetInfo;
@@ -56,6 +57,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
@@ -89,7 +91,8 @@ public class DeviceProviderInstrumentTestTask extends AndroidBuilderTask
             file -> SdkConstants.EXT_ANDROID_PACKAGE.equals(Files.getFileExtension(file.getName()));
 
     private interface TestRunnerFactory {
-        TestRunner build(@Nullable File splitSelectExec, @NonNull ProcessExecutor processExecutor);
+        TestRunner build(@Nullable File splitSelectExec, @NonNull ProcessExecutor processExecutor)
+                throws IOException;
     }
 
     private DeviceProvider deviceProvider;
@@ -118,6 +121,10 @@ public class DeviceProviderInstrumentTestTask extends AndroidBuilderTask
                     throw new InvalidUserDataException(message);
                 });
 
+        // created before the results are cleaned, as it may use the previous results.
+        TestRunner testRunner =
+                testRunnerFactory.build(splitSelectExec.get(), getProcessExecutor());
+
         File resultsOutDir = getResultsDir();
         FileUtils.cleanOutputDir(resultsOutDir);
 
@@ -142,9 +149,6 @@ public class DeviceProviderInstrumentTestTask extends AndroidBuilderTask
         } else {
             deviceProvider.init();
 
-            TestRunner testRunner =
-                    testRunnerFactory.build(splitSelectExec.get(), getProcessExecutor());
-
             Collection<String> extraArgs =
                     installOptions == null || installOptions.isEmpty()
                             ? ImmutableList.of()
@@ -414,10 +418,19 @@ public class DeviceProviderInstrumentTestTask extends AndroidBuilderTask
                     if (shardBetweenDevices) {
                         Integer numShards =
                                 projectOptions.get(IntegerOption.ANDROID_TEST_SHARD_COUNT);
+                        boolean shardByDuration =
+                                projectOptions.get(BooleanOption.ENABLE_TEST_SHARDING_BY_DURATION);
                         task.testRunnerFactory =
                                 (splitSelect, processExecutor) ->
                                         new ShardedTestRunner(
-                                                splitSelect, processExecutor, numShards);
+                                                splitSelect,
+                                                processExecutor,
+                                                numShards,
+                                                shardByDuration
+                                                        ? DurationShardProvider
+                                                                .readTestClassDurations(
+                                                                        task.getResultsDir())
+                                                        : ImmutableMap.of());
                     } else {
                         task.testRunnerFactory = SimpleTestRunner::new;
                     }
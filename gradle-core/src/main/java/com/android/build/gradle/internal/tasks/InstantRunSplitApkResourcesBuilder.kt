@@ -26,8 +26,10 @@ import com.android.build.gradle.internal.dsl.convert
 import com.android.build.gradle.internal.incremental.InstantRunBuildContext
 import com.android.build.gradle.internal.incremental.InstantRunVerifierStatus
 import com.android.build.gradle.internal.res.getAapt2FromMavenIfEnabled
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey
 import com.android.build.gradle.internal.res.namespaced.getAaptDaemon
+import com.android.build.gradle.internal.res.namespaced.getAaptDaemonPoolSizes
 import com.android.build.gradle.internal.res.namespaced.getAaptPoolSize
 import com.android.build.gradle.internal.res.namespaced.registerAaptService
 import com.android.build.gradle.internal.scope.InternalArtifactType
@@ -75,6 +77,8 @@ open class InstantRunSplitApkResourcesBuilder
     var aapt2FromMaven: FileCollection? = null
         private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     // there is no need to make the resources a dependency of this task as we
     // only use it to successfully compile the split manifest file. We only depends on it being
     // available when this task run.
@@ -166,7 +170,8 @@ open class InstantRunSplitApkResourcesBuilder
     protected open fun getAaptService() = registerAaptService(
         aapt2FromMaven,
         builder.buildToolInfo,
-        iLogger)
+        iLogger,
+        aapt2DaemonPoolSizes)
 
     @VisibleForTesting
     protected open fun getAaptServicePoolsSize(aapt2ServiceKey: Aapt2ServiceKey) =
@@ -273,6 +278,7 @@ open class InstantRunSplitApkResourcesBuilder
                 task)
 
             task.aapt2FromMaven = getAapt2FromMavenIfEnabled(globalScope)
+            task.aapt2DaemonPoolSizes = getAaptDaemonPoolSizes(globalScope.projectOptions)
             task.aaptGeneration = AaptGeneration.fromProjectOptions(
                 globalScope.projectOptions).toString()
             task.applicationId = variantScope.variantConfiguration.applicationId
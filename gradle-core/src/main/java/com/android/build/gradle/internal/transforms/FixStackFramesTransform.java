@@ -43,19 +43,23 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
@@ -63,7 +67,11 @@ import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 import org.gradle.api.file.FileCollection;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 /**
  * When running Desugar, we need to make sure stack frames information is valid in the class files.
@@ -73,7 +81,10 @@ import org.objectweb.asm.ClassWriter;
  *
  * <p>This transform will load all class files from all external jars, and will use ASM to
  * recalculate the stack frames information. In order to obtain new stack frames, types need to be
- * resolved.
+ * resolved, which is done with the {@link TypeHierarchy} of the classpath rather than by loading
+ * the classes. Classes that can't have broken frames, because they have no branches, are copied as
+ * is. When a jar changes, or is replaced by another version, classes whose content is unchanged
+ * are copied from the previous output.
  *
  * <p>This transform requires external libraries as inputs, and all other scope types are
  * referenced. Reason is that loading a class from an external jar, might depend on loading a class
@@ -83,43 +94,86 @@ import org.objectweb.asm.ClassWriter;
  */
 public class FixStackFramesTransform extends Transform {
 
-    /** ASM class writer that uses specified class loader to resolve types. */
+    /** ASM class writer that uses the type hierarchy of the classpath to resolve types. */
     private static class FixFramesVisitor extends ClassWriter {
 
-        @NonNull private final URLClassLoader classLoader;
+        @NonNull private final TypeHierarchy typeHierarchy;
 
-        public FixFramesVisitor(int flags, @NonNull URLClassLoader classLoader) {
+        public FixFramesVisitor(int flags, @NonNull TypeHierarchy typeHierarchy) {
             super(flags);
-            this.classLoader = classLoader;
+            this.typeHierarchy = typeHierarchy;
         }
 
         @Override
         protected String getCommonSuperClass(String type1, String type2) {
-            Class<?> c;
-            Class<?> d;
-            ClassLoader classLoader = this.classLoader;
             try {
-                c = Class.forName(type1.replace('/', '.'), false, classLoader);
-                d = Class.forName(type2.replace('/', '.'), false, classLoader);
-            } catch (Exception e) {
+                return typeHierarchy.getCommonSuperClass(type1, type2);
+            } catch (TypeHierarchy.TypeNotFoundException e) {
                 throw new RuntimeException(
                         String.format(
                                 "Unable to find common supper type for %s and %s.", type1, type2),
                         e);
             }
-            if (c.isAssignableFrom(d)) {
-                return type1;
+        }
+    }
+
+    /**
+     * Outputs of a previous build, moved out of the way to be replaced. Their classes can be
+     * copied when the same input class is processed again, as identified by the comment of each
+     * output entry.
+     *
+     * <p>Each output is renamed to a sibling file, so that moving it is a rename in the transform
+     * output directory rather than a copy to the temporary directory.
+     */
+    private static final class PreviousOutputs implements Closeable {
+
+        @NonNull private final List<File> files = new ArrayList<>();
+        @NonNull private final List<ZipFile> zips = new ArrayList<>();
+        @NonNull private final Map<String, ZipFile> entries = new HashMap<>();
+
+        void add(@NonNull File output) throws IOException {
+            if (!output.isFile()) {
+                return;
             }
-            if (d.isAssignableFrom(c)) {
-                return type2;
+            File previous = new File(output.getParentFile(), output.getName() + ".previous");
+            Files.move(output.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            files.add(previous);
+
+            ZipFile zip;
+            try {
+                zip = new ZipFile(previous);
+            } catch (IOException e) {
+                logger.verbose("Unable to read previous output %s: %s", output, e.getMessage());
+                return;
             }
-            if (c.isInterface() || d.isInterface()) {
-                return "java/lang/Object";
-            } else {
-                do {
-                    c = c.getSuperclass();
-                } while (!c.isAssignableFrom(d));
-                return c.getName().replace('.', '/');
+            zips.add(zip);
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (entry.getComment() != null) {
+                    entries.put(entry.getName() + '@' + entry.getComment(), zip);
+                }
+            }
+        }
+
+        @Nullable
+        byte[] get(@NonNull String name, @NonNull String originKey) throws IOException {
+            ZipFile zip = entries.get(name + '@' + originKey);
+            if (zip == null) {
+                return null;
+            }
+            try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (ZipFile zip : zips) {
+                zip.close();
+            }
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
             }
         }
     }
@@ -132,12 +186,12 @@ public class FixStackFramesTransform extends Transform {
      * is a bug in processing, increasing the cache version will invalidate all invalid cache
      * entries, and fresh ones will be generated.
      */
-    private static final long CACHE_VERSION = 1;
+    private static final long CACHE_VERSION = 4;
 
     @NonNull private final FileCollection bootClasspath;
     @Nullable private final FileCache userCache;
     @NonNull private final WaitableExecutor waitableExecutor;
-    @Nullable private URLClassLoader classLoader = null;
+    @Nullable private TypeHierarchy typeHierarchy = null;
 
     public FixStackFramesTransform(
             @NonNull FileCollection bootClasspath, @Nullable FileCache userCache) {
@@ -182,35 +236,30 @@ public class FixStackFramesTransform extends Transform {
         return true;
     }
 
+    /**
+     * Returns the type hierarchy of all the inputs, read the first time a jar needs to be processed
+     * as all the outputs may come from the cache. This is only called from the transform thread,
+     * before the classes of the jar are submitted, as reading the hierarchy waits for the shared
+     * thread pool.
+     */
     @NonNull
-    private URLClassLoader getClassLoader(@NonNull TransformInvocation invocation)
-            throws MalformedURLException {
-        if (classLoader == null) {
-            ImmutableList.Builder<URL> urls = new ImmutableList.Builder<>();
-            for (File file : bootClasspath.getFiles()) {
-                if (file.exists()) {
-                    urls.add(file.toURI().toURL());
-                }
-            }
+    private TypeHierarchy getTypeHierarchy(@NonNull TransformInvocation invocation)
+            throws IOException, InterruptedException {
+        if (typeHierarchy == null) {
+            ImmutableList.Builder<File> classpath = new ImmutableList.Builder<>();
+            classpath.addAll(bootClasspath.getFiles());
             for (TransformInput inputs :
                     Iterables.concat(invocation.getInputs(), invocation.getReferencedInputs())) {
                 for (DirectoryInput directoryInput : inputs.getDirectoryInputs()) {
-                    if (directoryInput.getFile().isDirectory()) {
-                        urls.add(directoryInput.getFile().toURI().toURL());
-                    }
+                    classpath.add(directoryInput.getFile());
                 }
                 for (JarInput jarInput : inputs.getJarInputs()) {
-                    if (jarInput.getFile().isFile()) {
-                        urls.add(jarInput.getFile().toURI().toURL());
-                    }
+                    classpath.add(jarInput.getFile());
                 }
             }
-
-            ImmutableList<URL> allUrls = urls.build();
-            URL[] classLoaderUrls = allUrls.toArray(new URL[allUrls.size()]);
-            classLoader = new URLClassLoader(classLoaderUrls);
+            typeHierarchy = TypeHierarchy.create(classpath.build(), userCache);
         }
-        return classLoader;
+        return typeHierarchy;
     }
 
     @Override
@@ -224,7 +273,8 @@ public class FixStackFramesTransform extends Transform {
             outputProvider.deleteAll();
         }
 
-        try {
+        try (PreviousOutputs previousOutputs = new PreviousOutputs()) {
+            List<JarInput> toProcess = new ArrayList<>();
             for (TransformInput input : transformInvocation.getInputs()) {
                 for (JarInput jarInput : input.getJarInputs()) {
                     Status status = jarInput.getStatus();
@@ -239,94 +289,235 @@ public class FixStackFramesTransform extends Transform {
                                     jarInput.getScopes(),
                                     Format.JAR);
 
-                    Files.deleteIfExists(output.toPath());
+                    // outputs of changed and removed jars are kept until all the jars are
+                    // processed, so that unchanged classes can be copied from them, e.g. when a
+                    // library is replaced by a new version
+                    previousOutputs.add(output);
                     if (!incremental || status == Status.ADDED || status == Status.CHANGED) {
-                        processJar(jarInput.getFile(), output, transformInvocation);
+                        toProcess.add(jarInput);
                     }
                 }
             }
 
-            waitableExecutor.waitForTasksWithQuickFail(true);
+            for (JarInput jarInput : toProcess) {
+                File output =
+                        outputProvider.getContentLocation(
+                                jarInput.getName(),
+                                jarInput.getContentTypes(),
+                                jarInput.getScopes(),
+                                Format.JAR);
+                processJar(jarInput.getFile(), output, transformInvocation, previousOutputs);
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } catch (Exception e) {
             throw new TransformException(e);
         } finally {
-            if (classLoader != null) {
-                classLoader.close();
-            }
+            typeHierarchy = null;
         }
     }
 
     private void processJar(
-            @NonNull File input, @NonNull File output, @NonNull TransformInvocation invocation) {
-        waitableExecutor.execute(
-                () -> {
-                    ExceptionRunnable fileCreator = createFile(input, output, invocation);
-                    if (userCache != null) {
-                        FileCache.Inputs key =
-                                new FileCache.Inputs.Builder(FileCache.Command.FIX_STACK_FRAMES)
-                                        .putFile(
-                                                "file",
-                                                input,
-                                                FileCache.FileProperties.PATH_SIZE_TIMESTAMP)
-                                        .putLong("version", CACHE_VERSION)
-                                        .build();
-                        userCache.createFile(output, key, fileCreator);
-                    } else {
-                        fileCreator.run();
-                    }
-                    return null;
-                });
+            @NonNull File input,
+            @NonNull File output,
+            @NonNull TransformInvocation invocation,
+            @NonNull PreviousOutputs previousOutputs)
+            throws Exception {
+        ExceptionRunnable fileCreator = createFile(input, output, invocation, previousOutputs);
+        if (userCache != null) {
+            FileCache.Inputs key =
+                    new FileCache.Inputs.Builder(FileCache.Command.FIX_STACK_FRAMES)
+                            .putFile("file", input, FileCache.FileProperties.PATH_SIZE_TIMESTAMP)
+                            .putLong("version", CACHE_VERSION)
+                            .build();
+            userCache.createFile(output, key, fileCreator);
+        } else {
+            fileCreator.run();
+        }
     }
 
+    /**
+     * Returns the runnable creating the output jar. The classes of a jar are processed in parallel
+     * and written in their original order.
+     */
     @NonNull
     private ExceptionRunnable createFile(
-            @NonNull File input, @NonNull File output, @NonNull TransformInvocation invocation) {
+            @NonNull File input,
+            @NonNull File output,
+            @NonNull TransformInvocation invocation,
+            @NonNull PreviousOutputs previousOutputs) {
         return () -> {
-            try (ZipFile inputZip = new ZipFile(input);
-                    ZipOutputStream outputZip =
-                            new ZipOutputStream(
-                                    new BufferedOutputStream(
-                                            Files.newOutputStream(output.toPath())))) {
+            TypeHierarchy hierarchy = getTypeHierarchy(invocation);
+            try (ZipFile inputZip = new ZipFile(input)) {
+                List<ZipEntry> entries = new ArrayList<>();
                 Enumeration<? extends ZipEntry> inEntries = inputZip.entries();
                 while (inEntries.hasMoreElements()) {
                     ZipEntry entry = inEntries.nextElement();
-                    if (!entry.getName().endsWith(SdkConstants.DOT_CLASS)) {
-                        continue;
+                    if (entry.getName().endsWith(SdkConstants.DOT_CLASS)) {
+                        entries.add(entry);
+                    }
+                }
+
+                byte[][] contents = new byte[entries.size()][];
+                String[] originKeys = new String[entries.size()];
+                for (int i = 0; i < entries.size(); i++) {
+                    int index = i;
+                    ZipEntry entry = entries.get(i);
+                    waitableExecutor.execute(
+                            () -> {
+                                byte[] bytes;
+                                try (InputStream in =
+                                        new BufferedInputStream(inputZip.getInputStream(entry))) {
+                                    bytes = ByteStreams.toByteArray(in);
+                                }
+                                originKeys[index] = getOriginKey(bytes);
+                                contents[index] =
+                                        getClassContent(
+                                                entry.getName(),
+                                                bytes,
+                                                originKeys[index],
+                                                hierarchy,
+                                                previousOutputs);
+                                return null;
+                            });
+                }
+                waitableExecutor.waitForTasksWithQuickFail(true);
+
+                try (ZipOutputStream outputZip =
+                        new ZipOutputStream(
+                                new BufferedOutputStream(Files.newOutputStream(output.toPath())))) {
+                    for (int i = 0; i < entries.size(); i++) {
+                        ZipEntry entry = entries.get(i);
+                        byte[] newEntryContent = contents[i];
+                        ZipEntry outEntry = new ZipEntry(entry.getName());
+                        CRC32 crc32 = new CRC32();
+                        crc32.update(newEntryContent);
+                        outEntry.setCrc(crc32.getValue());
+                        outEntry.setMethod(ZipEntry.STORED);
+                        outEntry.setSize(newEntryContent.length);
+                        outEntry.setCompressedSize(newEntryContent.length);
+                        outEntry.setLastAccessTime(ZERO);
+                        outEntry.setLastModifiedTime(ZERO);
+                        outEntry.setCreationTime(ZERO);
+                        outEntry.setComment(originKeys[i]);
+
+                        outputZip.putNextEntry(outEntry);
+                        outputZip.write(newEntryContent);
+                        outputZip.closeEntry();
                     }
-                    InputStream originalFile =
-                            new BufferedInputStream(inputZip.getInputStream(entry));
-                    ZipEntry outEntry = new ZipEntry(entry.getName());
-
-                    byte[] newEntryContent =
-                            getFixedClass(originalFile, getClassLoader(invocation));
-                    CRC32 crc32 = new CRC32();
-                    crc32.update(newEntryContent);
-                    outEntry.setCrc(crc32.getValue());
-                    outEntry.setMethod(ZipEntry.STORED);
-                    outEntry.setSize(newEntryContent.length);
-                    outEntry.setCompressedSize(newEntryContent.length);
-                    outEntry.setLastAccessTime(ZERO);
-                    outEntry.setLastModifiedTime(ZERO);
-                    outEntry.setCreationTime(ZERO);
-
-                    outputZip.putNextEntry(outEntry);
-                    outputZip.write(newEntryContent);
-                    outputZip.closeEntry();
                 }
             }
         };
     }
 
+    /**
+     * Returns the fixed content of a class, copied from a previous output when the same class was
+     * already processed, or from the input when its frames don't need to be computed.
+     */
     @NonNull
-    private static byte[] getFixedClass(
-            @NonNull InputStream originalFile, @NonNull URLClassLoader classLoader)
+    private static byte[] getClassContent(
+            @NonNull String name,
+            @NonNull byte[] bytes,
+            @NonNull String originKey,
+            @NonNull TypeHierarchy typeHierarchy,
+            @NonNull PreviousOutputs previousOutputs)
             throws IOException {
-        byte[] bytes = ByteStreams.toByteArray(originalFile);
+        byte[] previous = previousOutputs.get(name, originKey);
+        if (previous != null) {
+            return previous;
+        }
+        if (!needsFrames(bytes)) {
+            return bytes;
+        }
+        return getFixedClass(bytes, typeHierarchy);
+    }
+
+    /**
+     * Returns the key identifying the content of an input class, stored as the comment of the
+     * output entry.
+     */
+    @NonNull
+    private static String getOriginKey(@NonNull byte[] bytes) {
+        return Hashing.sha256().hashBytes(bytes).toString();
+    }
+
+    /**
+     * Returns false if the class can't have broken frames: none of its methods has a frame or a
+     * branch. This is much cheaper than computing the frames.
+     */
+    private static boolean needsFrames(@NonNull byte[] bytes) {
+        try {
+            new ClassReader(bytes).accept(new FramesDetector(), ClassReader.SKIP_DEBUG);
+        } catch (FramesDetector.ResultException e) {
+            return e.needsFrames;
+        } catch (Throwable t) {
+            // let the frames computation handle it
+            return true;
+        }
+        return false;
+    }
+
+    /** Stops reading a class as soon as it is known whether its frames need to be computed. */
+    private static final class FramesDetector extends ClassVisitor {
+
+        private static final class ResultException extends RuntimeException {
+            private final boolean needsFrames;
+
+            ResultException(boolean needsFrames) {
+                super(null, null, false, false);
+                this.needsFrames = needsFrames;
+            }
+        }
+
+        private final MethodVisitor methodVisitor =
+                new MethodVisitor(Opcodes.ASM5) {
+                    @Override
+                    public void visitFrame(
+                            int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+                        throw new ResultException(true);
+                    }
+
+                    @Override
+                    public void visitJumpInsn(int opcode, Label label) {
+                        throw new ResultException(true);
+                    }
+
+                    @Override
+                    public void visitTableSwitchInsn(
+                            int min, int max, Label dflt, Label... labels) {
+                        throw new ResultException(true);
+                    }
+
+                    @Override
+                    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                        throw new ResultException(true);
+                    }
+
+                    @Override
+                    public void visitTryCatchBlock(
+                            Label start, Label end, Label handler, String type) {
+                        throw new ResultException(true);
+                    }
+                };
+
+        FramesDetector() {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(
+                int access, String name, String desc, String signature, String[] exceptions) {
+            return methodVisitor;
+        }
+    }
+
+    @NonNull
+    private static byte[] getFixedClass(
+            @NonNull byte[] bytes, @NonNull TypeHierarchy typeHierarchy) {
         try {
             ClassReader classReader = new ClassReader(bytes);
-            ClassWriter classWriter = new FixFramesVisitor(ClassWriter.COMPUTE_FRAMES, classLoader);
+            ClassWriter classWriter =
+                    new FixFramesVisitor(ClassWriter.COMPUTE_FRAMES, typeHierarchy);
             classReader.accept(classWriter, ClassReader.SKIP_FRAMES);
             return classWriter.toByteArray();
         } catch (Throwable t) {
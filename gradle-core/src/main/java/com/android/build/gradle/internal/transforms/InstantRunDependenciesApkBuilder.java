@@ -29,6 +29,7 @@ import com.android.build.gradle.internal.aapt.AaptGeneration;
 import com.android.build.gradle.internal.dsl.CoreSigningConfig;
 import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
 import com.android.build.gradle.internal.pipeline.ExtendedContentType;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.internal.aapt.AaptOptions;
 import com.android.ide.common.build.ApkInfo;
@@ -59,6 +60,7 @@ public class InstantRunDependenciesApkBuilder extends InstantRunSplitApkBuilder
             @NonNull InstantRunBuildContext buildContext,
             @NonNull AndroidBuilder androidBuilder,
             @Nullable FileCollection aapt2FromMaven,
+            @NonNull Aapt2DaemonPoolSizes aapt2DaemonPoolSizes,
             @NonNull Supplier<String> applicationIdSupplier,
             @Nullable CoreSigningConfig signingConf,
             @NonNull AaptGeneration aaptGeneration,
@@ -75,6 +77,7 @@ public class InstantRunDependenciesApkBuilder extends InstantRunSplitApkBuilder
                 buildContext,
                 androidBuilder,
                 aapt2FromMaven,
+                aapt2DaemonPoolSizes,
                 applicationIdSupplier,
                 signingConf,
                 aaptGeneration,
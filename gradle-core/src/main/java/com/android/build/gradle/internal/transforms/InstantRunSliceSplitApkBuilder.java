@@ -34,6 +34,7 @@ import com.android.build.gradle.internal.incremental.FileType;
 import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
 import com.android.build.gradle.internal.packaging.ApkCreatorFactories;
 import com.android.build.gradle.internal.pipeline.ExtendedContentType;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.internal.aapt.AaptOptions;
 import com.android.builder.packaging.PackagerException;
@@ -76,6 +77,7 @@ public class InstantRunSliceSplitApkBuilder extends InstantRunSplitApkBuilder {
             @NonNull InstantRunBuildContext buildContext,
             @NonNull AndroidBuilder androidBuilder,
             @Nullable FileCollection aapt2FromMaven,
+            @NonNull Aapt2DaemonPoolSizes aapt2DaemonPoolSizes,
             @NonNull Supplier<String> applicationIdSupplier,
             @Nullable CoreSigningConfig signingConf,
             @NonNull AaptGeneration aaptGeneration,
@@ -93,6 +95,7 @@ public class InstantRunSliceSplitApkBuilder extends InstantRunSplitApkBuilder {
                 buildContext,
                 androidBuilder,
                 aapt2FromMaven,
+                aapt2DaemonPoolSizes,
                 applicationIdSupplier,
                 signingConf,
                 aaptGeneration,
@@ -33,6 +33,7 @@ import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
 import com.android.build.gradle.internal.incremental.InstantRunVerifierStatus;
 import com.android.build.gradle.internal.packaging.ApkCreatorFactories;
 import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonManagerService;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes;
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.core.VariantTypeImpl;
@@ -75,6 +76,7 @@ public abstract class InstantRunSplitApkBuilder extends Transform {
     @NonNull protected final AndroidBuilder androidBuilder;
     @NonNull private final AaptGeneration aaptGeneration;
     @Nullable private FileCollection aapt2FromMaven;
+    @NonNull private final Aapt2DaemonPoolSizes aapt2DaemonPoolSizes;
     @NonNull protected final InstantRunBuildContext buildContext;
     @NonNull
     protected final File outputDirectory;
@@ -103,6 +105,7 @@ public abstract class InstantRunSplitApkBuilder extends Transform {
             @NonNull InstantRunBuildContext buildContext,
             @NonNull AndroidBuilder androidBuilder,
             @Nullable FileCollection aapt2FromMaven,
+            @NonNull Aapt2DaemonPoolSizes aapt2DaemonPoolSizes,
             @NonNull Supplier<String> applicationIdSupplier,
             @Nullable CoreSigningConfig signingConf,
             @NonNull AaptGeneration aaptGeneration,
@@ -118,6 +121,7 @@ public abstract class InstantRunSplitApkBuilder extends Transform {
         this.buildContext = buildContext;
         this.androidBuilder = androidBuilder;
         this.aapt2FromMaven = aapt2FromMaven;
+        this.aapt2DaemonPoolSizes = aapt2DaemonPoolSizes;
         this.applicationIdSupplier = applicationIdSupplier;
         this.signingConf = signingConf;
         this.aaptGeneration = aaptGeneration;
@@ -398,12 +402,13 @@ public abstract class InstantRunSplitApkBuilder extends Transform {
     }
 
     protected CloseableBlockingResourceLinker getLinker() {
-        return getLinker(aapt2FromMaven, aaptGeneration, androidBuilder);
+        return getLinker(aapt2FromMaven, aapt2DaemonPoolSizes, aaptGeneration, androidBuilder);
     }
 
     @NonNull
     public static CloseableBlockingResourceLinker getLinker(
             @Nullable FileCollection aapt2FromMaven,
+            @NonNull Aapt2DaemonPoolSizes aapt2DaemonPoolSizes,
             @NonNull AaptGeneration aaptGeneration,
             @NonNull AndroidBuilder androidBuilder) {
         if (aaptGeneration == AaptGeneration.AAPT_V2_DAEMON_SHARED_POOL) {
@@ -411,7 +416,8 @@ public abstract class InstantRunSplitApkBuilder extends Transform {
                     Aapt2DaemonManagerService.registerAaptService(
                             aapt2FromMaven,
                             androidBuilder.getBuildToolInfo(),
-                            androidBuilder.getLogger());
+                            androidBuilder.getLogger(),
+                            aapt2DaemonPoolSizes);
             return Aapt2DaemonManagerService.getAaptDaemon(aapt2ServiceKey);
         }
         return AaptGradleFactory.make(
@@ -35,12 +35,14 @@ import com.android.build.api.transform.TransformInput;
 import com.android.build.api.transform.TransformInvocation;
 import com.android.build.api.transform.TransformOutputProvider;
 import com.android.build.gradle.internal.LoggerWrapper;
+import com.android.build.gradle.internal.incremental.AsmUtils;
 import com.android.build.gradle.internal.incremental.IncrementalChangeVisitor;
 import com.android.build.gradle.internal.incremental.IncrementalSupportVisitor;
 import com.android.build.gradle.internal.incremental.IncrementalVisitor;
 import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
 import com.android.build.gradle.internal.incremental.InstantRunBuildMode;
 import com.android.build.gradle.internal.incremental.InstantRunVerifierStatus;
+import com.android.build.gradle.internal.incremental.LayeredClassNodeProvider;
 import com.android.build.gradle.internal.pipeline.ExtendedContentType;
 import com.android.build.gradle.internal.pipeline.TransformManager;
 import com.android.build.gradle.internal.scope.InstantRunVariantScope;
@@ -60,9 +62,6 @@ import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -86,6 +85,7 @@ public class InstantRunTransform extends Transform {
     private final InstantRunVariantScope transformScope;
     private final AndroidVersion targetPlatformApi;
     private final WaitableExecutor executor;
+    @Nullable private AsmUtils.ClassNodeProvider classpathProvider;
 
     public InstantRunTransform(WaitableExecutor executor, InstantRunVariantScope transformScope) {
         this.transformScope = transformScope;
@@ -283,32 +283,18 @@ public class InstantRunTransform extends Transform {
             }
         }
 
-        // first get all referenced input to construct a class loader capable of loading those
-        // classes. This is useful for ASM as it needs to load classes
-        List<URL> referencedInputUrls = getAllClassesLocations(
-                invocation.getInputs(), invocation.getReferencedInputs());
-
-        // This class loader could be optimized a bit, first we could create a parent class loader
-        // with the android.jar only that could be stored in the GlobalScope for reuse. This
-        // class loader could also be store in the VariantScope for potential reuse if some
-        // other transform need to load project's classes.
-        try (URLClassLoader urlClassLoader = new NonDelegatingUrlClassloader(referencedInputUrls)) {
-            workItems.forEach(
-                    workItem ->
-                            executor.execute(
-                                    () -> {
-                                        ClassLoader currentThreadClassLoader =
-                                                Thread.currentThread().getContextClassLoader();
-                                        Thread.currentThread()
-                                                .setContextClassLoader(urlClassLoader);
-                                        try {
-                                            return workItem.doWork();
-                                        } finally {
-                                            Thread.currentThread()
-                                                    .setContextClassLoader(
-                                                            currentThreadClassLoader);
-                                        }
-                                    }));
+        // first get all referenced input to read the classes ASM needs to resolve. The parsed
+        // classes of the platform, the libraries and the project are kept across builds and
+        // variants, so only the changed classes are parsed again. The stack frames are computed
+        // with the supertypes read from the same provider.
+        List<File> classesLocations =
+                getAllClassesLocations(invocation.getInputs(), invocation.getReferencedInputs());
+        // the provider is closed once the work items are done so that the jars it read are not
+        // kept open until the next build.
+        try (LayeredClassNodeProvider provider =
+                LayeredClassNodeProvider.create(classesLocations)) {
+            classpathProvider = provider;
+            workItems.forEach(workItem -> executor.execute(workItem::doWork));
 
             try {
                 // wait for all work items completion.
@@ -319,6 +305,8 @@ public class InstantRunTransform extends Transform {
             } catch (Exception e) {
                 throw new TransformException(e);
             }
+        } finally {
+            classpathProvider = null;
         }
 
         // If our classes.2 transformations indicated that a cold swap was necessary,
@@ -351,49 +339,51 @@ public class InstantRunTransform extends Transform {
 
 
     /**
-     * Calculate a list of {@link URL} that represent all the directories containing classes
-     * either directly belonging to this project or referencing it.
+     * Calculate a list of all the directories and jars containing classes either directly
+     * belonging to this project or referencing it, in lookup order.
      *
      * @param inputs the project's inputs
      * @param referencedInputs the project's referenced inputs
-     * @return a {@link List} or {@link URL} for all the locations.
-     * @throws MalformedURLException if once the locatio
+     * @return a {@link List} of all the locations.
      */
     @NonNull
-    private List<URL> getAllClassesLocations(
+    private List<File> getAllClassesLocations(
             @NonNull Collection<TransformInput> inputs,
-            @NonNull Collection<TransformInput> referencedInputs) throws MalformedURLException {
+            @NonNull Collection<TransformInput> referencedInputs) {
 
-        List<URL> referencedInputUrls = new ArrayList<>();
+        List<File> referencedInputFiles = new ArrayList<>();
 
         // add the bootstrap classpath for jars like android.jar
-        for (File file : transformScope.getInstantRunBootClasspath()) {
-            referencedInputUrls.add(file.toURI().toURL());
-        }
+        referencedInputFiles.addAll(transformScope.getInstantRunBootClasspath());
 
         // now add the project dependencies.
         for (TransformInput referencedInput : referencedInputs) {
-            addAllClassLocations(referencedInput, referencedInputUrls);
+            addAllClassLocations(referencedInput, referencedInputFiles);
         }
 
         // and finally add input folders.
         for (TransformInput input : inputs) {
-            addAllClassLocations(input, referencedInputUrls);
+            addAllClassLocations(input, referencedInputFiles);
         }
-        return referencedInputUrls;
+        return referencedInputFiles;
     }
 
-    private static void addAllClassLocations(TransformInput transformInput, List<URL> into)
-            throws MalformedURLException {
+    private static void addAllClassLocations(TransformInput transformInput, List<File> into) {
 
         for (DirectoryInput directoryInput : transformInput.getDirectoryInputs()) {
-            into.add(directoryInput.getFile().toURI().toURL());
+            into.add(directoryInput.getFile());
         }
         for (JarInput jarInput : transformInput.getJarInputs()) {
-            into.add(jarInput.getFile().toURI().toURL());
+            into.add(jarInput.getFile());
         }
     }
 
+    @NonNull
+    private AsmUtils.ClassNodeProvider getClasspathProvider() {
+        return Preconditions.checkNotNull(
+                classpathProvider, "Classes can only be instrumented during the transform");
+    }
+
     /**
      * Transform a single file into a format supporting class hot swap.
      *
@@ -417,6 +407,7 @@ public class InstantRunTransform extends Transform {
                     inputFile,
                     outputDir,
                     IncrementalSupportVisitor.VISITOR_BUILDER,
+                    getClasspathProvider(),
                     LOGGER);
         }
         return null;
@@ -460,6 +451,7 @@ public class InstantRunTransform extends Transform {
                         inputFile,
                         outputDir,
                         IncrementalChangeVisitor.VISITOR_BUILDER,
+                        getClasspathProvider(),
                         LOGGER);
 
         // if the visitor returned null, that means the class cannot be hot swapped or more likely
@@ -544,17 +536,4 @@ public class InstantRunTransform extends Transform {
             throw new RuntimeException(e);
         }
     }
-
-    private static class NonDelegatingUrlClassloader extends URLClassLoader {
-
-        public NonDelegatingUrlClassloader(@NonNull List<URL> urls) {
-            super(urls.toArray(new URL[urls.size()]), null);
-        }
-
-        @Override
-        public URL getResource(String name) {
-            // Never delegate to bootstrap classes.
-            return findResource(name);
-        }
-    }
 }
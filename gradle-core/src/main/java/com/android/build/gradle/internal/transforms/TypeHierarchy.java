@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.build.gradle.internal.incremental.AsmUtils;
+import com.android.build.gradle.internal.incremental.ClassHeader;
+import com.android.builder.utils.FileCache;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Supertypes of the classes of a classpath, read from the headers of their class files instead of
+ * loading the classes.
+ *
+ * <p>This is what ASM needs to compute stack frames, see {@link #newClassWriter(int)}. Unlike a
+ * class loader, it can be queried from any number of threads, and doesn't hold the classpath open.
+ *
+ * <p>The classpath entries are read in parallel. The headers of jars are kept in memory (softly
+ * referenced) for the lifetime of the daemon, keyed by the content of the jar, so that all the
+ * transforms of all the variants share them. When a {@link FileCache} is given, they are also
+ * stored there, so that new daemons don't need to read the jars again.
+ */
+public final class TypeHierarchy implements AsmUtils.ClassHeaderProvider {
+
+    /** Bump when the binary format changes. */
+    private static final int BINARY_FORMAT_VERSION = 1;
+
+    @NonNull
+    private static final Cache<String, Map<String, ClassHeader>> memoryCache =
+            CacheBuilder.newBuilder().softValues().build();
+
+    @NonNull private static final Interner<String> names = Interners.newWeakInterner();
+
+    /** Thrown when a type, or one of its supertypes, is not in the classpath. */
+    public static final class TypeNotFoundException extends RuntimeException {
+        public TypeNotFoundException(@NonNull String type) {
+            super(String.format("Type %s not found in the classpath.", type));
+        }
+    }
+
+    @NonNull private final ImmutableMap<String, ClassHeader> headers;
+
+    private TypeHierarchy(@NonNull ImmutableMap<String, ClassHeader> headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * Reads the headers of the classes of the given classpath, made of jars and directories of
+     * class files. When a class is defined more than once, the first definition wins, as it would
+     * with a class loader. Entries that don't exist are ignored.
+     *
+     * <p>This waits for tasks of the shared thread pool, so it must not be called from one of them.
+     */
+    @NonNull
+    public static TypeHierarchy create(
+            @NonNull List<File> classpath, @Nullable FileCache buildCache)
+            throws IOException, InterruptedException {
+        List<Map<String, ClassHeader>> entries =
+                new ArrayList<>(Collections.nCopies(classpath.size(), null));
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (int i = 0; i < classpath.size(); i++) {
+            int index = i;
+            File entry = classpath.get(i);
+            executor.execute(
+                    () -> {
+                        try {
+                            if (entry.isFile()) {
+                                entries.set(index, readJar(entry, buildCache));
+                            } else if (entry.isDirectory()) {
+                                entries.set(index, readDirectory(entry));
+                            }
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                        return null;
+                    });
+        }
+        executor.waitForTasksWithQuickFail(true /* cancelRemaining */);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        Map<String, ClassHeader> headers = new HashMap<>();
+        for (Map<String, ClassHeader> entry : entries) {
+            if (entry != null) {
+                for (ClassHeader header : entry.values()) {
+                    headers.putIfAbsent(header.getName(), header);
+                }
+            }
+        }
+        return new TypeHierarchy(ImmutableMap.copyOf(headers));
+    }
+
+    /** Clears the in-memory cache. */
+    public static void clearCache() {
+        memoryCache.invalidateAll();
+    }
+
+    /** Returns the header of the given class, or null if it is not in the classpath. */
+    @Nullable
+    @Override
+    public ClassHeader getHeader(@NonNull String type) {
+        return headers.get(type);
+    }
+
+    /**
+     * Returns true if a value of type {@code subtype} can be assigned to type {@code type}, as
+     * {@link Class#isAssignableFrom(Class)} does.
+     *
+     * @throws TypeNotFoundException if {@code subtype} or one of its supertypes is not found
+     */
+    public boolean isAssignableFrom(@NonNull String type, @NonNull String subtype) {
+        try {
+            return AsmUtils.isAssignableFrom(this, type, subtype);
+        } catch (AsmUtils.ByteCodeNotFoundException e) {
+            throw new TypeNotFoundException(e.getClassName());
+        } catch (IOException e) {
+            // Can't happen, the headers are in memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the common superclass of the given types, as {@link
+     * ClassWriter#getCommonSuperClass(String, String)} does by loading the classes.
+     *
+     * @throws TypeNotFoundException if a type or one of its supertypes is not found
+     */
+    @NonNull
+    public String getCommonSuperClass(@NonNull String type1, @NonNull String type2) {
+        try {
+            return AsmUtils.getCommonSuperClass(this, type1, type2);
+        } catch (AsmUtils.ByteCodeNotFoundException e) {
+            throw new TypeNotFoundException(e.getClassName());
+        } catch (IOException e) {
+            // Can't happen, the headers are in memory.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Returns a {@link ClassWriter} that resolves the common superclasses with this hierarchy. */
+    @NonNull
+    public ClassWriter newClassWriter(int flags) {
+        return new ClassWriter(flags) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return TypeHierarchy.this.getCommonSuperClass(type1, type2);
+            }
+        };
+    }
+
+    @NonNull
+    private static Map<String, ClassHeader> readJar(
+            @NonNull File jar, @Nullable FileCache buildCache) throws IOException {
+        String key = com.google.common.io.Files.asByteSource(jar).hash(Hashing.sha256()).toString();
+        try {
+            return memoryCache.get(key, () -> loadJar(jar, key, buildCache));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @NonNull
+    private static Map<String, ClassHeader> loadJar(
+            @NonNull File jar, @NonNull String key, @Nullable FileCache buildCache)
+            throws IOException {
+        if (buildCache == null) {
+            return scanJar(jar);
+        }
+        FileCache.Inputs inputs =
+                new FileCache.Inputs.Builder(FileCache.Command.READ_TYPE_HIERARCHY)
+                        .putString("key", key)
+                        .putLong("binaryFormatVersion", BINARY_FORMAT_VERSION)
+                        .build();
+        AtomicReference<Map<String, ClassHeader>> scanned = new AtomicReference<>();
+        FileCache.QueryResult result;
+        try {
+            result =
+                    buildCache.createFileInCacheIfAbsent(
+                            inputs,
+                            cachedFile -> {
+                                scanned.set(scanJar(jar));
+                                writeBinary(scanned.get(), cachedFile.toPath());
+                            });
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (scanned.get() != null) {
+            return scanned.get();
+        }
+        File cachedFile = result.getCachedFile();
+        try {
+            if (cachedFile != null) {
+                return readBinary(cachedFile.toPath());
+            }
+        } catch (IOException e) {
+            // Don't fail the build because of a corrupted cache entry.
+        }
+        return scanJar(jar);
+    }
+
+    @NonNull
+    private static Map<String, ClassHeader> scanJar(@NonNull File jar) throws IOException {
+        Map<String, ClassHeader> headers = new HashMap<>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            for (ZipEntry entry : entries) {
+                if (!isClassFile(entry.getName())) {
+                    continue;
+                }
+                try (InputStream stream = new BufferedInputStream(zip.getInputStream(entry))) {
+                    addHeader(headers, ByteStreams.toByteArray(stream));
+                }
+            }
+        }
+        return headers;
+    }
+
+    @NonNull
+    private static Map<String, ClassHeader> readDirectory(@NonNull File directory)
+            throws IOException {
+        Path root = directory.toPath();
+        List<Path> classFiles;
+        try (Stream<Path> files = Files.walk(root)) {
+            classFiles =
+                    files.filter(
+                                    file ->
+                                            Files.isRegularFile(file)
+                                                    && isClassFile(
+                                                            root.relativize(file).toString()))
+                            .collect(Collectors.toList());
+        }
+        Map<String, ClassHeader> headers = new HashMap<>();
+        for (Path classFile : classFiles) {
+            addHeader(headers, Files.readAllBytes(classFile));
+        }
+        return headers;
+    }
+
+    private static boolean isClassFile(@NonNull String path) {
+        // Versioned classes of multi-release jars are not visible to class loaders either.
+        return path.endsWith(SdkConstants.DOT_CLASS)
+                && !path.startsWith("META-INF")
+                && !path.endsWith("module-info.class");
+    }
+
+    private static void addHeader(
+            @NonNull Map<String, ClassHeader> headers, @NonNull byte[] classFile) {
+        ClassReader reader;
+        try {
+            reader = new ClassReader(classFile);
+        } catch (RuntimeException e) {
+            // Not a valid class file, a class loader would fail to load it too.
+            return;
+        }
+        List<String> interfaces = new ArrayList<>();
+        for (String anInterface : reader.getInterfaces()) {
+            interfaces.add(names.intern(anInterface));
+        }
+        String superName = reader.getSuperName();
+        ClassHeader header =
+                new ClassHeader(
+                        names.intern(reader.getClassName()),
+                        superName != null ? names.intern(superName) : null,
+                        interfaces,
+                        reader.getAccess());
+        headers.putIfAbsent(header.getName(), header);
+    }
+
+    private static void writeBinary(@NonNull Map<String, ClassHeader> headers, @NonNull Path file)
+            throws IOException {
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(BINARY_FORMAT_VERSION);
+            out.writeInt(headers.size());
+            for (ClassHeader header : headers.values()) {
+                out.writeUTF(header.getName());
+                out.writeBoolean(header.getSuperName() != null);
+                if (header.getSuperName() != null) {
+                    out.writeUTF(header.getSuperName());
+                }
+                out.writeInt(header.getInterfaces().size());
+                for (String anInterface : header.getInterfaces()) {
+                    out.writeUTF(anInterface);
+                }
+                out.writeInt(header.getAccess());
+            }
+        }
+    }
+
+    @NonNull
+    private static Map<String, ClassHeader> readBinary(@NonNull Path file) throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != BINARY_FORMAT_VERSION) {
+                throw new IOException("Unexpected version in " + file);
+            }
+            int count = in.readInt();
+            Map<String, ClassHeader> headers = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = names.intern(in.readUTF());
+                String superName = in.readBoolean() ? names.intern(in.readUTF()) : null;
+                int interfaceCount = in.readInt();
+                List<String> interfaces = new ArrayList<>(interfaceCount);
+                for (int j = 0; j < interfaceCount; j++) {
+                    interfaces.add(names.intern(in.readUTF()));
+                }
+                headers.put(name, new ClassHeader(name, superName, interfaces, in.readInt()));
+            }
+            return headers;
+        }
+    }
+}
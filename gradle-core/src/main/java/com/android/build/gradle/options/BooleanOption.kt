@@ -29,9 +29,11 @@ enum class BooleanOption(
 
     ENABLE_BUILD_CACHE("android.enableBuildCache", true),
     ENABLE_PROFILE_JSON("android.enableProfileJson", false),
+    ENABLE_PROFILE_RESOURCE_USAGE("android.enableProfileResourceUsage", false),
     // Used by Studio as workaround for b/71054106, b/75955471
     ENABLE_SDK_DOWNLOAD("android.builder.sdkDownload", true, status = Option.Status.STABLE),
     ENABLE_TEST_SHARDING("android.androidTest.shardBetweenDevices"),
+    ENABLE_TEST_SHARDING_BY_DURATION("android.androidTest.shardByDuration"),
     ENABLE_DEX_ARCHIVE(
             "android.useDexArchive", true, DeprecationReporter.DeprecationTarget.LEGACY_DEXER),
 
@@ -99,6 +101,8 @@ enum class BooleanOption(
     ENABLE_PARALLEL_NATIVE_JSON_GEN("android.enableParallelJsonGen", true),
     ENABLE_SIDE_BY_SIDE_CMAKE("android.enableSideBySideCmake", false),
     EXCLUDE_R_AND_MANIFEST_DOT_JAVA_FROM_GENERATED_SOURCES("android.excludeRAndManifestDotJavaFromGeneratedSources", false),
+    ENABLE_IN_PLACE_MANIFEST_MERGE("android.enableInPlaceManifestMerge", true),
+    ENABLE_INCREMENTAL_MANIFEST_MERGE("android.enableIncrementalManifestMerge", true),
     ;
 
     constructor(
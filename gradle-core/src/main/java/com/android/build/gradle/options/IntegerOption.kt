@@ -62,6 +62,24 @@ enum class IntegerOption(
      * Maximum number of dynamic features that can be allocated before Oreo platforms.
      */
     PRE_O_MAX_NUMBER_OF_FEATURES("android.maxNumberOfFeaturesBeforeOreo"),
+
+    /**
+     * Number of AAPT2 daemon processes started in the background when the first one is needed, and
+     * kept alive while resources are being processed.
+     */
+    AAPT2_DAEMON_MIN_POOL_SIZE("android.aapt2.daemonPoolMinSize"),
+
+    /**
+     * Maximum number of AAPT2 daemon processes. Once reached, further requests wait for a daemon to
+     * become available.
+     */
+    AAPT2_DAEMON_MAX_POOL_SIZE("android.aapt2.daemonPoolMaxSize"),
+
+    /**
+     * Maximum number of past builds kept in the Instant Run build info. Older hot swap builds are
+     * dropped, so devices that missed more builds are updated with a cold swap.
+     */
+    INSTANT_RUN_MAX_BUILD_HISTORY("android.instantRun.maxBuildHistory"),
     ;
 
     override fun parse(value: Any): Int {
@@ -40,7 +40,6 @@ import com.android.utils.FileUtils;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Multimap;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
@@ -206,9 +205,8 @@ public class AidlCompile extends IncrementalTask {
     protected void doIncrementalTaskAction(Map<File, FileStatus> changedInputs) throws IOException {
         File incrementalData = new File(getIncrementalFolder(), DEPENDENCY_STORE);
         DependencyDataStore store = new DependencyDataStore();
-        Multimap<String, DependencyData> inputMap;
         try {
-            inputMap = store.loadFrom(incrementalData);
+            store.loadFrom(incrementalData);
         } catch (Exception ignored) {
             FileUtils.delete(incrementalData);
             getProject().getLogger().info(
@@ -225,8 +223,6 @@ public class AidlCompile extends IncrementalTask {
         // use an executor to parallelize the compilation of multiple files.
         WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
 
-        Map<String, DependencyData> mainFileMap = store.getMainFileMap();
-
         for (final Map.Entry<File, FileStatus> entry : changedInputs.entrySet()) {
             FileStatus status = entry.getValue();
 
@@ -241,7 +237,7 @@ public class AidlCompile extends IncrementalTask {
                     break;
                 case CHANGED:
                     Collection<DependencyData> impactedData =
-                            inputMap.get(entry.getKey().getAbsolutePath());
+                            store.getImpactedData(entry.getKey().getAbsolutePath());
                     if (impactedData != null) {
                         for (final DependencyData data : impactedData) {
                             executor.execute(() -> {
@@ -254,7 +250,8 @@ public class AidlCompile extends IncrementalTask {
                     }
                     break;
                 case REMOVED:
-                    final DependencyData data2 = mainFileMap.get(entry.getKey().getAbsolutePath());
+                    final DependencyData data2 =
+                            store.getByMainFile(entry.getKey().getAbsolutePath());
                     if (data2 != null) {
                         executor.execute(() -> {
                             cleanUpOutputFrom(data2);
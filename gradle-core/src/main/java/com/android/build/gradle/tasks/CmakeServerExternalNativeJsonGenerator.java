@@ -40,6 +40,7 @@ import com.android.build.gradle.external.cmake.server.Project;
 import com.android.build.gradle.external.cmake.server.ProtocolVersion;
 import com.android.build.gradle.external.cmake.server.Server;
 import com.android.build.gradle.external.cmake.server.ServerFactory;
+import com.android.build.gradle.external.cmake.server.ServerPool;
 import com.android.build.gradle.external.cmake.server.ServerUtils;
 import com.android.build.gradle.external.cmake.server.Target;
 import com.android.build.gradle.external.cmake.server.receiver.InteractiveMessage;
@@ -74,6 +75,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FileUtils;
 
 /**
@@ -158,16 +160,47 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
         // - perform a handshake
         // - configure and compute.
         // Create the NativeBuildConfigValue and write the required JSON file.
+        // The server is kept connected afterwards, so that the next generation of the same build
+        // directory can skip the connection and the handshake.
         PrintWriter serverLogWriter = null;
+        ServerPool serverPool = ServerPool.getInstance();
+        ServerPool.PooledServer pooledServer = null;
+        boolean succeeded = false;
 
         try {
             serverLogWriter = getCmakeServerLogWriter(getOutputFolder(getJsonFolder(), abi));
             ILogger logger = LoggerWrapper.getLogger(CmakeServerExternalNativeJsonGenerator.class);
-            Server cmakeServer = createServerAndConnect(serverLogWriter, logger);
+            PhaseTimer timer = new PhaseTimer(serverLogWriter, logger);
+
+            ServerPool.Key key =
+                    new ServerPool.Key(
+                            getCmakeBinFolder().getAbsolutePath(),
+                            getGenerator(getBuildArguments()),
+                            normalizeFilePath(getMakefile().getParentFile()),
+                            normalizeFilePath(outputJsonDir.getParentFile()),
+                            getToolchainFile(abi).getAbsolutePath());
+            if (!new File(outputJsonDir.getParentFile(), "CMakeCache.txt").isFile()) {
+                // The build directory was deleted, don't reuse its server.
+                serverPool.evict(key);
+            }
+            pooledServer =
+                    serverPool.acquire(
+                            key,
+                            createServerReceiver(serverLogWriter, logger),
+                            this::createServerAndConnect);
+            Server cmakeServer = pooledServer.getServer();
+            if (pooledServer.isReused()) {
+                receiveDiagnosticMessage(
+                        serverLogWriter, logger, "Reusing connected CMake server");
+            } else {
+                timer.done("connect");
+                doHandshake(outputJsonDir, cmakeServer);
+                timer.done("handshake");
+            }
 
-            doHandshake(outputJsonDir, cmakeServer);
             ConfigureCommandResult configureCommandResult =
                     doConfigure(abi, abiPlatformVersion, cmakeServer);
+            timer.done("configure");
             if (!ServerUtils.isConfigureResultValid(configureCommandResult.configureResult)) {
                 throw new ProcessException(
                         String.format(
@@ -177,6 +210,7 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
             }
 
             ComputeResult computeResult = doCompute(cmakeServer);
+            timer.done("compute");
             if (!ServerUtils.isComputedResultValid(computeResult)) {
                 throw new ProcessException(
                         "Error computing CMake server result.\r\n"
@@ -184,14 +218,50 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
             }
 
             generateAndroidGradleBuild(abi, cmakeServer);
+            timer.done("generate JSON");
+            succeeded = true;
             return configureCommandResult.interactiveMessages;
         } finally {
+            if (pooledServer != null) {
+                if (succeeded) {
+                    serverPool.release(pooledServer);
+                } else {
+                    serverPool.discard(pooledServer);
+                }
+            }
             if (serverLogWriter != null) {
                 serverLogWriter.close();
             }
         }
     }
 
+    /**
+     * Records how long each phase of the interaction with the Cmake server takes in the server log,
+     * to tell which one makes the configuration slow.
+     */
+    private static final class PhaseTimer {
+        @NonNull private final PrintWriter serverLogWriter;
+        @NonNull private final ILogger logger;
+        private long phaseStart = System.nanoTime();
+
+        PhaseTimer(@NonNull PrintWriter serverLogWriter, @NonNull ILogger logger) {
+            this.serverLogWriter = serverLogWriter;
+            this.logger = logger;
+        }
+
+        /** Records the end of the given phase, which is also the start of the next one. */
+        void done(@NonNull String phase) {
+            long now = System.nanoTime();
+            receiveDiagnosticMessage(
+                    serverLogWriter,
+                    logger,
+                    String.format(
+                            "%s took %d ms",
+                            phase, TimeUnit.NANOSECONDS.toMillis(now - phaseStart)));
+            phaseStart = now;
+        }
+    }
+
     /** Returns PrintWriter object to write CMake server logs. */
     @NonNull
     private static PrintWriter getCmakeServerLogWriter(@NonNull File outputFolder)
@@ -205,6 +275,22 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
         return new File(outputFolder, "cmake_server_log.txt");
     }
 
+    /** Returns a receiver of the messages of the Cmake server that logs them. */
+    @NonNull
+    private ServerReceiver createServerReceiver(
+            @NonNull PrintWriter serverLogWriter, @NonNull ILogger logger) {
+        return new ServerReceiver()
+                .setMessageReceiver(
+                        message ->
+                                receiveInteractiveMessage(
+                                        serverLogWriter,
+                                        logger,
+                                        message,
+                                        getMakefile().getParentFile()))
+                .setDiagnosticReceiver(
+                        message -> receiveDiagnosticMessage(serverLogWriter, logger, message));
+    }
+
     /**
      * Creates a Cmake server and connects to it.
      *
@@ -213,21 +299,9 @@ class CmakeServerExternalNativeJsonGenerator extends CmakeExternalNativeJsonGene
      *     to create or connect to Cmake server.
      */
     @NonNull
-    private Server createServerAndConnect(
-            @NonNull PrintWriter serverLogWriter, @NonNull ILogger logger) throws IOException {
+    private Server createServerAndConnect(@NonNull ServerReceiver serverReceiver)
+            throws IOException {
         // Create a new cmake server for the given Cmake and configure the given project.
-        ServerReceiver serverReceiver =
-                new ServerReceiver()
-                        .setMessageReceiver(
-                                message ->
-                                        receiveInteractiveMessage(
-                                                serverLogWriter,
-                                                logger,
-                                                message,
-                                                getMakefile().getParentFile()))
-                        .setDiagnosticReceiver(
-                                message ->
-                                        receiveDiagnosticMessage(serverLogWriter, logger, message));
         Server cmakeServer = ServerFactory.create(getCmakeBinFolder(), serverReceiver);
         if (cmakeServer == null) {
             throw new RuntimeException(
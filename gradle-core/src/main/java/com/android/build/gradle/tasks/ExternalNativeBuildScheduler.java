@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.build.gradle.internal.cxx.json.NativeLibraryValueMini;
+import com.google.common.collect.Lists;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides in which order and with how many jobs the native build commands of {@link
+ * ExternalNativeBuildTask} run.
+ *
+ * <p>Each JSON configuration (one per ABI) has its own build folder, so the configurations are
+ * built concurrently. The libraries of a configuration share their build folder, and neither ninja
+ * nor make support concurrent invocations in the same folder, so they are built one after the
+ * other, in dependency order.
+ *
+ * <p>The native tools run their own jobs, so the configurations built concurrently share a budget
+ * of jobs instead of each using all the processors.
+ */
+final class ExternalNativeBuildScheduler {
+
+    /** Value returned by {@link #getJobs(List)} when the command does not set the jobs. */
+    static final int UNSPECIFIED_JOBS = 0;
+
+    private ExternalNativeBuildScheduler() {}
+
+    /**
+     * Orders the libraries of a configuration so that the libraries are built after the ones they
+     * depend on, according to their runtime files.
+     *
+     * <p>Libraries with no known dependency relation are built in reverse order, as this tends to
+     * build the dependencies first for CMake and ndk-build when the JSON has no runtime files.
+     */
+    @NonNull
+    static List<NativeLibraryValueMini> sortByDependencies(
+            @NonNull List<NativeLibraryValueMini> libraries) {
+        List<NativeLibraryValueMini> remaining = new ArrayList<>(Lists.reverse(libraries));
+        Map<File, NativeLibraryValueMini> librariesByOutput = new HashMap<>();
+        for (NativeLibraryValueMini library : remaining) {
+            if (library.output != null) {
+                librariesByOutput.put(library.output, library);
+            }
+        }
+
+        List<NativeLibraryValueMini> sorted = new ArrayList<>(remaining.size());
+        while (!remaining.isEmpty()) {
+            NativeLibraryValueMini next = null;
+            for (NativeLibraryValueMini library : remaining) {
+                if (!dependsOnAny(library, remaining, librariesByOutput)) {
+                    next = library;
+                    break;
+                }
+            }
+            if (next == null) {
+                // Dependency cycle, which the native build will report if it is real.
+                next = remaining.get(0);
+            }
+            remaining.remove(next);
+            sorted.add(next);
+        }
+        return sorted;
+    }
+
+    private static boolean dependsOnAny(
+            @NonNull NativeLibraryValueMini library,
+            @NonNull List<NativeLibraryValueMini> others,
+            @NonNull Map<File, NativeLibraryValueMini> librariesByOutput) {
+        if (library.runtimeFiles == null) {
+            return false;
+        }
+        for (File runtimeFile : library.runtimeFiles) {
+            NativeLibraryValueMini dependency = librariesByOutput.get(runtimeFile);
+            if (dependency != null && dependency != library && others.contains(dependency)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of jobs set by the given command line tokens with {@code -j} or {@code
+     * --jobs}, {@link Integer#MAX_VALUE} for unlimited jobs and {@link #UNSPECIFIED_JOBS} when the
+     * jobs are not set.
+     */
+    static int getJobs(@NonNull List<String> tokens) {
+        int jobs = UNSPECIFIED_JOBS;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            String value;
+            if (token.equals("-j") || token.equals("--jobs")) {
+                value = i + 1 < tokens.size() ? tokens.get(i + 1) : "";
+                if (!isNumber(value)) {
+                    // "-j" with no value means no limit.
+                    jobs = Integer.MAX_VALUE;
+                    continue;
+                }
+            } else if (token.startsWith("--jobs=")) {
+                value = token.substring("--jobs=".length());
+            } else if (token.startsWith("-j")) {
+                value = token.substring("-j".length());
+            } else {
+                continue;
+            }
+            if (isNumber(value)) {
+                jobs = Math.max(1, Integer.parseInt(value));
+            }
+        }
+        return jobs;
+    }
+
+    private static boolean isNumber(@NonNull String value) {
+        return !value.isEmpty()
+                && value.length() < 10
+                && value.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * Returns the tokens of a {@code cmake --build} command with the jobs of the underlying tool
+     * set to the given value, or null if the command is not a {@code cmake --build} command or
+     * already passes arguments to the underlying tool.
+     *
+     * <p>Ninja uses all the processors by default, which would overload the machine when several
+     * configurations are built at the same time.
+     */
+    @Nullable
+    static List<String> withCmakeBuildJobs(@NonNull List<String> tokens, int jobs) {
+        if (tokens.size() < 2
+                || !new File(tokens.get(0).replace("\"", "")).getName().startsWith("cmake")
+                || !tokens.contains("--build")
+                || tokens.contains("--")) {
+            return null;
+        }
+        List<String> result = new ArrayList<>(tokens);
+        result.add("--");
+        result.add("-j" + jobs);
+        return result;
+    }
+}
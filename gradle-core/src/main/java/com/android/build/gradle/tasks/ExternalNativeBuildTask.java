@@ -34,6 +34,7 @@ import com.android.build.gradle.internal.tasks.AndroidBuilderTask;
 import com.android.build.gradle.internal.variant.BaseVariantData;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.errors.EvalIssueReporter;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.BuildCommandException;
 import com.android.ide.common.process.ProcessInfoBuilder;
 import com.android.utils.FileUtils;
@@ -51,6 +52,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import org.gradle.api.GradleException;
 import org.gradle.api.tasks.TaskAction;
@@ -81,14 +84,14 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
     }
 
     @TaskAction
-    void build() throws BuildCommandException, IOException {
+    void build() throws BuildCommandException, IOException, InterruptedException {
         diagnostic("starting build");
         checkNotNull(getVariantName());
         diagnostic("reading expected JSONs");
         List<NativeBuildConfigValueMini> miniConfigs = getNativeBuildConfigValueMinis();
         diagnostic("done reading expected JSONs");
 
-        List<String> buildCommands = Lists.newArrayList();
+        List<List<NativeLibraryValueMini>> librariesToBuild = Lists.newArrayList();
         List<String> libraryNames = Lists.newArrayList();
         if (targets.isEmpty()) {
             diagnostic(
@@ -128,6 +131,7 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
                 diagnostic("no libraries");
                 continue;
             }
+            List<NativeLibraryValueMini> configLibrariesToBuild = Lists.newArrayList();
             for (String libraryName : config.libraries.keySet()) {
                 diagnostic("evaluate library %s", libraryName);
                 NativeLibraryValueMini libraryValue = config.libraries.get(libraryName);
@@ -176,13 +180,16 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
                     }
                 }
 
-                buildCommands.add(libraryValue.buildCommand);
+                configLibrariesToBuild.add(libraryValue);
                 libraryNames.add(libraryValue.artifactName + " " + libraryValue.abi);
                 diagnostic("about to build %s", libraryValue.buildCommand);
             }
+            if (!configLibrariesToBuild.isEmpty()) {
+                librariesToBuild.add(configLibrariesToBuild);
+            }
         }
 
-        executeProcessBatch(libraryNames, buildCommands);
+        executeProcessBatch(librariesToBuild);
 
         diagnostic("check expected build outputs");
         for (NativeBuildConfigValueMini config : miniConfigs) {
@@ -282,30 +289,91 @@ public class ExternalNativeBuildTask extends AndroidBuilderTask {
     }
 
     /**
-     * Given a list of build commands, execute each. If there is a failure, processing is stopped at
-     * that point.
+     * Build the given libraries, grouped by configuration. The configurations are built
+     * concurrently and the libraries of each configuration one after the other, in dependency
+     * order. If there is a failure, processing is stopped at that point.
      */
-    private void executeProcessBatch(
-            @NonNull List<String> libraryNames, @NonNull List<String> commands)
-            throws BuildCommandException, IOException {
-        // Order of building doesn't matter to final result but building in reverse order causes
-        // the dependencies to be built first for CMake and ndk-build. This gives better progress
-        // visibility to the user because they will see "building XXXXX.a" before
-        // "building XXXXX.so". Nicer still would be to have the dependency information in the JSON
-        // so we can build in toposort order.
-        for (int library = libraryNames.size() - 1; library >= 0; --library) {
-            String libraryName = libraryNames.get(library);
-            getLogger().lifecycle(String.format("Build %s", libraryName));
-            String command = commands.get(library);
-            List<String> tokens = StringHelper.tokenizeCommandLineToEscaped(command);
-            ProcessInfoBuilder processBuilder = new ProcessInfoBuilder();
-            processBuilder.setExecutable(tokens.get(0));
-            for (int i = 1; i < tokens.size(); ++i) {
-                processBuilder.addArgs(tokens.get(i));
+    private void executeProcessBatch(@NonNull List<List<NativeLibraryValueMini>> configs)
+            throws BuildCommandException, IOException, InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int concurrentConfigs = Math.max(1, Math.min(configs.size(), processors));
+        // Jobs of the native tools left to each configuration, when they don't set their own.
+        int jobsPerConfig = Math.max(1, processors / concurrentConfigs);
+        Semaphore jobs = new Semaphore(processors, true /* fair */);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        WaitableExecutor executor =
+                WaitableExecutor.useNewFixedSizeThreadPool(concurrentConfigs);
+        for (List<NativeLibraryValueMini> libraries : configs) {
+            executor.execute(
+                    () -> {
+                        for (NativeLibraryValueMini library :
+                                ExternalNativeBuildScheduler.sortByDependencies(libraries)) {
+                            if (failure.get() != null) {
+                                break;
+                            }
+                            try {
+                                executeBuildCommand(library, jobs, processors, jobsPerConfig);
+                            } catch (BuildCommandException | IOException e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                        return null;
+                    });
+        }
+        executor.waitForTasksWithQuickFail(true /* cancelRemaining */);
+
+        Exception exception = failure.get();
+        if (exception instanceof BuildCommandException) {
+            throw (BuildCommandException) exception;
+        } else if (exception != null) {
+            throw (IOException) exception;
+        }
+    }
+
+    /**
+     * Execute the build command of a library, once the jobs it uses are available.
+     *
+     * @param jobs the jobs available to all the configurations
+     * @param maxJobs the total number of jobs
+     * @param defaultJobs the jobs to use for a CMake build command that does not set them
+     */
+    private void executeBuildCommand(
+            @NonNull NativeLibraryValueMini library,
+            @NonNull Semaphore jobs,
+            int maxJobs,
+            int defaultJobs)
+            throws BuildCommandException, IOException, InterruptedException {
+        String libraryName = library.artifactName + " " + library.abi;
+        List<String> tokens =
+                StringHelper.tokenizeCommandLineToEscaped(checkNotNull(library.buildCommand));
+        int commandJobs = ExternalNativeBuildScheduler.getJobs(tokens);
+        if (commandJobs == ExternalNativeBuildScheduler.UNSPECIFIED_JOBS) {
+            List<String> cmakeTokens =
+                    ExternalNativeBuildScheduler.withCmakeBuildJobs(tokens, defaultJobs);
+            if (cmakeTokens != null) {
+                tokens = cmakeTokens;
+                commandJobs = defaultJobs;
+            } else {
+                // make runs a single job by default.
+                commandJobs = 1;
             }
+        }
+        int permits = Math.min(commandJobs, maxJobs);
+
+        ProcessInfoBuilder processBuilder = new ProcessInfoBuilder();
+        processBuilder.setExecutable(tokens.get(0));
+        for (int i = 1; i < tokens.size(); ++i) {
+            processBuilder.addArgs(tokens.get(i));
+        }
+        jobs.acquire(permits);
+        try {
+            getLogger().lifecycle(String.format("Build %s", libraryName));
             diagnostic("%s", processBuilder);
             ExternalNativeBuildTaskUtils.executeBuildProcessAndLogError(
                     getBuilder(), processBuilder, true /* logStdioToInfo */, "" /* logPrefix */);
+        } finally {
+            jobs.release(permits);
         }
     }
 
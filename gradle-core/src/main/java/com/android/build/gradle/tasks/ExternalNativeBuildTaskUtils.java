@@ -24,6 +24,7 @@ import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.build.gradle.external.cmake.CmakeUtils;
 import com.android.build.gradle.internal.SdkHandler;
+import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleBinary;
 import com.android.build.gradle.internal.model.CoreExternalNativeBuild;
 import com.android.build.gradle.options.BooleanOption;
 import com.android.build.gradle.options.ProjectOptions;
@@ -40,11 +41,18 @@ import com.android.repository.api.ProgressIndicator;
 import com.android.sdklib.repository.AndroidSdkHandler;
 import com.android.utils.ILogger;
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.io.FileBackedOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -53,6 +61,11 @@ import java.util.Collection;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Shared utility methods for dealing with external native build tasks.
@@ -90,12 +103,12 @@ public class ExternalNativeBuildTaskUtils {
     }
 
     /**
-     * The json mini-config file contains a subset of the regular json file that is much smaller and
-     * less memory-intensive to read.
+     * The binary file contains the same information as the regular json file in a form that is much
+     * smaller and faster to read, see {@link AndroidBuildGradleBinary}.
      */
     @NonNull
-    public static File getJsonMiniConfigFile(@NonNull File originalJson) {
-        return new File(originalJson.getParent(), "android_gradle_build_mini.json");
+    public static File getJsonBinaryFile(@NonNull File originalJson) {
+        return new File(originalJson.getParent(), "android_gradle_build.bin");
     }
 
     /**
@@ -228,14 +241,88 @@ public class ExternalNativeBuildTaskUtils {
             throws BuildCommandException, IOException {
         ProgressiveLoggingProcessOutputHandler handler =
                 new ProgressiveLoggingProcessOutputHandler(
-                        androidBuilder.getLogger(), logStdioToInfo, logPrefix);
+                        androidBuilder.getLogger(), logStdioToInfo, logPrefix, null);
+        executeBuildProcessAndLogError(androidBuilder, process, handler);
+        return handler.getStandardOutputString();
+    }
+
+    /**
+     * Same as {@link #executeBuildProcessAndLogError(AndroidBuilder, ProcessInfoBuilder, boolean,
+     * String)} but, instead of collecting the STDOUT of the process, copies it to {@code
+     * standardOutputLog} and hands it to {@code processor} while the process is running. This way
+     * large outputs, such as the one of ndk-build -n, are never held in memory.
+     *
+     * @throws BuildCommandException when the build failed.
+     */
+    public static <T> T executeBuildProcessAndProcessOutput(
+            @NonNull AndroidBuilder androidBuilder,
+            @NonNull ProcessInfoBuilder process,
+            @NonNull File standardOutputLog,
+            @NonNull StandardOutputProcessor<T> processor)
+            throws BuildCommandException, IOException {
+        OutputPipe pipe = new OutputPipe();
+        FutureTask<T> processing =
+                new FutureTask<>(
+                        () -> {
+                            try (Reader reader = new InputStreamReader(pipe, Charsets.UTF_8)) {
+                                return processor.process(reader);
+                            }
+                        });
+        // Use a dedicated thread rather than the shared pool, as this method is itself called
+        // from the shared pool and the process can't make progress unless its output is read.
+        Thread processingThread = new Thread(processing, "Build output processing");
+        processingThread.setDaemon(true);
+        processingThread.start();
+
+        try (OutputStream log = new BufferedOutputStream(new FileOutputStream(standardOutputLog));
+                OutputStream sink = pipe.getSink()) {
+            OutputStream tee =
+                    new OutputStream() {
+                        @Override
+                        public void write(@NonNull byte[] b, int off, int len)
+                                throws IOException {
+                            log.write(b, off, len);
+                            sink.write(b, off, len);
+                        }
+
+                        @Override
+                        public void write(int b) throws IOException {
+                            log.write(b);
+                            sink.write(b);
+                        }
+                    };
+            executeBuildProcessAndLogError(
+                    androidBuilder,
+                    process,
+                    new ProgressiveLoggingProcessOutputHandler(
+                            androidBuilder.getLogger(), false, "", tee));
+        } catch (BuildCommandException | IOException | RuntimeException e) {
+            processing.cancel(true /* mayInterruptIfRunning */);
+            throw e;
+        }
+
+        try {
+            return processing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing build output");
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void executeBuildProcessAndLogError(
+            @NonNull AndroidBuilder androidBuilder,
+            @NonNull ProcessInfoBuilder process,
+            @NonNull ProgressiveLoggingProcessOutputHandler handler)
+            throws BuildCommandException, IOException {
         try {
             // Log the command to execute but only in verbose (ie --info)
             androidBuilder.getLogger().verbose(process.toString());
             androidBuilder.executeProcess(process.createProcess(), handler)
                     .rethrowFailure().assertNormalExitValue();
-
-            return handler.getStandardOutputString();
         } catch (ProcessException e) {
             // Also, add process output to the process exception so that it can be analyzed by
             // caller. Use combined stderr stdout instead of just stdout because compiler errors
@@ -246,6 +333,11 @@ public class ExternalNativeBuildTaskUtils {
         }
     }
 
+    /** Processes the STDOUT of a build process as it is produced. */
+    public interface StandardOutputProcessor<T> {
+        T process(@NonNull Reader standardOutput) throws IOException;
+    }
+
     /**
      * Returns the folder with the CMake binary. For more info, check the comments on
      * doFindCmakeExecutableFolder below.
@@ -447,16 +539,25 @@ public class ExternalNativeBuildTaskUtils {
         private final ILogger logger;
         @NonNull private final FileBackedOutputStream standardOutput;
         @NonNull private final FileBackedOutputStream combinedOutput;
+        @Nullable private final OutputStream standardOutputSink;
         @NonNull
         private final ProgressiveLoggingProcessOutput loggingProcessOutput;
         @NonNull private final String logPrefix;
         private final boolean logStdioToInfo;
 
+        /**
+         * @param standardOutputSink if not null, receives STDOUT instead of it being collected for
+         *     {@link #getStandardOutputString()}
+         */
         public ProgressiveLoggingProcessOutputHandler(
-                @NonNull ILogger logger, boolean logStdioToInfo, @NonNull String logPrefix) {
+                @NonNull ILogger logger,
+                boolean logStdioToInfo,
+                @NonNull String logPrefix,
+                @Nullable OutputStream standardOutputSink) {
             this.logger = logger;
             this.logStdioToInfo = logStdioToInfo;
             this.logPrefix = logPrefix;
+            this.standardOutputSink = standardOutputSink;
             standardOutput = new FileBackedOutputStream(2048);
             combinedOutput = new FileBackedOutputStream(2048);
             loggingProcessOutput = new ProgressiveLoggingProcessOutput();
@@ -490,7 +591,10 @@ public class ExternalNativeBuildTaskUtils {
             private final ProgressiveLoggingOutputStream errorStream;
 
             ProgressiveLoggingProcessOutput() {
-                outputStream = new ProgressiveLoggingOutputStream(logStdioToInfo, standardOutput);
+                outputStream =
+                        new ProgressiveLoggingOutputStream(
+                                logStdioToInfo,
+                                standardOutputSink != null ? standardOutputSink : standardOutput);
                 errorStream = new ProgressiveLoggingOutputStream(true /* logToInfo */, null);
             }
 
@@ -512,13 +616,13 @@ public class ExternalNativeBuildTaskUtils {
             private class ProgressiveLoggingOutputStream extends OutputStream {
                 private static final int INITIAL_BUFFER_SIZE = 256;
                 private final boolean logToInfo;
-                private final FileBackedOutputStream individualOutput;
+                private final OutputStream individualOutput;
                 @NonNull
                 byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
                 int nextByteIndex = 0;
 
                 ProgressiveLoggingOutputStream(
-                        boolean logToInfo, FileBackedOutputStream individualOutput) {
+                        boolean logToInfo, OutputStream individualOutput) {
                     this.logToInfo = logToInfo;
                     this.individualOutput = individualOutput;
                 }
@@ -579,4 +683,90 @@ public class ExternalNativeBuildTaskUtils {
             }
         }
     }
+
+    /**
+     * A bounded pipe from the threads that copy the output of a process to the thread that
+     * processes it. Unlike {@link java.io.PipedInputStream}, reading doesn't fail when the thread
+     * that wrote last ends before the pipe is closed. Once the reading side is closed, what is
+     * written is dropped so that the process never blocks.
+     */
+    private static class OutputPipe extends InputStream {
+        private static final byte[] END = new byte[0];
+
+        @NonNull private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(64);
+        private volatile boolean abandoned = false;
+        @Nullable private byte[] chunk = null;
+        private int chunkPosition = 0;
+
+        @NonNull
+        OutputStream getSink() {
+            return new OutputStream() {
+                @Override
+                public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                    if (len > 0) {
+                        put(Arrays.copyOfRange(b, off, off + len));
+                    }
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    put(new byte[] {(byte) b});
+                }
+
+                @Override
+                public void close() throws IOException {
+                    put(END);
+                }
+            };
+        }
+
+        private void put(@NonNull byte[] b) throws IOException {
+            try {
+                while (!abandoned && !chunks.offer(b, 100, TimeUnit.MILLISECONDS)) {
+                    // Wait for the reading side to catch up.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (chunk == END) {
+                return -1;
+            }
+            if (chunk == null || chunkPosition == chunk.length) {
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                chunkPosition = 0;
+                if (chunk == END) {
+                    return -1;
+                }
+            }
+            int count = Math.min(len, chunk.length - chunkPosition);
+            System.arraycopy(chunk, chunkPosition, b, off, count);
+            chunkPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            abandoned = true;
+            chunks.clear();
+        }
+    }
 }
@@ -34,6 +34,8 @@ import com.android.build.gradle.internal.cxx.configure.JsonGenerationAbiConfigur
 import com.android.build.gradle.internal.cxx.configure.JsonGenerationInvalidationState;
 import com.android.build.gradle.internal.cxx.configure.JsonGenerationVariantConfiguration;
 import com.android.build.gradle.internal.cxx.configure.NativeBuildSystemVariantConfig;
+import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStreamingParser;
+import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsonStreamingVisitor;
 import com.android.build.gradle.internal.cxx.json.AndroidBuildGradleJsons;
 import com.android.build.gradle.internal.cxx.json.NativeBuildConfigValueMini;
 import com.android.build.gradle.internal.cxx.json.NativeLibraryValueMini;
@@ -52,6 +54,7 @@ import com.android.builder.errors.EvalIssueException;
 import com.android.builder.errors.EvalIssueReporter.Type;
 import com.android.builder.model.ApiVersion;
 import com.android.builder.profile.ProcessProfileWriter;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.ProcessException;
 import com.android.ide.common.process.ProcessInfoBuilder;
 import com.android.repository.Revision;
@@ -63,7 +66,6 @@ import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.file.Files;
@@ -74,7 +76,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
@@ -116,8 +118,13 @@ public abstract class ExternalNativeJsonGenerator {
         }
 
         // Now check whether the JSON is out-of-date with respect to the build files it declares.
+        // The statistics are gathered separately as the ABIs are generated concurrently.
+        GradleBuildVariant.Builder jsonStats = GradleBuildVariant.newBuilder();
         NativeBuildConfigValueMini config =
-                AndroidBuildGradleJsons.getNativeBuildMiniConfig(json, stats);
+                AndroidBuildGradleJsons.getNativeBuildMiniConfig(json, jsonStats);
+        synchronized (stats) {
+            stats.addAllNativeBuildConfig(jsonStats.getNativeBuildConfigList());
+        }
         return config.buildFiles;
     }
 
@@ -191,20 +198,41 @@ public abstract class ExternalNativeJsonGenerator {
         return new String(Files.readAllBytes(commandFile.toPath()), Charsets.UTF_8);
     }
 
+    /**
+     * Generates the JSONs of all the ABIs concurrently, as each ABI has its own output folder, and
+     * throws the exception of the first ABI that failed, if any.
+     */
     private void buildAndPropagateException(boolean forceJsonGeneration)
             throws IOException, ProcessException {
-        Exception firstException = null;
-        for (JsonGenerationAbiConfiguration configuration : config.abiConfigurations) {
-            try {
-                buildForOneConfiguration(forceJsonGeneration, configuration);
-            } catch (@NonNull GradleException | IOException | ProcessException e) {
-                if (firstException == null) {
-                    firstException = e;
-                }
-            }
+        List<JsonGenerationAbiConfiguration> configurations = config.abiConfigurations;
+        Exception[] exceptions = new Exception[configurations.size()];
+        WaitableExecutor executor = WaitableExecutor.useGlobalSharedThreadPool();
+        for (int i = 0; i < configurations.size(); i++) {
+            int index = i;
+            executor.execute(
+                    () -> {
+                        try {
+                            buildForOneConfiguration(
+                                    forceJsonGeneration, configurations.get(index));
+                        } catch (@NonNull GradleException | IOException | ProcessException e) {
+                            exceptions[index] = e;
+                        }
+                        return null;
+                    });
+        }
+        try {
+            executor.waitForTasksWithQuickFail(false /* cancelRemaining */);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException(
+                    "Thread was interrupted while native build JSON generation was in progress.",
+                    e);
         }
 
-        if (firstException != null) {
+        for (Exception firstException : exceptions) {
+            if (firstException == null) {
+                continue;
+            }
             if (firstException instanceof GradleException) {
                 throw (GradleException) firstException;
             }
@@ -294,25 +322,11 @@ public abstract class ExternalNativeJsonGenerator {
 
                 diagnosticForAbi(
                         abi, "executing %s %s", getNativeBuildSystem().getName(), processBuilder);
-                String buildOutput =
-                        executeProcess(
-                                configuration.getAbiPresentationName(),
-                                configuration.getAbiPlatformVersion(),
-                                configuration.getExpectedJson());
-                diagnosticForAbi(abi, "done executing %s", getNativeBuildSystem().getName());
-
-                // Write the captured process output to a file for diagnostic purposes.
-                diagnosticForAbi(
-                        abi,
-                        "write build output %s",
-                        configuration.getBuildOutputFile().getAbsolutePath());
-                Files.write(
-                        configuration.getBuildOutputFile().toPath(),
-                        buildOutput.getBytes(Charsets.UTF_8));
-                processBuildOutput(
-                        buildOutput,
+                executeProcessAndProcessOutput(
                         configuration.getAbiPresentationName(),
-                        configuration.getAbiPlatformVersion());
+                        configuration.getAbiPlatformVersion(),
+                        configuration.getExpectedJson(),
+                        configuration.getBuildOutputFile());
 
                 if (!configuration.getExpectedJson().exists()) {
                     throw new GradleException(
@@ -418,6 +432,25 @@ public abstract class ExternalNativeJsonGenerator {
         }
     }
 
+    /**
+     * Executes the JSON generation process, writes its output to {@code buildOutputFile} for
+     * diagnostic purposes and post-processes it with {@link #processBuildOutput}.
+     */
+    void executeProcessAndProcessOutput(
+            @NonNull String abi,
+            int abiPlatformVersion,
+            @NonNull File outputJsonDir,
+            @NonNull File buildOutputFile)
+            throws ProcessException, IOException {
+        String buildOutput = executeProcess(abi, abiPlatformVersion, outputJsonDir);
+        diagnosticForAbi(abi, "done executing %s", getNativeBuildSystem().getName());
+
+        // Write the captured process output to a file for diagnostic purposes.
+        diagnosticForAbi(abi, "write build output %s", buildOutputFile.getAbsolutePath());
+        Files.write(buildOutputFile.toPath(), buildOutput.getBytes(Charsets.UTF_8));
+        processBuildOutput(buildOutput, abi, abiPlatformVersion);
+    }
+
     /**
      * Derived class implements this method to post-process build output. Ndk-build uses this to
      * capture and analyze the compile and link commands that were written to stdout.
@@ -749,15 +782,20 @@ public abstract class ExternalNativeJsonGenerator {
         return externalNativeBuildPath;
     }
 
-    public void forEachNativeBuildConfiguration(@NonNull Consumer<JsonReader> callback)
+    /**
+     * Streams each native build configuration to a visitor from the given supplier. The
+     * configurations are read from their binary form, see {@link AndroidBuildGradleJsons#visit}.
+     */
+    public void forEachNativeBuildConfiguration(
+            @NonNull Supplier<AndroidBuildGradleJsonStreamingVisitor> visitors)
             throws IOException {
         List<File> files = getNativeBuildConfigurationsJsons();
         diagnostic("streaming %s JSON files", files.size());
         for (File file : getNativeBuildConfigurationsJsons()) {
             if (file.exists()) {
                 diagnostic("string JSON file %s", file.getAbsolutePath());
-                try (JsonReader reader = new JsonReader(new FileReader(file))) {
-                    callback.accept(reader);
+                try {
+                    AndroidBuildGradleJsons.visit(file, visitors.get(), true);
                 } catch (Throwable e) {
                     diagnostic(
                             "Error parsing: %s",
@@ -770,9 +808,11 @@ public abstract class ExternalNativeJsonGenerator {
                 diagnostic("streaming fallback JSON for %s", file.getAbsolutePath());
                 NativeBuildConfigValueMini fallback = new NativeBuildConfigValueMini();
                 fallback.buildFiles = Lists.newArrayList(config.makefile);
-                try (JsonReader reader =
-                        new JsonReader(new StringReader(new Gson().toJson(fallback)))) {
-                    callback.accept(reader);
+                try (AndroidBuildGradleJsonStreamingParser parser =
+                        new AndroidBuildGradleJsonStreamingParser(
+                                new JsonReader(new StringReader(new Gson().toJson(fallback))),
+                                visitors.get())) {
+                    parser.parse();
                 }
             }
         }
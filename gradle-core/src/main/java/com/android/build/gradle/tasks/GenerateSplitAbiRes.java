@@ -215,7 +215,9 @@ public class GenerateSplitAbiRes extends AndroidBuilderTask {
                             Aapt2DaemonManagerService.registerAaptService(
                                     aapt2FromMaven,
                                     builder.getBuildToolInfo(),
-                                    builder.getLogger());
+                                    builder.getLogger(),
+                                    Aapt2DaemonManagerService.getAaptDaemonPoolSizes(
+                                            variantScope.getGlobalScope().getProjectOptions()));
                     Aapt2ProcessResourcesRunnable.Params params =
                             new Aapt2ProcessResourcesRunnable.Params(aapt2ServiceKey, aaptConfig);
                     workerExecutor.submit(Aapt2ProcessResourcesRunnable.class, params);
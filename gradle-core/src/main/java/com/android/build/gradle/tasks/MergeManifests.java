@@ -195,7 +195,11 @@ public class MergeManifests extends ManifestProcessorTask {
                                     ManifestMerger2.MergeType.APPLICATION,
                                     variantConfiguration.getManifestPlaceholders(),
                                     getOptionalFeatures(),
-                                    getReportFile());
+                                    getReportFile(),
+                                    FileUtils.join(
+                                            getIncrementalFolder(),
+                                            "checkpoints",
+                                            apkData.getDirName()));
 
             XmlDocument mergedXmlDocument =
                     mergingReport.getMergedXmlDocument(MergingReport.MergedManifestKind.MERGED);
@@ -597,6 +601,7 @@ public class MergeManifests extends ManifestProcessorTask {
                                     + "-report.txt");
 
             processManifestTask.setReportFile(reportFile);
+            processManifestTask.setIncrementalFolder(variantScope.getIncrementalDir(getName()));
             processManifestTask.optionalFeatures =
                     TaskInputHelper.memoize(
                             () -> getOptionalFeatures(variantScope, isAdvancedProfilingOn));
@@ -717,6 +722,18 @@ public class MergeManifests extends ManifestProcessorTask {
                 features.add(Feature.ADD_SUPPORT_MULTIDEX_APPLICATION_IF_NO_NAME);
             }
         }
+        if (variantScope
+                .getGlobalScope()
+                .getProjectOptions()
+                .get(BooleanOption.ENABLE_IN_PLACE_MANIFEST_MERGE)) {
+            features.add(Feature.MERGE_IN_PLACE);
+        }
+        if (variantScope
+                .getGlobalScope()
+                .getProjectOptions()
+                .get(BooleanOption.ENABLE_INCREMENTAL_MANIFEST_MERGE)) {
+            features.add(Feature.INCREMENTAL_MERGE);
+        }
         return features.isEmpty() ? EnumSet.noneOf(Feature.class) : EnumSet.copyOf(features);
     }
 }
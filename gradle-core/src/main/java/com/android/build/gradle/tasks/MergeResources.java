@@ -200,7 +200,11 @@ public class MergeResources extends IncrementalTask {
         if (aaptGeneration == AaptGeneration.AAPT_V2_DAEMON_SHARED_POOL) {
             Aapt2ServiceKey aapt2ServiceKey =
                     Aapt2DaemonManagerService.registerAaptService(
-                            aapt2FromMaven, builder.getBuildToolInfo(), builder.getLogger());
+                            aapt2FromMaven,
+                            builder.getBuildToolInfo(),
+                            builder.getLogger(),
+                            Aapt2DaemonManagerService.getAaptDaemonPoolSizes(
+                                    scope.getGlobalScope().getProjectOptions()));
 
             return new WorkerExecutorResourceCompilationService(workerExecutor, aapt2ServiceKey);
         }
@@ -38,6 +38,9 @@ import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import com.google.wireless.android.sdk.stats.GradleNativeAndroidModule;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
@@ -61,10 +64,37 @@ class NdkBuildExternalNativeJsonGenerator extends ExternalNativeJsonGenerator {
                 GradleNativeAndroidModule.NativeBuildSystemType.NDK_BUILD);
     }
 
+    @Override
+    void executeProcessAndProcessOutput(
+            @NonNull String abi,
+            int abiPlatformVersion,
+            @NonNull File outputJsonDir,
+            @NonNull File buildOutputFile)
+            throws ProcessException, IOException {
+        // The ndk-build output is written to the build output file for diagnostic purposes and
+        // analyzed at the same time, as it is produced, rather than being collected first.
+        diagnosticForAbi(abi, "write build output %s", buildOutputFile.getAbsolutePath());
+        ExternalNativeBuildTaskUtils.executeBuildProcessAndProcessOutput(
+                androidBuilder,
+                getProcessBuilder(abi, abiPlatformVersion, outputJsonDir),
+                buildOutputFile,
+                buildOutput -> {
+                    processBuildOutput(buildOutput, abi, abiPlatformVersion);
+                    return null;
+                });
+        diagnosticForAbi(abi, "done executing %s", getNativeBuildSystem().getName());
+    }
+
     @Override
     void processBuildOutput(
             @NonNull String buildOutput, @NonNull String abi, int abiPlatformVersion)
             throws IOException {
+        processBuildOutput(new StringReader(buildOutput), abi, abiPlatformVersion);
+    }
+
+    private void processBuildOutput(
+            @NonNull Reader buildOutput, @NonNull String abi, int abiPlatformVersion)
+            throws IOException {
         // Discover Application.mk if one exists next to Android.mk
         // If there is an Application.mk file next to Android.mk then pick it up.
         File applicationMk = new File(getMakeFile().getParent(), "Application.mk");
@@ -92,9 +122,8 @@ class NdkBuildExternalNativeJsonGenerator extends ExternalNativeJsonGenerator {
         // NOTE: CMake doesn't have the same issue because CMake JSON generation happens fully
         // within the Exec call which has 'project/app' as the current directory.
 
-        // TODO(jomof): This NativeBuildConfigValue is probably consuming a lot of memory for large
-        // projects. Should be changed to a streaming model where NativeBuildConfigValueBuilder
-        // provides a streaming JsonReader rather than a full object.
+        // The ndk-build output is read as it is produced and only the compile, link and archive
+        // commands are kept, so the resulting NativeBuildConfigValue is the only large object.
         NativeBuildConfigValue buildConfig =
                 new NativeBuildConfigValueBuilder(getMakeFile(), projectDir)
                         .addCommands(
@@ -120,15 +149,15 @@ class NdkBuildExternalNativeJsonGenerator extends ExternalNativeJsonGenerator {
             buildConfig.buildFiles.add(applicationMk);
         }
 
-        String actualResult = new GsonBuilder()
-                .registerTypeAdapter(File.class, new PlainFileGsonTypeAdaptor())
-                .setPrettyPrinting()
-                .create()
-                .toJson(buildConfig);
-
         // Write the captured ndk-build output to JSON file
         File expectedJson = ExternalNativeBuildTaskUtils.getOutputJson(getJsonFolder(), abi);
-        Files.write(expectedJson.toPath(), actualResult.getBytes(Charsets.UTF_8));
+        try (Writer writer = Files.newBufferedWriter(expectedJson.toPath(), Charsets.UTF_8)) {
+            new GsonBuilder()
+                    .registerTypeAdapter(File.class, new PlainFileGsonTypeAdaptor())
+                    .setPrettyPrinting()
+                    .create()
+                    .toJson(buildConfig, writer);
+        }
     }
 
     /**
@@ -90,7 +90,8 @@ public class ProcessManifest extends ManifestProcessorTask {
                                 ManifestMerger2.MergeType.LIBRARY,
                                 variantConfiguration.getManifestPlaceholders(),
                                 Collections.emptyList(),
-                                getReportFile());
+                                getReportFile(),
+                                null /* checkpointDirectory */);
 
         XmlDocument mergedXmlDocument =
                 mergingReport.getMergedXmlDocument(MergingReport.MergedManifestKind.MERGED);
@@ -28,15 +28,23 @@ import com.android.build.gradle.internal.tasks.NdkTask;
 import com.android.build.gradle.internal.tasks.TaskInputHelper;
 import com.android.build.gradle.internal.variant.BaseVariantData;
 import com.android.build.gradle.options.BooleanOption;
+import com.android.builder.compiling.DependencyFileProcessor;
 import com.android.builder.internal.compiler.DirectoryWalker;
+import com.android.builder.internal.incremental.DependencyData;
+import com.android.builder.internal.incremental.DependencyDataStore;
 import com.android.ide.common.process.LoggedProcessOutputHandler;
 import com.android.ide.common.process.ProcessException;
+import com.android.ide.common.resources.FileStatus;
 import com.android.utils.FileUtils;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.function.Supplier;
@@ -44,15 +52,19 @@ import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.incremental.IncrementalTaskInputs;
 
 /** Task to compile Renderscript files. Supports incremental update. */
 @CacheableTask
 public class RenderscriptCompile extends NdkTask {
 
+    private static final String DEPENDENCY_STORE = "dependency.store";
+
     // ----- PUBLIC TASK API -----
 
     private File sourceOutputDir;
@@ -63,6 +75,7 @@ public class RenderscriptCompile extends NdkTask {
 
     private File libOutputDir;
 
+    private File incrementalFolder;
 
     // ----- PRIVATE TASK API -----
 
@@ -185,9 +198,56 @@ public class RenderscriptCompile extends NdkTask {
         this.ndkMode = ndkMode;
     }
 
+    @OutputDirectory
+    @Optional
+    public File getIncrementalFolder() {
+        return incrementalFolder;
+    }
+
+    public void setIncrementalFolder(File incrementalFolder) {
+        this.incrementalFolder = incrementalFolder;
+    }
+
+    private static class DepFileProcessor implements DependencyFileProcessor {
+        List<DependencyData> dependencyDataList = Lists.newArrayList();
+
+        List<DependencyData> getDependencyDataList() {
+            return dependencyDataList;
+        }
+
+        @Override
+        public DependencyData processFile(@NonNull File dependencyFile) throws IOException {
+            DependencyData data = DependencyData.parseMakeDependencyFile(dependencyFile);
+            if (data != null) {
+                dependencyDataList.add(data);
+            }
+
+            return data;
+        }
+    }
+
     @TaskAction
-    void taskAction() throws IOException, InterruptedException, ProcessException {
-        // this is full run (always), clean the previous outputs
+    void taskAction(IncrementalTaskInputs inputs)
+            throws IOException, InterruptedException, ProcessException {
+        if (!inputs.isIncremental()) {
+            getLogger().info("Unable do incremental execution: full task run");
+            doFullTaskAction();
+            return;
+        }
+
+        Map<File, FileStatus> changedInputs = Maps.newHashMap();
+        inputs.outOfDate(
+                change ->
+                        changedInputs.put(
+                                change.getFile(),
+                                change.isAdded() ? FileStatus.NEW : FileStatus.CHANGED));
+        inputs.removed(change -> changedInputs.put(change.getFile(), FileStatus.REMOVED));
+
+        doIncrementalTaskAction(changedInputs);
+    }
+
+    private void doFullTaskAction() throws IOException, InterruptedException, ProcessException {
+        // this is full run, clean the previous outputs
         File sourceDestDir = getSourceOutputDir();
         FileUtils.cleanOutputDir(sourceDestDir);
 
@@ -200,11 +260,14 @@ public class RenderscriptCompile extends NdkTask {
         File libDestDir = getLibOutputDir();
         FileUtils.cleanOutputDir(libDestDir);
 
-        Set<File> sourceDirectories = sourceDirs.getFiles();
+        File incrementalData = new File(getIncrementalFolder(), DEPENDENCY_STORE);
+        FileUtils.deleteIfExists(incrementalData);
+
+        DepFileProcessor processor = new DepFileProcessor();
 
         getBuilder()
                 .compileAllRenderscriptFiles(
-                        sourceDirectories,
+                        sourceDirs.getFiles(),
                         getImportFolders(),
                         sourceDestDir,
                         resDestDir,
@@ -217,7 +280,117 @@ public class RenderscriptCompile extends NdkTask {
                         isSupportMode(),
                         useAndroidX(),
                         getNdkConfig() == null ? null : getNdkConfig().getAbiFilters(),
+                        processor,
                         new LoggedProcessOutputHandler(getILogger()));
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(processor.getDependencyDataList());
+        store.saveTo(incrementalData);
+    }
+
+    private void doIncrementalTaskAction(@NonNull Map<File, FileStatus> changedInputs)
+            throws IOException, InterruptedException, ProcessException {
+        File incrementalData = new File(getIncrementalFolder(), DEPENDENCY_STORE);
+        DependencyDataStore store = new DependencyDataStore();
+        try {
+            store.loadFrom(incrementalData);
+        } catch (Exception ignored) {
+            FileUtils.deleteIfExists(incrementalData);
+            getLogger().info("Failed to read dependency store: full task run!");
+            doFullTaskAction();
+            return;
+        }
+
+        // the scripts to compile: the new and changed scripts, and the scripts including a
+        // changed or removed file.
+        Set<File> filesToCompile = Sets.newHashSet();
+        Set<DependencyData> dataToClean = Sets.newHashSet();
+
+        for (Map.Entry<File, FileStatus> entry : changedInputs.entrySet()) {
+            File file = entry.getKey();
+            String path = file.getAbsolutePath();
+            if (entry.getValue() == FileStatus.REMOVED) {
+                DependencyData data = store.getByMainFile(path);
+                if (data != null) {
+                    dataToClean.add(data);
+                }
+            } else if (isRenderscriptFile(file)) {
+                filesToCompile.add(file);
+            }
+
+            for (DependencyData data : store.getImpactedData(path)) {
+                if (!data.getMainFile().equals(path)) {
+                    filesToCompile.add(new File(data.getMainFile()));
+                }
+            }
+        }
+        filesToCompile.removeIf(file -> !file.isFile());
+
+        // the outputs of the recompiled scripts are regenerated, clean them as well in case
+        // they don't generate all of them anymore.
+        for (File file : filesToCompile) {
+            DependencyData data = store.getByMainFile(file.getAbsolutePath());
+            if (data != null) {
+                dataToClean.add(data);
+            }
+        }
+
+        cleanUpOutputs(dataToClean, store);
+        for (DependencyData data : dataToClean) {
+            store.remove(data);
+        }
+
+        DepFileProcessor processor = new DepFileProcessor();
+
+        try {
+            getBuilder()
+                    .compileRenderscriptFiles(
+                            filesToCompile,
+                            sourceDirs.getFiles(),
+                            getImportFolders(),
+                            getSourceOutputDir(),
+                            getResOutputDir(),
+                            getObjOutputDir(),
+                            getLibOutputDir(),
+                            getTargetApi(),
+                            isDebugBuild(),
+                            getOptimLevel(),
+                            isNdkMode(),
+                            isSupportMode(),
+                            useAndroidX(),
+                            getNdkConfig() == null ? null : getNdkConfig().getAbiFilters(),
+                            processor,
+                            new LoggedProcessOutputHandler(getILogger()));
+        } catch (Exception e) {
+            FileUtils.deleteIfExists(incrementalData);
+            throw e;
+        }
+
+        // get all the update data for the recompiled scripts
+        store.updateAll(processor.getDependencyDataList());
+        store.saveTo(incrementalData);
+    }
+
+    private static boolean isRenderscriptFile(@NonNull File file) {
+        String name = file.getName();
+        return name.endsWith(".rs") || name.endsWith(".fs");
+    }
+
+    /**
+     * Deletes the outputs of the given scripts, except for the outputs shared with the other
+     * scripts of the store, e.g. the classes reflecting a struct of a common header.
+     */
+    private static void cleanUpOutputs(
+            @NonNull Collection<DependencyData> dataToClean, @NonNull DependencyDataStore store)
+            throws IOException {
+        for (DependencyData data : dataToClean) {
+            for (String output :
+                    Iterables.concat(data.getOutputFiles(), data.getSecondaryOutputFiles())) {
+                if (dataToClean.containsAll(store.getByOutputFile(output))) {
+                    FileUtils.deleteIfExists(new File(output));
+                }
+            }
+        }
     }
 
     // get the import folders. If the .rsh files are not directly under the import folders,
@@ -275,6 +448,7 @@ public class RenderscriptCompile extends NdkTask {
             boolean ndkMode = config.getRenderscriptNdkModeEnabled();
             renderscriptTask.setAndroidBuilder(scope.getGlobalScope().getAndroidBuilder());
             renderscriptTask.setVariantName(config.getFullName());
+            renderscriptTask.setIncrementalFolder(scope.getIncrementalDir(getName()));
 
             renderscriptTask.targetApi = TaskInputHelper.memoize(config::getRenderscriptTarget);
 
@@ -21,37 +21,59 @@ import com.android.build.gradle.internal.core.GradleVariantConfiguration;
 import com.android.build.gradle.internal.scope.InternalArtifactType;
 import com.android.build.gradle.internal.scope.TaskConfigAction;
 import com.android.build.gradle.internal.scope.VariantScope;
-import com.android.build.gradle.internal.tasks.AndroidBuilderTask;
+import com.android.build.gradle.internal.tasks.IncrementalTask;
+import com.android.builder.compiling.DependencyFileProcessor;
 import com.android.builder.internal.compiler.ShaderProcessor;
+import com.android.builder.internal.incremental.DependencyData;
+import com.android.builder.internal.incremental.DependencyDataStore;
+import com.android.builder.profile.ThreadRecorder;
+import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.LoggedProcessOutputHandler;
+import com.android.ide.common.process.ProcessOutputHandler;
+import com.android.ide.common.resources.FileStatus;
 import com.android.utils.FileUtils;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.gradle.api.file.FileTree;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
-import org.gradle.api.tasks.TaskAction;
-import org.gradle.api.tasks.util.PatternSet;
 
-/** Task to compile Shaders */
+/** Task to compile Shaders. Supports incremental update. */
 @CacheableTask
-public class ShaderCompile extends AndroidBuilderTask {
+public class ShaderCompile extends IncrementalTask {
 
-    private static final PatternSet PATTERN_SET = new PatternSet()
-            .include("**/*." + ShaderProcessor.EXT_VERT)
-            .include("**/*." + ShaderProcessor.EXT_TESC)
-            .include("**/*." + ShaderProcessor.EXT_TESE)
-            .include("**/*." + ShaderProcessor.EXT_GEOM)
-            .include("**/*." + ShaderProcessor.EXT_FRAG)
-            .include("**/*." + ShaderProcessor.EXT_COMP);
+    private static final String DEPENDENCY_STORE = "dependency.store";
+
+    /**
+     * The type of the profile span of the glslc runs. There is no dedicated type, so they are
+     * recorded as generic processing, which the profile tools nest in the span of this task.
+     */
+    private static final ExecutionType SHADER_COMPILATION = ExecutionType.SOME_RANDOM_PROCESSING;
+
+    private static final Set<String> SHADER_EXTENSIONS =
+            ImmutableSet.of(
+                    ShaderProcessor.EXT_VERT,
+                    ShaderProcessor.EXT_TESC,
+                    ShaderProcessor.EXT_TESE,
+                    ShaderProcessor.EXT_GEOM,
+                    ShaderProcessor.EXT_FRAG,
+                    ShaderProcessor.EXT_COMP);
 
     // ----- PUBLIC TASK API -----
 
@@ -71,33 +93,173 @@ public class ShaderCompile extends AndroidBuilderTask {
 
     private File ndkLocation;
 
+    /**
+     * Returns the shaders and the files they include, so that the shaders are recompiled when an
+     * included file changes.
+     */
     @InputFiles
     @PathSensitive(PathSensitivity.RELATIVE)
     public FileTree getSourceFiles() {
         FileTree src = null;
         if (sourceDir.isDirectory()) {
-            src = getProject().files(sourceDir).getAsFileTree().matching(PATTERN_SET);
+            src = getProject().files(sourceDir).getAsFileTree();
         }
         return src == null ? getProject().files().getAsFileTree() : src;
     }
 
-    @TaskAction
-    protected void compileShaders() throws IOException {
+    private static class DepFileProcessor implements DependencyFileProcessor {
+        List<DependencyData> dependencyDataList =
+                Collections.synchronizedList(Lists.newArrayList());
+
+        List<DependencyData> getDependencyDataList() {
+            return dependencyDataList;
+        }
+
+        @Override
+        public DependencyData processFile(@NonNull File dependencyFile) throws IOException {
+            DependencyData data = DependencyData.parseMakeDependencyFile(dependencyFile);
+            if (data != null) {
+                dependencyDataList.add(data);
+            }
+
+            return data;
+        }
+    }
+
+    @Override
+    @Internal
+    protected boolean isIncremental() {
+        return true;
+    }
+
+    @Override
+    protected void doFullTaskAction() throws IOException {
         // this is full run, clean the previous output
         File destinationDir = getOutputDir();
         FileUtils.cleanOutputDir(destinationDir);
 
+        File incrementalData = new File(getIncrementalFolder(), DEPENDENCY_STORE);
+        FileUtils.deleteIfExists(incrementalData);
+
+        DepFileProcessor processor = new DepFileProcessor();
+
+        ThreadRecorder.get()
+                .record(
+                        SHADER_COMPILATION,
+                        getProject().getPath(),
+                        getVariantName(),
+                        () -> {
+                            getBuilder()
+                                    .compileAllShaderFiles(
+                                            sourceDir,
+                                            getOutputDir(),
+                                            defaultArgs,
+                                            scopedArgs,
+                                            ndkLocation,
+                                            processor,
+                                            new LoggedProcessOutputHandler(getILogger()));
+                            return null;
+                        });
+
+        List<DependencyData> dataList = processor.getDependencyDataList();
+        getILogger().verbose("Compiled %d shaders", dataList.size());
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(dataList);
+        store.saveTo(incrementalData);
+    }
+
+    @Override
+    protected void doIncrementalTaskAction(Map<File, FileStatus> changedInputs) throws IOException {
+        File incrementalData = new File(getIncrementalFolder(), DEPENDENCY_STORE);
+        DependencyDataStore store = new DependencyDataStore();
         try {
-            getBuilder()
-                    .compileAllShaderFiles(
-                            sourceDir,
-                            getOutputDir(),
-                            defaultArgs,
-                            scopedArgs,
-                            ndkLocation,
-                            new LoggedProcessOutputHandler(getILogger()));
-        } catch (Exception e) {
-            throw  new RuntimeException(e);
+            store.loadFrom(incrementalData);
+        } catch (Exception ignored) {
+            FileUtils.deleteIfExists(incrementalData);
+            getProject().getLogger().info("Failed to read dependency store: full task run!");
+            doFullTaskAction();
+            return;
+        }
+
+        // the new and changed shaders, and the shaders including a changed or removed file.
+        Set<File> filesToCompile = Sets.newHashSet();
+
+        for (Map.Entry<File, FileStatus> entry : changedInputs.entrySet()) {
+            File file = entry.getKey();
+            String path = file.getAbsolutePath();
+            if (entry.getValue() == FileStatus.REMOVED) {
+                DependencyData data = store.getByMainFile(path);
+                if (data != null) {
+                    cleanUpOutputFrom(data);
+                    store.remove(data);
+                }
+            } else if (SHADER_EXTENSIONS.contains(Files.getFileExtension(file.getName()))) {
+                filesToCompile.add(file);
+            }
+
+            for (DependencyData data : store.getImpactedData(path)) {
+                if (!data.getMainFile().equals(path)) {
+                    filesToCompile.add(new File(data.getMainFile()));
+                }
+            }
+        }
+        filesToCompile.removeIf(file -> !file.isFile());
+
+        final DepFileProcessor processor = new DepFileProcessor();
+        final ProcessOutputHandler processOutputHandler =
+                new LoggedProcessOutputHandler(getILogger());
+
+        ThreadRecorder.get()
+                .record(
+                        SHADER_COMPILATION,
+                        getProject().getPath(),
+                        getVariantName(),
+                        () -> {
+                            // use an executor to parallelize the compilation of multiple files.
+                            WaitableExecutor executor =
+                                    WaitableExecutor.useGlobalSharedThreadPool();
+
+                            for (File file : filesToCompile) {
+                                executor.execute(
+                                        () -> {
+                                            getBuilder()
+                                                    .compileShaderFile(
+                                                            sourceDir,
+                                                            file,
+                                                            getOutputDir(),
+                                                            defaultArgs,
+                                                            scopedArgs,
+                                                            ndkLocation,
+                                                            processor,
+                                                            processOutputHandler);
+                                            return null;
+                                        });
+                            }
+
+                            try {
+                                executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
+                            } catch (Throwable t) {
+                                FileUtils.deleteIfExists(incrementalData);
+                                throw new RuntimeException(t);
+                            }
+                            return null;
+                        });
+
+        getILogger().verbose("Compiled %d shaders incrementally", filesToCompile.size());
+
+        // get all the update data for the recompiled shaders
+        store.updateAll(processor.getDependencyDataList());
+        store.saveTo(incrementalData);
+    }
+
+    private static void cleanUpOutputFrom(@NonNull DependencyData dependencyData)
+            throws IOException {
+        for (String output : dependencyData.getOutputFiles()) {
+            FileUtils.deleteIfExists(new File(output));
+        }
+        for (String output : dependencyData.getSecondaryOutputFiles()) {
+            FileUtils.deleteIfExists(new File(output));
         }
     }
 
@@ -163,6 +325,7 @@ public class ShaderCompile extends AndroidBuilderTask {
 
             compileTask.setAndroidBuilder(scope.getGlobalScope().getAndroidBuilder());
             compileTask.setVariantName(variantConfiguration.getFullName());
+            compileTask.setIncrementalFolder(scope.getIncrementalDir(getName()));
 
             compileTask.ndkLocation = scope.getGlobalScope().getNdkHandler().getNdkDirectory();
 
@@ -26,7 +26,9 @@ import com.android.build.gradle.internal.dsl.convert
 import com.android.build.gradle.internal.res.Aapt2ProcessResourcesRunnable
 import com.android.build.gradle.internal.res.getAapt2FromMavenIfEnabled
 import com.android.build.gradle.internal.res.namespaced.Aapt2CompileRunnable
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey
+import com.android.build.gradle.internal.res.namespaced.getAaptDaemonPoolSizes
 import com.android.build.gradle.internal.res.namespaced.registerAaptService
 import com.android.build.gradle.internal.scope.ExistingBuildElements
 import com.android.build.gradle.internal.scope.InternalArtifactType
@@ -107,6 +109,8 @@ constructor(workerExecutor: WorkerExecutor) : IncrementalTask() {
     var aapt2FromMaven: FileCollection? = null
         private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     private val workers: WorkerExecutorFacade = Workers.getWorker(workerExecutor)
 
     override fun isIncremental(): Boolean {
@@ -144,7 +148,8 @@ constructor(workerExecutor: WorkerExecutor) : IncrementalTask() {
         val manifestFile = Iterables.getOnlyElement(manifestsOutputs).outputFile
 
         if (aaptGeneration == AaptGeneration.AAPT_V2_DAEMON_SHARED_POOL) {
-            val aapt2ServiceKey = registerAaptService(aapt2FromMaven, buildTools, iLogger)
+            val aapt2ServiceKey = registerAaptService(
+                aapt2FromMaven, buildTools, iLogger, aapt2DaemonPoolSizes)
             // If we're using AAPT2 we need to compile the resources into the compiled directory
             // first as we need the .flat files for linking.
             workers.use { facade ->
@@ -240,6 +245,8 @@ constructor(workerExecutor: WorkerExecutor) : IncrementalTask() {
             verifyLibraryResources.aaptGeneration =
                     AaptGeneration.fromProjectOptions(scope.globalScope.projectOptions)
             verifyLibraryResources.aapt2FromMaven = getAapt2FromMavenIfEnabled(scope.globalScope)
+            verifyLibraryResources.aapt2DaemonPoolSizes =
+                    getAaptDaemonPoolSizes(scope.globalScope.projectOptions)
             verifyLibraryResources.incrementalFolder = scope.getIncrementalDir(name)
 
             verifyLibraryResources.inputDirectory =
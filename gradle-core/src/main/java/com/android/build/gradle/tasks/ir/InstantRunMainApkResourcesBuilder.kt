@@ -22,6 +22,8 @@ import com.android.build.api.artifact.BuildableArtifact
 import com.android.build.gradle.internal.LoggerWrapper
 import com.android.build.gradle.internal.aapt.AaptGeneration
 import com.android.build.gradle.internal.res.getAapt2FromMavenIfEnabled
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes
+import com.android.build.gradle.internal.res.namespaced.getAaptDaemonPoolSizes
 import com.android.build.gradle.internal.scope.ExistingBuildElements
 import com.android.build.gradle.internal.scope.InternalArtifactType.INSTANT_RUN_MAIN_APK_RESOURCES
 import com.android.build.gradle.internal.scope.InternalArtifactType.INSTANT_RUN_MERGED_MANIFESTS
@@ -77,6 +79,8 @@ open class InstantRunMainApkResourcesBuilder : AndroidBuilderTask() {
     var aapt2FromMaven: FileCollection? = null
         private set
 
+    private lateinit var aapt2DaemonPoolSizes: Aapt2DaemonPoolSizes
+
     @TaskAction
     @Throws(IOException::class)
     fun doFullTaskAction() {
@@ -97,7 +101,7 @@ open class InstantRunMainApkResourcesBuilder : AndroidBuilderTask() {
 
         return try {
             InstantRunSplitApkBuilder.getLinker(
-                aapt2FromMaven, aaptGeneration, builder
+                aapt2FromMaven, aapt2DaemonPoolSizes, aaptGeneration, builder
             ).use { aapt ->
                 processSplit(manifestFile, aapt)
             }
@@ -144,6 +148,8 @@ open class InstantRunMainApkResourcesBuilder : AndroidBuilderTask() {
             task.aaptGeneration = AaptGeneration.fromProjectOptions(
                     variantScope.globalScope.projectOptions)
             task.aapt2FromMaven = getAapt2FromMavenIfEnabled(variantScope.globalScope)
+            task.aapt2DaemonPoolSizes =
+                    getAaptDaemonPoolSizes(variantScope.globalScope.projectOptions)
 
         }
 
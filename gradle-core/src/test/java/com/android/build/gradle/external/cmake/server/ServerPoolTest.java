@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.external.cmake.server;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.build.gradle.external.cmake.server.receiver.ServerReceiver;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class ServerPoolTest {
+    ServerPool pool;
+    List<Server> createdServers;
+    List<String> diagnostics;
+    ServerPool.ServerCreator creator;
+
+    @Before
+    public void setUp() {
+        pool = new ServerPool(2);
+        createdServers = new ArrayList<>();
+        diagnostics = new ArrayList<>();
+        creator =
+                receiver -> {
+                    Server server = Mockito.mock(Server.class);
+                    Mockito.when(server.isConnected()).thenReturn(true);
+                    Mockito.doAnswer(
+                                    invocation -> {
+                                        receiver.getDiagnosticReceiver().receive("configured");
+                                        return null;
+                                    })
+                            .when(server)
+                            .configure();
+                    createdServers.add(server);
+                    return server;
+                };
+    }
+
+    @Test
+    public void testReuseSameKey() throws IOException {
+        ServerPool.PooledServer first = pool.acquire(key("x86"), receiver(), creator);
+        assertThat(first.isReused()).isFalse();
+        pool.release(first);
+
+        ServerPool.PooledServer second = pool.acquire(key("x86"), receiver(), creator);
+        assertThat(second.isReused()).isTrue();
+        assertThat(second.getServer()).isSameAs(first.getServer());
+        assertThat(createdServers).hasSize(1);
+
+        // Messages go to the receiver of the current user.
+        second.getServer().configure();
+        assertThat(diagnostics).containsExactly("configured");
+    }
+
+    @Test
+    public void testNoReuseForDifferentKey() throws IOException {
+        pool.release(pool.acquire(key("x86"), receiver(), creator));
+        ServerPool.PooledServer other = pool.acquire(key("arm64-v8a"), receiver(), creator);
+        assertThat(other.isReused()).isFalse();
+        assertThat(createdServers).hasSize(2);
+    }
+
+    @Test
+    public void testDiscardedServerIsDisconnected() throws IOException {
+        ServerPool.PooledServer server = pool.acquire(key("x86"), receiver(), creator);
+        pool.discard(server);
+        Mockito.verify(server.getServer()).disconnect();
+        assertThat(pool.acquire(key("x86"), receiver(), creator).isReused()).isFalse();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedServerIsEvicted() throws IOException {
+        ServerPool.PooledServer x86 = pool.acquire(key("x86"), receiver(), creator);
+        ServerPool.PooledServer arm = pool.acquire(key("armeabi-v7a"), receiver(), creator);
+        ServerPool.PooledServer arm64 = pool.acquire(key("arm64-v8a"), receiver(), creator);
+        pool.release(x86);
+        pool.release(arm);
+        pool.release(arm64);
+
+        assertThat(pool.getIdleServerCount()).isEqualTo(2);
+        Mockito.verify(x86.getServer()).disconnect();
+        Mockito.verify(arm.getServer(), Mockito.never()).disconnect();
+
+        pool.clear();
+        assertThat(pool.getIdleServerCount()).isEqualTo(0);
+        Mockito.verify(arm64.getServer()).disconnect();
+    }
+
+    @Test
+    public void testEvict() throws IOException {
+        ServerPool.PooledServer server = pool.acquire(key("x86"), receiver(), creator);
+        pool.release(server);
+        pool.evict(key("x86"));
+        Mockito.verify(server.getServer()).disconnect();
+        assertThat(pool.getIdleServerCount()).isEqualTo(0);
+    }
+
+    private ServerReceiver receiver() {
+        return new ServerReceiver().setDiagnosticReceiver(diagnostics::add);
+    }
+
+    private static ServerPool.Key key(String abi) {
+        return new ServerPool.Key(
+                "/sdk/cmake/bin",
+                "Ninja",
+                "/project/src",
+                "/project/build/" + abi,
+                "/ndk/toolchain.cmake");
+    }
+}
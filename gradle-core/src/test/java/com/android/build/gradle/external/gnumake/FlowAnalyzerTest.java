@@ -37,6 +37,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import org.junit.Test;
@@ -135,6 +137,37 @@ public class FlowAnalyzerTest {
                                                 true)));
     }
 
+    @Test
+    public void sharedObjectFile() throws FileNotFoundException {
+        assertFlowAnalysisEquals(
+                "g++ -c b.c -o b.o\n"
+                        + "g++ -c a.c -o a.o\n"
+                        + "g++ a.o b.o -o x.so\n"
+                        + "g++ a.o -o y.so",
+                flow().with(
+                                "x.so",
+                                step().with(
+                                                "g++",
+                                                compileFlagC,
+                                                "a.c",
+                                                Lists.newArrayList("a.o"),
+                                                true)
+                                        .with(
+                                                "g++",
+                                                compileFlagC,
+                                                "b.c",
+                                                Lists.newArrayList("b.o"),
+                                                true))
+                        .with(
+                                "y.so",
+                                step().with(
+                                                "g++",
+                                                compileFlagC,
+                                                "a.c",
+                                                Lists.newArrayList("a.o"),
+                                                true)));
+    }
+
     @Test
     public void simple() throws FileNotFoundException {
         assertFlowAnalysisEquals(
@@ -148,4 +181,47 @@ public class FlowAnalyzerTest {
                                                 Lists.newArrayList("a.o"),
                                                 true)));
     }
+
+    @Test
+    public void streamingIsSameAsString() throws IOException {
+        String commands =
+                "\r\ng++ -c b.c -o x/b.o\r\n"
+                        + "g++ -c a.c -o x/a.o\r\n"
+                        + "echo done\n\n"
+                        + "g++ x/a.o x/b.o -o x/a.so\n"
+                        + "g++ -c c.c -o y/c.o\n"
+                        + "g++ y/c.o -o y/c.so";
+        ListMultimap<String, List<BuildStepInfo>> expected =
+                flow().with(
+                                "x/a.so",
+                                step().with(
+                                                "g++",
+                                                compileFlagC,
+                                                "a.c",
+                                                Lists.newArrayList("x/a.o"),
+                                                true)
+                                        .with(
+                                                "g++",
+                                                compileFlagC,
+                                                "b.c",
+                                                Lists.newArrayList("x/b.o"),
+                                                true))
+                        .with(
+                                "y/c.so",
+                                step().with(
+                                                "g++",
+                                                compileFlagC,
+                                                "c.c",
+                                                Lists.newArrayList("y/c.o"),
+                                                true))
+                        .map;
+
+        assertThat(
+                        FlowAnalyzer.analyze(
+                                new StringReader(commands),
+                                AbstractOsFileConventions.createForCurrentHost()))
+                .isEqualTo(expected);
+        assertThat(FlowAnalyzer.analyze(commands, AbstractOsFileConventions.createForCurrentHost()))
+                .isEqualTo(expected);
+    }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.cxx.json;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AndroidBuildGradleBinaryTest {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String JSON =
+            "{\n"
+                    + "  \"stringTable\": {\"0\" : \"-O0 -g\"},\n"
+                    + "  \"buildFiles\": [\"/project/CMakeLists.txt\"],\n"
+                    + "  \"cleanCommands\": [\"cmake --build /out --target clean\"],\n"
+                    + "  \"libraries\": {\n"
+                    + "    \"core-debug-x86\": {\n"
+                    + "      \"toolchain\": \"toolchain-x86\",\n"
+                    + "      \"abi\": \"x86\",\n"
+                    + "      \"artifactName\": \"core\",\n"
+                    + "      \"files\": [\n"
+                    + "        {\"src\": \"/project/a.cpp\", \"flagsOrdinal\": 0},\n"
+                    + "        {\"src\": \"/project/b.cpp\", \"flags\": \"-O0 -g\"},\n"
+                    + "        {\"src\": \"/project/\u00e9.cpp\", \"flags\": \"-O0 -g\"}\n"
+                    + "      ],\n"
+                    + "      \"output\": \"/out/libcore.so\"\n"
+                    + "    },\n"
+                    + "    \"app-debug-x86\": {\n"
+                    + "      \"toolchain\": \"toolchain-x86\",\n"
+                    + "      \"abi\": \"x86\",\n"
+                    + "      \"artifactName\": \"app\",\n"
+                    + "      \"files\": [{\"src\": \"/project/main.cpp\", \"flagsOrdinal\": 0}],\n"
+                    + "      \"runtimeFiles\": [\"/out/libcore.so\"],\n"
+                    + "      \"output\": \"/out/libapp.so\"\n"
+                    + "    }\n"
+                    + "  },\n"
+                    + "  \"toolchains\": {\n"
+                    + "    \"toolchain-x86\": {\"cppCompilerExecutable\": \"/ndk/clang++\"}\n"
+                    + "  },\n"
+                    + "  \"cFileExtensions\": [],\n"
+                    + "  \"cppFileExtensions\": [\"cpp\"]\n"
+                    + "}";
+
+    @Test
+    public void testReplayIsSameAsJson() throws IOException {
+        File binary = writeBinary();
+        RecordingVisitor expected = new RecordingVisitor();
+        try (AndroidBuildGradleJsonStreamingParser parser =
+                new AndroidBuildGradleJsonStreamingParser(
+                        new JsonReader(new StringReader(JSON)), expected)) {
+            parser.parse();
+        }
+
+        RecordingVisitor actual = new RecordingVisitor();
+        assertThat(AndroidBuildGradleBinary.read(binary, actual, true)).isTrue();
+        assertThat(actual.events).containsExactlyElementsIn(expected.events).inOrder();
+    }
+
+    @Test
+    public void testReplaySkipsFiles() throws IOException {
+        File binary = writeBinary();
+        RecordingVisitor actual = new RecordingVisitor();
+        assertThat(AndroidBuildGradleBinary.read(binary, actual, false)).isTrue();
+        assertThat(actual.events)
+                .containsExactly(
+                        "stringTable 0=-O0 -g",
+                        "buildFile /project/CMakeLists.txt",
+                        "beginLibrary core-debug-x86",
+                        "output /out/libcore.so",
+                        "endLibrary",
+                        "beginLibrary app-debug-x86",
+                        "runtimeFile /out/libcore.so",
+                        "output /out/libapp.so",
+                        "endLibrary",
+                        "cppExtension cpp")
+                .inOrder();
+    }
+
+    @Test
+    public void testUnknownFormatIsNotRead() throws IOException {
+        File binary = temporaryFolder.newFile("android_gradle_build.bin");
+        Files.write(binary.toPath(), "not a binary file".getBytes(Charsets.UTF_8));
+        RecordingVisitor actual = new RecordingVisitor();
+        assertThat(AndroidBuildGradleBinary.read(binary, actual, true)).isFalse();
+        assertThat(actual.events).isEmpty();
+    }
+
+    @Test
+    public void testVisitCreatesBinary() throws IOException {
+        File json = temporaryFolder.newFile("android_gradle_build.json");
+        Files.write(json.toPath(), JSON.getBytes(Charsets.UTF_8));
+        File binary = new File(json.getParentFile(), "android_gradle_build.bin");
+
+        RecordingVisitor first = new RecordingVisitor();
+        AndroidBuildGradleJsons.visit(json, first, true);
+        assertThat(binary).exists();
+
+        RecordingVisitor second = new RecordingVisitor();
+        AndroidBuildGradleJsons.visit(json, second, true);
+        assertThat(second.events).containsExactlyElementsIn(first.events).inOrder();
+    }
+
+    @NonNull
+    private File writeBinary() throws IOException {
+        File binary = new File(temporaryFolder.getRoot(), "android_gradle_build.bin");
+        try (AndroidBuildGradleBinary.Writer writer = new AndroidBuildGradleBinary.Writer(binary);
+                AndroidBuildGradleJsonStreamingParser parser =
+                        new AndroidBuildGradleJsonStreamingParser(
+                                new JsonReader(new StringReader(JSON)), writer)) {
+            parser.parse();
+            writer.commit();
+        }
+        return binary;
+    }
+
+    private static class RecordingVisitor extends AndroidBuildGradleJsonStreamingVisitor {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        protected void visitStringTableEntry(int index, @NonNull String value) {
+            events.add("stringTable " + index + "=" + value);
+        }
+
+        @Override
+        protected void visitBuildFile(@NonNull String buildFile) {
+            events.add("buildFile " + buildFile);
+        }
+
+        @Override
+        protected void beginLibrary(@NonNull String libraryName) {
+            events.add("beginLibrary " + libraryName);
+        }
+
+        @Override
+        protected void endLibrary() {
+            events.add("endLibrary");
+        }
+
+        @Override
+        protected void beginLibraryFile() {
+            events.add("beginLibraryFile");
+        }
+
+        @Override
+        protected void endLibraryFile() {
+            events.add("endLibraryFile");
+        }
+
+        @Override
+        protected void visitLibraryFileSrc(@NonNull String src) {
+            events.add("src " + src);
+        }
+
+        @Override
+        protected void visitLibraryFileFlags(@NonNull String flags) {
+            events.add("flags " + flags);
+        }
+
+        @Override
+        protected void visitLibraryFileFlagsOrdinal(@NonNull Integer flagsOrdinal) {
+            events.add("flagsOrdinal " + flagsOrdinal);
+        }
+
+        @Override
+        protected void visitLibraryRuntimeFile(@NonNull String runtimeFile) {
+            events.add("runtimeFile " + runtimeFile);
+        }
+
+        @Override
+        protected void visitLibraryOutput(@NonNull String output) {
+            events.add("output " + output);
+        }
+
+        @Override
+        protected void visitCppFileExtensions(@NonNull String extension) {
+            events.add("cppExtension " + extension);
+        }
+    }
+}
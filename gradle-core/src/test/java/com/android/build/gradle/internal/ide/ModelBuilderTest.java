@@ -17,6 +17,10 @@
 package com.android.build.gradle.internal.ide;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.android.build.FilterData;
@@ -44,13 +48,16 @@ import com.android.build.gradle.internal.variant.BaseVariantData;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.core.VariantType;
 import com.android.builder.core.VariantTypeImpl;
+import com.android.builder.errors.EvalIssueReporter;
 import com.android.builder.model.AndroidProject;
 import com.android.builder.model.ProjectBuildOutput;
+import com.android.builder.model.SyncIssue;
 import com.android.builder.model.TestVariantBuildOutput;
 import com.android.builder.model.VariantBuildOutput;
 import com.android.utils.FileUtils;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.io.Files;
 import java.io.File;
@@ -58,6 +65,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import org.gradle.api.Project;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.internal.impldep.com.google.common.base.Charsets;
@@ -415,6 +423,139 @@ public class ModelBuilderTest {
         assertThat(testVariant.getOutputs()).hasSize(1);
     }
 
+    @Test
+    public void testVariantModelsInVariantOrder() {
+        ModelBuilder<AndroidConfig> builder = createStubbedModelBuilder();
+        List<VariantScope> scopes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            scopes.add(createAppVariantScope("variant" + i));
+        }
+
+        List<VariantImpl> variants = builder.buildVariants(scopes);
+
+        List<String> names = new ArrayList<>();
+        for (VariantImpl variant : variants) {
+            names.add(variant.getName());
+        }
+        assertThat(names).containsExactly("variant0", "variant1", "variant2", "variant3").inOrder();
+        // the first variant is built last, its issues are still reported first.
+        assertThat(getMessages(builder.getSyncIssues()))
+                .containsExactly(
+                        "resolved variant0",
+                        "created variant0",
+                        "resolved variant1",
+                        "created variant1",
+                        "resolved variant2",
+                        "created variant2",
+                        "resolved variant3",
+                        "created variant3")
+                .inOrder();
+    }
+
+    @Test
+    public void testVariantModelReusedWithinBuild() {
+        ModelBuilder<AndroidConfig> builder = createStubbedModelBuilder();
+        List<VariantScope> scopes = ImmutableList.of(createAppVariantScope("variant0"));
+
+        VariantImpl variant = Iterables.getOnlyElement(builder.buildVariants(scopes));
+        VariantImpl again = Iterables.getOnlyElement(builder.buildVariants(scopes));
+
+        assertThat(again).isSameAs(variant);
+        verify(builder, times(1)).resolveVariant(any());
+        verify(builder, times(1)).createVariant(any(), any(), any());
+        assertThat(getMessages(builder.getSyncIssues()))
+                .containsExactly("resolved variant0", "created variant0")
+                .inOrder();
+    }
+
+    @Test
+    public void testVariantModelRebuiltByNextBuild() {
+        VariantScope scope = createAppVariantScope("variant0");
+        VariantImpl variant =
+                Iterables.getOnlyElement(
+                        createStubbedModelBuilder().buildVariants(ImmutableList.of(scope)));
+
+        // each build creates its own model builder, whose models are bound to its variant scopes.
+        ModelBuilder<AndroidConfig> nextBuilder = createStubbedModelBuilder();
+        VariantImpl nextVariant =
+                Iterables.getOnlyElement(nextBuilder.buildVariants(ImmutableList.of(scope)));
+
+        assertThat(nextVariant).isNotSameAs(variant);
+        verify(nextBuilder, times(1)).resolveVariant(any());
+        verify(nextBuilder, times(1)).createVariant(any(), any(), any());
+    }
+
+    /**
+     * Returns a model builder whose variant models are mocks, adding a sync issue when a variant is
+     * resolved and another when its model is created. The model of the first variant is created
+     * after a delay, so that it completes after the next ones.
+     */
+    private ModelBuilder<AndroidConfig> createStubbedModelBuilder() {
+        ModelBuilder<AndroidConfig> builder =
+                Mockito.spy(
+                        new ModelBuilder<>(
+                                globalScope,
+                                variantManager,
+                                taskManager,
+                                androidConfig,
+                                extraModelInfo,
+                                nativeLibraryFactory,
+                                AndroidProject.PROJECT_TYPE_APP,
+                                AndroidProject.GENERATION_ORIGINAL));
+        doAnswer(
+                        invocation -> {
+                            BaseVariantData variantData = invocation.getArgument(0);
+                            ModelBuilder.ResolvedVariant resolved =
+                                    new ModelBuilder.ResolvedVariant();
+                            resolved.issues.add(
+                                    createSyncIssue(
+                                            "resolved "
+                                                    + variantData.getScope().getFullVariantName()));
+                            return resolved;
+                        })
+                .when(builder)
+                .resolveVariant(any());
+        doAnswer(
+                        invocation -> {
+                            BaseVariantData variantData = invocation.getArgument(0);
+                            Set<SyncIssue> issues = invocation.getArgument(2);
+                            String name = variantData.getScope().getFullVariantName();
+                            if (name.equals("variant0")) {
+                                Thread.sleep(100);
+                            }
+                            issues.add(createSyncIssue("created " + name));
+                            VariantImpl variant = Mockito.mock(VariantImpl.class);
+                            when(variant.getName()).thenReturn(name);
+                            return variant;
+                        })
+                .when(builder)
+                .createVariant(any(), any(), any());
+        return builder;
+    }
+
+    private VariantScope createAppVariantScope(String variantName) {
+        GradleVariantConfiguration variantConfiguration =
+                Mockito.mock(GradleVariantConfiguration.class);
+        when(variantConfiguration.getType()).thenReturn(VariantTypeImpl.BASE_APK);
+        VariantScope variantScope =
+                createVariantScope(variantName, variantName, variantConfiguration);
+        createVariantData(variantScope, variantConfiguration);
+        return variantScope;
+    }
+
+    private static SyncIssue createSyncIssue(String message) {
+        return new SyncIssueImpl(
+                EvalIssueReporter.Type.GENERIC, EvalIssueReporter.Severity.WARNING, null, message);
+    }
+
+    private static List<String> getMessages(Collection<SyncIssue> issues) {
+        List<String> messages = new ArrayList<>();
+        for (SyncIssue issue : issues) {
+            messages.add(issue.getMessage());
+        }
+        return messages;
+    }
+
     private static BaseVariantData createVariantData(
             VariantScope variantScope, GradleVariantConfiguration variantConfiguration) {
         BaseVariantData variantData = Mockito.mock(BaseVariantData.class);
@@ -187,11 +187,11 @@ class NativeAndroidProjectBuilderTest {
         )
 
         val builder = NativeAndroidProjectBuilder("name")
-        builder.addJson(
-            reader,
+        val visitor = builder.createVisitor(
             "variant-name",
             GradleBuildVariant.NativeBuildConfigInfo.newBuilder()
         )
+        AndroidBuildGradleJsonStreamingParser(reader, visitor).use { it.parse() }
         val result = builder.buildOrNull()!!
         val flags = result.settings.toTypedArray()[0].compilerFlags
         assertThat(flags).contains("-g")
@@ -244,11 +244,11 @@ class NativeAndroidProjectBuilderTest {
             )
         )
         val builder = NativeAndroidProjectBuilder("name")
-        builder.addJson(
-            reader,
+        val visitor = builder.createVisitor(
             "variant-name",
             GradleBuildVariant.NativeBuildConfigInfo.newBuilder()
         )
+        AndroidBuildGradleJsonStreamingParser(reader, visitor).use { it.parse() }
         val result = builder.buildOrNull()!!
         assertThat(result.settings.size).isEqualTo(1)
         val flags = result.settings.toTypedArray()[0].compilerFlags
@@ -299,4 +299,29 @@ public class AsmUtilsTest {
         assertThat(classNode).isNotNull();
         assertThat(classNode.getClassNode().name).isEqualTo("java/lang/Object");
     }
+
+    @Test
+    public void testGetCommonSuperClass() throws IOException {
+        assertThat(
+                        AsmUtils.getCommonSuperClass(
+                                classReaderProvider,
+                                "java/util/ArrayList",
+                                "java/util/LinkedList",
+                                iLogger))
+                .isEqualTo("java/util/AbstractList");
+        assertThat(
+                        AsmUtils.getCommonSuperClass(
+                                classReaderProvider,
+                                "java/util/List",
+                                "java/util/ArrayList",
+                                iLogger))
+                .isEqualTo("java/util/List");
+        assertThat(
+                        AsmUtils.getCommonSuperClass(
+                                classReaderProvider,
+                                "java/util/List",
+                                "java/lang/String",
+                                iLogger))
+                .isEqualTo("java/lang/Object");
+    }
 }
@@ -433,6 +433,98 @@ public class InstantRunBuildContextTest {
                 .isEqualTo(String.valueOf(second.getBuildId()));
     }
 
+    @Test
+    public void testBinaryBuildInfoMatchesXml() throws Exception {
+        InstantRunBuildContext initial = createContext();
+        initial.setVerifierStatus(InstantRunVerifierStatus.INITIAL_BUILD);
+        initial.addChangedFile(FileType.MAIN, new File("/tmp/main.apk"));
+        initial.addChangedFile(FileType.SPLIT, new File("/tmp/split-0.apk"));
+        initial.setSecretToken(42);
+        initial.close();
+        String buildInfo = initial.toXml();
+
+        InstantRunBuildContext first = createContext();
+        first.loadFromXml(buildInfo);
+        first.addChangedFile(FileType.RELOAD_DEX, new File("reload.dex"));
+        first.setVerifierStatus(InstantRunVerifierStatus.COMPATIBLE);
+        first.close();
+        buildInfo = first.toXml();
+        File binary = File.createTempFile("InstantRunBuildContext", "bin");
+        binary.deleteOnExit();
+        first.writeBinaryBuildInfo(binary);
+
+        InstantRunBuildContext fromXml = createContext();
+        fromXml.loadFromXml(buildInfo);
+        InstantRunBuildContext fromBinary = createContext();
+        assertThat(fromBinary.loadFromBinaryFile(binary)).isTrue();
+
+        assertThat(fromBinary.getSecretToken()).isEqualTo(42);
+        assertThat(describe(fromBinary.getPreviousBuilds()))
+                .containsExactlyElementsIn(describe(fromXml.getPreviousBuilds()))
+                .inOrder();
+    }
+
+    @Test
+    public void testUnknownBinaryBuildInfoIsNotLoaded() throws Exception {
+        File binary = File.createTempFile("InstantRunBuildContext", "bin");
+        binary.deleteOnExit();
+        Files.write("<instant-run/>", binary, Charsets.UTF_8);
+
+        InstantRunBuildContext context = createContext();
+        assertThat(context.loadFromBinaryFile(binary)).isFalse();
+        assertThat(context.getPreviousBuilds()).isEmpty();
+    }
+
+    @Test
+    public void testHistoryIsBounded() throws Exception {
+        InstantRunBuildContext initial = createContext();
+        initial.setVerifierStatus(InstantRunVerifierStatus.INITIAL_BUILD);
+        initial.addChangedFile(FileType.MAIN, new File("/tmp/main.apk"));
+        initial.close();
+        String buildInfo = initial.toXml();
+
+        for (int i = 0; i < 5; i++) {
+            InstantRunBuildContext context = createContext();
+            context.setMaxBuildHistory(2);
+            context.loadFromXml(buildInfo);
+            context.addChangedFile(FileType.RELOAD_DEX, new File("reload" + i + ".dex"));
+            context.setVerifierStatus(InstantRunVerifierStatus.COMPATIBLE);
+            context.close();
+            buildInfo = context.toXml();
+        }
+
+        InstantRunBuildContext last = createContext();
+        last.loadFromXml(buildInfo);
+        // the initial build and the two most recent hot swaps.
+        assertThat(describe(last.getPreviousBuilds()))
+                .containsExactly(
+                        "MAIN:main.apk", "RELOAD_DEX:reload3.dex", "RELOAD_DEX:reload4.dex")
+                .inOrder();
+    }
+
+    @NonNull
+    private static InstantRunBuildContext createContext() {
+        return new InstantRunBuildContext(
+                idAllocator,
+                true,
+                AaptGeneration.AAPT_V2_DAEMON_MODE,
+                new AndroidVersion(24, null),
+                null,
+                null,
+                true);
+    }
+
+    @NonNull
+    private static List<String> describe(@NonNull Iterable<Build> builds) {
+        ImmutableList.Builder<String> description = ImmutableList.builder();
+        for (Build build : builds) {
+            for (InstantRunBuildContext.Artifact artifact : build.getArtifacts()) {
+                description.add(artifact.getType() + ":" + artifact.getLocation().getName());
+            }
+        }
+        return description.build();
+    }
+
     @Test
     public void testMultipleReloadCollapse()
             throws ParserConfigurationException, IOException, SAXException {
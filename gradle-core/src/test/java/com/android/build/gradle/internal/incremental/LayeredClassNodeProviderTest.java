@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.annotations.NonNull;
+import com.android.utils.ILogger;
+import com.android.utils.NullLogger;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+
+public class LayeredClassNodeProviderTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ILogger logger = new NullLogger();
+
+    @After
+    public void tearDown() {
+        LayeredClassNodeProvider.clearCache();
+    }
+
+    @Test
+    public void testFirstLayerWins() throws IOException {
+        File jar = tmp.newFile("platform.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new ZipEntry("test/A.class"));
+            out.write(toBytes("test/A", "test/FromJar"));
+            out.closeEntry();
+        }
+        File dir = tmp.newFolder("classes");
+        writeClass(dir.toPath(), "test/A", "test/FromDir");
+        writeClass(dir.toPath(), "test/B", "test/FromDir");
+
+        try (LayeredClassNodeProvider provider =
+                LayeredClassNodeProvider.create(ImmutableList.of(jar, dir))) {
+            assertThat(provider.loadClassNode("test/A", logger).superName)
+                    .isEqualTo("test/FromJar");
+            assertThat(provider.loadClassNode("test/B", logger).superName)
+                    .isEqualTo("test/FromDir");
+            try {
+                provider.loadClassNode("test/C", logger);
+                fail("Expected ByteCodeNotFoundException");
+            } catch (AsmUtils.ByteCodeNotFoundException e) {
+                assertThat(e.getMessage()).contains("test/C");
+            }
+        }
+    }
+
+    @Test
+    public void testJarIsReadUntilLastProviderIsClosed() throws IOException {
+        File jar = tmp.newFile("platform.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            out.putNextEntry(new ZipEntry("test/A.class"));
+            out.write(toBytes("test/A", "java/lang/Object"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("test/B.class"));
+            out.write(toBytes("test/B", "test/A"));
+            out.closeEntry();
+        }
+
+        LayeredClassNodeProvider first = LayeredClassNodeProvider.create(ImmutableList.of(jar));
+        LayeredClassNodeProvider second = LayeredClassNodeProvider.create(ImmutableList.of(jar));
+        assertThat(first.loadClassNode("test/A", logger).superName)
+                .isEqualTo("java/lang/Object");
+        first.close();
+
+        assertThat(second.loadClassNode("test/B", logger).superName).isEqualTo("test/A");
+        second.close();
+
+        try (LayeredClassNodeProvider third =
+                LayeredClassNodeProvider.create(ImmutableList.of(jar))) {
+            assertThat(third.loadClassNode("test/B", logger).superName).isEqualTo("test/A");
+        }
+    }
+
+    @Test
+    public void testNodesAreReused() throws IOException {
+        File dir = tmp.newFolder("classes");
+        writeClass(dir.toPath(), "test/A", "java/lang/Object");
+
+        ClassNode node =
+                LayeredClassNodeProvider.create(ImmutableList.of(dir))
+                        .loadClassNode("test/A", logger);
+
+        assertThat(
+                        LayeredClassNodeProvider.create(ImmutableList.of(dir))
+                                .loadClassNode("test/A", logger))
+                .isSameAs(node);
+    }
+
+    @Test
+    public void testChangedClassIsReparsed() throws IOException {
+        File dir = tmp.newFolder("classes");
+        writeClass(dir.toPath(), "test/A", "java/lang/Object");
+        LayeredClassNodeProvider provider = LayeredClassNodeProvider.create(ImmutableList.of(dir));
+        assertThat(provider.loadClassNode("test/A", logger).superName)
+                .isEqualTo("java/lang/Object");
+
+        Path classFile = writeClass(dir.toPath(), "test/A", "test/Base");
+        Files.setLastModifiedTime(
+                classFile,
+                FileTime.fromMillis(
+                        classFile.toFile().lastModified() + 10_000));
+
+        assertThat(provider.loadClassNode("test/A", logger).superName).isEqualTo("test/Base");
+    }
+
+    @NonNull
+    private static Path writeClass(
+            @NonNull Path dir, @NonNull String name, @NonNull String superName)
+            throws IOException {
+        Path file = dir.resolve(name + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, toBytes(name, superName));
+        return file;
+    }
+
+    @NonNull
+    private static byte[] toBytes(@NonNull String name, @NonNull String superName) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
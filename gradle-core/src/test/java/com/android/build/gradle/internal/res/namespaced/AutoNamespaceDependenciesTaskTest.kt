@@ -25,6 +25,7 @@ import com.android.utils.FileUtils
 import com.google.common.collect.ImmutableList
 import com.google.common.collect.ImmutableSet
 import com.google.common.truth.Truth
+import com.google.common.truth.Truth.assertThat
 import org.gradle.api.Project
 import org.gradle.api.artifacts.ArtifactCollection
 import org.gradle.api.artifacts.ResolvableDependencies
@@ -239,6 +240,81 @@ class AutoNamespaceDependenciesTaskTest {
         assertThat(File(outputRClasses, "namespaced-lib___-R.jar")).exists()
     }
 
+    @Test
+    fun incrementalRunsOnlyRewriteChangedDependencies() {
+        val sources = ImmutableList.builder<File>()
+        sources.addAll(createSources("com.example.libA", 1))
+        sources.addAll(createSources("com.example.libB", 2))
+        compileSources(sources.build(), javacOutput)
+
+        val classes = HashMap<String, File>()
+        val rClasses = HashMap<String, File>()
+        val rStringClasses = HashMap<String, File>()
+        val classesJars = HashMap<String, File>()
+        val rFiles = HashMap<String, File>()
+        val manifests = HashMap<String, File>()
+        val s1 = SymbolTable.builder().add(symbol("string", "s1")).build()
+        setUpDependency(classes, rClasses, rStringClasses, classesJars, rFiles, manifests, "libA", s1)
+        setUpDependency(classes, rClasses, rStringClasses, classesJars, rFiles, manifests, "libB", s1)
+
+        // libB depends on libA.
+        val nodeA = createDependency("libA")
+        val nodeB = createDependency("libB", set(nodeA))
+
+        val outputRewrittenClasses = tempFolder.newFolder("output")
+        val outputRClasses = tempFolder.newFolder("rClasses")
+        val outputRewrittenManifests = tempFolder.newFolder("manifests")
+        val incrementalDir = tempFolder.newFolder("incremental")
+        task.log = MockLogger()
+
+        fun run(): Set<String> {
+            task.namespaceDependencies(
+                    wrapDependencies(set(nodeB)),
+                    getArtifactCollection(rFiles),
+                    getArtifactCollection(classesJars),
+                    getArtifactCollection(manifests),
+                    outputRewrittenClasses,
+                    outputRClasses,
+                    File(tempFolder.root, "namespaced-classes.jar"),
+                    File(tempFolder.root, "r.jar"),
+                    outputRewrittenManifests,
+                    incrementalDir)
+            for (lib in listOf("libA", "libB")) {
+                assertThat(File(outputRewrittenClasses, "namespaced-$lib-classes.jar")).exists()
+                assertThat(File(outputRClasses, "namespaced-$lib-R.jar")).exists()
+                assertThat(File(outputRewrittenManifests, "${lib}_AndroidManifest.xml")).exists()
+            }
+            return incrementalDir.list().toSet()
+        }
+
+        val firstRun = run()
+        assertThat(firstRun).hasSize(2)
+
+        // Nothing changed, everything is reused.
+        assertThat(run()).isEqualTo(firstRun)
+
+        // Only libB changed, libA is reused.
+        FileUtils.writeToFile(
+                manifests["libB"]!!,
+                manifests["libB"]!!.readText().replace("versionCode=\"1\"", "versionCode=\"2\""))
+        val thirdRun = run()
+        assertThat(thirdRun).hasSize(2)
+        assertThat(thirdRun.intersect(firstRun)).hasSize(1)
+        checkManifest(outputRewrittenManifests, "libB", "libB")
+
+        // libA's resources changed, so both libraries are rewritten.
+        SymbolIo.writeRDef(
+                SymbolTable.builder()
+                        .tablePackage("com.example.libA")
+                        .add(symbol("string", "s1"))
+                        .add(symbol("string", "s2"))
+                        .build(),
+                rFiles["libA"]!!.toPath())
+        val fourthRun = run()
+        assertThat(fourthRun).hasSize(2)
+        assertThat(fourthRun.intersect(thirdRun)).isEmpty()
+    }
+
     /**
      * In the non-namespaced world, R.java for each package contains resources from that package as
      * well as resources from its dependencies. In the namespaced world however, R.java files
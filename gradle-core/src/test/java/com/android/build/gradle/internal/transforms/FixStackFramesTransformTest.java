@@ -31,6 +31,7 @@ import static org.objectweb.asm.Opcodes.INTEGER;
 import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
 import static org.objectweb.asm.Opcodes.NEW;
 import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_6;
 import static org.objectweb.asm.Opcodes.V1_8;
 
 import com.android.SdkConstants;
@@ -251,6 +252,114 @@ public class FixStackFramesTransformTest {
                 .isEqualTo(readZipEntry(output.resolve("input.jar"), "test/A.class"));
     }
 
+    @Test
+    public void testChangedJarReusesUnchangedClasses() throws Exception {
+        Path jar = getJarWithBrokenClasses("input", ImmutableMap.of("test/A", "test/Base"));
+        Path referencedJar = tmp.getRoot().toPath().resolve("ref_input");
+        TestInputsGenerator.jarWithEmptyClasses(referencedJar, ImmutableList.of("test/Base"));
+        JarInput refJarInput =
+                TransformTestHelper.jarBuilder(referencedJar.toFile())
+                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                        .build();
+        TransformInput refInput = TransformTestHelper.inputBuilder().addInput(refJarInput).build();
+
+        JarInput jarInput =
+                TransformTestHelper.jarBuilder(jar.toFile())
+                        .setStatus(Status.ADDED)
+                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                        .build();
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setInputs(
+                                ImmutableSet.of(
+                                        TransformTestHelper.inputBuilder()
+                                                .addInput(jarInput)
+                                                .build()))
+                        .addReferenceInput(refInput)
+                        .setTransformOutputProvider(outputProvider)
+                        .setIncremental(true)
+                        .build();
+        FixStackFramesTransform transform = new FixStackFramesTransform(ANDROID_JAR, null);
+        transform.transform(invocation);
+        byte[] fixedClass = readZipEntry(output.resolve("input.jar"), "test/A.class");
+
+        // test/Base can no longer be resolved, so test/A can only come from the previous output
+        jar =
+                getJarWithBrokenClasses(
+                        "input", ImmutableMap.of("test/A", "test/Base", "test/B", "test/Base"));
+        jarInput =
+                TransformTestHelper.jarBuilder(jar.toFile())
+                        .setStatus(Status.CHANGED)
+                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                        .build();
+        invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setInputs(
+                                ImmutableSet.of(
+                                        TransformTestHelper.inputBuilder()
+                                                .addInput(jarInput)
+                                                .build()))
+                        .setTransformOutputProvider(outputProvider)
+                        .setIncremental(true)
+                        .build();
+        transform.transform(invocation);
+
+        assertThat(readZipEntry(output.resolve("input.jar"), "test/A.class"))
+                .isEqualTo(fixedClass);
+        assertThat(readZipEntry(output.resolve("input.jar"), "test/B.class"))
+                .isEqualTo(readZipEntry(jar, "test/B.class"));
+        // the previous output was moved next to the new one, and deleted once it was processed
+        assertThat(Files.exists(output.resolve("input.jar.previous"))).isFalse();
+    }
+
+    @Test
+    public void testClassesWithoutBranchesAreCopied() throws Exception {
+        Path jar = tmp.getRoot().toPath().resolve("input");
+        TestInputsGenerator.jarWithEmptyClasses(jar, ImmutableList.of("test/A"));
+        JarInput jarInput =
+                TransformTestHelper.jarBuilder(jar.toFile())
+                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                        .build();
+        TransformInput input = TransformTestHelper.inputBuilder().addInput(jarInput).build();
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setInputs(ImmutableSet.of(input))
+                        .setTransformOutputProvider(outputProvider)
+                        .build();
+
+        FixStackFramesTransform transform = new FixStackFramesTransform(ANDROID_JAR, null);
+        transform.transform(invocation);
+
+        assertThat(readZipEntry(output.resolve("input.jar"), "test/A.class"))
+                .isEqualTo(readZipEntry(jar, "test/A.class"));
+    }
+
+    @Test
+    public void testOldClassVersionsAreFixed() throws Exception {
+        Path jar = tmp.getRoot().toPath().resolve("input");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("test/A.class"));
+            out.write(getBrokenFramesClass(V1_6, "test/A", "java/lang/Object"));
+            out.closeEntry();
+        }
+        JarInput jarInput =
+                TransformTestHelper.jarBuilder(jar.toFile())
+                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                        .build();
+        TransformInput input = TransformTestHelper.inputBuilder().addInput(jarInput).build();
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setInputs(ImmutableSet.of(input))
+                        .setTransformOutputProvider(outputProvider)
+                        .build();
+
+        FixStackFramesTransform transform = new FixStackFramesTransform(ANDROID_JAR, null);
+        transform.transform(invocation);
+
+        assertThat(readZipEntry(output.resolve("input.jar"), "test/A.class"))
+                .isNotEqualTo(readZipEntry(jar, "test/A.class"));
+    }
+
     @Test
     public void testOnlyClassesProcessed() throws Exception {
         Path jar = tmp.getRoot().toPath().resolve("input");
@@ -367,8 +476,14 @@ public class FixStackFramesTransformTest {
 
     @NonNull
     private static byte[] getBrokenFramesClass(@NonNull String name, @NonNull String superName) {
+        return getBrokenFramesClass(V1_8, name, superName);
+    }
+
+    @NonNull
+    private static byte[] getBrokenFramesClass(
+            int version, @NonNull String name, @NonNull String superName) {
         ClassWriter cw = new ClassWriter(0);
-        cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER, name, null, superName, null);
+        cw.visit(version, ACC_PUBLIC + ACC_SUPER, name, null, superName, null);
 
         // Code below is (with manually broken stack map):
         // public class name extends superName {
@@ -34,6 +34,7 @@ import com.android.build.gradle.internal.aapt.AaptGeneration;
 import com.android.build.gradle.internal.dsl.CoreSigningConfig;
 import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
 import com.android.build.gradle.internal.pipeline.ExtendedContentType;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes;
 import com.android.build.gradle.internal.scope.ExistingBuildElements;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.internal.aapt.AaptOptions;
@@ -108,6 +109,7 @@ public class InstantRunDependenciesApkBuilderTest {
                         buildContext,
                         androidBuilder,
                         null,
+                        new Aapt2DaemonPoolSizes(),
                         () -> "com.foo.test",
                         coreSigningConfig,
                         AaptGeneration.AAPT_V2_DAEMON_MODE,
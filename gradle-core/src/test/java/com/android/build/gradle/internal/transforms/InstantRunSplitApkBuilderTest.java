@@ -28,6 +28,7 @@ import com.android.build.gradle.internal.aapt.AaptGeneration;
 import com.android.build.gradle.internal.dsl.CoreSigningConfig;
 import com.android.build.gradle.internal.incremental.FileType;
 import com.android.build.gradle.internal.incremental.InstantRunBuildContext;
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes;
 import com.android.build.gradle.internal.scope.ExistingBuildElements;
 import com.android.builder.core.AndroidBuilder;
 import com.android.builder.core.VariantTypeImpl;
@@ -116,6 +117,7 @@ public class InstantRunSplitApkBuilderTest {
                         buildContext,
                         androidBuilder,
                         null,
+                        new Aapt2DaemonPoolSizes(),
                         () -> "com.foo.test",
                         coreSigningConfig,
                         AaptGeneration.AAPT_V2_DAEMON_MODE,
@@ -245,6 +247,7 @@ public class InstantRunSplitApkBuilderTest {
                         buildContext,
                         androidBuilder,
                         null,
+                        new Aapt2DaemonPoolSizes(),
                         () -> "com.foo.test",
                         coreSigningConfig,
                         AaptGeneration.AAPT_V2_DAEMON_MODE,
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.transforms;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+public class TypeHierarchyTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        TypeHierarchy.clearCache();
+    }
+
+    @Test
+    public void testHierarchyFromJarAndDirectory() throws Exception {
+        File dir = tmp.newFolder("classes");
+        writeClass(dir.toPath(), "java/lang/Object", null, Opcodes.ACC_PUBLIC);
+        writeClass(dir.toPath(), "test/I", "java/lang/Object", Opcodes.ACC_INTERFACE);
+        File jar = tmp.newFile("lib.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            writeEntry(out, "test/Base", "java/lang/Object", Opcodes.ACC_PUBLIC, "test/I");
+            writeEntry(out, "test/A", "test/Base", Opcodes.ACC_PUBLIC);
+            writeEntry(out, "test/B", "test/Base", Opcodes.ACC_PUBLIC);
+        }
+
+        TypeHierarchy hierarchy = TypeHierarchy.create(ImmutableList.of(dir, jar), null);
+
+        assertThat(hierarchy.getHeader("test/A").getSuperName()).isEqualTo("test/Base");
+        assertThat(hierarchy.getHeader("test/I").isInterface()).isTrue();
+        assertThat(hierarchy.isAssignableFrom("test/I", "test/A")).isTrue();
+        assertThat(hierarchy.isAssignableFrom("test/A", "test/B")).isFalse();
+        assertThat(hierarchy.getCommonSuperClass("test/A", "test/B")).isEqualTo("test/Base");
+        assertThat(hierarchy.getCommonSuperClass("test/I", "test/A")).isEqualTo("test/I");
+        assertThat(hierarchy.getCommonSuperClass("test/I", "test/Base")).isEqualTo("test/I");
+    }
+
+    @Test
+    public void testFirstDefinitionWins() throws Exception {
+        File first = tmp.newFolder("first");
+        writeClass(first.toPath(), "test/A", "test/First", Opcodes.ACC_PUBLIC);
+        File second = tmp.newFolder("second");
+        writeClass(second.toPath(), "test/A", "test/Second", Opcodes.ACC_PUBLIC);
+
+        TypeHierarchy hierarchy = TypeHierarchy.create(ImmutableList.of(first, second), null);
+
+        assertThat(hierarchy.getHeader("test/A").getSuperName()).isEqualTo("test/First");
+    }
+
+    @Test
+    public void testMissingType() throws Exception {
+        File dir = tmp.newFolder("classes");
+        writeClass(dir.toPath(), "test/A", "test/Missing", Opcodes.ACC_PUBLIC);
+
+        TypeHierarchy hierarchy = TypeHierarchy.create(ImmutableList.of(dir), null);
+
+        assertThat(hierarchy.getHeader("test/Missing")).isNull();
+        try {
+            hierarchy.isAssignableFrom("test/B", "test/A");
+            fail("Expected TypeNotFoundException");
+        } catch (TypeHierarchy.TypeNotFoundException e) {
+            assertThat(e.getMessage()).contains("test/Missing");
+        }
+    }
+
+    private static void writeClass(
+            @NonNull Path dir, @NonNull String name, @Nullable String superName, int access)
+            throws IOException {
+        Path file = dir.resolve(name + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, toBytes(name, superName, access));
+    }
+
+    private static void writeEntry(
+            @NonNull JarOutputStream out,
+            @NonNull String name,
+            @Nullable String superName,
+            int access,
+            @NonNull String... interfaces)
+            throws IOException {
+        out.putNextEntry(new ZipEntry(name + ".class"));
+        out.write(toBytes(name, superName, access, interfaces));
+        out.closeEntry();
+    }
+
+    @NonNull
+    private static byte[] toBytes(
+            @NonNull String name,
+            @Nullable String superName,
+            int access,
+            @NonNull String... interfaces) {
+        ClassWriter cw = new ClassWriter(0);
+        if ((access & Opcodes.ACC_INTERFACE) != 0) {
+            access |= Opcodes.ACC_ABSTRACT;
+        }
+        cw.visit(Opcodes.V1_8, access, name, null, superName, interfaces);
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.build.gradle.internal.cxx.json.NativeLibraryValueMini;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class ExternalNativeBuildSchedulerTest {
+
+    @Test
+    public void testSortByDependencies() {
+        NativeLibraryValueMini app = library("app", "core", "utils");
+        NativeLibraryValueMini utils = library("utils", "core");
+        NativeLibraryValueMini core = library("core");
+
+        assertThat(
+                        names(
+                                ExternalNativeBuildScheduler.sortByDependencies(
+                                        ImmutableList.of(core, app, utils))))
+                .containsExactly("core", "utils", "app")
+                .inOrder();
+    }
+
+    @Test
+    public void testSortWithoutDependenciesIsReverseOrder() {
+        List<NativeLibraryValueMini> libraries =
+                ImmutableList.of(library("a"), library("b"), library("c"));
+        assertThat(names(ExternalNativeBuildScheduler.sortByDependencies(libraries)))
+                .containsExactly("c", "b", "a")
+                .inOrder();
+    }
+
+    @Test
+    public void testSortWithCycle() {
+        assertThat(
+                        names(
+                                ExternalNativeBuildScheduler.sortByDependencies(
+                                        ImmutableList.of(library("a", "b"), library("b", "a")))))
+                .containsExactly("b", "a");
+    }
+
+    @Test
+    public void testGetJobs() {
+        assertThat(ExternalNativeBuildScheduler.getJobs(tokens("ndk-build APP_ABI=x86")))
+                .isEqualTo(ExternalNativeBuildScheduler.UNSPECIFIED_JOBS);
+        assertThat(ExternalNativeBuildScheduler.getJobs(tokens("ndk-build -j4"))).isEqualTo(4);
+        assertThat(ExternalNativeBuildScheduler.getJobs(tokens("ndk-build -j 6 all")))
+                .isEqualTo(6);
+        assertThat(ExternalNativeBuildScheduler.getJobs(tokens("ndk-build --jobs=3")))
+                .isEqualTo(3);
+        assertThat(ExternalNativeBuildScheduler.getJobs(tokens("ndk-build -j all")))
+                .isEqualTo(Integer.MAX_VALUE);
+        assertThat(ExternalNativeBuildScheduler.getJobs(tokens("java -jar tool.jar")))
+                .isEqualTo(ExternalNativeBuildScheduler.UNSPECIFIED_JOBS);
+    }
+
+    @Test
+    public void testWithCmakeBuildJobs() {
+        assertThat(
+                        ExternalNativeBuildScheduler.withCmakeBuildJobs(
+                                tokens("/sdk/cmake/bin/cmake --build /out --target core"), 2))
+                .containsExactly(
+                        "/sdk/cmake/bin/cmake", "--build", "/out", "--target", "core", "--", "-j2")
+                .inOrder();
+        assertThat(
+                        ExternalNativeBuildScheduler.withCmakeBuildJobs(
+                                tokens("/sdk/cmake/bin/cmake --build /out -- -v"), 2))
+                .isNull();
+        assertThat(ExternalNativeBuildScheduler.withCmakeBuildJobs(tokens("ndk-build all"), 2))
+                .isNull();
+    }
+
+    @NonNull
+    private static NativeLibraryValueMini library(
+            @NonNull String name, @NonNull String... dependencies) {
+        NativeLibraryValueMini library = new NativeLibraryValueMini();
+        library.artifactName = name;
+        library.output = output(name);
+        if (dependencies.length > 0) {
+            library.runtimeFiles =
+                    Arrays.stream(dependencies)
+                            .map(ExternalNativeBuildSchedulerTest::output)
+                            .collect(Collectors.toList());
+        }
+        return library;
+    }
+
+    @NonNull
+    private static File output(@NonNull String name) {
+        return new File("obj/lib" + name + ".so");
+    }
+
+    @NonNull
+    private static List<String> names(@NonNull List<NativeLibraryValueMini> libraries) {
+        return libraries.stream().map(library -> library.artifactName).collect(Collectors.toList());
+    }
+
+    @NonNull
+    private static List<String> tokens(@NonNull String command) {
+        return Arrays.asList(command.split(" "));
+    }
+}
@@ -26,7 +26,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 import org.objectweb.asm.ClassReader;
@@ -81,6 +85,18 @@ public class AsmUtils {
         }
     }
 
+    /** Abstraction for a provider of the {@link ClassHeader} of a class name. */
+    public interface ClassHeaderProvider {
+
+        /**
+         * Returns the header of the given class, or null if the class file cannot be located.
+         *
+         * @throws IOException when locating/reading the class file.
+         */
+        @Nullable
+        ClassHeader getHeader(@NonNull String className) throws IOException;
+    }
+
     public static final class ByteCodeNotFoundException extends IOException {
         private final String className;
 
@@ -88,6 +104,10 @@ public class AsmUtils {
             this.className = className;
         }
 
+        public String getClassName() {
+            return className;
+        }
+
         @Override
         public String getMessage() {
             return "Failed to find byte code for " + className;
@@ -335,6 +355,125 @@ public class AsmUtils {
         }
     }
 
+    /**
+     * Returns the common superclass of the given types, as {@link
+     * org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)} does, but reading the
+     * classes with the given provider instead of loading them.
+     *
+     * @throws ByteCodeNotFoundException if a type or one of its supertypes cannot be found.
+     */
+    @NonNull
+    public static String getCommonSuperClass(
+            @NonNull ClassNodeProvider classNodeProvider,
+            @NonNull String type1,
+            @NonNull String type2,
+            @NonNull ILogger logger)
+            throws IOException {
+        return getCommonSuperClass(
+                toClassHeaderProvider(classNodeProvider, logger), type1, type2);
+    }
+
+    /**
+     * Returns the common superclass of the given types, as {@link
+     * org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)} does, but reading the
+     * class headers with the given provider instead of loading the classes.
+     *
+     * @throws ByteCodeNotFoundException if a type or one of its supertypes cannot be found.
+     */
+    @NonNull
+    public static String getCommonSuperClass(
+            @NonNull ClassHeaderProvider classHeaderProvider,
+            @NonNull String type1,
+            @NonNull String type2)
+            throws IOException {
+        if (isAssignableFrom(classHeaderProvider, type1, type2)) {
+            return type1;
+        }
+        if (isAssignableFrom(classHeaderProvider, type2, type1)) {
+            return type2;
+        }
+        if (getRequiredHeader(classHeaderProvider, type1).isInterface()
+                || getRequiredHeader(classHeaderProvider, type2).isInterface()) {
+            return "java/lang/Object";
+        }
+        String current = type1;
+        do {
+            current = getRequiredHeader(classHeaderProvider, current).getSuperName();
+            if (current == null) {
+                return "java/lang/Object";
+            }
+        } while (!isAssignableFrom(classHeaderProvider, current, type2));
+        return current;
+    }
+
+    /**
+     * Returns true if a value of type {@code subtype} can be assigned to type {@code type}, as
+     * {@link Class#isAssignableFrom(Class)} does.
+     *
+     * @throws ByteCodeNotFoundException if {@code subtype} or one of its supertypes cannot be
+     *     found.
+     */
+    public static boolean isAssignableFrom(
+            @NonNull ClassHeaderProvider classHeaderProvider,
+            @NonNull String type,
+            @NonNull String subtype)
+            throws IOException {
+        if (type.equals(subtype) || type.equals("java/lang/Object")) {
+            getRequiredHeader(classHeaderProvider, subtype);
+            return true;
+        }
+        Set<String> visited = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.add(subtype);
+        while (!toVisit.isEmpty()) {
+            String current = toVisit.remove();
+            if (!visited.add(current)) {
+                continue;
+            }
+            if (current.equals(type)) {
+                return true;
+            }
+            ClassHeader header = getRequiredHeader(classHeaderProvider, current);
+            if (header.getSuperName() != null) {
+                toVisit.add(header.getSuperName());
+            }
+            toVisit.addAll(header.getInterfaces());
+        }
+        return false;
+    }
+
+    /**
+     * Returns a {@link ClassHeaderProvider} reading the headers of the class nodes of the given
+     * provider.
+     */
+    @NonNull
+    public static ClassHeaderProvider toClassHeaderProvider(
+            @NonNull ClassNodeProvider classNodeProvider, @NonNull ILogger logger) {
+        return className -> {
+            ClassNode classNode = classNodeProvider.loadClassNode(className, logger);
+            if (classNode == null) {
+                return null;
+            }
+            //noinspection unchecked
+            return new ClassHeader(
+                    classNode.name,
+                    classNode.superName,
+                    (List<String>) classNode.interfaces,
+                    classNode.access);
+        };
+    }
+
+    @NonNull
+    private static ClassHeader getRequiredHeader(
+            @NonNull ClassHeaderProvider classHeaderProvider, @NonNull String className)
+            throws IOException {
+        ClassHeader header = classHeaderProvider.getHeader(className);
+        if (header == null) {
+            throw new ByteCodeNotFoundException(className);
+        }
+        return header;
+    }
+
     @Nullable
     public static ClassNode parsePackageInfo(
             @NonNull File inputFile) throws IOException {
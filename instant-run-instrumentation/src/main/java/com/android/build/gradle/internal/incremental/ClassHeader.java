@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Header of a class file: what is needed to resolve the supertypes of a class, see {@link
+ * AsmUtils#getCommonSuperClass(AsmUtils.ClassHeaderProvider, String, String)}.
+ */
+public final class ClassHeader {
+    @NonNull private final String name;
+    @Nullable private final String superName;
+    @NonNull private final ImmutableList<String> interfaces;
+    private final int access;
+
+    public ClassHeader(
+            @NonNull String name,
+            @Nullable String superName,
+            @NonNull List<String> interfaces,
+            int access) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = ImmutableList.copyOf(interfaces);
+        this.access = access;
+    }
+
+    /** Returns the internal name of the class, e.g. {@code java/lang/String}. */
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the internal name of the superclass, or null for {@code java/lang/Object}. */
+    @Nullable
+    public String getSuperName() {
+        return superName;
+    }
+
+    @NonNull
+    public ImmutableList<String> getInterfaces() {
+        return interfaces;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public boolean isInterface() {
+        return (access & Opcodes.ACC_INTERFACE) != 0;
+    }
+}
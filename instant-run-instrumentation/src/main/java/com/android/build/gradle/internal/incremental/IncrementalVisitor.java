@@ -236,6 +236,10 @@ public class IncrementalVisitor extends ClassVisitor {
         return (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_BRIDGE | Opcodes.ACC_NATIVE)) == 0;
     }
 
+    /**
+     * Instruments a class, resolving the classes it depends on with the thread context class
+     * loader.
+     */
     @Nullable
     public static File instrumentClass(
             int targetApiLevel,
@@ -244,6 +248,56 @@ public class IncrementalVisitor extends ClassVisitor {
             @NonNull File outputDirectory,
             @NonNull VisitorBuilder visitorBuilder,
             @NonNull ILogger logger) throws IOException {
+        return instrumentClass(
+                targetApiLevel,
+                inputRootDirectory,
+                inputFile,
+                outputDirectory,
+                visitorBuilder,
+                AsmUtils.classLoaderBasedProvider,
+                logger);
+    }
+
+    /**
+     * Instruments a class, resolving the classes it depends on in the folder of the class first,
+     * then with the given classpath provider.
+     */
+    @Nullable
+    public static File instrumentClass(
+            int targetApiLevel,
+            @NonNull File inputRootDirectory,
+            @NonNull File inputFile,
+            @NonNull File outputDirectory,
+            @NonNull VisitorBuilder visitorBuilder,
+            @NonNull AsmUtils.ClassNodeProvider classpathProvider,
+            @NonNull ILogger logger) throws IOException {
+        return instrumentClass(
+                targetApiLevel,
+                inputRootDirectory,
+                inputFile,
+                outputDirectory,
+                visitorBuilder,
+                classpathProvider,
+                AsmUtils.toClassHeaderProvider(classpathProvider, logger),
+                logger);
+    }
+
+    /**
+     * Instruments a class, resolving the classes it depends on in the folder of the class first,
+     * then with the given classpath provider. The stack frames are computed with the given class
+     * headers, usually read once for the whole classpath.
+     */
+    @Nullable
+    public static File instrumentClass(
+            int targetApiLevel,
+            @NonNull File inputRootDirectory,
+            @NonNull File inputFile,
+            @NonNull File outputDirectory,
+            @NonNull VisitorBuilder visitorBuilder,
+            @NonNull AsmUtils.ClassNodeProvider classpathProvider,
+            @NonNull AsmUtils.ClassHeaderProvider classHeaderProvider,
+            @NonNull ILogger logger)
+            throws IOException {
 
         byte[] classBytes;
         String path = FileUtils.relativePath(inputFile, inputRootDirectory);
@@ -262,19 +316,15 @@ public class IncrementalVisitor extends ClassVisitor {
         }
         classBytes = Files.toByteArray(inputFile);
         ClassReader classReader = new ClassReader(classBytes);
-        // override the getCommonSuperClass to use the thread context class loader instead of
-        // the system classloader. This is useful as ASM needs to load classes from the project
-        // which the system classloader does not have visibility upon.
-        // TODO: investigate if there is not a simpler way than overriding.
+        // override the getCommonSuperClass to read the class headers from the provider instead
+        // of loading them with the system classloader, which does not have visibility upon the
+        // project classes.
         ClassWriter classWriter = new ClassWriter(classReader, ClassWriter.COMPUTE_FRAMES) {
             @Override
             protected String getCommonSuperClass(final String type1, final String type2) {
-                Class<?> c, d;
-                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
                 try {
-                    c = Class.forName(type1.replace('/', '.'), false, classLoader);
-                    d = Class.forName(type2.replace('/', '.'), false, classLoader);
-                } catch (ClassNotFoundException e) {
+                    return AsmUtils.getCommonSuperClass(classHeaderProvider, type1, type2);
+                } catch (AsmUtils.ByteCodeNotFoundException e) {
                     // This may happen if we're processing class files which reference APIs not
                     // available on the target device. In this case return a dummy value, since this
                     // is ignored during dx compilation.
@@ -282,20 +332,6 @@ public class IncrementalVisitor extends ClassVisitor {
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 }
-                if (c.isAssignableFrom(d)) {
-                    return type1;
-                }
-                if (d.isAssignableFrom(c)) {
-                    return type2;
-                }
-                if (c.isInterface() || d.isInterface()) {
-                    return "java/lang/Object";
-                } else {
-                    do {
-                        c = c.getSuperclass();
-                    } while (!c.isAssignableFrom(d));
-                    return c.getName().replace('.', '/');
-                }
             }
         };
 
@@ -326,11 +362,18 @@ public class IncrementalVisitor extends ClassVisitor {
 
         AsmUtils.DirectoryBasedClassReader directoryClassReader =
                 new AsmUtils.DirectoryBasedClassReader(getBinaryFolder(inputFile, classNode));
+        AsmUtils.ClassNodeProvider classNodeProvider =
+                (className, classLogger) -> {
+                    ClassNode node = directoryClassReader.loadClassNode(className, classLogger);
+                    return node != null
+                            ? node
+                            : classpathProvider.loadClassNode(className, classLogger);
+                };
 
         AsmClassNode parentedClassNode = null;
         try {
             parentedClassNode =
-                    AsmUtils.loadClass(logger, directoryClassReader, classNode, targetApiLevel);
+                    AsmUtils.loadClass(logger, classNodeProvider, classNode, targetApiLevel);
         } catch (AsmUtils.ByteCodeNotFoundException e) {
             logger.verbose(
                     "unable to load byte code for %s, skipping instrumentation of this class for instant run",
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.incremental;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.annotations.concurrency.GuardedBy;
+import com.android.utils.ILogger;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * {@link AsmUtils.ClassNodeProvider} reading classes from a classpath of jars and directories, in
+ * order, as a non delegating class loader would.
+ *
+ * <p>Each classpath entry is a layer whose parsed {@link ClassNode}s are kept for the life of the
+ * daemon, so the platform, the libraries and the unchanged project classes are parsed once and
+ * reused across builds and variants. A jar layer is invalidated when the size or timestamp of the
+ * jar changes, and a class of a directory layer when the size or timestamp of its file changes.
+ * The returned nodes are shared and must not be modified.
+ *
+ * <p>A jar layer opens its jar once, the first time a class is read from it, and keeps it open
+ * until no provider uses the layer anymore. Providers must be closed, so that jars are not held
+ * open, and locked on Windows, between builds.
+ */
+public final class LayeredClassNodeProvider implements AsmUtils.ClassNodeProvider, Closeable {
+
+    @NonNull
+    private static final Cache<LayerKey, Layer> layers =
+            CacheBuilder.newBuilder().softValues().build();
+
+    @NonNull private final ImmutableList<Layer> classpath;
+    @NonNull private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private LayeredClassNodeProvider(@NonNull ImmutableList<Layer> classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Returns a provider for the given classpath. Entries that don't exist are ignored.
+     *
+     * @param classpath jars and directories of class files, in lookup order, e.g. the platform,
+     *     then the libraries, then the project classes.
+     */
+    @NonNull
+    public static LayeredClassNodeProvider create(@NonNull List<File> classpath)
+            throws IOException {
+        ImmutableList.Builder<Layer> builder = ImmutableList.builder();
+        for (File entry : classpath) {
+            boolean isJar = entry.isFile();
+            if (!isJar && !entry.isDirectory()) {
+                continue;
+            }
+            LayerKey key = new LayerKey(entry, isJar);
+            try {
+                builder.add(
+                        layers.get(key, () -> isJar ? new JarLayer(entry) : new DirLayer(entry)));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        ImmutableList<Layer> classpathLayers = builder.build();
+        for (Layer layer : classpathLayers) {
+            layer.acquire();
+        }
+        return new LayeredClassNodeProvider(classpathLayers);
+    }
+
+    /** Clears the layers kept for the life of the daemon. */
+    @VisibleForTesting
+    public static void clearCache() {
+        layers.invalidateAll();
+    }
+
+    /**
+     * Returns the node of the first class of the classpath with the given name.
+     *
+     * @throws AsmUtils.ByteCodeNotFoundException if the class is not in the classpath, as the
+     *     class loader based provider does.
+     */
+    @NonNull
+    @Override
+    public ClassNode loadClassNode(@NonNull String className, @NonNull ILogger logger)
+            throws IOException {
+        for (Layer layer : classpath) {
+            ClassNode node = layer.loadClassNode(className);
+            if (node != null) {
+                return node;
+            }
+        }
+        throw new AsmUtils.ByteCodeNotFoundException(className);
+    }
+
+    /** Releases the layers of this provider, closing the jars no other provider uses. */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        IOException failure = null;
+        for (Layer layer : classpath) {
+            try {
+                layer.release();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @NonNull
+    private static ClassNode readClass(@NonNull InputStream in) throws IOException {
+        return AsmUtils.readClass(new ClassReader(in));
+    }
+
+    /** Identifies a layer, so that a modified jar gets a new one. */
+    private static final class LayerKey {
+        @NonNull private final String path;
+        private final long length;
+        private final long lastModified;
+
+        LayerKey(@NonNull File entry, boolean isJar) {
+            this.path = entry.getAbsolutePath();
+            this.length = isJar ? entry.length() : -1;
+            this.lastModified = isJar ? entry.lastModified() : -1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            LayerKey that = (LayerKey) o;
+            return length == that.length
+                    && lastModified == that.lastModified
+                    && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, length, lastModified);
+        }
+    }
+
+    private interface Layer {
+
+        @Nullable
+        ClassNode loadClassNode(@NonNull String className) throws IOException;
+
+        /** Called when a provider starts using the layer. */
+        default void acquire() {}
+
+        /** Called when a provider stops using the layer. */
+        default void release() throws IOException {}
+    }
+
+    /**
+     * The classes of a jar, whose entry names are read once and nodes parsed on demand from the
+     * jar, opened once while the layer is used.
+     */
+    private static final class JarLayer implements Layer {
+        @NonNull private final File jar;
+        @NonNull private final ImmutableSet<String> classNames;
+        @NonNull private final ConcurrentMap<String, ClassNode> nodes = new ConcurrentHashMap<>();
+
+        @GuardedBy("this")
+        @Nullable
+        private ZipFile zip = null;
+
+        @GuardedBy("this")
+        private int users = 0;
+
+        JarLayer(@NonNull File jar) throws IOException {
+            this.jar = jar;
+            ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            try (ZipFile zip = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if (name.endsWith(SdkConstants.DOT_CLASS)) {
+                        builder.add(
+                                name.substring(0, name.length() - SdkConstants.DOT_CLASS.length()));
+                    }
+                }
+            }
+            this.classNames = builder.build();
+        }
+
+        @Override
+        public synchronized void acquire() {
+            users++;
+        }
+
+        @Override
+        public synchronized void release() throws IOException {
+            users--;
+            if (users == 0 && zip != null) {
+                try {
+                    zip.close();
+                } finally {
+                    zip = null;
+                }
+            }
+        }
+
+        @NonNull
+        private synchronized ZipFile getZip() throws IOException {
+            Preconditions.checkState(users > 0, "%s is read after its provider was closed", jar);
+            if (zip == null) {
+                zip = new ZipFile(jar);
+            }
+            return zip;
+        }
+
+        @Nullable
+        @Override
+        public ClassNode loadClassNode(@NonNull String className) throws IOException {
+            if (!classNames.contains(className)) {
+                return null;
+            }
+            ClassNode node = nodes.get(className);
+            if (node == null) {
+                ZipFile zip = getZip();
+                try (InputStream in =
+                        new BufferedInputStream(
+                                zip.getInputStream(
+                                        zip.getEntry(className + SdkConstants.DOT_CLASS)))) {
+                    node = readClass(in);
+                }
+                ClassNode previous = nodes.putIfAbsent(className, node);
+                if (previous != null) {
+                    node = previous;
+                }
+            }
+            return node;
+        }
+    }
+
+    /** The classes of a directory, reparsed when their file changes. */
+    private static final class DirLayer implements Layer {
+        @NonNull private final File dir;
+        @NonNull private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+        private static final class Entry {
+            private final long length;
+            private final long lastModified;
+            @NonNull private final ClassNode node;
+
+            Entry(long length, long lastModified, @NonNull ClassNode node) {
+                this.length = length;
+                this.lastModified = lastModified;
+                this.node = node;
+            }
+        }
+
+        DirLayer(@NonNull File dir) {
+            this.dir = dir;
+        }
+
+        @Nullable
+        @Override
+        public ClassNode loadClassNode(@NonNull String className) throws IOException {
+            File file = new File(dir, className + SdkConstants.DOT_CLASS);
+            long length = file.length();
+            long lastModified = file.lastModified();
+            if (lastModified == 0) {
+                entries.remove(className);
+                return null;
+            }
+            Entry entry = entries.get(className);
+            if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                    entry = new Entry(length, lastModified, readClass(in));
+                }
+                entries.put(className, entry);
+            }
+            return entry.node;
+        }
+    }
+}
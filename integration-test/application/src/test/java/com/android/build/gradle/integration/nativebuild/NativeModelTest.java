@@ -664,7 +664,7 @@ public class NativeModelTest {
         AssumeUtil.assumeNotWindowsBot(); // https://issuetracker.google.com/70931936
         assumeNotCMakeOnWindows();
         File jsonFile = getJsonFile("debug", "x86_64");
-        File miniConfigFile = ExternalNativeBuildTaskUtils.getJsonMiniConfigFile(jsonFile);
+        File miniConfigFile = ExternalNativeBuildTaskUtils.getJsonBinaryFile(jsonFile);
 
         // Build should be incremental where it is possible. CMake in particular is supposed to
         // be able to regenerate the ninja build system in-place. Use this file to check whether
@@ -691,7 +691,7 @@ public class NativeModelTest {
                 getHighestResolutionTimeStamp(jsonFile));
         assertThat(incrementalBuildSentinelFile).exists();
         assertThat(miniConfigFile)
-                .isNewerThanOrSameAs(jsonFile); // miniconfig created to read paths of build files
+                .isNewerThanOrSameAs(jsonFile); // binary created to read paths of build files
 
         // Touch a native build file (like CMakeLists.txt) and check that JSON is regenerated in
         // response
@@ -20,6 +20,7 @@ import com.android.SdkConstants
 import com.android.build.gradle.integration.common.fixture.GradleTestProject
 import com.android.build.gradle.internal.res.getAapt2FromMaven
 import com.android.build.gradle.internal.res.getAapt2FromMavenIfEnabled
+import com.android.build.gradle.internal.res.namespaced.Aapt2DaemonPoolSizes
 import com.android.build.gradle.internal.res.namespaced.registerAaptService
 import com.android.build.gradle.internal.res.namespaced.useAaptDaemon
 import com.android.build.gradle.internal.scope.GlobalScope
@@ -116,7 +117,13 @@ class Aapt2FromMavenTest {
         val registry = WorkerActionServiceRegistry()
 
         val serviceKey =
-            registerAaptService(artifact, null, StdLogger(StdLogger.Level.INFO), registry)
+            registerAaptService(
+                artifact,
+                null,
+                StdLogger(StdLogger.Level.INFO),
+                Aapt2DaemonPoolSizes(),
+                registry
+            )
 
         val outDir = temporaryFolder.newFolder()
         val inFile = createFileToCompile()
@@ -329,6 +329,27 @@ public class ActionRecorder {
         return attributeRecords;
     }
 
+    /**
+     * Returns a copy of all the records made so far, which can be restored with {@link
+     * #restoreRecords(Map)}.
+     */
+    @NonNull
+    synchronized ImmutableMap<NodeKey, Actions.DecisionTreeRecord> copyRecords() {
+        ImmutableMap.Builder<NodeKey, Actions.DecisionTreeRecord> records = ImmutableMap.builder();
+        for (Map.Entry<NodeKey, Actions.DecisionTreeRecord> entry : mRecords.entrySet()) {
+            records.put(entry.getKey(), entry.getValue().copy());
+        }
+        return records.build();
+    }
+
+    /** Replaces all the records with a copy of records obtained from {@link #copyRecords()}. */
+    synchronized void restoreRecords(@NonNull Map<NodeKey, Actions.DecisionTreeRecord> records) {
+        mRecords.clear();
+        for (Map.Entry<NodeKey, Actions.DecisionTreeRecord> entry : records.entrySet()) {
+            mRecords.put(entry.getKey(), entry.getValue().copy());
+        }
+    }
+
     @NonNull
     synchronized Actions build() {
         return new Actions(ImmutableMap.copyOf(mRecords));
@@ -69,6 +69,12 @@ public class Actions {
         mRecords = records;
     }
 
+    /** Returns all the records, indexed by element key. */
+    @NonNull
+    Map<XmlNode.NodeKey, DecisionTreeRecord> getRecords() {
+        return mRecords;
+    }
+
     /**
      * Returns a {@link com.google.common.collect.ImmutableSet} of all the element's keys that have
      * at least one {@link NodeRecord}.
@@ -335,7 +341,7 @@ public class Actions {
 
     @SuppressWarnings("SpellCheckingInspection")
     @NonNull
-    private static Gson getGsonParser() {
+    static Gson getGsonParser() {
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.enableComplexMapKeySerialization();
         gsonBuilder.registerTypeAdapter(XmlNode.NodeName.class, new NodeNameDeserializer());
@@ -467,6 +473,18 @@ public class Actions {
         DecisionTreeRecord() {
         }
 
+        /** Returns a copy of this record that can be modified independently. */
+        @NonNull
+        DecisionTreeRecord copy() {
+            DecisionTreeRecord copy = new DecisionTreeRecord();
+            copy.mNodeRecords.addAll(mNodeRecords);
+            for (Map.Entry<XmlNode.NodeName, List<AttributeRecord>> entry :
+                    mAttributeRecords.entrySet()) {
+                copy.mAttributeRecords.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            return copy;
+        }
+
         void addNodeRecord(@NonNull NodeRecord nodeRecord) {
             mNodeRecords.add(Preconditions.checkNotNull(nodeRecord));
         }
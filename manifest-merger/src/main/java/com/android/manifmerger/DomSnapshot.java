@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.blame.SourcePosition;
+import com.android.utils.PositionXmlParser;
+import com.android.utils.XmlUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * A private copy of a DOM {@link Document} from which independent copies can be made.
+ *
+ * <p>{@link PositionXmlParser} only records source positions on the DOM it created, so the
+ * positions of all elements and attributes are attached to the copies as user data, see {@link
+ * XmlDocument#getNodePosition(Node)}. Copies therefore report the same positions as the document
+ * the snapshot was taken from, even once their nodes are adopted by another document. For the
+ * same reason, a snapshot is persisted as its XML along with the positions of its nodes.
+ */
+final class DomSnapshot {
+
+    /** The user data key under which copied nodes store their {@link SourcePosition}. */
+    static final String POSITION_KEY = "manifmerger.position";
+
+    @NonNull private final Document mDocument;
+
+    /** Takes a snapshot of the given document, which can be modified afterwards. */
+    DomSnapshot(@NonNull Document document) {
+        mDocument = copy(document);
+    }
+
+    private DomSnapshot(@NonNull Document document, @NonNull List<ElementPositions> positions)
+            throws IOException {
+        mDocument = document;
+        Iterator<ElementPositions> iterator = positions.iterator();
+        restorePositions(document.getDocumentElement(), iterator);
+        if (iterator.hasNext()) {
+            throw new IOException("More positions than elements in the snapshot");
+        }
+    }
+
+    /**
+     * Recreates a snapshot from the output of {@link #toXml()} and {@link #getPositions()}, which
+     * is how snapshots are persisted.
+     */
+    @NonNull
+    static DomSnapshot fromXml(@NonNull String xml, @NonNull List<ElementPositions> positions)
+            throws IOException {
+        Document document;
+        try {
+            document = XmlUtils.parseDocument(xml, true);
+        } catch (Exception e) {
+            throw new IOException("Cannot parse the snapshot", e);
+        }
+        return new DomSnapshot(document, positions);
+    }
+
+    /**
+     * Returns the XML of the snapshot. Node positions are not part of it, see {@link
+     * #getPositions()}.
+     */
+    @NonNull
+    synchronized String toXml() throws IOException {
+        StringWriter writer = new StringWriter();
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.transform(new DOMSource(mDocument), new StreamResult(writer));
+        } catch (TransformerException e) {
+            throw new IOException("Cannot write the snapshot", e);
+        }
+        return writer.toString();
+    }
+
+    /** Returns the positions of the elements of the snapshot, in document order. */
+    @NonNull
+    synchronized ImmutableList<ElementPositions> getPositions() {
+        ImmutableList.Builder<ElementPositions> positions = ImmutableList.builder();
+        collectPositions(mDocument.getDocumentElement(), positions);
+        return positions.build();
+    }
+
+    /**
+     * Returns a new copy of the snapshot. Reads of the same DOM are not thread safe, so copies of
+     * the same snapshot are made one at a time.
+     */
+    @NonNull
+    synchronized Document copy() {
+        return copy(mDocument);
+    }
+
+    @NonNull
+    private static Document copy(@NonNull Document document) {
+        Document copy = (Document) document.cloneNode(true);
+        copyPositions(document.getDocumentElement(), copy.getDocumentElement());
+        return copy;
+    }
+
+    private static void copyPositions(@NonNull Element from, @NonNull Element to) {
+        setPosition(from, to);
+        NamedNodeMap attributes = from.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            Attr copiedAttribute = to.getAttributeNode(attribute.getName());
+            if (copiedAttribute != null) {
+                setPosition(attribute, copiedAttribute);
+            }
+        }
+        NodeList fromChildren = from.getChildNodes();
+        NodeList toChildren = to.getChildNodes();
+        for (int i = 0; i < fromChildren.getLength(); i++) {
+            if (fromChildren.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                copyPositions((Element) fromChildren.item(i), (Element) toChildren.item(i));
+            }
+        }
+    }
+
+    private static void collectPositions(
+            @NonNull Element element, @NonNull ImmutableList.Builder<ElementPositions> positions) {
+        ImmutableMap.Builder<String, SourcePosition> attributePositions = ImmutableMap.builder();
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            Object position = attribute.getUserData(POSITION_KEY);
+            if (position instanceof SourcePosition) {
+                attributePositions.put(attribute.getName(), (SourcePosition) position);
+            }
+        }
+        Object position = element.getUserData(POSITION_KEY);
+        positions.add(
+                new ElementPositions(
+                        position instanceof SourcePosition ? (SourcePosition) position : null,
+                        attributePositions.build()));
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                collectPositions((Element) children.item(i), positions);
+            }
+        }
+    }
+
+    private static void restorePositions(
+            @NonNull Element element, @NonNull Iterator<ElementPositions> positions)
+            throws IOException {
+        if (!positions.hasNext()) {
+            throw new IOException("Fewer positions than elements in the snapshot");
+        }
+        ElementPositions elementPositions = positions.next();
+        if (elementPositions.mPosition != null) {
+            element.setUserData(POSITION_KEY, elementPositions.mPosition, null);
+        }
+        for (Map.Entry<String, SourcePosition> entry : elementPositions.mAttributes.entrySet()) {
+            Attr attribute = element.getAttributeNode(entry.getKey());
+            if (attribute != null) {
+                attribute.setUserData(POSITION_KEY, entry.getValue(), null);
+            }
+        }
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                restorePositions((Element) children.item(i), positions);
+            }
+        }
+    }
+
+    private static void setPosition(@NonNull Node from, @NonNull Node to) {
+        SourcePosition position;
+        try {
+            position = XmlDocument.getNodePosition(from);
+        } catch (Exception e) {
+            // leave it to the lookup on the copy to fail the same way.
+            return;
+        }
+        to.setUserData(POSITION_KEY, position, null);
+    }
+
+    /** The positions of an element and of its attributes, see {@link #getPositions()}. */
+    static final class ElementPositions {
+
+        @Nullable private final SourcePosition mPosition;
+        @NonNull private final Map<String, SourcePosition> mAttributes;
+
+        ElementPositions(
+                @Nullable SourcePosition position,
+                @NonNull Map<String, SourcePosition> attributes) {
+            mPosition = position;
+            mAttributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.VisibleForTesting;
+import com.android.utils.PositionXmlParser;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Daemon-wide cache of parsed library manifests, keyed by the hash of their content.
+ *
+ * <p>The same AAR manifests are loaded by every variant of every module that depends on them,
+ * so parsing them once is enough. Library documents are however modified while they are merged:
+ * their nodes are adopted by the merged document and placeholders are substituted in place. The
+ * parsed DOM is therefore kept as a {@link DomSnapshot} and each lookup returns a copy of it.
+ */
+final class LibraryManifestCache {
+
+    private static final Cache<HashCode, DomSnapshot> SNAPSHOTS =
+            CacheBuilder.newBuilder().softValues().build();
+
+    private LibraryManifestCache() {}
+
+    /**
+     * Returns a new DOM for the given manifest content, parsing it only if the same content has
+     * not been parsed before.
+     *
+     * @param contentHash the SHA-256 hash of the content.
+     * @param content the content of the manifest.
+     */
+    @NonNull
+    static Document getDocument(@NonNull HashCode contentHash, @NonNull byte[] content)
+            throws IOException, SAXException, ParserConfigurationException {
+        DomSnapshot snapshot;
+        try {
+            snapshot =
+                    SNAPSHOTS.get(
+                            contentHash,
+                            () ->
+                                    new DomSnapshot(
+                                            PositionXmlParser.parse(
+                                                    new ByteArrayInputStream(content))));
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class, SAXException.class);
+            Throwables.propagateIfInstanceOf(e.getCause(), ParserConfigurationException.class);
+            throw new RuntimeException(e.getCause());
+        }
+        return snapshot.copy();
+    }
+
+    @VisibleForTesting
+    static void clear() {
+        SNAPSHOTS.invalidateAll();
+    }
+}
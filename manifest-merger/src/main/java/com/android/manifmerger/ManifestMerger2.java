@@ -36,6 +36,11 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.math.IntMath;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -43,10 +48,16 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -63,6 +74,9 @@ public class ManifestMerger2 {
     static final String BOOTSTRAP_INSTANT_RUN_CONTENT_PROVIDER =
             "com.android.tools.ir.server.InstantRunContentProvider";
 
+    /** The maximum number of checkpoints stored while merging libraries incrementally. */
+    private static final int MAX_CHECKPOINTS = 8;
+
     @NonNull
     private final File mManifestFile;
 
@@ -89,6 +103,7 @@ public class ManifestMerger2 {
     @NonNull private final String mFeatureName;
     @NonNull private final FileStreamProvider mFileStreamProvider;
     @NonNull private final ImmutableList<File> mNavigationFiles;
+    @Nullable private final File mCheckpointDirectory;
 
     private ManifestMerger2(
             @NonNull ILogger logger,
@@ -103,7 +118,8 @@ public class ManifestMerger2 {
             @NonNull Optional<File> reportFile,
             @NonNull String featureName,
             @NonNull FileStreamProvider fileStreamProvider,
-            @NonNull ImmutableList<File> navigationFiles) {
+            @NonNull ImmutableList<File> navigationFiles,
+            @Nullable File checkpointDirectory) {
         this.mSystemPropertyResolver = systemPropertiesResolver;
         this.mPlaceHolderValues = placeHolderValues;
         this.mManifestFile = mainManifestFile;
@@ -117,6 +133,7 @@ public class ManifestMerger2 {
         this.mFeatureName = featureName;
         this.mFileStreamProvider = fileStreamProvider;
         this.mNavigationFiles = navigationFiles;
+        this.mCheckpointDirectory = checkpointDirectory;
     }
 
     /**
@@ -179,86 +196,59 @@ public class ManifestMerger2 {
                 loadedMainManifestInfo.getOriginalPackageName(),
                 loadedMainManifestInfo.getXmlDocument().reparse());
 
-        // invariant : xmlDocumentOptional holds the higher priority document and we try to
-        // merge in lower priority documents.
+        // when merging incrementally, resume from the last checkpoint stored by a previous
+        // merge with the same inputs, see MergeCheckpoints.
+        boolean incremental =
+                mOptionalFeatures.contains(Invoker.Feature.INCREMENTAL_MERGE)
+                        && !mOptionalFeatures.contains(Invoker.Feature.KEEP_INTERMEDIARY_STAGES);
+        List<HashCode> checkpointKeys =
+                incremental
+                        ? computeCheckpointKeys(loadedLibraryDocuments)
+                        : ImmutableList.of();
+        int firstRecord = incremental ? mergingReportBuilder.getRecords().size() : 0;
+        int restoredCheckpoint = -1;
         Optional<XmlDocument> xmlDocumentOptional = Optional.absent();
-        for (File inputFile : mFlavorsAndBuildTypeFiles) {
-            mLogger.verbose("Merging flavors and build manifest %s \n", inputFile.getPath());
-            LoadedManifestInfo overlayDocument = load(
-                    new ManifestInfo(null, inputFile, XmlDocument.Type.OVERLAY,
-                            Optional.of(mainPackageAttribute.get().getValue())),
-                    selectors,
-                    mergingReportBuilder);
-
-            // check package declaration.
-            Optional<XmlAttribute> packageAttribute =
-                    overlayDocument.getXmlDocument().getPackage();
-            // if both files declare a package name, it should be the same.
-            if (loadedMainManifestInfo.getOriginalPackageName().isPresent() &&
-                    packageAttribute.isPresent()
-                    && !loadedMainManifestInfo.getOriginalPackageName().get().equals(
-                    packageAttribute.get().getValue())) {
-                // no suggestion for library since this is actually forbidden to change the
-                // the package name per flavor.
-                String message = mMergeType == MergeType.APPLICATION
-                        ? String.format(
-                                "Overlay manifest:package attribute declared at %1$s value=(%2$s)\n"
-                                        + "\thas a different value=(%3$s) "
-                                        + "declared in main manifest at %4$s\n"
-                                        + "\tSuggestion: remove the overlay declaration at %5$s "
-                                        + "\tand place it in the build.gradle:\n"
-                                        + "\t\tflavorName {\n"
-                                        + "\t\t\tapplicationId = \"%2$s\"\n"
-                                        + "\t\t}",
-                                packageAttribute.get().printPosition(),
-                                packageAttribute.get().getValue(),
-                                mainPackageAttribute.get().getValue(),
-                                mainPackageAttribute.get().printPosition(),
-                                packageAttribute.get().getSourceFile().print(true))
-                        : String.format(
-                                "Overlay manifest:package attribute declared at %1$s value=(%2$s)\n"
-                                        + "\thas a different value=(%3$s) "
-                                        + "declared in main manifest at %4$s",
-                                packageAttribute.get().printPosition(),
-                                packageAttribute.get().getValue(),
-                                mainPackageAttribute.get().getValue(),
-                                mainPackageAttribute.get().printPosition());
-                mergingReportBuilder.addMessage(
-                        overlayDocument.getXmlDocument().getSourceFile(),
-                        MergingReport.Record.Severity.ERROR,
-                        message);
-                return mergingReportBuilder.build();
+        for (int i = checkpointKeys.size() - 1; i >= 0; i--) {
+            MergeCheckpoints.Checkpoint checkpoint =
+                    MergeCheckpoints.get(checkpointKeys.get(i), mCheckpointDirectory);
+            if (checkpoint != null) {
+                mLogger.verbose("Resuming merge after %1$d library manifests\n", i);
+                xmlDocumentOptional =
+                        Optional.of(
+                                checkpoint.restore(
+                                        selectors, mSystemPropertyResolver, mergingReportBuilder));
+                restoredCheckpoint = i;
+                break;
             }
+        }
 
-            overlayDocument.getXmlDocument().getRootNode().getXml().setAttribute("package",
-                    mainPackageAttribute.get().getValue());
-            xmlDocumentOptional = merge(xmlDocumentOptional, overlayDocument, mergingReportBuilder);
-
+        if (!xmlDocumentOptional.isPresent()) {
+            xmlDocumentOptional =
+                    mergeOverlaysAndMainManifest(
+                            loadedMainManifestInfo,
+                            mainPackageAttribute,
+                            selectors,
+                            mergingReportBuilder);
             if (!xmlDocumentOptional.isPresent()) {
                 return mergingReportBuilder.build();
             }
         }
 
-        mLogger.verbose("Merging main manifest %s\n", mManifestFile.getPath());
-        xmlDocumentOptional =
-                merge(xmlDocumentOptional, loadedMainManifestInfo, mergingReportBuilder);
-
-        if (!xmlDocumentOptional.isPresent()) {
-            return mergingReportBuilder.build();
-        }
-
-        // force main manifest package into resulting merged file when creating a library manifest.
-        if (mMergeType == MergeType.LIBRARY) {
-            // extract the package name...
-            String mainManifestPackageName = loadedMainManifestInfo.getXmlDocument().getRootNode()
-                    .getXml().getAttribute("package");
-            // save it in the selector instance.
-            if (!Strings.isNullOrEmpty(mainManifestPackageName)) {
-                xmlDocumentOptional.get().getRootNode().getXml()
-                        .setAttribute("package", mainManifestPackageName);
+        int checkpointInterval =
+                Math.max(1, IntMath.divide(
+                        loadedLibraryDocuments.size(), MAX_CHECKPOINTS, RoundingMode.CEILING));
+        for (int i = Math.max(restoredCheckpoint, 0); i < loadedLibraryDocuments.size(); i++) {
+            if (incremental
+                    && i != restoredCheckpoint
+                    && i % checkpointInterval == 0
+                    && !mergingReportBuilder.hasErrors()) {
+                storeCheckpoint(
+                        checkpointKeys.get(i),
+                        xmlDocumentOptional.get(),
+                        mergingReportBuilder,
+                        firstRecord);
             }
-        }
-        for (LoadedManifestInfo libraryDocument : loadedLibraryDocuments) {
+            LoadedManifestInfo libraryDocument = loadedLibraryDocuments.get(i);
             mLogger.verbose("Merging library manifest " + libraryDocument.getLocation());
             xmlDocumentOptional = merge(
                     xmlDocumentOptional, libraryDocument, mergingReportBuilder);
@@ -266,6 +256,26 @@ public class ManifestMerger2 {
                 return mergingReportBuilder.build();
             }
         }
+        if (incremental
+                && restoredCheckpoint != loadedLibraryDocuments.size()
+                && !mergingReportBuilder.hasErrors()) {
+            storeCheckpoint(
+                    checkpointKeys.get(loadedLibraryDocuments.size()),
+                    xmlDocumentOptional.get(),
+                    mergingReportBuilder,
+                    firstRecord);
+        }
+        if (incremental && mCheckpointDirectory != null) {
+            try {
+                MergeCheckpoints.retain(mCheckpointDirectory, checkpointKeys);
+            } catch (IOException e) {
+                mLogger.warning("Cannot delete stale manifest merger checkpoints: %1$s", e);
+            }
+        }
+
+        if (mOptionalFeatures.contains(Invoker.Feature.MERGE_IN_PLACE)) {
+            xmlDocumentOptional.get().finishMergingInPlace();
+        }
 
         // done with proper merging phase, now we need to expand <nav-graph> elements, trim unwanted
         // elements, perform placeholder substitution and system properties injection.
@@ -854,6 +864,189 @@ public class ManifestMerger2 {
                 updatedManifestInfo, Optional.fromNullable(originalPackageName), xmlDocument);
     }
 
+    /**
+     * Stores a checkpoint of the merging state, see {@link MergeCheckpoints}. Failing to persist it
+     * does not fail the merge, which is then resumed from an earlier checkpoint next time.
+     */
+    private void storeCheckpoint(
+            @NonNull HashCode key,
+            @NonNull XmlDocument mergedDocument,
+            @NonNull MergingReport.Builder mergingReportBuilder,
+            int firstRecord) {
+        try {
+            MergeCheckpoints.put(
+                    key, mergedDocument, mergingReportBuilder, firstRecord, mCheckpointDirectory);
+        } catch (IOException e) {
+            mLogger.warning("Cannot persist manifest merger checkpoint: %1$s", e);
+        }
+    }
+
+    /**
+     * Computes the keys of the merging checkpoints, see {@link MergeCheckpoints}. The key at
+     * index {@code i} identifies the state reached after merging the main manifest, its overlays
+     * and the first {@code i} libraries. It covers everything that this state depends on: the
+     * content and location of these manifests, the placeholders, the injected system properties,
+     * the options and the package names of all libraries, which selectors refer to.
+     */
+    @NonNull
+    private List<HashCode> computeCheckpointKeys(
+            @NonNull List<LoadedManifestInfo> loadedLibraryDocuments)
+            throws MergeFailureException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, mMergeType.name());
+        putString(hasher, mDocumentType.name());
+        putString(hasher, mFeatureName);
+        for (Invoker.Feature feature : Invoker.Feature.values()) {
+            hasher.putBoolean(mOptionalFeatures.contains(feature));
+        }
+        for (Map.Entry<String, Object> placeholder :
+                new TreeMap<>(mPlaceHolderValues).entrySet()) {
+            putString(hasher, placeholder.getKey());
+            putString(hasher, String.valueOf(placeholder.getValue()));
+        }
+        for (ManifestSystemProperty property : ManifestSystemProperty.values()) {
+            String value = mSystemPropertyResolver.getValue(property);
+            hasher.putBoolean(value != null);
+            putString(hasher, Strings.nullToEmpty(value));
+        }
+        try {
+            putManifest(hasher, mManifestFile);
+            for (File overlay : mFlavorsAndBuildTypeFiles) {
+                putManifest(hasher, overlay);
+            }
+        } catch (IOException e) {
+            throw new MergeFailureException(e);
+        }
+        for (LoadedManifestInfo libraryDocument : loadedLibraryDocuments) {
+            putString(hasher, Strings.nullToEmpty(libraryDocument.getName()));
+            putString(hasher, libraryDocument.getLocation().getPath());
+            putString(hasher, libraryDocument.getOriginalPackageName().or(""));
+        }
+
+        ImmutableList.Builder<HashCode> keys = ImmutableList.builder();
+        HashCode key = hasher.hash();
+        keys.add(key);
+        for (LoadedManifestInfo libraryDocument : loadedLibraryDocuments) {
+            key =
+                    Hashing.sha256()
+                            .newHasher()
+                            .putBytes(key.asBytes())
+                            .putBytes(Preconditions.checkNotNull(
+                                    libraryDocument.getContentHash()).asBytes())
+                            .hash();
+            keys.add(key);
+        }
+        return keys.build();
+    }
+
+    private void putManifest(@NonNull Hasher hasher, @NonNull File manifest) throws IOException {
+        putString(hasher, manifest.getPath());
+        try (InputStream inputStream = mFileStreamProvider.getInputStream(manifest)) {
+            byte[] content = ByteStreams.toByteArray(inputStream);
+            hasher.putInt(content.length);
+            hasher.putBytes(content);
+        }
+    }
+
+    private static void putString(@NonNull Hasher hasher, @NonNull String value) {
+        hasher.putInt(value.length());
+        hasher.putUnencodedChars(value);
+    }
+
+    /**
+     * Merges the flavors and build type overlays with the main manifest.
+     *
+     * @return the merged document or {@link Optional#absent()} if there were errors.
+     */
+    @NonNull
+    private Optional<XmlDocument> mergeOverlaysAndMainManifest(
+            @NonNull LoadedManifestInfo loadedMainManifestInfo,
+            @NonNull Optional<XmlAttribute> mainPackageAttribute,
+            @NonNull SelectorResolver selectors,
+            @NonNull MergingReport.Builder mergingReportBuilder)
+            throws MergeFailureException {
+        // invariant : xmlDocumentOptional holds the higher priority document and we try to
+        // merge in lower priority documents.
+        Optional<XmlDocument> xmlDocumentOptional = Optional.absent();
+        for (File inputFile : mFlavorsAndBuildTypeFiles) {
+            mLogger.verbose("Merging flavors and build manifest %s \n", inputFile.getPath());
+            LoadedManifestInfo overlayDocument = load(
+                    new ManifestInfo(null, inputFile, XmlDocument.Type.OVERLAY,
+                            Optional.of(mainPackageAttribute.get().getValue())),
+                    selectors,
+                    mergingReportBuilder);
+
+            // check package declaration.
+            Optional<XmlAttribute> packageAttribute =
+                    overlayDocument.getXmlDocument().getPackage();
+            // if both files declare a package name, it should be the same.
+            if (loadedMainManifestInfo.getOriginalPackageName().isPresent() &&
+                    packageAttribute.isPresent()
+                    && !loadedMainManifestInfo.getOriginalPackageName().get().equals(
+                    packageAttribute.get().getValue())) {
+                // no suggestion for library since this is actually forbidden to change the
+                // the package name per flavor.
+                String message = mMergeType == MergeType.APPLICATION
+                        ? String.format(
+                                "Overlay manifest:package attribute declared at %1$s value=(%2$s)\n"
+                                        + "\thas a different value=(%3$s) "
+                                        + "declared in main manifest at %4$s\n"
+                                        + "\tSuggestion: remove the overlay declaration at %5$s "
+                                        + "\tand place it in the build.gradle:\n"
+                                        + "\t\tflavorName {\n"
+                                        + "\t\t\tapplicationId = \"%2$s\"\n"
+                                        + "\t\t}",
+                                packageAttribute.get().printPosition(),
+                                packageAttribute.get().getValue(),
+                                mainPackageAttribute.get().getValue(),
+                                mainPackageAttribute.get().printPosition(),
+                                packageAttribute.get().getSourceFile().print(true))
+                        : String.format(
+                                "Overlay manifest:package attribute declared at %1$s value=(%2$s)\n"
+                                        + "\thas a different value=(%3$s) "
+                                        + "declared in main manifest at %4$s",
+                                packageAttribute.get().printPosition(),
+                                packageAttribute.get().getValue(),
+                                mainPackageAttribute.get().getValue(),
+                                mainPackageAttribute.get().printPosition());
+                mergingReportBuilder.addMessage(
+                        overlayDocument.getXmlDocument().getSourceFile(),
+                        MergingReport.Record.Severity.ERROR,
+                        message);
+                return Optional.absent();
+            }
+
+            overlayDocument.getXmlDocument().getRootNode().getXml().setAttribute("package",
+                    mainPackageAttribute.get().getValue());
+            xmlDocumentOptional = merge(xmlDocumentOptional, overlayDocument, mergingReportBuilder);
+
+            if (!xmlDocumentOptional.isPresent()) {
+                return Optional.absent();
+            }
+        }
+
+        mLogger.verbose("Merging main manifest %s\n", mManifestFile.getPath());
+        xmlDocumentOptional =
+                merge(xmlDocumentOptional, loadedMainManifestInfo, mergingReportBuilder);
+
+        if (!xmlDocumentOptional.isPresent()) {
+            return Optional.absent();
+        }
+
+        // force main manifest package into resulting merged file when creating a library manifest.
+        if (mMergeType == MergeType.LIBRARY) {
+            // extract the package name...
+            String mainManifestPackageName = loadedMainManifestInfo.getXmlDocument().getRootNode()
+                    .getXml().getAttribute("package");
+            // save it in the selector instance.
+            if (!Strings.isNullOrEmpty(mainManifestPackageName)) {
+                xmlDocumentOptional.get().getRootNode().getXml()
+                        .setAttribute("package", mainManifestPackageName);
+            }
+        }
+        return xmlDocumentOptional;
+    }
+
     private void performPlaceHolderSubstitution(
             @NonNull ManifestInfo manifestInfo,
             @NonNull XmlDocument xmlDocument,
@@ -908,10 +1101,16 @@ public class ManifestMerger2 {
         }
 
         Optional<XmlDocument> result;
-        if (xmlDocument.isPresent()) {
+        boolean addImplicitPermissions =
+                !mOptionalFeatures.contains(Invoker.Feature.NO_IMPLICIT_PERMISSION_ADDITION);
+        if (xmlDocument.isPresent() && mOptionalFeatures.contains(Invoker.Feature.MERGE_IN_PLACE)) {
+            result = xmlDocument.get().mergeInPlace(
+                    lowerPriorityDocument.getXmlDocument(), mergingReportBuilder,
+                    addImplicitPermissions);
+        } else if (xmlDocument.isPresent()) {
             result = xmlDocument.get().merge(
                     lowerPriorityDocument.getXmlDocument(), mergingReportBuilder,
-                    !mOptionalFeatures.contains(Invoker.Feature.NO_IMPLICIT_PERMISSION_ADDITION));
+                    addImplicitPermissions);
         } else {
             // exhaustiveSearch is true in recordAddedNodeAction() below because some of this
             // manifest's nodes might have already been recorded from the loading of
@@ -941,7 +1140,13 @@ public class ManifestMerger2 {
             @Nullable String mainManifestPackageName)
             throws MergeFailureException {
 
-        ImmutableList.Builder<LoadedManifestInfo> loadedLibraryDocuments = ImmutableList.builder();
+        // library manifests are read sequentially, as the file stream provider may not be thread
+        // safe, and then parsed and prepared in parallel. Results are collected in the original
+        // order so that selectors and logged messages do not depend on scheduling.
+        List<CompletableFuture<Pair<XmlDocument, MergingReport.Builder>>> pendingLibraries =
+                new ArrayList<>();
+        List<ManifestInfo> manifestInfos = new ArrayList<>();
+        List<HashCode> contentHashes = new ArrayList<>();
         for (Pair<String, File> libraryFile : Sets.newLinkedHashSet(mLibraryFiles)) {
             mLogger.verbose("Loading library manifest " + libraryFile.getSecond().getPath());
             ManifestInfo manifestInfo =
@@ -950,35 +1155,49 @@ public class ManifestMerger2 {
                             libraryFile.getSecond(),
                             XmlDocument.Type.LIBRARY,
                             Optional.fromNullable(mainManifestPackageName));
-            File xmlFile = manifestInfo.mLocation;
-            XmlDocument libraryDocument;
-            try {
-                InputStream inputStream = mFileStreamProvider.getInputStream(xmlFile);
-                libraryDocument = XmlLoader.load(selectors,
-                        mSystemPropertyResolver,
-                        manifestInfo.mName,
-                        xmlFile,
-                        inputStream,
-                        XmlDocument.Type.LIBRARY,
-                        Optional.<String>absent()  /* mainManifestPackageName */);
+            byte[] content;
+            try (InputStream inputStream =
+                    mFileStreamProvider.getInputStream(manifestInfo.mLocation)) {
+                content = ByteStreams.toByteArray(inputStream);
             } catch (Exception e) {
                 throw new MergeFailureException(e);
             }
+            HashCode contentHash = Hashing.sha256().hashBytes(content);
+            manifestInfos.add(manifestInfo);
+            contentHashes.add(contentHash);
+            pendingLibraries.add(
+                    CompletableFuture.supplyAsync(
+                            () ->
+                                    loadLibrary(
+                                            selectors,
+                                            manifestInfo,
+                                            content,
+                                            contentHash,
+                                            mergingReportBuilder.getLogger()),
+                            ForkJoinPool.commonPool()));
+        }
+
+        ImmutableList.Builder<LoadedManifestInfo> loadedLibraryDocuments = ImmutableList.builder();
+        for (int i = 0; i < manifestInfos.size(); i++) {
+            ManifestInfo manifestInfo = manifestInfos.get(i);
+            Pair<XmlDocument, MergingReport.Builder> loadedLibrary;
+            try {
+                loadedLibrary = pendingLibraries.get(i).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw new MergeFailureException((Exception) e.getCause());
+                }
+                throw e;
+            }
+            XmlDocument libraryDocument = loadedLibrary.getFirst();
             // extract the package name...
             String libraryPackage = libraryDocument.getRootNode().getXml().getAttribute("package");
             // save it in the selector instance.
             if (!Strings.isNullOrEmpty(libraryPackage)) {
-                selectors.addSelector(libraryPackage, libraryFile.getFirst());
+                selectors.addSelector(libraryPackage, manifestInfo.getName());
             }
 
-            // perform placeholder substitution, this is useful when the library is using
-            // a placeholder in a key element, we however do not need to record these
-            // substitutions so feed it with a fake merging report.
-            MergingReport.Builder builder =
-                    new MergingReport.Builder(mergingReportBuilder.getLogger(), this);
-            builder.getActionRecorder().recordAddedNodeAction(libraryDocument.getRootNode(), false);
-            performPlaceHolderSubstitution(
-                    manifestInfo, libraryDocument, builder, MergingReport.Record.Severity.INFO);
+            MergingReport.Builder builder = loadedLibrary.getSecond();
             if (builder.hasErrors()) {
                 // we log the errors but continue, in case the error is of no consequence
                 // to the application consuming the library.
@@ -987,11 +1206,47 @@ public class ManifestMerger2 {
 
             loadedLibraryDocuments.add(new LoadedManifestInfo(manifestInfo,
                     Optional.fromNullable(libraryDocument.getPackageName()),
-                    libraryDocument));
+                    libraryDocument,
+                    contentHashes.get(i)));
         }
         return loadedLibraryDocuments.build();
     }
 
+    /**
+     * Parses a library manifest and performs its placeholder substitution. Runs on a worker
+     * thread, so it only touches the library's own document and merging report.
+     */
+    @NonNull
+    private Pair<XmlDocument, MergingReport.Builder> loadLibrary(
+            @NonNull SelectorResolver selectors,
+            @NonNull ManifestInfo manifestInfo,
+            @NonNull byte[] content,
+            @NonNull HashCode contentHash,
+            @NonNull ILogger logger) {
+        XmlDocument libraryDocument;
+        try {
+            libraryDocument =
+                    XmlLoader.loadLibrary(
+                            selectors,
+                            mSystemPropertyResolver,
+                            manifestInfo.mName,
+                            manifestInfo.mLocation,
+                            content,
+                            contentHash);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+
+        // perform placeholder substitution, this is useful when the library is using
+        // a placeholder in a key element, we however do not need to record these
+        // substitutions so feed it with a fake merging report.
+        MergingReport.Builder builder = new MergingReport.Builder(logger, this);
+        builder.getActionRecorder().recordAddedNodeAction(libraryDocument.getRootNode(), false);
+        performPlaceHolderSubstitution(
+                manifestInfo, libraryDocument, builder, MergingReport.Record.Severity.INFO);
+        return Pair.of(libraryDocument, builder);
+    }
+
     /**
      * Creates a new {@link com.android.manifmerger.ManifestMerger2.Invoker} instance to invoke
      * the merging tool to merge manifest files for an application.
@@ -1132,6 +1387,7 @@ public class ManifestMerger2 {
         private final MergeType mMergeType;
         @NonNull private  XmlDocument.Type mDocumentType;
         @Nullable private File mReportFile;
+        @Nullable private File mCheckpointDirectory;
 
         @Nullable
         private FileStreamProvider mFileStreamProvider;
@@ -1275,6 +1531,21 @@ public class ManifestMerger2 {
              * application name if none is specified. Used for legacy multidex.
              */
             ADD_SUPPORT_MULTIDEX_APPLICATION_IF_NO_NAME,
+
+            /**
+             * Merge each lower priority manifest in place into the merged document, only updating
+             * the parts of the document model that changed instead of re-parsing the whole merged
+             * document after each manifest. This produces the same result and is much faster when
+             * merging many manifests.
+             */
+            MERGE_IN_PLACE,
+
+            /**
+             * Store checkpoints of the merging state while merging library manifests, and resume
+             * from the last checkpoint whose inputs did not change instead of merging every
+             * manifest again. See {@link MergeCheckpoints}.
+             */
+            INCREMENTAL_MERGE,
         }
 
         /**
@@ -1306,6 +1577,19 @@ public class ManifestMerger2 {
             return this;
         }
 
+        /**
+         * Sets the directory to persist the checkpoints of the {@link Feature#INCREMENTAL_MERGE}
+         * feature to. If not called, checkpoints are only kept in memory.
+         *
+         * @param checkpointDirectory a directory only used by this merge invocation.
+         * @return itself.
+         */
+        @NonNull
+        public Invoker setCheckpointDirectory(@Nullable File checkpointDirectory) {
+            mCheckpointDirectory = checkpointDirectory;
+            return this;
+        }
+
         /**
          * Add one library file manifest, will be added last in the list of library files which will
          * make the parameter the lowest priority library manifest file.
@@ -1538,7 +1822,8 @@ public class ManifestMerger2 {
                             Optional.fromNullable(mReportFile),
                             mFeatureName,
                             fileStreamProvider,
-                            mNavigationFilesBuilder.build());
+                            mNavigationFilesBuilder.build(),
+                            mCheckpointDirectory);
             return manifestMerger.merge();
         }
 
@@ -1607,16 +1892,25 @@ public class ManifestMerger2 {
 
         @NonNull private final XmlDocument mXmlDocument;
         @NonNull private final Optional<String> mOriginalPackageName;
+        @Nullable private final HashCode mContentHash;
 
         private LoadedManifestInfo(@NonNull ManifestInfo manifestInfo,
                 @NonNull Optional<String> originalPackageName,
                 @NonNull XmlDocument xmlDocument) {
+            this(manifestInfo, originalPackageName, xmlDocument, null);
+        }
+
+        private LoadedManifestInfo(@NonNull ManifestInfo manifestInfo,
+                @NonNull Optional<String> originalPackageName,
+                @NonNull XmlDocument xmlDocument,
+                @Nullable HashCode contentHash) {
             super(manifestInfo.mName,
                     manifestInfo.mLocation,
                     manifestInfo.mType,
                     manifestInfo.getMainManifestPackageName());
             mXmlDocument = xmlDocument;
             mOriginalPackageName = originalPackageName;
+            mContentHash = contentHash;
         }
 
         @NonNull
@@ -1628,6 +1922,12 @@ public class ManifestMerger2 {
         public Optional<String> getOriginalPackageName() {
             return mOriginalPackageName;
         }
+
+        /** Returns the hash of the manifest content, only known for library manifests. */
+        @Nullable
+        public HashCode getContentHash() {
+            return mContentHash;
+        }
     }
 
     /**
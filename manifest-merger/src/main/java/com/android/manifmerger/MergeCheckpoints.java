@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import static com.android.manifmerger.PlaceholderHandler.KeyBasedValueResolver;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.ide.common.blame.SourceFile;
+import com.android.utils.FileUtils;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Daemon-wide cache of intermediate merging states.
+ *
+ * <p>Library manifests are merged one after the other into the result of merging the main
+ * manifest with its overlays, so the state reached after merging the first libraries only
+ * depends on the inputs merged so far. {@link ManifestMerger2} stores checkpoints of that state,
+ * keyed by a hash of those inputs, so that when a library changes the merging resumes from the
+ * last checkpoint before it rather than from the main manifest.
+ *
+ * <p>A checkpoint holds a copy of the merged document along with the node provenance recorded
+ * by the {@link ActionRecorder} and the messages reported so far, which are all restored into
+ * the merging report when merging resumes.
+ *
+ * <p>Checkpoints can also be persisted in a directory, one file per key, so that they outlive the
+ * daemon. The document is written as XML along with the {@link
+ * com.android.ide.common.blame.SourcePosition} of its nodes, see {@link DomSnapshot}, and the
+ * records are written as JSON like the {@link Actions} of the merging report.
+ */
+final class MergeCheckpoints {
+
+    private static final Cache<HashCode, Checkpoint> CHECKPOINTS =
+            CacheBuilder.newBuilder().softValues().maximumSize(256).build();
+
+    private MergeCheckpoints() {}
+
+    /**
+     * Returns the checkpoint stored under the given key, if any.
+     *
+     * @param key the hash of all the inputs that led to the checkpoint state.
+     * @param directory the directory checkpoints are persisted to, if any. It is only read when
+     *     the checkpoint is not in memory.
+     */
+    @Nullable
+    static Checkpoint get(@NonNull HashCode key, @Nullable File directory) {
+        Checkpoint checkpoint = CHECKPOINTS.getIfPresent(key);
+        if (checkpoint == null && directory != null) {
+            checkpoint = read(getFile(directory, key));
+            if (checkpoint != null) {
+                CHECKPOINTS.put(key, checkpoint);
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Stores a checkpoint of the current merging state.
+     *
+     * @param key the hash of all the inputs that led to this state.
+     * @param mergedDocument the document merged so far.
+     * @param mergingReportBuilder the merging report of the current merge.
+     * @param firstRecord the number of messages that were reported before merging started, which
+     *     are reported again whenever the merging resumes from this checkpoint.
+     * @param directory the directory to persist the checkpoint to, if any.
+     */
+    static void put(
+            @NonNull HashCode key,
+            @NonNull XmlDocument mergedDocument,
+            @NonNull MergingReport.Builder mergingReportBuilder,
+            int firstRecord,
+            @Nullable File directory)
+            throws IOException {
+        ImmutableList<MergingReport.Record> records = mergingReportBuilder.getRecords();
+        Checkpoint checkpoint =
+                new Checkpoint(
+                        new DomSnapshot(mergedDocument.getXml()),
+                        mergedDocument.getSourceFile(),
+                        mergedDocument.getFileType(),
+                        mergedDocument.getMainManifestPackageName(),
+                        mergingReportBuilder.getActionRecorder().copyRecords(),
+                        records.subList(firstRecord, records.size()));
+        CHECKPOINTS.put(key, checkpoint);
+        if (directory != null) {
+            write(checkpoint, getFile(directory, key));
+        }
+    }
+
+    /**
+     * Deletes the checkpoints persisted in the given directory, except the ones stored under the
+     * given keys.
+     */
+    static void retain(@NonNull File directory, @NonNull Collection<HashCode> keys)
+            throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> names =
+                keys.stream()
+                        .map(key -> getFile(directory, key).getName())
+                        .collect(Collectors.toSet());
+        for (File file : files) {
+            if (!names.contains(file.getName())) {
+                FileUtils.deletePath(file);
+            }
+        }
+    }
+
+    @NonNull
+    private static File getFile(@NonNull File directory, @NonNull HashCode key) {
+        return new File(directory, key + ".json");
+    }
+
+    @Nullable
+    private static Checkpoint read(@NonNull File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+            PersistedCheckpoint persisted =
+                    Actions.getGsonParser().fromJson(reader, PersistedCheckpoint.class);
+            if (persisted == null || !persisted.isComplete()) {
+                return null;
+            }
+            return new Checkpoint(
+                    DomSnapshot.fromXml(persisted.mXml, persisted.mPositions),
+                    persisted.mSourceFile,
+                    persisted.mType,
+                    Optional.fromNullable(persisted.mMainManifestPackageName),
+                    ImmutableMap.copyOf(persisted.mActions.getRecords()),
+                    ImmutableList.copyOf(persisted.mRecords));
+        } catch (IOException | JsonParseException e) {
+            // a checkpoint that cannot be read is merged again.
+            return null;
+        }
+    }
+
+    private static void write(@NonNull Checkpoint checkpoint, @NonNull File file)
+            throws IOException {
+        PersistedCheckpoint persisted =
+                new PersistedCheckpoint(
+                        checkpoint.mDocument.toXml(),
+                        checkpoint.mDocument.getPositions(),
+                        checkpoint.mSourceFile,
+                        checkpoint.mType,
+                        checkpoint.mMainManifestPackageName.orNull(),
+                        new Actions(checkpoint.mActions),
+                        checkpoint.mRecords);
+        FileUtils.mkdirs(file.getParentFile());
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), Charsets.UTF_8)) {
+            Actions.getGsonParser().toJson(persisted, writer);
+        }
+        FileUtils.renameTo(tmpFile, file);
+    }
+
+    @VisibleForTesting
+    static void clear() {
+        CHECKPOINTS.invalidateAll();
+    }
+
+    /** An immutable merging state, see {@link MergeCheckpoints}. */
+    static final class Checkpoint {
+
+        @NonNull private final DomSnapshot mDocument;
+        @NonNull private final SourceFile mSourceFile;
+        @NonNull private final XmlDocument.Type mType;
+        @NonNull private final Optional<String> mMainManifestPackageName;
+        @NonNull private final ImmutableMap<XmlNode.NodeKey, Actions.DecisionTreeRecord> mActions;
+        @NonNull private final ImmutableList<MergingReport.Record> mRecords;
+
+        private Checkpoint(
+                @NonNull DomSnapshot document,
+                @NonNull SourceFile sourceFile,
+                @NonNull XmlDocument.Type type,
+                @NonNull Optional<String> mainManifestPackageName,
+                @NonNull ImmutableMap<XmlNode.NodeKey, Actions.DecisionTreeRecord> actions,
+                @NonNull ImmutableList<MergingReport.Record> records) {
+            mDocument = document;
+            mSourceFile = sourceFile;
+            mType = type;
+            mMainManifestPackageName = mainManifestPackageName;
+            mActions = actions;
+            mRecords = records;
+        }
+
+        /**
+         * Restores this checkpoint into the given merging report.
+         *
+         * @return a new copy of the merged document.
+         */
+        @NonNull
+        XmlDocument restore(
+                @NonNull KeyResolver<String> selectors,
+                @NonNull KeyBasedValueResolver<ManifestSystemProperty> systemPropertyResolver,
+                @NonNull MergingReport.Builder mergingReportBuilder) {
+            mergingReportBuilder.getActionRecorder().restoreRecords(mActions);
+            mergingReportBuilder.addRecords(mRecords);
+            return new XmlDocument(
+                    mSourceFile,
+                    selectors,
+                    systemPropertyResolver,
+                    mDocument.copy().getDocumentElement(),
+                    mType,
+                    mMainManifestPackageName);
+        }
+    }
+
+    /** The persisted form of a {@link Checkpoint}. */
+    private static final class PersistedCheckpoint {
+
+        private final String mXml;
+        private final List<DomSnapshot.ElementPositions> mPositions;
+        private final SourceFile mSourceFile;
+        private final XmlDocument.Type mType;
+        @Nullable private final String mMainManifestPackageName;
+        private final Actions mActions;
+        private final List<MergingReport.Record> mRecords;
+
+        private PersistedCheckpoint(
+                @NonNull String xml,
+                @NonNull List<DomSnapshot.ElementPositions> positions,
+                @NonNull SourceFile sourceFile,
+                @NonNull XmlDocument.Type type,
+                @Nullable String mainManifestPackageName,
+                @NonNull Actions actions,
+                @NonNull List<MergingReport.Record> records) {
+            mXml = xml;
+            mPositions = positions;
+            mSourceFile = sourceFile;
+            mType = type;
+            mMainManifestPackageName = mainManifestPackageName;
+            mActions = actions;
+            mRecords = records;
+        }
+
+        /** Returns whether all the fields were read from the file. */
+        private boolean isComplete() {
+            return mXml != null
+                    && mPositions != null
+                    && mSourceFile != null
+                    && mType != null
+                    && mActions != null
+                    && mActions.getRecords() != null
+                    && mRecords != null;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.google.common.base.CaseFormat;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.SAXException;
@@ -339,6 +340,21 @@ public class MergingReport {
             return this;
         }
 
+        /** Returns the messages added so far. */
+        @NonNull
+        ImmutableList<Record> getRecords() {
+            return mRecordBuilder.build();
+        }
+
+        /** Adds messages previously obtained from {@link #getRecords()}. */
+        @NonNull
+        Builder addRecords(@NonNull List<Record> records) {
+            for (Record record : records) {
+                addMessage(record.getSourceLocation(), record.getSeverity(), record.getMessage());
+            }
+            return this;
+        }
+
         @NonNull
         Builder addMergingStage(@NonNull String xml) {
             mIntermediaryStages.add(xml);
@@ -173,6 +173,7 @@ public class XmlAttribute extends XmlNode {
         }
 
         // ok merge it in the higher priority element.
+        higherPriorityElement.markAttributesChanged();
         getName().addToNode(higherPriorityElement.getXml(), mergedValue);
 
         // and record the action.
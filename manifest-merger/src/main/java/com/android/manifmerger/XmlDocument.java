@@ -37,7 +37,10 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -89,6 +92,12 @@ public class XmlDocument {
     @NonNull
     private final Optional<String> mMainManifestPackageName;
 
+    // state of an in place merge, see mergeInPlace.
+    private boolean mMergingInPlace;
+    private int mIndexGeneration;
+    @NonNull
+    private final List<XmlElement> mElementsWithPendingChanges = new ArrayList<>();
+
     public XmlDocument(
             @NonNull SourceFile sourceLocation,
             @NonNull KeyResolver<String> selectors,
@@ -109,6 +118,11 @@ public class XmlDocument {
         return mType;
     }
 
+    @NonNull
+    Optional<String> getMainManifestPackageName() {
+        return mMainManifestPackageName;
+    }
+
     /**
      * Returns a pretty string representation of this document.
      */
@@ -167,6 +181,78 @@ public class XmlDocument {
                 : Optional.of(reparse());
     }
 
+    /**
+     * Merges a lower priority document into this document in place.
+     *
+     * <p>This is equivalent to {@link #merge(XmlDocument, MergingReport.Builder, boolean)}, but
+     * instead of re-parsing the whole document after the merge to pick up the new elements and
+     * attributes, only the elements that changed are updated. The children of the elements are
+     * also indexed by type and key, so looking them up does not require a scan.
+     *
+     * <p>Once all documents are merged, {@link #finishMergingInPlace()} must be called before
+     * the document is modified by other means.
+     *
+     * @return this document or {@link Optional#absent()} if there were errors during the merging
+     *     activities.
+     */
+    @NonNull
+    Optional<XmlDocument> mergeInPlace(
+            @NonNull XmlDocument lowerPriorityDocument,
+            @NonNull MergingReport.Builder mergingReportBuilder,
+            boolean addImplicitPermissions) {
+        mMergingInPlace = true;
+
+        if (getFileType() == Type.MAIN) {
+            mergingReportBuilder.getActionRecorder().recordAddedNodeAction(getRootNode(), false);
+        }
+
+        getRootNode().mergeWithLowerPriorityNode(
+                lowerPriorityDocument.getRootNode(), mergingReportBuilder);
+
+        // The changes are only committed after the implicit elements are added, so that this
+        // document is seen as it was before the merge, like when it is re-parsed.
+        addImplicitElements(
+                lowerPriorityDocument, this, mergingReportBuilder, addImplicitPermissions);
+        commitPendingChanges();
+
+        return mergingReportBuilder.hasErrors()
+                ? Optional.<XmlDocument>absent()
+                : Optional.of(this);
+    }
+
+    /**
+     * Ends the in place merging of this document, after which it can be modified by other means
+     * than merging.
+     */
+    void finishMergingInPlace() {
+        commitPendingChanges();
+        mMergingInPlace = false;
+        // keys may change from now on, drop the indexes.
+        mIndexGeneration++;
+    }
+
+    boolean isMergingInPlace() {
+        return mMergingInPlace;
+    }
+
+    int getIndexGeneration() {
+        return mIndexGeneration;
+    }
+
+    void addElementWithPendingChanges(@NonNull XmlElement element) {
+        mElementsWithPendingChanges.add(element);
+    }
+
+    private void commitPendingChanges() {
+        for (XmlElement element : mElementsWithPendingChanges) {
+            if (element.commitPendingChanges()) {
+                // the element is indexed with its former key by its parent.
+                mIndexGeneration++;
+            }
+        }
+        mElementsWithPendingChanges.clear();
+    }
+
     /**
      * Forces a re-parsing of the document
      * @return a new {@link com.android.manifmerger.XmlDocument} with up to date information.
@@ -226,6 +312,19 @@ public class XmlDocument {
      */
     @NonNull
     static SourcePosition getNodePosition(@NonNull Node xml) {
+        // nodes copied from a DomSnapshot carry their position with them.
+        Object position = xml.getUserData(DomSnapshot.POSITION_KEY);
+        if (position == null && xml instanceof Attr) {
+            // attributes added after the copy was made are approximated by the position of
+            // their element, like PositionXmlParser does for attributes it cannot find.
+            Element ownerElement = ((Attr) xml).getOwnerElement();
+            if (ownerElement != null) {
+                position = ownerElement.getUserData(DomSnapshot.POSITION_KEY);
+            }
+        }
+        if (position instanceof SourcePosition) {
+            return (SourcePosition) position;
+        }
         return PositionXmlParser.getPosition(xml);
     }
 
@@ -616,9 +715,12 @@ public class XmlDocument {
             @Nullable String reason,
             @Nullable Pair<String, String>... attributes) {
 
-        Optional<XmlElement> xmlElementOptional =
-                reparsedXmlDocument.getByTypeAndKey(nodeType, keyValue);
-        if (xmlElementOptional.isPresent()) {
+        // when merging in place, the elements merged in are not committed yet.
+        boolean present =
+                reparsedXmlDocument == this
+                        ? getRootNode().hasNodeByTypeAndKeyIncludingPending(nodeType, keyValue)
+                        : reparsedXmlDocument.getByTypeAndKey(nodeType, keyValue).isPresent();
+        if (present) {
             return Optional.absent();
         }
         Element elementNS = getXml().createElement(nodeType.toXmlName());
@@ -642,6 +744,7 @@ public class XmlDocument {
         actionRecorder.recordImpliedNodeAction(xmlElement, reason);
 
         getRootNode().getXml().appendChild(elementNS);
+        getRootNode().markChildAdded(elementNS);
         return Optional.of(elementNS);
     }
 
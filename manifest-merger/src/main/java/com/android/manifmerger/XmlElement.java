@@ -34,9 +34,12 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -62,34 +65,58 @@ public class XmlElement extends OrphanXmlElement {
     @NonNull
     private final XmlDocument mDocument;
 
+    // the fields below are derived from the xml attributes and children, they are only updated
+    // after construction when the document is merged in place, see XmlDocument#mergeInPlace.
+
     @Nullable
-    private final NodeOperationType mNodeOperationType;
+    private NodeOperationType mNodeOperationType;
 
     // list of non tools related attributes.
     @NonNull
-    private final ImmutableList<XmlAttribute> mAttributes;
+    private ImmutableList<XmlAttribute> mAttributes;
 
     // map of all tools related attributes keyed by target attribute name
     @NonNull
-    private final Map<NodeName, AttributeOperationType> mAttributesOperationTypes;
+    private Map<NodeName, AttributeOperationType> mAttributesOperationTypes;
 
     // list of mergeable children elements.
     @NonNull
-    private final ImmutableList<XmlElement> mMergeableChildren;
+    private ImmutableList<XmlElement> mMergeableChildren;
 
     // optional selector declared on this xml element.
     @Nullable
-    private final Selector mSelector;
+    private Selector mSelector;
 
     // optional list of libraries that we should ignore the minSdk version
     @NonNull
-    private final List<Selector> mOverrideUsesSdkLibrarySelectors;
+    private List<Selector> mOverrideUsesSdkLibrarySelectors;
+
+    // index of the mergeable children by type and key, only used while the document is merged
+    // in place and valid as long as its generation is the document's index generation.
+    @Nullable
+    private Map<ManifestModel.NodeTypes, XmlElement> mFirstChildByType;
+    @Nullable
+    private Map<ManifestModel.NodeTypes, Map<String, XmlElement>> mChildByTypeAndKey;
+    private int mIndexGeneration;
+
+    // changes made to the xml during an in place merge and not reflected in the fields above yet.
+    @Nullable
+    private List<Element> mPendingChildren;
+    private boolean mPendingAttributes;
+    @Nullable
+    private String mKeyBeforeChanges;
 
 
     public XmlElement(@NonNull Element xml, @NonNull XmlDocument document) {
         super(xml);
 
         mDocument = Preconditions.checkNotNull(document);
+        initAttributes();
+        mMergeableChildren = initMergeableChildren();
+    }
+
+    private void initAttributes() {
+        Element xml = getXml();
         Selector selector = null;
         List<Selector> overrideUsesSdkLibrarySelectors = ImmutableList.of();
 
@@ -166,7 +193,6 @@ public class XmlElement extends OrphanXmlElement {
         }
         mNodeOperationType = lastNodeOperationType;
         mAttributes = attributesListBuilder.build();
-        mMergeableChildren = initMergeableChildren();
         mSelector = selector;
         mOverrideUsesSdkLibrarySelectors = overrideUsesSdkLibrarySelectors;
     }
@@ -349,6 +375,16 @@ public class XmlElement extends OrphanXmlElement {
             ManifestModel.NodeTypes type,
             @Nullable String keyValue) {
 
+        if (mDocument.isMergingInPlace()) {
+            indexChildren();
+            if (keyValue == null) {
+                return Optional.fromNullable(mFirstChildByType.get(type));
+            }
+            Map<String, XmlElement> childrenByKey = mChildByTypeAndKey.get(type);
+            return childrenByKey == null
+                    ? Optional.absent()
+                    : Optional.fromNullable(childrenByKey.get(keyValue));
+        }
         for (XmlElement xmlElement : mMergeableChildren) {
             if (xmlElement.isA(type) &&
                     (keyValue == null || keyValue.equals(xmlElement.getKey()))) {
@@ -358,6 +394,108 @@ public class XmlElement extends OrphanXmlElement {
         return Optional.absent();
     }
 
+    /**
+     * Returns true if this element has a child of a particular type and a particular key,
+     * including the children added since the last {@link #commitPendingChanges()}.
+     */
+    boolean hasNodeByTypeAndKeyIncludingPending(
+            @NonNull ManifestModel.NodeTypes type, @Nullable String keyValue) {
+        if (getNodeByTypeAndKey(type, keyValue).isPresent()) {
+            return true;
+        }
+        if (mPendingChildren != null) {
+            for (Element pendingChild : mPendingChildren) {
+                OrphanXmlElement child = new OrphanXmlElement(pendingChild);
+                if (child.isA(type) && (keyValue == null || keyValue.equals(child.getKey()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void indexChildren() {
+        if (mChildByTypeAndKey != null && mIndexGeneration == mDocument.getIndexGeneration()) {
+            return;
+        }
+        mFirstChildByType = new EnumMap<>(ManifestModel.NodeTypes.class);
+        mChildByTypeAndKey = new EnumMap<>(ManifestModel.NodeTypes.class);
+        mIndexGeneration = mDocument.getIndexGeneration();
+        for (XmlElement child : mMergeableChildren) {
+            addToIndex(child);
+        }
+    }
+
+    private void addToIndex(@NonNull XmlElement child) {
+        // keep the first child of each type and key, as a scan of the children would.
+        mFirstChildByType.putIfAbsent(child.getType(), child);
+        String key = child.getKey();
+        if (key != null) {
+            mChildByTypeAndKey
+                    .computeIfAbsent(child.getType(), type -> new HashMap<>())
+                    .putIfAbsent(key, child);
+        }
+    }
+
+    /**
+     * Records that an attribute is about to be added to this element while its document is
+     * merged in place.
+     */
+    void markAttributesChanged() {
+        if (!mDocument.isMergingInPlace() || mPendingAttributes) {
+            return;
+        }
+        if (mPendingChildren == null) {
+            mDocument.addElementWithPendingChanges(this);
+        }
+        mPendingAttributes = true;
+        mKeyBeforeChanges = getKey();
+    }
+
+    /** Records that a child was appended to this element while its document is merged in place. */
+    void markChildAdded(@NonNull Element child) {
+        if (!mDocument.isMergingInPlace()) {
+            return;
+        }
+        if (mPendingChildren == null) {
+            if (!mPendingAttributes) {
+                mDocument.addElementWithPendingChanges(this);
+            }
+            mPendingChildren = new ArrayList<>();
+        }
+        mPendingChildren.add(child);
+    }
+
+    /**
+     * Updates the attributes and children of this element with the changes recorded since the
+     * last call, bringing it to the state a re-parsing of the document would produce.
+     *
+     * @return true if the key of this element changed.
+     */
+    boolean commitPendingChanges() {
+        boolean keyChanged = false;
+        if (mPendingAttributes) {
+            initAttributes();
+            keyChanged = !Objects.equals(mKeyBeforeChanges, getKey());
+            mPendingAttributes = false;
+            mKeyBeforeChanges = null;
+        }
+        if (mPendingChildren != null) {
+            ImmutableList.Builder<XmlElement> children = ImmutableList.builder();
+            children.addAll(mMergeableChildren);
+            for (Element pendingChild : mPendingChildren) {
+                XmlElement child = new XmlElement(pendingChild, mDocument);
+                children.add(child);
+                if (mChildByTypeAndKey != null) {
+                    addToIndex(child);
+                }
+            }
+            mMergeableChildren = children.build();
+            mPendingChildren = null;
+        }
+        return keyChanged;
+    }
+
     /**
      * Returns all immediate children of this node for a particular type, irrespective of their
      * key.
@@ -482,6 +620,7 @@ public class XmlElement extends OrphanXmlElement {
                 .getXml().getAttribute(SdkConstants.XMLNS_PREFIX + prefix);
 
         if (namespace != null) {
+            getDocument().getRootNode().markAttributesChanged();
             getDocument().getRootNode().getXml().setAttributeNS(
                     SdkConstants.XMLNS_URI, SdkConstants.XMLNS_PREFIX + prefix, namespace);
         }
@@ -661,6 +800,7 @@ public class XmlElement extends OrphanXmlElement {
         // only in the new file, just import it.
         Node node = getXml().getOwnerDocument().adoptNode(elementToBeAdded.getXml());
         getXml().appendChild(node);
+        markChildAdded((Element) node);
 
         // also adopt the child's comments if any.
         for (Node comment : comments) {
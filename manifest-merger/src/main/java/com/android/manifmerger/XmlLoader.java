@@ -22,6 +22,7 @@ import com.android.annotations.NonNull;
 import com.android.ide.common.blame.SourceFile;
 import com.android.utils.PositionXmlParser;
 import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -63,6 +64,35 @@ public final class XmlLoader {
                 mainManifestPackageName);
     }
 
+    /**
+     * Loads a library manifest from its content without doing xml validation, reusing the DOM
+     * parsed from identical content by earlier invocations, see {@link LibraryManifestCache}.
+     *
+     * @param displayName the xml file display name.
+     * @param xmlFile the xml file.
+     * @param content the content of the xml file.
+     * @param contentHash the SHA-256 hash of the content.
+     * @return the initialized {@link com.android.manifmerger.XmlDocument}
+     */
+    @NonNull
+    static XmlDocument loadLibrary(
+            @NonNull KeyResolver<String> selectors,
+            @NonNull KeyBasedValueResolver<ManifestSystemProperty> systemPropertyResolver,
+            @NonNull String displayName,
+            @NonNull File xmlFile,
+            @NonNull byte[] content,
+            @NonNull HashCode contentHash)
+            throws IOException, SAXException, ParserConfigurationException {
+        Document domDocument = LibraryManifestCache.getDocument(contentHash, content);
+        return new XmlDocument(
+                new SourceFile(xmlFile, displayName),
+                selectors,
+                systemPropertyResolver,
+                domDocument.getDocumentElement(),
+                XmlDocument.Type.LIBRARY,
+                Optional.absent());
+    }
+
     /**
      * Loads a xml document from its {@link String} representation without doing xml validation and
      * return a {@link com.android.manifmerger.XmlDocument}
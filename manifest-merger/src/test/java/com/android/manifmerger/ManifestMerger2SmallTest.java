@@ -32,6 +32,7 @@ import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
 import com.google.common.truth.Truth;
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -43,6 +44,7 @@ import java.util.logging.Logger;
 import javax.xml.parsers.ParserConfigurationException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
@@ -60,6 +62,8 @@ import org.xml.sax.SAXException;
 public class ManifestMerger2SmallTest {
     @Rule public MockitoRule rule = MockitoJUnit.rule();
 
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Mock
     private ActionRecorder mActionRecorder;
 
@@ -1294,6 +1298,297 @@ public class ManifestMerger2SmallTest {
         }
     }
 
+    /**
+     * Merges a synthetic application with many libraries both by re-parsing after each library
+     * and in place, checks the results are identical and logs the time taken by each.
+     */
+    @Test
+    public void testMergeInPlaceWithManyLibraries() throws Exception {
+        int libraryCount = 500;
+        MockLog mockLog = new MockLog();
+        String main =
+                ""
+                        + "<manifest\n"
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                        + "    package=\"com.example.app\">\n"
+                        + "    <uses-sdk android:minSdkVersion=\"15\" "
+                        + "android:targetSdkVersion=\"27\"/>\n"
+                        + "    <application android:label=\"@string/app_name\">\n"
+                        + "        <activity android:name=\".MainActivity\"/>\n"
+                        + "    </application>\n"
+                        + "</manifest>";
+        File mainFile = TestUtils.inputAsFile("testMergeInPlaceWithManyLibraries", main);
+        File[] libraryFiles = new File[libraryCount];
+        for (int i = 0; i < libraryCount; i++) {
+            // every library adds its own components and shares some elements with the others.
+            String library =
+                    ""
+                            + "<manifest\n"
+                            + "    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                            + "    package=\"com.example.lib"
+                            + i
+                            + "\">\n"
+                            + "    <uses-sdk android:minSdkVersion=\"14\" "
+                            + "android:targetSdkVersion=\""
+                            + (i % 2 == 0 ? "27" : "3")
+                            + "\"/>\n"
+                            + "    <uses-permission android:name=\"android.permission.INTERNET\"/>\n"
+                            + "    <uses-permission android:name=\"com.example.permission.P"
+                            + (i % 50)
+                            + "\"/>\n"
+                            + "    <application android:allowBackup=\"true\">\n"
+                            + "        <activity android:name=\"com.example.lib"
+                            + i
+                            + ".LibActivity\"/>\n"
+                            + "        <service android:name=\"com.example.lib"
+                            + i
+                            + ".LibService\"/>\n"
+                            + "        <meta-data android:name=\"shared\" android:value=\"v\"/>\n"
+                            + "    </application>\n"
+                            + "</manifest>";
+            libraryFiles[i] = TestUtils.inputAsFile("testMergeInPlaceWithManyLibraries", library);
+        }
+
+        try {
+            long start = System.nanoTime();
+            MergingReport reparsingReport =
+                    ManifestMerger2.newMerger(
+                                    mainFile, mockLog, ManifestMerger2.MergeType.APPLICATION)
+                            .addLibraryManifests(libraryFiles)
+                            .merge();
+            long reparsingTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            MergingReport inPlaceReport =
+                    ManifestMerger2.newMerger(
+                                    mainFile, mockLog, ManifestMerger2.MergeType.APPLICATION)
+                            .withFeatures(ManifestMerger2.Invoker.Feature.MERGE_IN_PLACE)
+                            .addLibraryManifests(libraryFiles)
+                            .merge();
+            long inPlaceTime = System.nanoTime() - start;
+
+            Logger.getAnonymousLogger()
+                    .info(
+                            String.format(
+                                    "Merged %1$d libraries in %2$d ms by re-parsing, "
+                                            + "%3$d ms in place",
+                                    libraryCount,
+                                    reparsingTime / 1_000_000,
+                                    inPlaceTime / 1_000_000));
+
+            assertNotEquals(MergingReport.Result.ERROR, reparsingReport.getResult());
+            assertEquals(reparsingReport.getResult(), inPlaceReport.getResult());
+            assertEquals(
+                    reparsingReport.getMergedDocument(MergedManifestKind.MERGED),
+                    inPlaceReport.getMergedDocument(MergedManifestKind.MERGED));
+            assertEquals(
+                    reparsingReport.getMergedDocument(MergedManifestKind.BLAME),
+                    inPlaceReport.getMergedDocument(MergedManifestKind.BLAME));
+        } finally {
+            assertTrue(mainFile.delete());
+            for (File libraryFile : libraryFiles) {
+                assertTrue(libraryFile.delete());
+            }
+        }
+    }
+
+    /**
+     * Merges a synthetic application incrementally after one of its libraries changed, and checks
+     * the merging resumed from a checkpoint and produced the same result as a full merge.
+     */
+    @Test
+    public void testIncrementalMergeWithChangedLibrary() throws Exception {
+        int libraryCount = 40;
+        String main =
+                ""
+                        + "<manifest\n"
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                        + "    package=\"com.example.app\">\n"
+                        + "    <uses-sdk android:minSdkVersion=\"15\" "
+                        + "android:targetSdkVersion=\"27\"/>\n"
+                        + "    <application android:label=\"${appLabel}\">\n"
+                        + "        <activity android:name=\".MainActivity\"/>\n"
+                        + "    </application>\n"
+                        + "</manifest>";
+        File mainFile = TestUtils.inputAsFile("testIncrementalMergeWithChangedLibrary", main);
+        File[] libraryFiles = new File[libraryCount];
+        for (int i = 0; i < libraryCount; i++) {
+            libraryFiles[i] =
+                    TestUtils.inputAsFile(
+                            "testIncrementalMergeWithChangedLibrary", syntheticLibrary(i, ""));
+        }
+
+        try {
+            MergeCheckpoints.clear();
+            MergingReport firstReport = incrementalMerge(mainFile, libraryFiles, new MockLog());
+            assertNotEquals(MergingReport.Result.ERROR, firstReport.getResult());
+
+            // with 40 libraries, checkpoints are stored every 5 libraries.
+            Files.asCharSink(libraryFiles[37], Charsets.UTF_8)
+                    .write(
+                            syntheticLibrary(
+                                    37,
+                                    "        <receiver android:name="
+                                            + "\"com.example.lib37.LibReceiver\"/>\n"));
+            MockLog mockLog = new MockLog();
+            MergingReport incrementalReport = incrementalMerge(mainFile, libraryFiles, mockLog);
+            assertTrue(
+                    mockLog.getMessages()
+                            .stream()
+                            .anyMatch(m -> m.contains("Resuming merge after 35 library")));
+
+            MergingReport fullReport =
+                    ManifestMerger2.newMerger(
+                                    mainFile, new MockLog(), ManifestMerger2.MergeType.APPLICATION)
+                            .withFeatures(ManifestMerger2.Invoker.Feature.MERGE_IN_PLACE)
+                            .setPlaceHolderValue("appLabel", "App")
+                            .addLibraryManifests(libraryFiles)
+                            .merge();
+            assertTrue(
+                    fullReport
+                            .getMergedDocument(MergedManifestKind.MERGED)
+                            .contains("com.example.lib37.LibReceiver"));
+            assertSameReports(fullReport, incrementalReport);
+
+            // nothing changed, the merging resumes after the last library.
+            mockLog = new MockLog();
+            MergingReport upToDateReport = incrementalMerge(mainFile, libraryFiles, mockLog);
+            assertTrue(
+                    mockLog.getMessages()
+                            .stream()
+                            .anyMatch(m -> m.contains("Resuming merge after 40 library")));
+            assertSameReports(fullReport, upToDateReport);
+        } finally {
+            MergeCheckpoints.clear();
+            assertTrue(mainFile.delete());
+            for (File libraryFile : libraryFiles) {
+                assertTrue(libraryFile.delete());
+            }
+        }
+    }
+
+    /**
+     * Merges a synthetic application incrementally after one of its libraries changed and the
+     * checkpoints were dropped from memory, as in a new daemon, and checks the merging resumed
+     * from a persisted checkpoint and produced the same result as a full merge.
+     */
+    @Test
+    public void testIncrementalMergeFromPersistedCheckpoints() throws Exception {
+        int libraryCount = 16;
+        String main =
+                ""
+                        + "<manifest\n"
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                        + "    package=\"com.example.app\">\n"
+                        + "    <application android:label=\"${appLabel}\">\n"
+                        + "        <activity android:name=\".MainActivity\"/>\n"
+                        + "    </application>\n"
+                        + "</manifest>";
+        File mainFile = TestUtils.inputAsFile("testIncrementalMergeFromPersistedCheckpoints", main);
+        File[] libraryFiles = new File[libraryCount];
+        for (int i = 0; i < libraryCount; i++) {
+            libraryFiles[i] =
+                    TestUtils.inputAsFile(
+                            "testIncrementalMergeFromPersistedCheckpoints",
+                            syntheticLibrary(i, ""));
+        }
+        File checkpointDirectory = temporaryFolder.newFolder("checkpoints");
+
+        try {
+            MergeCheckpoints.clear();
+            MergingReport firstReport =
+                    incrementalMerge(mainFile, libraryFiles, new MockLog(), checkpointDirectory);
+            assertNotEquals(MergingReport.Result.ERROR, firstReport.getResult());
+            // with 16 libraries, checkpoints are stored every 2 libraries and after the last one.
+            assertEquals(9, checkpointDirectory.list().length);
+
+            MergeCheckpoints.clear();
+            Files.asCharSink(libraryFiles[13], Charsets.UTF_8)
+                    .write(
+                            syntheticLibrary(
+                                    13,
+                                    "        <receiver android:name="
+                                            + "\"com.example.lib13.LibReceiver\"/>\n"));
+            MockLog mockLog = new MockLog();
+            MergingReport incrementalReport =
+                    incrementalMerge(mainFile, libraryFiles, mockLog, checkpointDirectory);
+            assertTrue(
+                    mockLog.getMessages()
+                            .stream()
+                            .anyMatch(m -> m.contains("Resuming merge after 12 library")));
+            // the checkpoints of the previous inputs after library 13 were deleted.
+            assertEquals(9, checkpointDirectory.list().length);
+
+            MergingReport fullReport =
+                    ManifestMerger2.newMerger(
+                                    mainFile, new MockLog(), ManifestMerger2.MergeType.APPLICATION)
+                            .withFeatures(ManifestMerger2.Invoker.Feature.MERGE_IN_PLACE)
+                            .setPlaceHolderValue("appLabel", "App")
+                            .addLibraryManifests(libraryFiles)
+                            .merge();
+            assertSameReports(fullReport, incrementalReport);
+        } finally {
+            MergeCheckpoints.clear();
+            assertTrue(mainFile.delete());
+            for (File libraryFile : libraryFiles) {
+                assertTrue(libraryFile.delete());
+            }
+        }
+    }
+
+    private static MergingReport incrementalMerge(
+            File mainFile, File[] libraryFiles, MockLog mockLog) throws Exception {
+        return incrementalMerge(mainFile, libraryFiles, mockLog, null);
+    }
+
+    private static MergingReport incrementalMerge(
+            File mainFile, File[] libraryFiles, MockLog mockLog, File checkpointDirectory)
+            throws Exception {
+        return ManifestMerger2.newMerger(mainFile, mockLog, ManifestMerger2.MergeType.APPLICATION)
+                .withFeatures(
+                        ManifestMerger2.Invoker.Feature.MERGE_IN_PLACE,
+                        ManifestMerger2.Invoker.Feature.INCREMENTAL_MERGE)
+                .setPlaceHolderValue("appLabel", "App")
+                .addLibraryManifests(libraryFiles)
+                .setCheckpointDirectory(checkpointDirectory)
+                .merge();
+    }
+
+    private static void assertSameReports(MergingReport expected, MergingReport actual) {
+        assertEquals(expected.getResult(), actual.getResult());
+        assertEquals(
+                expected.getMergedDocument(MergedManifestKind.MERGED),
+                actual.getMergedDocument(MergedManifestKind.MERGED));
+        assertEquals(
+                expected.getMergedDocument(MergedManifestKind.BLAME),
+                actual.getMergedDocument(MergedManifestKind.BLAME));
+        assertEquals(
+                expected.getLoggingRecords().toString(), actual.getLoggingRecords().toString());
+    }
+
+    private static String syntheticLibrary(int index, String extraComponents) {
+        return ""
+                + "<manifest\n"
+                + "    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    package=\"com.example.lib"
+                + index
+                + "\">\n"
+                + "    <uses-sdk android:minSdkVersion=\"14\" android:targetSdkVersion=\""
+                + (index % 2 == 0 ? "27" : "3")
+                + "\"/>\n"
+                + "    <uses-permission android:name=\"com.example.permission.P"
+                + (index % 5)
+                + "\"/>\n"
+                + "    <application android:allowBackup=\"true\">\n"
+                + "        <activity android:name=\"com.example.lib"
+                + index
+                + ".LibActivity\"/>\n"
+                + extraComponents
+                + "        <meta-data android:name=\"shared\" android:value=\"v\"/>\n"
+                + "    </application>\n"
+                + "</manifest>";
+    }
+
     public static void validateFeatureName(
             ManifestMerger2.Invoker invoker, String featureName, boolean isValid) throws Exception {
         try {
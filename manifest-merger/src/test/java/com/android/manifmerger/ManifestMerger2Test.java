@@ -141,15 +141,23 @@ public class ManifestMerger2Test {
                             "92_do_not_duplicate_xmlns_when_injecting_into_added_application_node.xml"));
 
 
-    @Parameterized.Parameters(name = "{0}")
+    @Parameterized.Parameters(name = "{0} mergeInPlace={1}")
     public static Collection<Object[]> getParameters() {
-        return transformParameters(DATA_FILES);
+        // every test file is merged both by re-parsing after each merge and in place.
+        List<Object[]> parameters = new ArrayList<>();
+        for (Object[] fileName : transformParameters(DATA_FILES)) {
+            parameters.add(new Object[] {fileName[0], false});
+            parameters.add(new Object[] {fileName[0], true});
+        }
+        return parameters;
     }
 
     private final String fileName;
+    private final boolean mergeInPlace;
 
-    public ManifestMerger2Test(String fileName) {
+    public ManifestMerger2Test(String fileName, boolean mergeInPlace) {
         this.fileName = fileName;
+        this.mergeInPlace = mergeInPlace;
     }
 
     @Test
@@ -166,6 +174,9 @@ public class ManifestMerger2Test {
         if (DATA_FILES_DEBUGGABLE.contains(fileName)) {
             optionalFeatures.add(ManifestMerger2.Invoker.Feature.DEBUGGABLE);
         }
+        if (mergeInPlace) {
+            optionalFeatures.add(ManifestMerger2.Invoker.Feature.MERGE_IN_PLACE);
+        }
 
         StdLogger stdLogger = new StdLogger(StdLogger.Level.VERBOSE);
         ManifestMerger2.Invoker invoker =
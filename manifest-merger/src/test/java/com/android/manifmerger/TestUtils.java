@@ -36,7 +36,7 @@ import org.xml.sax.SAXException;
  */
 public class TestUtils {
 
-    private static final KeyResolver<String> NULL_RESOLVER = new KeyResolver<String>() {
+    static final KeyResolver<String> NULL_RESOLVER = new KeyResolver<String>() {
         @Nullable
         @Override
         public String resolve(String key) {
@@ -49,7 +49,7 @@ public class TestUtils {
         }
     };
 
-    private static final KeyBasedValueResolver<ManifestSystemProperty> NO_PROPERTY_RESOLVER =
+    static final KeyBasedValueResolver<ManifestSystemProperty> NO_PROPERTY_RESOLVER =
             new KeyBasedValueResolver<ManifestSystemProperty>() {
                 @Nullable
                 @Override
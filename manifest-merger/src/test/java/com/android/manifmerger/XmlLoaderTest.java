@@ -22,7 +22,11 @@ import com.android.ide.common.xml.XmlFormatPreferences;
 import com.android.ide.common.xml.XmlFormatStyle;
 import com.android.ide.common.xml.XmlPrettyPrinter;
 import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import javax.xml.parsers.ParserConfigurationException;
 import junit.framework.TestCase;
 import org.w3c.dom.Attr;
@@ -160,6 +164,52 @@ public class XmlLoaderTest extends TestCase {
         assertEquals("replace", tools.getNodeValue());
     }
 
+    public void testLoadLibraryReusesParsedContent()
+            throws IOException, SAXException, ParserConfigurationException {
 
+        String input = ""
+                + "<manifest\n"
+                + "    xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                + "    package=\"com.example.lib3\">\n"
+                + "\n"
+                + "    <application\n"
+                + "        android:label=\"${label}\" />\n"
+                + "\n"
+                + "</manifest>";
+        byte[] content = input.getBytes(StandardCharsets.UTF_8);
+        HashCode contentHash = Hashing.sha256().hashBytes(content);
+        File xmlFile = new File("AndroidManifest.xml");
+
+        XmlDocument parsed = TestUtils.xmlLibraryFromString(
+                TestUtils.sourceFile(getClass(), "testLoadLibraryReusesParsedContent()"), input);
+        XmlDocument first = XmlLoader.loadLibrary(
+                TestUtils.NULL_RESOLVER, TestUtils.NO_PROPERTY_RESOLVER, "lib", xmlFile, content,
+                contentHash);
+        XmlDocument second = XmlLoader.loadLibrary(
+                TestUtils.NULL_RESOLVER, TestUtils.NO_PROPERTY_RESOLVER, "lib", xmlFile, content,
+                contentHash);
+
+        Element firstApplication = getApplication(first);
+        Element secondApplication = getApplication(second);
+        assertNotSame(firstApplication, secondApplication);
+
+        // copies carry the positions of the originally parsed nodes.
+        Attr label = getApplication(parsed).getAttributeNodeNS(SdkConstants.ANDROID_URI, "label");
+        Attr firstLabel = firstApplication.getAttributeNodeNS(SdkConstants.ANDROID_URI, "label");
+        assertEquals(XmlDocument.getNodePosition(getApplication(parsed)),
+                XmlDocument.getNodePosition(secondApplication));
+        assertEquals(XmlDocument.getNodePosition(label), XmlDocument.getNodePosition(firstLabel));
+
+        // modifying one copy, as placeholder substitution does, leaves the other untouched.
+        firstLabel.setValue("@string/lib_name");
+        assertEquals("${label}",
+                secondApplication.getAttributeNS(SdkConstants.ANDROID_URI, "label"));
+    }
 
+    private static Element getApplication(XmlDocument xmlDocument) {
+        Optional<XmlElement> applicationOptional = xmlDocument.getRootNode()
+                .getNodeByTypeAndKey(ManifestModel.NodeTypes.APPLICATION, null);
+        assertTrue(applicationOptional.isPresent());
+        return applicationOptional.get().getXml();
+    }
 }
@@ -29,6 +29,7 @@ import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
 import com.google.wireless.android.sdk.stats.GradleBuildProject;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -37,6 +38,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -114,10 +116,64 @@ public class ChromeTracingProfileConverter {
     }
 
     public static void toJson(@NonNull Path protoFile) throws IOException, AbnormalExitException {
-        GradleBuildProfile profile;
+        GradleBuildProfile profile = parse(protoFile);
+        Map<Long, ProjectHolder> projects = getProjects(profile);
+        Path out = getJsonOutFile(protoFile);
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(out))) {
+            writer.beginArray();
+            writeMemorySamples(writer, profile);
+            for (GradleBuildProfileSpan span : profile.getSpanList()) {
+                writeSpan(
+                        writer,
+                        projects,
+                        span,
+                        span.getStartTimeInMs() * 1000,
+                        span.getDurationInMs() * 1000,
+                        ThreadResources.NOT_MEASURED,
+                        ThreadResources.NOT_MEASURED);
+            }
+            writer.endArray();
+        }
+    }
+
+    /**
+     * Converts a proto file to chrome tracing format, taking the spans from the trace they were
+     * recorded in rather than from the proto file, as they are more precise there.
+     */
+    static void toJson(@NonNull Path protoFile, @NonNull SpanTrace trace) throws IOException {
+        GradleBuildProfile profile = parse(protoFile);
+        Map<Long, ProjectHolder> projects = getProjects(profile);
+        Path out = getJsonOutFile(protoFile);
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(out))) {
+            writer.beginArray();
+            writeMemorySamples(writer, profile);
+            try {
+                trace.read(
+                        entry -> {
+                            try {
+                                writeSpan(
+                                        writer,
+                                        projects,
+                                        entry.toSpan(),
+                                        entry.getStartMicros(),
+                                        entry.getDurationMicros(),
+                                        entry.getThreadCpuNanos(),
+                                        entry.getAllocatedBytes());
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.endArray();
+        }
+    }
+
+    @NonNull
+    private static GradleBuildProfile parse(@NonNull Path protoFile) throws IOException {
         try {
-            profile = GradleBuildProfile
-                    .parseFrom(Files.readAllBytes(protoFile));
+            return GradleBuildProfile.parseFrom(Files.readAllBytes(protoFile));
         } catch (InvalidProtocolBufferException e) {
             throw new AbnormalExitException(
                     String.format(
@@ -126,86 +182,95 @@ public class ChromeTracingProfileConverter {
                             e.getMessage(),
                             protoFile));
         }
-        Path out = getJsonOutFile(protoFile);
+    }
 
-        Map<Long, ProjectHolder> projects =
-                profile.getProjectList().stream()
-                        .collect(Collectors.toMap(GradleBuildProject::getId, ProjectHolder::new));
+    @NonNull
+    private static Map<Long, ProjectHolder> getProjects(@NonNull GradleBuildProfile profile) {
+        return profile.getProjectList()
+                .stream()
+                .collect(Collectors.toMap(GradleBuildProject::getId, ProjectHolder::new));
+    }
 
-        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(out))) {
-            writer.beginArray();
-            long previousTime = 0;
-            for (GradleBuildMemorySample memorySample : profile.getMemorySampleList()) {
-                long timestamp = memorySample.getTimestamp() * 1000;
-                if (timestamp == previousTime) {
-                    timestamp += 1;
-                }
-                previousTime = timestamp;
-                writer.beginObject()
-                        .name("pid").value(0)
-                        .name("ph").value("i")
-                        .name("name").value("Memory sample")
-                        .name("ts").value(timestamp)
-                        .name("args");
-                {
-                    writer.beginObject();
-                    writer.name("JVM stats").value(memorySample.getJavaProcessStats().toString());
-                    writer.endObject();
-                }
+    private static void writeMemorySamples(
+            @NonNull JsonWriter writer, @NonNull GradleBuildProfile profile) throws IOException {
+        long previousTime = 0;
+        for (GradleBuildMemorySample memorySample : profile.getMemorySampleList()) {
+            long timestamp = memorySample.getTimestamp() * 1000;
+            if (timestamp == previousTime) {
+                timestamp += 1;
+            }
+            previousTime = timestamp;
+            writer.beginObject()
+                    .name("pid").value(0)
+                    .name("ph").value("i")
+                    .name("name").value("Memory sample")
+                    .name("ts").value(timestamp)
+                    .name("args");
+            {
+                writer.beginObject();
+                writer.name("JVM stats").value(memorySample.getJavaProcessStats().toString());
                 writer.endObject();
             }
-            for (GradleBuildProfileSpan span : profile.getSpanList()) {
-                writer
-                        .beginObject()
-                        .name("pid").value(1)
-                        .name("tid").value(span.getThreadId())
-                        .name("id").value(span.getId());
-                ImmutableMap.Builder<String, Object> args = ImmutableMap.builder();
-
-                args.put("span_id", span.getId());
-                ProjectHolder projectHolder = projects.get(span.getProject());
-                if (projectHolder != null ) {
-                    args.put("project", projectHolder.project);
-                    if (span.getVariant() != 0) {
-                        GradleBuildVariant variant = projectHolder.variants.get(span.getVariant());
-                        if (variant != null) {
-                            args.put("variant", variant);
-                        }
-                    }
-                }
-                switch (span.getType()) {
-                    case TASK_EXECUTION:
-                        writer.name("name").value("task: " + taskName(span));
-                        args.put("task", span.getTask());
-                        break;
-                    case TASK_TRANSFORM:
-                        writer.name("name").value("transform: " + transformName(span));
-                        args.put("transform", span.getTransform());
-                        break;
-                    case TASK_TRANSFORM_PREPARATION:
-                        writer.name("name").value("transform prep: " + transformName(span));
-                        args.put("transform", span.getTransform());
-                        break;
-                    default:
-                        writer.name("name").value(pretty(span.getType()));
-                        break;
-                }
+            writer.endObject();
+        }
+    }
+
+    private static void writeSpan(
+            @NonNull JsonWriter writer,
+            @NonNull Map<Long, ProjectHolder> projects,
+            @NonNull GradleBuildProfileSpan span,
+            long startMicros,
+            long durationMicros,
+            long threadCpuNanos,
+            long allocatedBytes)
+            throws IOException {
+        writer
+                .beginObject()
+                .name("pid").value(1)
+                .name("tid").value(span.getThreadId())
+                .name("id").value(span.getId());
+        ImmutableMap.Builder<String, Object> args = ImmutableMap.builder();
 
-                writer.name("args").beginObject();
-                for (Map.Entry<String, Object> entry : args.build().entrySet()) {
-                    writer.name(entry.getKey()).value(entry.getValue().toString());
+        args.put("span_id", span.getId());
+        if (allocatedBytes != ThreadResources.NOT_MEASURED) {
+            args.put("allocated_bytes", allocatedBytes);
+        }
+        ProjectHolder projectHolder = projects.get(span.getProject());
+        if (projectHolder != null ) {
+            args.put("project", projectHolder.project);
+            if (span.getVariant() != 0) {
+                GradleBuildVariant variant = projectHolder.variants.get(span.getVariant());
+                if (variant != null) {
+                    args.put("variant", variant);
                 }
-                writer.endObject();
-                long duration = span.getDurationInMs() * 1000;
-                writer
-                        .name("ph").value("X")
-                        .name("ts").value(span.getStartTimeInMs() * 1000)
-                        .name("dur").value(duration == 0 ? 100 : duration)
-                        .endObject();
             }
-            writer.endArray();
+        }
+        writer.name("name").value(spanName(span));
+        switch (span.getType()) {
+            case TASK_EXECUTION:
+                args.put("task", span.getTask());
+                break;
+            case TASK_TRANSFORM:
+            case TASK_TRANSFORM_PREPARATION:
+                args.put("transform", span.getTransform());
+                break;
+            default:
+                break;
         }
 
+        writer.name("args").beginObject();
+        for (Map.Entry<String, Object> entry : args.build().entrySet()) {
+            writer.name(entry.getKey()).value(entry.getValue().toString());
+        }
+        writer.endObject();
+        writer
+                .name("ph").value("X")
+                .name("ts").value(startMicros)
+                .name("dur").value(durationMicros == 0 ? 100 : durationMicros);
+        if (threadCpuNanos != ThreadResources.NOT_MEASURED) {
+            writer.name("tdur").value(TimeUnit.NANOSECONDS.toMicros(threadCpuNanos));
+        }
+        writer.endObject();
     }
 
     static final class ProjectHolder {
@@ -220,6 +285,21 @@ public class ChromeTracingProfileConverter {
         }
     }
 
+    /** Returns the name of a span, such as {@code "task: java compile"}. */
+    @NonNull
+    static String spanName(@NonNull GradleBuildProfileSpan span) {
+        switch (span.getType()) {
+            case TASK_EXECUTION:
+                return "task: " + taskName(span);
+            case TASK_TRANSFORM:
+                return "transform: " + transformName(span);
+            case TASK_TRANSFORM_PREPARATION:
+                return "transform prep: " + transformName(span);
+            default:
+                return pretty(span.getType());
+        }
+    }
+
     @NonNull
     private static String taskName(@NonNull GradleBuildProfileSpan span) {
         return pretty(GradleTaskExecutionType.forNumber(span.getTask().getType()));
@@ -234,14 +314,4 @@ public class ChromeTracingProfileConverter {
         return theEnum.toString().toLowerCase(Locale.US).replace('_', ' ');
     }
 
-    private static final class AbnormalExitException extends RuntimeException {
-        AbnormalExitException(@NonNull String text) {
-            super(text);
-        }
-
-        AbnormalExitException(@NonNull Throwable throwable) {
-            super(throwable);
-        }
-    }
-
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Records the garbage collections happening during a build, to attribute them to the spans they
+ * overlap with.
+ *
+ * <p>Collections are reported by the JVM through notifications, which are delivered
+ * asynchronously after each collection, so recording them has no cost for the spans themselves.
+ * Not all collections are stop-the-world pauses: concurrent collectors also report the duration
+ * of their concurrent cycles, which are then attributed to the spans they overlap with as well.
+ *
+ * <p>The listeners must be removed with {@link #close()} at the end of the build, as they
+ * reference the plugin class loader.
+ */
+final class GcPauses implements NotificationListener {
+
+    private final long mJvmStartTimeInMs = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private final List<NotificationEmitter> mEmitters = new ArrayList<>();
+
+    /** Start and end times of the collections, in milliseconds since epoch. */
+    private long[] mPauses = new long[64];
+
+    private int mCount = 0;
+
+    /** Whether the collections are sorted and do not overlap each other. */
+    private boolean mMerged = true;
+
+    GcPauses() {
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) bean;
+                emitter.addNotificationListener(this, null, null);
+                mEmitters.add(emitter);
+            }
+        }
+    }
+
+    @Override
+    public void handleNotification(@NonNull Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+                notification.getType())) {
+            return;
+        }
+        GcInfo gcInfo =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                        .getGcInfo();
+        synchronized (this) {
+            if (mCount * 2 == mPauses.length) {
+                mPauses = Arrays.copyOf(mPauses, mPauses.length * 2);
+            }
+            mPauses[mCount * 2] = mJvmStartTimeInMs + gcInfo.getStartTime();
+            mPauses[mCount * 2 + 1] = mJvmStartTimeInMs + gcInfo.getEndTime();
+            mCount++;
+            mMerged = false;
+        }
+    }
+
+    /**
+     * Returns the time spent in garbage collections between the given times, in milliseconds
+     * since epoch.
+     */
+    synchronized long getOverlap(long startTimeInMs, long endTimeInMs) {
+        if (!mMerged) {
+            merge();
+        }
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mPauses[middle * 2 + 1] <= startTimeInMs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        long overlap = 0;
+        for (int i = low; i < mCount && mPauses[i * 2] < endTimeInMs; i++) {
+            overlap +=
+                    Math.min(endTimeInMs, mPauses[i * 2 + 1])
+                            - Math.max(startTimeInMs, mPauses[i * 2]);
+        }
+        return overlap;
+    }
+
+    /**
+     * Sorts the collections and merges the overlapping ones, as the collectors of the different
+     * generations are notified independently.
+     */
+    private void merge() {
+        Integer[] order = new Integer[mCount];
+        for (int i = 0; i < mCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(mPauses[a * 2], mPauses[b * 2]));
+        long[] merged = new long[mPauses.length];
+        int count = 0;
+        for (int i : order) {
+            long start = mPauses[i * 2];
+            long end = mPauses[i * 2 + 1];
+            if (count > 0 && start <= merged[count * 2 - 1]) {
+                merged[count * 2 - 1] = Math.max(merged[count * 2 - 1], end);
+            } else {
+                merged[count * 2] = start;
+                merged[count * 2 + 1] = end;
+                count++;
+            }
+        }
+        mPauses = merged;
+        mCount = count;
+        mMerged = true;
+    }
+
+    /** Stops recording collections. */
+    void close() {
+        for (NotificationEmitter emitter : mEmitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                Logger.getLogger(GcPauses.class.getName())
+                        .log(Level.WARNING, "Failed to remove GC listener", e);
+            }
+        }
+        mEmitters.clear();
+    }
+}
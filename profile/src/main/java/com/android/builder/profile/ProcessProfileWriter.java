@@ -45,7 +45,8 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -72,9 +73,27 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
 
     private final boolean mEnableChromeTracingOutput;
 
+    /** Records the garbage collections of the build if resource usage is recorded. */
+    @Nullable private final GcPauses mGcPauses;
+
+    /**
+     * Thread id, CPU time and allocated bytes of the current thread at the start of the spans
+     * written with {@link #writeRecord}, if resource usage is recorded.
+     */
+    private final Map<Long, long[]> mResourceUsageStarts = new ConcurrentHashMap<>();
+
     private final AtomicLong lastRecordId = new AtomicLong(1);
 
-    private final ConcurrentLinkedQueue<GradleBuildProfileSpan> spans;
+    /** The spans of the build, streamed to disk as they are recorded. */
+    private final SpanTrace mTrace = new SpanTrace();
+
+    /**
+     * The span buffers of the threads which recorded spans during this build.
+     *
+     * <p>Buffers are owned by this writer rather than by a ThreadLocal so that they are released
+     * with it at the end of the build, along with the plugin classes they reference.
+     */
+    private final ConcurrentMap<Thread, SpanBuffer> mSpanBuffers = new ConcurrentHashMap<>();
 
     private final List<java.util.function.Supplier<String>> applicationIdSuppliers =
             Collections.synchronizedList(new ArrayList<>());
@@ -95,13 +114,39 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
     }
 
 
-    ProcessProfileWriter(boolean enableChromeTracingOutput) {
+    ProcessProfileWriter(boolean enableChromeTracingOutput, boolean enableResourceUsage) {
         mEnableChromeTracingOutput = enableChromeTracingOutput;
+        mGcPauses = enableResourceUsage ? new GcPauses() : null;
         mNameAnonymizer = new NameAnonymizer();
         mBuild = GradleBuildProfile.newBuilder();
         mStartMemoryStats = createAndRecordMemorySample();
         mProjects = CacheBuilder.newBuilder().build(new ProjectCacheLoader(mNameAnonymizer));
-        spans = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Returns the span buffer of the current thread.
+     *
+     * @param threadId the id to record the spans of the current thread with, if it does not have
+     *     a buffer yet.
+     */
+    @NonNull
+    SpanBuffer getSpanBuffer(long threadId) {
+        Thread thread = Thread.currentThread();
+        SpanBuffer spanBuffer = mSpanBuffers.get(thread);
+        if (spanBuffer == null) {
+            // Only the current thread adds its own buffer, so there is no race here.
+            spanBuffer = new SpanBuffer(mTrace, threadId, mGcPauses != null);
+            mSpanBuffers.put(thread, spanBuffer);
+        }
+        return spanBuffer;
+    }
+
+    long anonymizeProjectPath(@NonNull String project) {
+        return mNameAnonymizer.anonymizeProjectPath(project);
+    }
+
+    long anonymizeVariant(@NonNull String project, @Nullable String variant) {
+        return mNameAnonymizer.anonymizeVariant(project, variant);
     }
 
     /** Append a span record to the build profile. Thread safe. */
@@ -113,7 +158,31 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
 
         executionRecord.setProject(mNameAnonymizer.anonymizeProjectPath(project));
         executionRecord.setVariant(mNameAnonymizer.anonymizeVariant(project, variant));
-        spans.add(executionRecord.build());
+        long cpuNanos = ThreadResources.NOT_MEASURED;
+        long allocatedBytes = ThreadResources.NOT_MEASURED;
+        long[] start = mResourceUsageStarts.remove(executionRecord.getId());
+        if (start != null && start[0] == Thread.currentThread().getId()) {
+            cpuNanos = ThreadResources.delta(start[1], ThreadResources.getCpuTime());
+            allocatedBytes = ThreadResources.delta(start[2], ThreadResources.getAllocatedBytes());
+        }
+        mTrace.append(executionRecord.build(), cpuNanos, allocatedBytes);
+    }
+
+    /**
+     * Starts measuring the resources used by the current thread for the given record, if
+     * resource usage is recorded for this build. Thread safe.
+     */
+    @Override
+    public void startResourceUsage(long recordId) {
+        if (mGcPauses != null) {
+            mResourceUsageStarts.put(
+                    recordId,
+                    new long[] {
+                        Thread.currentThread().getId(),
+                        ThreadResources.getCpuTime(),
+                        ThreadResources.getAllocatedBytes()
+                    });
+        }
     }
 
     /**
@@ -121,7 +190,8 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
      * the processing queue. Write the final output file to the given path.
      *
      * <p>If chrome tracing output is enabled, this method will also create a second file, with a
-     * {@code .json} extension, in the same directory.
+     * {@code .json} extension, in the same directory. If resource usage is recorded, the resources
+     * used by each kind of span are written to a {@code -resources.json} file as well.
      *
      * <p>Should be called exactly once.
      */
@@ -129,9 +199,32 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
         checkState(!finished, "Already finished");
         finished = true;
 
-        // This will not throw ConcurrentModificationException if writeRecord() calls are still
-        // happening. ConcurrentLinkedQueue iterators are instead weakly consistent.
-        mBuild.addAllSpan(spans);
+        // Spans ending after this point are not part of the profile, as the trace is closed once
+        // it has been read.
+        for (SpanBuffer spanBuffer : mSpanBuffers.values()) {
+            spanBuffer.flush();
+        }
+        mSpanBuffers.clear();
+        mResourceUsageStarts.clear();
+        ResourceUsageReport resourceUsage = null;
+        if (mGcPauses != null) {
+            mGcPauses.close();
+            resourceUsage = new ResourceUsageReport(mGcPauses);
+        }
+        try {
+            ResourceUsageReport report = resourceUsage;
+            mTrace.read(
+                    entry -> {
+                        GradleBuildProfileSpan span = entry.toSpan();
+                        mBuild.addSpan(span);
+                        if (report != null) {
+                            report.add(span, entry);
+                        }
+                    });
+        } catch (IOException e) {
+            mTrace.delete();
+            throw new UncheckedIOException(e);
+        }
         GradleBuildMemorySample memoryStats = createAndRecordMemorySample();
         mBuild.setBuildTime(
                 memoryStats.getTimestamp() - mStartMemoryStats.getTimestamp());
@@ -162,11 +255,18 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
                 }
 
                 if (mEnableChromeTracingOutput) {
-                    ChromeTracingProfileConverter.toJson(outputFile);
+                    ChromeTracingProfileConverter.toJson(outputFile, mTrace);
+                }
+                if (resourceUsage != null) {
+                    resourceUsage.write(ResourceUsageReport.getJsonOutFile(outputFile));
                 }
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
+            } finally {
+                mTrace.delete();
             }
+        } else {
+            mTrace.delete();
         }
 
         // Public build profile.
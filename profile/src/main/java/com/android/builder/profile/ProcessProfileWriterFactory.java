@@ -81,6 +81,22 @@ public final class ProcessProfileWriterFactory {
             @NonNull String gradleVersion,
             @NonNull ILogger logger,
             boolean enableChromeTracingOutput) {
+        initialize(
+                rootProjectDirectoryPath, gradleVersion, logger, enableChromeTracingOutput, false);
+    }
+
+    /**
+     * Set up the the ProcessProfileWriter. Idempotent for multi-project builds.
+     *
+     * @param enableResourceUsage whether to record the CPU time, allocations and garbage
+     *     collections of each span.
+     */
+    public static void initialize(
+            @NonNull File rootProjectDirectoryPath,
+            @NonNull String gradleVersion,
+            @NonNull ILogger logger,
+            boolean enableChromeTracingOutput,
+            boolean enableResourceUsage) {
 
         synchronized (LOCK) {
             if (sINSTANCE.isInitialized()) {
@@ -88,6 +104,7 @@ public final class ProcessProfileWriterFactory {
             }
             sINSTANCE.setLogger(logger);
             sINSTANCE.setEnableChromeTracingOutput(enableChromeTracingOutput);
+            sINSTANCE.setEnableResourceUsage(enableResourceUsage);
             ProcessProfileWriter recorder =
                     sINSTANCE.get(); // Initialize the ProcessProfileWriter instance
             setGlobalProperties(recorder, rootProjectDirectoryPath, gradleVersion, logger);
@@ -143,7 +160,13 @@ public final class ProcessProfileWriterFactory {
 
     @VisibleForTesting
     public static void initializeForTests() {
+        initializeForTests(false);
+    }
+
+    @VisibleForTesting
+    static void initializeForTests(boolean enableResourceUsage) {
         sINSTANCE = new ProcessProfileWriterFactory();
+        sINSTANCE.setEnableResourceUsage(enableResourceUsage);
         ProcessProfileWriter recorder =
                 sINSTANCE.get(); // Initialize the ProcessProfileWriter instance
         recorder.resetForTests();
@@ -164,13 +187,16 @@ public final class ProcessProfileWriterFactory {
 
     private boolean enableChromeTracingOutput;
 
+    private boolean enableResourceUsage;
+
     synchronized ProcessProfileWriter get() {
         if (processProfileWriter == null) {
             if (mLogger == null) {
                 mLogger = new StdLogger(StdLogger.Level.INFO);
             }
             initializeAnalytics(mLogger, mScheduledExecutorService);
-            processProfileWriter = new ProcessProfileWriter(enableChromeTracingOutput);
+            processProfileWriter =
+                    new ProcessProfileWriter(enableChromeTracingOutput, enableResourceUsage);
         }
 
         return processProfileWriter;
@@ -179,4 +205,8 @@ public final class ProcessProfileWriterFactory {
     public void setEnableChromeTracingOutput(boolean enableChromeTracingOutput) {
         this.enableChromeTracingOutput = enableChromeTracingOutput;
     }
+
+    public void setEnableResourceUsage(boolean enableResourceUsage) {
+        this.enableResourceUsage = enableResourceUsage;
+    }
 }
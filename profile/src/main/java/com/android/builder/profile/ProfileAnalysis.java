@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Where the wall clock time of a build went, as computed by {@link ProfileAnalyzer}.
+ *
+ * <p>All times are in milliseconds, offsets are relative to the start of the first span.
+ */
+public final class ProfileAnalysis {
+
+    /** Number of entries of the longer lists printed in the text report. */
+    private static final int TEXT_REPORT_LIMIT = 20;
+
+    private final long wallTime;
+    private final long busyTime;
+    private final int peakParallelism;
+    @NonNull private final ImmutableList<PathElement> criticalPath;
+    @NonNull private final ImmutableMap<String, SpanStats> spanStats;
+    private final long bucketDuration;
+    @NonNull private final double[] parallelism;
+    @NonNull private final ImmutableList<IdleGap> idleGaps;
+
+    ProfileAnalysis(
+            long wallTime,
+            long busyTime,
+            int peakParallelism,
+            @NonNull ImmutableList<PathElement> criticalPath,
+            @NonNull ImmutableMap<String, SpanStats> spanStats,
+            long bucketDuration,
+            @NonNull double[] parallelism,
+            @NonNull ImmutableList<IdleGap> idleGaps) {
+        this.wallTime = wallTime;
+        this.busyTime = busyTime;
+        this.peakParallelism = peakParallelism;
+        this.criticalPath = criticalPath;
+        this.spanStats = spanStats;
+        this.bucketDuration = bucketDuration;
+        this.parallelism = parallelism;
+        this.idleGaps = idleGaps;
+    }
+
+    /** Time between the start of the first span and the end of the last one. */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /** Sum of the durations of the top level spans. */
+    public long getBusyTime() {
+        return busyTime;
+    }
+
+    /** Maximum number of top level spans running at the same time. */
+    public int getPeakParallelism() {
+        return peakParallelism;
+    }
+
+    /** Average number of top level spans running at the same time. */
+    public double getEffectiveParallelism() {
+        return wallTime == 0 ? 0 : (double) busyTime / wallTime;
+    }
+
+    /** The chain of top level spans that determined the end of the build, in order. */
+    @NonNull
+    public List<PathElement> getCriticalPath() {
+        return criticalPath;
+    }
+
+    /** Sum of the durations of the critical path elements, excluding the time waited for them. */
+    public long getCriticalPathTime() {
+        return criticalPath.stream().mapToLong(element -> element.duration).sum();
+    }
+
+    /** Statistics of the spans grouped by name, by decreasing self time. */
+    @NonNull
+    public Map<String, SpanStats> getSpanStats() {
+        return spanStats;
+    }
+
+    /** Duration of the intervals the parallelism over time is averaged over. */
+    public long getBucketDuration() {
+        return bucketDuration;
+    }
+
+    /** The average number of top level spans running during each interval of the build. */
+    @NonNull
+    public double[] getParallelism() {
+        return parallelism.clone();
+    }
+
+    /** The longest periods during which workers were idle, by decreasing idle worker time. */
+    @NonNull
+    public List<IdleGap> getIdleGaps() {
+        return idleGaps;
+    }
+
+    /** Total time the workers spent idle, assuming {@link #getPeakParallelism()} workers. */
+    public long getIdleWorkerTime() {
+        return (long) peakParallelism * wallTime - busyTime;
+    }
+
+    /** Writes a human readable report. */
+    public void writeText(@NonNull PrintWriter out) {
+        out.format(Locale.US, "Wall time:              %1$d ms%n", wallTime);
+        out.format(Locale.US, "Critical path:          %1$d ms%n", getCriticalPathTime());
+        out.format(
+                Locale.US,
+                "Parallelism:            %1$.2f effective, %2$d peak%n",
+                getEffectiveParallelism(),
+                peakParallelism);
+        out.format(Locale.US, "Idle worker time:       %1$d ms%n", getIdleWorkerTime());
+
+        out.format(Locale.US, "%nCritical path:%n");
+        for (PathElement element : criticalPath) {
+            out.format(
+                    Locale.US,
+                    "  %1$8d ms  +%2$-7d %3$s (project %4$d, thread %5$d)%6$s%n",
+                    element.start,
+                    element.duration,
+                    element.name,
+                    element.project,
+                    element.thread,
+                    element.wait > 0
+                            ? String.format(Locale.US, ", waited %1$d ms", element.wait)
+                            : "");
+        }
+
+        out.format(Locale.US, "%nSelf time by span:%n");
+        spanStats
+                .entrySet()
+                .stream()
+                .limit(TEXT_REPORT_LIMIT)
+                .forEach(
+                        entry ->
+                                out.format(
+                                        Locale.US,
+                                        "  %1$8d ms self  %2$8d ms total  %3$6dx  %4$s%n",
+                                        entry.getValue().selfTime,
+                                        entry.getValue().totalTime,
+                                        entry.getValue().count,
+                                        entry.getKey()));
+
+        out.format(Locale.US, "%nParallelism over time (per %1$d ms):%n ", bucketDuration);
+        for (double value : parallelism) {
+            out.format(Locale.US, " %1$.1f", value);
+        }
+        out.println();
+
+        out.format(Locale.US, "%nIdle gaps:%n");
+        idleGaps.stream()
+                .limit(TEXT_REPORT_LIMIT)
+                .forEach(
+                        gap ->
+                                out.format(
+                                        Locale.US,
+                                        "  %1$8d ms  +%2$-7d %3$d idle workers%n",
+                                        gap.start,
+                                        gap.duration,
+                                        gap.idleWorkers));
+        out.flush();
+    }
+
+    /** Writes the full report as JSON. */
+    public void writeJson(@NonNull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("wallTimeMs").value(wallTime);
+        writer.name("busyTimeMs").value(busyTime);
+        writer.name("criticalPathMs").value(getCriticalPathTime());
+        writer.name("effectiveParallelism").value(getEffectiveParallelism());
+        writer.name("peakParallelism").value(peakParallelism);
+        writer.name("idleWorkerTimeMs").value(getIdleWorkerTime());
+
+        writer.name("criticalPath").beginArray();
+        for (PathElement element : criticalPath) {
+            writer.beginObject()
+                    .name("name").value(element.name)
+                    .name("spanId").value(element.spanId)
+                    .name("project").value(element.project)
+                    .name("thread").value(element.thread)
+                    .name("startMs").value(element.start)
+                    .name("durationMs").value(element.duration)
+                    .name("waitMs").value(element.wait)
+                    .endObject();
+        }
+        writer.endArray();
+
+        writer.name("spans").beginArray();
+        for (Map.Entry<String, SpanStats> entry : spanStats.entrySet()) {
+            writer.beginObject()
+                    .name("name").value(entry.getKey())
+                    .name("count").value(entry.getValue().count)
+                    .name("selfTimeMs").value(entry.getValue().selfTime)
+                    .name("totalTimeMs").value(entry.getValue().totalTime)
+                    .endObject();
+        }
+        writer.endArray();
+
+        writer.name("parallelism").beginObject();
+        writer.name("bucketMs").value(bucketDuration);
+        writer.name("values").beginArray();
+        for (double value : parallelism) {
+            writer.value(value);
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("idleGaps").beginArray();
+        for (IdleGap gap : idleGaps) {
+            writer.beginObject()
+                    .name("startMs").value(gap.start)
+                    .name("durationMs").value(gap.duration)
+                    .name("idleWorkers").value(gap.idleWorkers)
+                    .endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /** A top level span on the critical path. */
+    public static final class PathElement {
+        @NonNull public final String name;
+        public final long spanId;
+        public final long project;
+        public final long thread;
+        public final long start;
+        public final long duration;
+        /** Time between the end of the previous element and the start of this one. */
+        public final long wait;
+
+        PathElement(
+                @NonNull String name,
+                long spanId,
+                long project,
+                long thread,
+                long start,
+                long duration,
+                long wait) {
+            this.name = name;
+            this.spanId = spanId;
+            this.project = project;
+            this.thread = thread;
+            this.start = start;
+            this.duration = duration;
+            this.wait = wait;
+        }
+    }
+
+    /** Statistics of the spans sharing the same name. */
+    public static final class SpanStats {
+        public final int count;
+        /** Time spent in the spans themselves, excluding the time spent in their children. */
+        public final long selfTime;
+        public final long totalTime;
+
+        SpanStats(int count, long selfTime, long totalTime) {
+            this.count = count;
+            this.selfTime = selfTime;
+            this.totalTime = totalTime;
+        }
+    }
+
+    /** A period during which fewer top level spans than the peak parallelism were running. */
+    public static final class IdleGap {
+        public final long start;
+        public final long duration;
+        public final int idleWorkers;
+
+        IdleGap(long start, long duration, int idleWorkers) {
+            this.start = start;
+            this.duration = duration;
+            this.idleWorkers = idleWorkers;
+        }
+    }
+}
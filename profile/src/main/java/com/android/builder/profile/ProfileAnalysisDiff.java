@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Differences between the {@link ProfileAnalysis} of a baseline build and of a new build.
+ *
+ * <p>Spans are matched by name, as the project and variant ids of a profile are only meaningful
+ * within that profile. A difference is a regression when the new build is slower by more than
+ * both the absolute and the relative thresholds.
+ */
+public final class ProfileAnalysisDiff {
+
+    static final long DEFAULT_THRESHOLD_MS = 500;
+    static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    @NonNull private final ImmutableList<Entry> entries;
+
+    public ProfileAnalysisDiff(
+            @NonNull ProfileAnalysis baseline,
+            @NonNull ProfileAnalysis current,
+            long thresholdMs,
+            double thresholdPercent) {
+        List<Entry> entries = new ArrayList<>();
+        entries.add(
+                new Entry(
+                        "wall time",
+                        baseline.getWallTime(),
+                        current.getWallTime(),
+                        thresholdMs,
+                        thresholdPercent));
+        entries.add(
+                new Entry(
+                        "critical path",
+                        baseline.getCriticalPathTime(),
+                        current.getCriticalPathTime(),
+                        thresholdMs,
+                        thresholdPercent));
+
+        List<Entry> spanEntries = new ArrayList<>();
+        Set<String> names =
+                Sets.union(baseline.getSpanStats().keySet(), current.getSpanStats().keySet());
+        for (String name : names) {
+            ProfileAnalysis.SpanStats before = baseline.getSpanStats().get(name);
+            ProfileAnalysis.SpanStats after = current.getSpanStats().get(name);
+            spanEntries.add(
+                    new Entry(
+                            name,
+                            before != null ? before.selfTime : 0,
+                            after != null ? after.selfTime : 0,
+                            thresholdMs,
+                            thresholdPercent));
+        }
+        spanEntries.sort(
+                Comparator.comparingLong((Entry entry) -> -Math.abs(entry.getDelta()))
+                        .thenComparing(entry -> entry.name));
+        entries.addAll(spanEntries);
+        this.entries = ImmutableList.copyOf(entries);
+    }
+
+    /**
+     * The overall differences followed by the differences in self time of each span name, by
+     * decreasing absolute difference.
+     */
+    @NonNull
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public boolean hasRegressions() {
+        return entries.stream().anyMatch(entry -> entry.regression);
+    }
+
+    /** Writes a human readable report of the differences. */
+    public void writeText(@NonNull PrintWriter out) {
+        for (Entry entry : entries) {
+            if (entry.getDelta() == 0) {
+                continue;
+            }
+            out.format(
+                    Locale.US,
+                    "%1$s %2$8d ms -> %3$8d ms  %4$+8d ms  %5$s%n",
+                    entry.regression ? "!" : " ",
+                    entry.baseline,
+                    entry.current,
+                    entry.getDelta(),
+                    entry.name);
+        }
+        out.format(
+                Locale.US,
+                hasRegressions() ? "%nRegressions found.%n" : "%nNo regressions found.%n");
+        out.flush();
+    }
+
+    /** Writes all the differences as JSON. */
+    public void writeJson(@NonNull JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("hasRegressions").value(hasRegressions());
+        writer.name("entries").beginArray();
+        for (Entry entry : entries) {
+            writer.beginObject()
+                    .name("name").value(entry.name)
+                    .name("baselineMs").value(entry.baseline)
+                    .name("currentMs").value(entry.current)
+                    .name("regression").value(entry.regression)
+                    .endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    /** A measure compared between the two builds. */
+    public static final class Entry {
+        @NonNull public final String name;
+        public final long baseline;
+        public final long current;
+        public final boolean regression;
+
+        Entry(
+                @NonNull String name,
+                long baseline,
+                long current,
+                long thresholdMs,
+                double thresholdPercent) {
+            this.name = name;
+            this.baseline = baseline;
+            this.current = current;
+            long delta = current - baseline;
+            this.regression = delta > thresholdMs && delta * 100.0 > baseline * thresholdPercent;
+        }
+
+        public long getDelta() {
+            return current - baseline;
+        }
+    }
+}
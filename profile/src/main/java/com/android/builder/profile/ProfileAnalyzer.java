@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import static java.math.RoundingMode.CEILING;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.math.LongMath;
+import com.google.gson.stream.JsonWriter;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.wireless.android.sdk.stats.GradleBuildProfile;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Analyzes where the wall clock time of a build went, from its {@link GradleBuildProfile}.
+ *
+ * <p>The profile does not record the dependencies between tasks, so the span graph is
+ * reconstructed from the spans themselves:
+ *
+ * <ul>
+ *   <li>Spans recorded by {@link ThreadRecorder} are nested under the span that was running on
+ *       the same thread when they started, as recorded by their parent id.
+ *   <li>The remaining spans, other than task executions, are attached to the task execution of
+ *       the same project that contains them, as tasks do not record the thread they ran on.
+ *   <li>The spans left without a parent are the top level spans which compete for workers. The
+ *       critical path is the chain of top level spans ending with the last one, where each span
+ *       is preceded by the span that ended last before it started, as that is the one which was
+ *       most likely blocking it.
+ * </ul>
+ *
+ * <p>Can be run from the command line to print a report and write it as JSON, or to compare two
+ * profiles and fail when the build got slower, see {@link #main(String[])}.
+ */
+public final class ProfileAnalyzer {
+
+    /** Number of intervals the parallelism over time is computed for. */
+    private static final int PARALLELISM_BUCKETS = 50;
+
+    /** Idle gaps shorter than this are not reported. */
+    private static final long MIN_IDLE_GAP_MS = 100;
+
+    private static final int MAX_IDLE_GAPS = 100;
+
+    private ProfileAnalyzer() {}
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args));
+        } catch (AbnormalExitException e) {
+            System.err.println(e.getMessage());
+            if (e.getCause() != null) {
+                System.err.println(Throwables.getStackTraceAsString(e));
+            }
+            System.err.println();
+            System.err.println("Usage:  ProfileAnalyzer <proto_file>");
+            System.err.println("        ProfileAnalyzer --diff <baseline_proto_file> <proto_file>");
+            System.err.println("                [--threshold-ms <ms>] [--threshold-percent <%>]");
+            System.err.println();
+            System.err.println("Given a proto file, prints where the build time went and writes");
+            System.err.println("the same report as json in the same directory.");
+            System.err.println();
+            System.err.println("Given two proto files, prints the differences between them,");
+            System.err.println("writes them as json next to the second file and exits with");
+            System.err.println("status 2 if the second build is slower by more than the");
+            System.err.println("thresholds, either overall or for any task or transform.");
+            System.exit(1);
+        }
+    }
+
+    private static int run(@NonNull String[] args) {
+        PrintWriter out =
+                new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            if (args.length == 1) {
+                Path profileFile = Paths.get(args[0]);
+                ProfileAnalysis analysis = analyze(load(profileFile));
+                analysis.writeText(out);
+                Path jsonFile = getJsonOutFile(profileFile, "-analysis.json");
+                try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(jsonFile))) {
+                    writer.setIndent("  ");
+                    analysis.writeJson(writer);
+                }
+                return 0;
+            }
+            if (args.length >= 3 && args[0].equals("--diff")) {
+                long thresholdMs = ProfileAnalysisDiff.DEFAULT_THRESHOLD_MS;
+                double thresholdPercent = ProfileAnalysisDiff.DEFAULT_THRESHOLD_PERCENT;
+                for (int i = 3; i < args.length; i += 2) {
+                    if (i + 1 == args.length) {
+                        throw new AbnormalExitException("Missing value for " + args[i]);
+                    }
+                    try {
+                        if (args[i].equals("--threshold-ms")) {
+                            thresholdMs = Long.parseLong(args[i + 1]);
+                        } else if (args[i].equals("--threshold-percent")) {
+                            thresholdPercent = Double.parseDouble(args[i + 1]);
+                        } else {
+                            throw new AbnormalExitException("Unknown option: " + args[i]);
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new AbnormalExitException(e);
+                    }
+                }
+                ProfileAnalysisDiff diff =
+                        new ProfileAnalysisDiff(
+                                analyze(load(Paths.get(args[1]))),
+                                analyze(load(Paths.get(args[2]))),
+                                thresholdMs,
+                                thresholdPercent);
+                diff.writeText(out);
+                Path jsonFile = getJsonOutFile(Paths.get(args[2]), "-diff.json");
+                try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(jsonFile))) {
+                    writer.setIndent("  ");
+                    diff.writeJson(writer);
+                }
+                return diff.hasRegressions() ? 2 : 0;
+            }
+            throw new AbnormalExitException("Please supply one or two profiles.");
+        } catch (IOException e) {
+            throw new AbnormalExitException(e);
+        } finally {
+            out.flush();
+        }
+    }
+
+    @NonNull
+    private static Path getJsonOutFile(@NonNull Path protoFile, @NonNull String suffix) {
+        String fileName = protoFile.getFileName().toString();
+        if (fileName.endsWith(".rawproto")) {
+            fileName = fileName.substring(0, fileName.length() - ".rawproto".length());
+        }
+        return protoFile.resolveSibling(fileName + suffix);
+    }
+
+    @NonNull
+    private static GradleBuildProfile load(@NonNull Path protoFile) throws IOException {
+        try {
+            return GradleBuildProfile.parseFrom(Files.readAllBytes(protoFile));
+        } catch (InvalidProtocolBufferException e) {
+            throw new AbnormalExitException(
+                    String.format(
+                            Locale.US,
+                            "Could not parse proto file: %1$s '%2$s'",
+                            e.getMessage(),
+                            protoFile));
+        }
+    }
+
+    /** Analyzes a build profile, see {@link ProfileAnalyzer}. */
+    @NonNull
+    public static ProfileAnalysis analyze(@NonNull GradleBuildProfile profile) {
+        List<Node> roots = buildGraph(profile.getSpanList());
+        if (roots.isEmpty()) {
+            return new ProfileAnalysis(
+                    0,
+                    0,
+                    0,
+                    ImmutableList.of(),
+                    ImmutableMap.of(),
+                    0,
+                    new double[0],
+                    ImmutableList.of());
+        }
+
+        long buildStart = roots.stream().mapToLong(node -> node.start).min().getAsLong();
+        long buildEnd = roots.stream().mapToLong(node -> node.end).max().getAsLong();
+        long wallTime = buildEnd - buildStart;
+        long busyTime = roots.stream().mapToLong(node -> node.end - node.start).sum();
+
+        // Sweep over the top level spans to get the number of them running over time.
+        List<long[]> events = new ArrayList<>(roots.size() * 2);
+        for (Node root : roots) {
+            events.add(new long[] {root.start, 1});
+            events.add(new long[] {root.end, -1});
+        }
+        // Ends first, so that back to back spans are not counted as running in parallel.
+        events.sort(
+                Comparator.<long[]>comparingLong(event -> event[0])
+                        .thenComparingLong(event -> event[1]));
+        List<long[]> segments = new ArrayList<>(); // start, end, running
+        int running = 0;
+        int peakParallelism = 0;
+        long previousTime = buildStart;
+        for (long[] event : events) {
+            if (event[0] > previousTime) {
+                segments.add(new long[] {previousTime, event[0], running});
+                previousTime = event[0];
+            }
+            running += event[1];
+            peakParallelism = Math.max(peakParallelism, running);
+        }
+
+        long bucketDuration = Math.max(1, LongMath.divide(wallTime, PARALLELISM_BUCKETS, CEILING));
+        double[] parallelism = new double[(int) LongMath.divide(wallTime, bucketDuration, CEILING)];
+        List<ProfileAnalysis.IdleGap> idleGaps = new ArrayList<>();
+        for (long[] segment : segments) {
+            for (long time = segment[0]; time < segment[1]; ) {
+                int bucket = (int) ((time - buildStart) / bucketDuration);
+                long bucketEnd = Math.min(segment[1], buildStart + (bucket + 1) * bucketDuration);
+                parallelism[bucket] += (double) (bucketEnd - time) * segment[2] / bucketDuration;
+                time = bucketEnd;
+            }
+            if (segment[2] < peakParallelism && segment[1] - segment[0] >= MIN_IDLE_GAP_MS) {
+                idleGaps.add(
+                        new ProfileAnalysis.IdleGap(
+                                segment[0] - buildStart,
+                                segment[1] - segment[0],
+                                peakParallelism - (int) segment[2]));
+            }
+        }
+        idleGaps.sort(
+                Comparator.comparingLong(
+                                (ProfileAnalysis.IdleGap gap) -> -gap.duration * gap.idleWorkers)
+                        .thenComparingLong(gap -> gap.start));
+
+        return new ProfileAnalysis(
+                wallTime,
+                busyTime,
+                peakParallelism,
+                computeCriticalPath(roots, buildStart),
+                computeSpanStats(roots),
+                bucketDuration,
+                parallelism,
+                idleGaps.stream().limit(MAX_IDLE_GAPS).collect(ImmutableList.toImmutableList()));
+    }
+
+    /** Links the spans to their parents and returns the top level ones. */
+    @NonNull
+    private static List<Node> buildGraph(@NonNull List<GradleBuildProfileSpan> spans) {
+        Map<Long, Node> nodes = new HashMap<>(spans.size() * 2);
+        for (GradleBuildProfileSpan span : spans) {
+            nodes.put(span.getId(), new Node(span));
+        }
+
+        Map<Long, List<Node>> tasksByProject = new HashMap<>();
+        for (Node node : nodes.values()) {
+            if (node.span.getType() == ExecutionType.TASK_EXECUTION) {
+                tasksByProject.computeIfAbsent(node.span.getProject(), p -> new ArrayList<>())
+                        .add(node);
+            }
+        }
+        for (List<Node> tasks : tasksByProject.values()) {
+            tasks.sort(Comparator.comparingLong(node -> node.start));
+        }
+
+        List<Node> roots = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            Node parent = null;
+            long parentId = node.span.getParentId();
+            if (parentId != 0 && parentId != node.span.getId()) {
+                parent = nodes.get(parentId);
+            }
+            if (parent == null && node.span.getType() != ExecutionType.TASK_EXECUTION) {
+                parent = findContainingTask(tasksByProject.get(node.span.getProject()), node);
+            }
+            if (parent != null) {
+                parent.children.add(node);
+            } else {
+                roots.add(node);
+            }
+        }
+        return roots;
+    }
+
+    /** Returns the latest task starting before the given span that contains it, if any. */
+    @Nullable
+    private static Node findContainingTask(@Nullable List<Node> tasks, @NonNull Node node) {
+        if (tasks == null) {
+            return null;
+        }
+        int low = 0;
+        int high = tasks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tasks.get(middle).start <= node.start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low - 1; i >= 0; i--) {
+            Node task = tasks.get(i);
+            if (task.end >= node.end) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static ImmutableList<ProfileAnalysis.PathElement> computeCriticalPath(
+            @NonNull List<Node> roots, long buildStart) {
+        List<Node> byEnd = new ArrayList<>(roots);
+        byEnd.sort(
+                Comparator.comparingLong((Node node) -> node.end)
+                        .thenComparingLong(node -> node.start));
+
+        List<ProfileAnalysis.PathElement> path = new ArrayList<>();
+        int current = byEnd.size() - 1;
+        while (current >= 0) {
+            Node node = byEnd.get(current);
+            // The predecessor is the span ending last before this one started.
+            int predecessor = current - 1;
+            while (predecessor >= 0 && byEnd.get(predecessor).end > node.start) {
+                predecessor--;
+            }
+            long wait = predecessor >= 0 ? node.start - byEnd.get(predecessor).end : 0;
+            path.add(
+                    new ProfileAnalysis.PathElement(
+                            ChromeTracingProfileConverter.spanName(node.span),
+                            node.span.getId(),
+                            node.span.getProject(),
+                            node.span.getThreadId(),
+                            node.start - buildStart,
+                            node.end - node.start,
+                            wait));
+            current = predecessor;
+        }
+        return ImmutableList.copyOf(path).reverse();
+    }
+
+    @NonNull
+    private static ImmutableMap<String, ProfileAnalysis.SpanStats> computeSpanStats(
+            @NonNull List<Node> roots) {
+        Map<String, long[]> stats = new HashMap<>(); // count, self time, total time
+        List<Node> pending = new ArrayList<>(roots);
+        while (!pending.isEmpty()) {
+            Node node = pending.remove(pending.size() - 1);
+            long[] nodeStats =
+                    stats.computeIfAbsent(
+                            ChromeTracingProfileConverter.spanName(node.span), name -> new long[3]);
+            nodeStats[0]++;
+            nodeStats[1] += node.getSelfTime();
+            nodeStats[2] += node.end - node.start;
+            pending.addAll(node.children);
+        }
+        ImmutableMap.Builder<String, ProfileAnalysis.SpanStats> result = ImmutableMap.builder();
+        stats.entrySet()
+                .stream()
+                .sorted(
+                        Comparator.comparingLong(
+                                        (Map.Entry<String, long[]> entry) -> -entry.getValue()[1])
+                                .thenComparing(Map.Entry::getKey))
+                .forEach(
+                        entry ->
+                                result.put(
+                                        entry.getKey(),
+                                        new ProfileAnalysis.SpanStats(
+                                                (int) entry.getValue()[0],
+                                                entry.getValue()[1],
+                                                entry.getValue()[2])));
+        return result.build();
+    }
+
+    private static final class Node {
+        @NonNull final GradleBuildProfileSpan span;
+        final long start;
+        final long end;
+        @NonNull final List<Node> children = new ArrayList<>();
+
+        Node(@NonNull GradleBuildProfileSpan span) {
+            this.span = span;
+            this.start = span.getStartTimeInMs();
+            this.end = span.getStartTimeInMs() + span.getDurationInMs();
+        }
+
+        /** Returns the duration of this span minus the time covered by its children. */
+        long getSelfTime() {
+            children.sort(Comparator.comparingLong(node -> node.start));
+            long covered = 0;
+            long coveredUntil = start;
+            for (Node child : children) {
+                long childStart = Math.max(child.start, coveredUntil);
+                long childEnd = Math.min(child.end, end);
+                if (childEnd > childStart) {
+                    covered += childEnd - childStart;
+                    coveredUntil = childEnd;
+                }
+            }
+            return end - start - covered;
+        }
+    }
+}
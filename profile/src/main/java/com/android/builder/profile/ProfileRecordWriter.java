@@ -48,4 +48,11 @@ public interface ProfileRecordWriter {
             @NonNull String project,
             @Nullable String variant,
             @NonNull final GradleBuildProfileSpan.Builder executionRecord);
+
+    /**
+     * Starts measuring the CPU time and the allocations of the current thread for the record with
+     * the given id, if enabled. The measure ends when the record is written, which must then
+     * happen on the same thread for the measure to be kept. Thread safe.
+     */
+    default void startResourceUsage(long recordId) {}
 }
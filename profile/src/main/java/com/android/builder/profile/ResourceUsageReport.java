@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.google.gson.stream.JsonWriter;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resources used by the spans of a build, aggregated by task type, transform type and execution
+ * type.
+ *
+ * <p>The {@link com.google.wireless.android.sdk.stats.GradleBuildProfile} proto has no room for
+ * them, so they are written as JSON next to the profile. As for the durations of the spans, the
+ * resources used by a span include the ones used by its children.
+ */
+final class ResourceUsageReport {
+
+    // Layout of the values of mUsage.
+    private static final int COUNT = 0;
+    private static final int DURATION_MICROS = 1;
+    private static final int CPU_NANOS = 2;
+    private static final int ALLOCATED_BYTES = 3;
+    private static final int GC_MS = 4;
+    private static final int SIZE = 5;
+
+    @NonNull private final GcPauses mGcPauses;
+    @NonNull private final Map<String, long[]> mUsage = new TreeMap<>();
+
+    ResourceUsageReport(@NonNull GcPauses gcPauses) {
+        mGcPauses = gcPauses;
+    }
+
+    @NonNull
+    static Path getJsonOutFile(@NonNull Path protoFile) {
+        String fileName = protoFile.getFileName().toString();
+        if (fileName.endsWith(".rawproto")) {
+            fileName = fileName.substring(0, fileName.length() - ".rawproto".length());
+        }
+        return protoFile.resolveSibling(fileName + "-resources.json");
+    }
+
+    void add(@NonNull GradleBuildProfileSpan span, @NonNull SpanTrace.Entry entry) {
+        long[] usage =
+                mUsage.computeIfAbsent(
+                        ChromeTracingProfileConverter.spanName(span), name -> new long[SIZE]);
+        usage[COUNT]++;
+        usage[DURATION_MICROS] += entry.getDurationMicros();
+        if (entry.getThreadCpuNanos() != ThreadResources.NOT_MEASURED) {
+            usage[CPU_NANOS] += entry.getThreadCpuNanos();
+        }
+        if (entry.getAllocatedBytes() != ThreadResources.NOT_MEASURED) {
+            usage[ALLOCATED_BYTES] += entry.getAllocatedBytes();
+        }
+        long startMicros = entry.getStartMicros();
+        usage[GC_MS] +=
+                mGcPauses.getOverlap(
+                        TimeUnit.MICROSECONDS.toMillis(startMicros),
+                        TimeUnit.MICROSECONDS.toMillis(startMicros + entry.getDurationMicros()));
+    }
+
+    void write(@NonNull Path file) throws IOException {
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(file))) {
+            writer.setIndent("  ");
+            writer.beginArray();
+            for (Map.Entry<String, long[]> entry : mUsage.entrySet()) {
+                long[] usage = entry.getValue();
+                writer.beginObject()
+                        .name("name").value(entry.getKey())
+                        .name("count").value(usage[COUNT])
+                        .name("durationMs")
+                        .value(TimeUnit.MICROSECONDS.toMillis(usage[DURATION_MICROS]))
+                        .name("cpuMs").value(TimeUnit.NANOSECONDS.toMillis(usage[CPU_NANOS]))
+                        .name("allocatedBytes").value(usage[ALLOCATED_BYTES])
+                        .name("gcMs").value(usage[GC_MS])
+                        .endObject();
+            }
+            writer.endArray();
+        }
+    }
+}
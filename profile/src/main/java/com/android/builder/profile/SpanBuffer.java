@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.wireless.android.sdk.stats.GradleTransformExecution;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per thread buffer of the spans recorded by {@link ThreadRecorder}.
+ *
+ * <p>Spans are stored as primitive records in preallocated arrays rather than as protobuf
+ * builders, so recording a span does not allocate. Whenever the buffer is full its records are
+ * appended to the {@link SpanTrace} of the build and the buffer is reused.
+ *
+ * <p>When resource usage is recorded, the CPU time used and the bytes allocated by the thread
+ * during each span are recorded as well. Otherwise they are not measured at all, as reading them
+ * is much more expensive than reading the time.
+ *
+ * <p>A buffer is only written to by its own thread, but it is drained by the thread finishing the
+ * build, hence the synchronization which is uncontended otherwise.
+ */
+final class SpanBuffer {
+
+    /** Number of spans buffered before they are flushed to the trace. */
+    static final int CAPACITY = 1024;
+
+    // Layout of a record in mRecords.
+    static final int ID = 0;
+    static final int PARENT_ID = 1;
+    static final int TYPE = 2;
+    static final int PROJECT = 3;
+    static final int VARIANT = 4;
+    static final int START_NANOS = 5;
+    static final int DURATION_NANOS = 6;
+    static final int CPU_NANOS = 7;
+    static final int ALLOCATED_BYTES = 8;
+    static final int RECORD_SIZE = 9;
+
+    // Layout of an open span in mStack.
+    private static final int STACK_ID = 0;
+    private static final int STACK_START_NANOS = 1;
+    private static final int STACK_CPU_NANOS = 2;
+    private static final int STACK_ALLOCATED_BYTES = 3;
+    private static final int STACK_FRAME_SIZE = 4;
+
+    @NonNull private final SpanTrace mTrace;
+    private final long mThreadId;
+    private final boolean mRecordResourceUsage;
+
+    @NonNull private final long[] mRecords = new long[CAPACITY * RECORD_SIZE];
+    @NonNull private final GradleTransformExecution[] mTransforms =
+            new GradleTransformExecution[CAPACITY];
+    private int mSize = 0;
+
+    @NonNull private long[] mStack = new long[16 * STACK_FRAME_SIZE];
+    private int mDepth = 0;
+
+    SpanBuffer(@NonNull SpanTrace trace, long threadId, boolean recordResourceUsage) {
+        mTrace = trace;
+        mThreadId = threadId;
+        mRecordResourceUsage = recordResourceUsage;
+    }
+
+    /** Opens a new span, which becomes the parent of the spans started before it is closed. */
+    synchronized void start(long id) {
+        int frame = mDepth * STACK_FRAME_SIZE;
+        if (frame == mStack.length) {
+            mStack = Arrays.copyOf(mStack, mStack.length * 2);
+        }
+        mStack[frame + STACK_ID] = id;
+        if (mRecordResourceUsage) {
+            mStack[frame + STACK_CPU_NANOS] = ThreadResources.getCpuTime();
+            mStack[frame + STACK_ALLOCATED_BYTES] = ThreadResources.getAllocatedBytes();
+        }
+        // Read last so that the time spent in the profiler is not attributed to the span.
+        mStack[frame + STACK_START_NANOS] = System.nanoTime();
+        mDepth++;
+    }
+
+    /**
+     * Closes the innermost open span and records it.
+     *
+     * @param id the id the span was opened with.
+     * @param type the {@link
+     *     com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType} number.
+     * @param project the anonymized project id.
+     * @param variant the anonymized variant id.
+     * @param transform the transform executed by the span, if any.
+     */
+    synchronized void end(
+            long id,
+            int type,
+            long project,
+            long variant,
+            @Nullable GradleTransformExecution transform) {
+        long endNanos = System.nanoTime();
+        long endCpuNanos = ThreadResources.NOT_MEASURED;
+        long endAllocatedBytes = ThreadResources.NOT_MEASURED;
+        if (mRecordResourceUsage) {
+            endCpuNanos = ThreadResources.getCpuTime();
+            endAllocatedBytes = ThreadResources.getAllocatedBytes();
+        }
+        if (mDepth == 0) {
+            Logger.getLogger(ThreadRecorder.class.getName())
+                    .log(Level.SEVERE, "Profiler stack corrupted");
+            return;
+        }
+        mDepth--;
+        int frame = mDepth * STACK_FRAME_SIZE;
+        if (mStack[frame + STACK_ID] != id) {
+            Logger.getLogger(ThreadRecorder.class.getName())
+                    .log(Level.SEVERE, "Profiler stack corrupted");
+        }
+        if (mSize == CAPACITY) {
+            flush();
+        }
+        int record = mSize * RECORD_SIZE;
+        mRecords[record + ID] = id;
+        mRecords[record + PARENT_ID] =
+                mDepth == 0 ? 0 : mStack[frame - STACK_FRAME_SIZE + STACK_ID];
+        mRecords[record + TYPE] = type;
+        mRecords[record + PROJECT] = project;
+        mRecords[record + VARIANT] = variant;
+        mRecords[record + START_NANOS] = mStack[frame + STACK_START_NANOS];
+        mRecords[record + DURATION_NANOS] = endNanos - mStack[frame + STACK_START_NANOS];
+        if (mRecordResourceUsage) {
+            mRecords[record + CPU_NANOS] =
+                    ThreadResources.delta(mStack[frame + STACK_CPU_NANOS], endCpuNanos);
+            mRecords[record + ALLOCATED_BYTES] =
+                    ThreadResources.delta(
+                            mStack[frame + STACK_ALLOCATED_BYTES], endAllocatedBytes);
+        } else {
+            mRecords[record + CPU_NANOS] = ThreadResources.NOT_MEASURED;
+            mRecords[record + ALLOCATED_BYTES] = ThreadResources.NOT_MEASURED;
+        }
+        mTransforms[mSize] = transform;
+        mSize++;
+    }
+
+    /** Appends the buffered spans to the trace and empties the buffer. */
+    synchronized void flush() {
+        if (mSize == 0) {
+            return;
+        }
+        mTrace.append(mThreadId, mRecords, mTransforms, mSize);
+        Arrays.fill(mTransforms, 0, mSize, null);
+        mSize = 0;
+    }
+}
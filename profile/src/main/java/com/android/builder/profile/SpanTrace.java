@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import com.google.wireless.android.sdk.stats.GradleTransformExecution;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streaming on-disk trace of the spans of a build.
+ *
+ * <p>Spans are appended to a temporary file as they are flushed from the {@link SpanBuffer}s, so
+ * that the memory used by the profiler does not grow with the number of spans. The trace is read
+ * back once at the end of the build to produce the {@link GradleBuildProfileSpan}s of the profile.
+ *
+ * <p>Spans recorded by {@link ThreadRecorder} keep their {@link System#nanoTime()} timestamps in
+ * the trace. They are converted to wall clock time relative to the time the trace was created,
+ * which keeps all spans of a build on the same monotonic time line.
+ */
+final class SpanTrace {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte KIND_RECORDED = 0;
+    private static final byte KIND_SPAN = 1;
+
+    private final long mBaseTimeInMs = System.currentTimeMillis();
+    private final long mBaseNanos = System.nanoTime();
+
+    @Nullable private Path mFile;
+    @Nullable private DataOutputStream mOutput;
+    private boolean mFailed = false;
+    private boolean mClosed = false;
+
+    /** Appends the first {@code count} records of a {@link SpanBuffer}. */
+    synchronized void append(
+            long threadId,
+            @NonNull long[] records,
+            @NonNull GradleTransformExecution[] transforms,
+            int count) {
+        DataOutputStream output = getOutput();
+        if (output == null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                output.writeByte(KIND_RECORDED);
+                output.writeLong(threadId);
+                int record = i * SpanBuffer.RECORD_SIZE;
+                for (int field = 0; field < SpanBuffer.RECORD_SIZE; field++) {
+                    output.writeLong(records[record + field]);
+                }
+                writeMessage(output, transforms[i] != null ? transforms[i].toByteArray() : null);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Appends a span that was built by the caller, such as a task execution span.
+     *
+     * @param cpuNanos the CPU time used by the span, or {@link ThreadResources#NOT_MEASURED}.
+     * @param allocatedBytes the bytes allocated by the span, or {@link
+     *     ThreadResources#NOT_MEASURED}.
+     */
+    synchronized void append(
+            @NonNull GradleBuildProfileSpan span, long cpuNanos, long allocatedBytes) {
+        DataOutputStream output = getOutput();
+        if (output == null) {
+            return;
+        }
+        try {
+            output.writeByte(KIND_SPAN);
+            output.writeLong(cpuNanos);
+            output.writeLong(allocatedBytes);
+            writeMessage(output, span.toByteArray());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Converts a {@link System#nanoTime()} timestamp of this build to microseconds since epoch. */
+    long toEpochMicros(long nanos) {
+        return mBaseTimeInMs * 1000 + TimeUnit.NANOSECONDS.toMicros(nanos - mBaseNanos);
+    }
+
+    /**
+     * Reads all the spans appended so far, in order.
+     *
+     * <p>The trace cannot be appended to once it has been read, but it can be read again.
+     */
+    synchronized void read(@NonNull Consumer<Entry> consumer) throws IOException {
+        mClosed = true;
+        if (mOutput != null) {
+            mOutput.close();
+            mOutput = null;
+        }
+        if (mFile == null || mFailed) {
+            return;
+        }
+        try (DataInputStream input =
+                new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(mFile), BUFFER_SIZE))) {
+            Entry entry = new Entry();
+            int kind;
+            while ((kind = input.read()) != -1) {
+                if (kind == KIND_RECORDED) {
+                    entry.mThreadId = input.readLong();
+                    for (int field = 0; field < SpanBuffer.RECORD_SIZE; field++) {
+                        entry.mRecord[field] = input.readLong();
+                    }
+                    byte[] transform = readMessage(input);
+                    entry.mTransform =
+                            transform != null
+                                    ? GradleTransformExecution.parseFrom(transform)
+                                    : null;
+                    entry.mSpan = null;
+                } else {
+                    entry.mRecord[SpanBuffer.CPU_NANOS] = input.readLong();
+                    entry.mRecord[SpanBuffer.ALLOCATED_BYTES] = input.readLong();
+                    entry.mSpan = GradleBuildProfileSpan.parseFrom(readMessage(input));
+                }
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    /** Deletes the trace file. */
+    synchronized void delete() {
+        mClosed = true;
+        try {
+            if (mOutput != null) {
+                mOutput.close();
+                mOutput = null;
+            }
+            if (mFile != null) {
+                Files.deleteIfExists(mFile);
+            }
+        } catch (IOException e) {
+            Logger.getLogger(SpanTrace.class.getName())
+                    .log(Level.WARNING, "Failed to delete profiler trace " + mFile, e);
+        }
+    }
+
+    @Nullable
+    private DataOutputStream getOutput() {
+        if (mOutput == null && !mFailed && !mClosed) {
+            try {
+                mFile = Files.createTempFile("gradle-profile", ".trace");
+                mFile.toFile().deleteOnExit();
+                mOutput =
+                        new DataOutputStream(
+                                new BufferedOutputStream(
+                                        Files.newOutputStream(mFile), BUFFER_SIZE));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return mOutput;
+    }
+
+    private void fail(@NonNull IOException e) {
+        Logger.getLogger(SpanTrace.class.getName())
+                .log(Level.SEVERE, "Failed to write profiler trace, spans will be missing", e);
+        mFailed = true;
+        mOutput = null;
+    }
+
+    private static void writeMessage(@NonNull DataOutputStream output, @Nullable byte[] message)
+            throws IOException {
+        if (message == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(message.length);
+            output.write(message);
+        }
+    }
+
+    @Nullable
+    private static byte[] readMessage(@NonNull DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] message = new byte[length];
+        input.readFully(message);
+        return message;
+    }
+
+    /**
+     * A span read back from the trace.
+     *
+     * <p>The same instance is reused for all the spans of a trace.
+     */
+    final class Entry {
+
+        @NonNull private final long[] mRecord = new long[SpanBuffer.RECORD_SIZE];
+        private long mThreadId;
+        @Nullable private GradleTransformExecution mTransform;
+        @Nullable private GradleBuildProfileSpan mSpan;
+
+        private Entry() {}
+
+        /** Returns the span as it is stored in the build profile. */
+        @NonNull
+        GradleBuildProfileSpan toSpan() {
+            if (mSpan != null) {
+                return mSpan;
+            }
+            GradleBuildProfileSpan.Builder span =
+                    GradleBuildProfileSpan.newBuilder()
+                            .setId(mRecord[SpanBuffer.ID])
+                            .setThreadId(mThreadId)
+                            .setProject(mRecord[SpanBuffer.PROJECT])
+                            .setVariant(mRecord[SpanBuffer.VARIANT])
+                            .setStartTimeInMs(getStartMicros() / 1000)
+                            .setDurationInMs(
+                                    TimeUnit.NANOSECONDS.toMillis(
+                                            mRecord[SpanBuffer.DURATION_NANOS]));
+            ExecutionType type = ExecutionType.forNumber((int) mRecord[SpanBuffer.TYPE]);
+            if (type != null) {
+                span.setType(type);
+            }
+            if (mRecord[SpanBuffer.PARENT_ID] != 0) {
+                span.setParentId(mRecord[SpanBuffer.PARENT_ID]);
+            }
+            if (mTransform != null) {
+                span.setTransform(mTransform);
+            }
+            return span.build();
+        }
+
+        /** Returns the start time of the span in microseconds since epoch. */
+        long getStartMicros() {
+            return mSpan != null
+                    ? TimeUnit.MILLISECONDS.toMicros(mSpan.getStartTimeInMs())
+                    : toEpochMicros(mRecord[SpanBuffer.START_NANOS]);
+        }
+
+        /** Returns the duration of the span in microseconds. */
+        long getDurationMicros() {
+            return mSpan != null
+                    ? TimeUnit.MILLISECONDS.toMicros(mSpan.getDurationInMs())
+                    : TimeUnit.NANOSECONDS.toMicros(mRecord[SpanBuffer.DURATION_NANOS]);
+        }
+
+        /**
+         * Returns the CPU time used by the thread of the span in nanoseconds, or {@link
+         * ThreadResources#NOT_MEASURED}.
+         */
+        long getThreadCpuNanos() {
+            return mRecord[SpanBuffer.CPU_NANOS];
+        }
+
+        /**
+         * Returns the number of bytes allocated by the thread of the span, or {@link
+         * ThreadResources#NOT_MEASURED}.
+         */
+        long getAllocatedBytes() {
+            return mRecord[SpanBuffer.ALLOCATED_BYTES];
+        }
+    }
+}
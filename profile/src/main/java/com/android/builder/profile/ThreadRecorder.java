@@ -18,16 +18,11 @@ package com.android.builder.profile;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
-import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
 import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
 import com.google.wireless.android.sdk.stats.GradleTransformExecution;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * Facility to record block execution time on a single thread. Threads should not be spawned during
@@ -45,11 +40,10 @@ public final class ThreadRecorder implements Recorder {
 
     /**
      * Do not put anything else than JDK classes in the ThreadLocal as it prevents that class and
-     * therefore the plugin classloader to be gc'ed leading to OOM or PermGen issues.
+     * therefore the plugin classloader to be gc'ed leading to OOM or PermGen issues. The spans
+     * themselves are buffered by the {@link ProcessProfileWriter} of the build, see {@link
+     * SpanBuffer}.
      */
-    protected final ThreadLocal<Deque<Long>> recordStacks =
-            ThreadLocal.withInitial(ArrayDeque::new);
-
     protected final ThreadLocal<Long> threadId =
             ThreadLocal.withInitial(THREAD_ID_ALLOCATOR::getAndIncrement);
 
@@ -74,15 +68,22 @@ public final class ThreadRecorder implements Recorder {
             @NonNull String projectPath,
             @Nullable String variant,
             @NonNull VoidBlock block) {
-        ProfileRecordWriter profileRecordWriter = ProcessProfileWriter.get();
-        GradleBuildProfileSpan.Builder currentRecord =
-                create(profileRecordWriter, executionType, null);
+        ProcessProfileWriter profileRecordWriter = ProcessProfileWriter.get();
+        SpanBuffer spanBuffer = profileRecordWriter.getSpanBuffer(threadId.get());
+        long recordId = create(profileRecordWriter, spanBuffer);
         try {
             block.call();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         } finally {
-            write(profileRecordWriter, currentRecord, projectPath, variant);
+            write(
+                    profileRecordWriter,
+                    spanBuffer,
+                    recordId,
+                    executionType,
+                    null,
+                    projectPath,
+                    variant);
         }
     }
 
@@ -94,64 +95,47 @@ public final class ThreadRecorder implements Recorder {
             @NonNull String projectPath,
             @Nullable String variant,
             @NonNull Block<T> block) {
-        ProfileRecordWriter profileRecordWriter = ProcessProfileWriter.get();
-
-        GradleBuildProfileSpan.Builder currentRecord =
-                create(profileRecordWriter, executionType, transform);
+        ProcessProfileWriter profileRecordWriter = ProcessProfileWriter.get();
+        SpanBuffer spanBuffer = profileRecordWriter.getSpanBuffer(threadId.get());
+        long recordId = create(profileRecordWriter, spanBuffer);
         try {
             return block.call();
         } catch (Exception e) {
             block.handleException(e);
         } finally {
-            write(profileRecordWriter, currentRecord, projectPath, variant);
+            write(
+                    profileRecordWriter,
+                    spanBuffer,
+                    recordId,
+                    executionType,
+                    transform,
+                    projectPath,
+                    variant);
         }
         // we always return null when an exception occurred and was not rethrown.
         return null;
     }
 
-    private GradleBuildProfileSpan.Builder create(
-            @NonNull ProfileRecordWriter profileRecordWriter,
-            @NonNull ExecutionType executionType,
-            @Nullable GradleTransformExecution transform) {
+    private static long create(
+            @NonNull ProfileRecordWriter profileRecordWriter, @NonNull SpanBuffer spanBuffer) {
         long thisRecordId = profileRecordWriter.allocateRecordId();
-
-        // am I a child ?
-        @Nullable
-        Long parentId = recordStacks.get().peek();
-
-        long startTimeInMs = System.currentTimeMillis();
-
-        final GradleBuildProfileSpan.Builder currentRecord =
-                GradleBuildProfileSpan.newBuilder()
-                        .setId(thisRecordId)
-                        .setType(executionType)
-                        .setStartTimeInMs(startTimeInMs);
-
-        if (transform != null) {
-            currentRecord.setTransform(transform);
-        }
-
-        if (parentId != null) {
-            currentRecord.setParentId(parentId);
-        }
-
-        currentRecord.setThreadId(threadId.get());
-        recordStacks.get().push(thisRecordId);
-        return currentRecord;
+        spanBuffer.start(thisRecordId);
+        return thisRecordId;
     }
 
-    private void write(
-            @NonNull ProfileRecordWriter profileRecordWriter,
-            @NonNull GradleBuildProfileSpan.Builder currentRecord,
+    private static void write(
+            @NonNull ProcessProfileWriter profileRecordWriter,
+            @NonNull SpanBuffer spanBuffer,
+            long recordId,
+            @NonNull ExecutionType executionType,
+            @Nullable GradleTransformExecution transform,
             @NonNull String projectPath,
             @Nullable String variant) {
-        // pop this record from the stack.
-        if (recordStacks.get().pop() != currentRecord.getId()) {
-            Logger.getLogger(ThreadRecorder.class.getName())
-                    .log(Level.SEVERE, "Profiler stack corrupted");
-        }
-        currentRecord.setDurationInMs(
-                System.currentTimeMillis() - currentRecord.getStartTimeInMs());
-        profileRecordWriter.writeRecord(projectPath, variant, currentRecord);
+        spanBuffer.end(
+                recordId,
+                executionType.getNumber(),
+                profileRecordWriter.anonymizeProjectPath(projectPath),
+                profileRecordWriter.anonymizeVariant(projectPath, variant),
+                transform);
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the resources used so far by the current thread, when the JVM supports it.
+ *
+ * <p>Values that cannot be measured are reported as {@link #NOT_MEASURED}.
+ */
+final class ThreadResources {
+
+    /** Value of a resource which is not measured. */
+    static final long NOT_MEASURED = -1;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static final boolean CPU_TIME_SUPPORTED =
+            THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+                    && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+
+    /** The HotSpot extension of the thread MX bean, which can measure allocations. */
+    @Nullable
+    private static final com.sun.management.ThreadMXBean ALLOCATION_MX_BEAN =
+            getAllocationMxBean();
+
+    private ThreadResources() {}
+
+    /** Returns the CPU time used by the current thread, in nanoseconds. */
+    static long getCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : NOT_MEASURED;
+    }
+
+    /** Returns the number of bytes allocated by the current thread. */
+    static long getAllocatedBytes() {
+        return ALLOCATION_MX_BEAN != null
+                ? ALLOCATION_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId())
+                : NOT_MEASURED;
+    }
+
+    /** Returns the difference between two measures of the same resource. */
+    static long delta(long start, long end) {
+        return start == NOT_MEASURED || end == NOT_MEASURED ? NOT_MEASURED : end - start;
+    }
+
+    @Nullable
+    private static com.sun.management.ThreadMXBean getAllocationMxBean() {
+        try {
+            if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean =
+                        (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+                if (bean.isThreadAllocatedMemorySupported()
+                        && bean.isThreadAllocatedMemoryEnabled()) {
+                    return bean;
+                }
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM.
+        }
+        return null;
+    }
+}
@@ -23,15 +23,20 @@ import static org.junit.Assert.assertNotNull;
 import com.google.common.collect.ImmutableList;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.wireless.android.sdk.stats.GradleBuildProfile;
 import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
 import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -175,6 +180,44 @@ public class ProcessProfileWriterTest {
         ProcessProfileWriter.get().finishAndMaybeWrite(outputFile);
     }
 
+    @Test
+    public void testSpansFlushedFromFullBuffers() throws Exception {
+        int spanCount = SpanBuffer.CAPACITY * 2 + 1;
+        threadRecorder.record(
+                ExecutionType.SOME_RANDOM_PROCESSING,
+                ":projectName",
+                "variant",
+                () -> {
+                    for (int i = 0; i < spanCount; i++) {
+                        threadRecorder.record(
+                                ExecutionType.TASK_EXECUTION,
+                                ":projectName",
+                                "variant",
+                                () -> null);
+                    }
+                    return null;
+                });
+        ProcessProfileWriterFactory.shutdownAndMaybeWrite(outputFile).get();
+        GradleBuildProfile profile = loadProfile();
+        assertThat(profile.getSpanList()).hasSize(spanCount + 1);
+        GradleBuildProfileSpan parent = profile.getSpan(spanCount);
+        assertThat(parent.getType()).isEqualTo(ExecutionType.SOME_RANDOM_PROCESSING);
+        assertThat(
+                        profile.getSpanList()
+                                .stream()
+                                .limit(spanCount)
+                                .map(GradleBuildProfileSpan::getParentId)
+                                .distinct()
+                                .collect(Collectors.toList()))
+                .containsExactly(parent.getId());
+        assertThat(
+                        profile.getSpanList()
+                                .stream()
+                                .map(GradleBuildProfileSpan::getId)
+                                .collect(Collectors.toList()))
+                .containsNoDuplicates();
+    }
+
     @Test
     public void testThreadNumbering() throws Exception {
         Runnable recordRunnable =
@@ -210,6 +253,41 @@ public class ProcessProfileWriterTest {
         assertThat(threadValues).containsNoDuplicates();
     }
 
+    @Test
+    public void testResourceUsage() throws Exception {
+        Assume.assumeTrue(ThreadResources.getAllocatedBytes() != ThreadResources.NOT_MEASURED);
+        ProcessProfileWriterFactory.initializeForTests(true);
+        threadRecorder = ThreadRecorder.get();
+        byte[] allocated =
+                threadRecorder.record(
+                        ExecutionType.SOME_RANDOM_PROCESSING,
+                        ":projectName",
+                        null,
+                        () -> new byte[10 * 1024 * 1024]);
+        assertNotNull(allocated);
+        ProcessProfileWriterFactory.shutdownAndMaybeWrite(outputFile).get();
+        assertThat(loadProfile().getSpanList()).hasSize(1);
+
+        JsonArray usage;
+        try (Reader reader =
+                Files.newBufferedReader(ResourceUsageReport.getJsonOutFile(outputFile))) {
+            usage = new JsonParser().parse(reader).getAsJsonArray();
+        }
+        assertThat(usage.size()).isEqualTo(1);
+        JsonObject processing = usage.get(0).getAsJsonObject();
+        assertThat(processing.get("name").getAsString()).isEqualTo("some random processing");
+        assertThat(processing.get("count").getAsLong()).isEqualTo(1);
+        assertThat(processing.get("allocatedBytes").getAsLong()).isAtLeast(10L * 1024 * 1024);
+    }
+
+    @Test
+    public void testNoResourceUsageByDefault() throws Exception {
+        threadRecorder.record(ExecutionType.SOME_RANDOM_PROCESSING, ":projectName", null, () -> 1);
+        ProcessProfileWriterFactory.shutdownAndMaybeWrite(outputFile).get();
+        assertThat(loadProfile().getSpanList()).hasSize(1);
+        assertThat(Files.exists(ResourceUsageReport.getJsonOutFile(outputFile))).isFalse();
+    }
+
     @Test
     public void checkApplicationIdStorage() throws Exception {
         ProcessProfileWriter.get().recordApplicationId(() -> "com.example.app.a");
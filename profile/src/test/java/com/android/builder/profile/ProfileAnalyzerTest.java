@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.tools.build.gradle.internal.profile.GradleTaskExecutionType;
+import com.google.wireless.android.sdk.stats.GradleBuildProfile;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import com.google.wireless.android.sdk.stats.GradleTaskExecution;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/** Tests for the {@link ProfileAnalyzer} class */
+public class ProfileAnalyzerTest {
+
+    private static final long BUILD_START = 1_000_000;
+
+    private static final String TASK = "task: unknown task type";
+    private static final String COMPILE = "task: java compile";
+    private static final String PROCESSING = "some random processing";
+
+    /**
+     * Two tasks of project 1 running one after the other, next to a short task of project 2. The
+     * second task runs some processing on another thread, with a nested span.
+     */
+    @NonNull
+    private static GradleBuildProfile createProfile(long secondTaskDuration) {
+        return GradleBuildProfile.newBuilder()
+                .addSpan(task(1, 1, GradleTaskExecutionType.UNKNOWN_TASK_TYPE, 0, 100))
+                .addSpan(task(2, 1, GradleTaskExecutionType.JAVA_COMPILE, 100, secondTaskDuration))
+                .addSpan(task(3, 2, GradleTaskExecutionType.UNKNOWN_TASK_TYPE, 0, 50))
+                .addSpan(processing(4, 0, 120, 100))
+                .addSpan(processing(5, 4, 150, 50))
+                .build();
+    }
+
+    @Test
+    public void testAnalysis() {
+        ProfileAnalysis analysis = ProfileAnalyzer.analyze(createProfile(200));
+
+        assertThat(analysis.getWallTime()).isEqualTo(300);
+        assertThat(analysis.getBusyTime()).isEqualTo(350);
+        assertThat(analysis.getPeakParallelism()).isEqualTo(2);
+        assertThat(analysis.getEffectiveParallelism()).isWithin(0.001).of(350.0 / 300);
+        assertThat(analysis.getIdleWorkerTime()).isEqualTo(250);
+
+        List<ProfileAnalysis.PathElement> criticalPath = analysis.getCriticalPath();
+        assertThat(
+                        criticalPath
+                                .stream()
+                                .map(element -> element.spanId)
+                                .collect(Collectors.toList()))
+                .containsExactly(1L, 2L)
+                .inOrder();
+        assertThat(criticalPath.get(1).start).isEqualTo(100);
+        assertThat(criticalPath.get(1).wait).isEqualTo(0);
+        assertThat(analysis.getCriticalPathTime()).isEqualTo(300);
+
+        // The processing on the other thread is attached to the task that contains it.
+        assertThat(analysis.getSpanStats().keySet())
+                .containsExactly(TASK, PROCESSING, COMPILE)
+                .inOrder();
+        assertThat(analysis.getSpanStats().get(TASK).selfTime).isEqualTo(150);
+        assertThat(analysis.getSpanStats().get(TASK).count).isEqualTo(2);
+        assertThat(analysis.getSpanStats().get(COMPILE).selfTime).isEqualTo(100);
+        assertThat(analysis.getSpanStats().get(PROCESSING).selfTime).isEqualTo(100);
+        assertThat(analysis.getSpanStats().get(PROCESSING).totalTime).isEqualTo(150);
+
+        // Only one task runs after the first 50 ms, the gap between 50 and 100 ms is too short.
+        assertThat(analysis.getIdleGaps()).hasSize(1);
+        assertThat(analysis.getIdleGaps().get(0).start).isEqualTo(100);
+        assertThat(analysis.getIdleGaps().get(0).duration).isEqualTo(200);
+        assertThat(analysis.getIdleGaps().get(0).idleWorkers).isEqualTo(1);
+
+        double[] parallelism = analysis.getParallelism();
+        assertThat(parallelism[0]).isWithin(0.001).of(2);
+        assertThat(parallelism[parallelism.length - 1]).isWithin(0.001).of(1);
+    }
+
+    @Test
+    public void testEmptyProfile() {
+        ProfileAnalysis analysis = ProfileAnalyzer.analyze(GradleBuildProfile.getDefaultInstance());
+        assertThat(analysis.getWallTime()).isEqualTo(0);
+        assertThat(analysis.getCriticalPath()).isEmpty();
+        assertThat(analysis.getSpanStats()).isEmpty();
+    }
+
+    @Test
+    public void testDiff() {
+        ProfileAnalysis baseline = ProfileAnalyzer.analyze(createProfile(200));
+
+        ProfileAnalysisDiff sameBuild = new ProfileAnalysisDiff(baseline, baseline, 10, 10);
+        assertThat(sameBuild.hasRegressions()).isFalse();
+
+        ProfileAnalysisDiff slowerCompile =
+                new ProfileAnalysisDiff(
+                        baseline, ProfileAnalyzer.analyze(createProfile(400)), 10, 10);
+        assertThat(slowerCompile.hasRegressions()).isTrue();
+        List<String> regressions =
+                slowerCompile
+                        .getEntries()
+                        .stream()
+                        .filter(entry -> entry.regression)
+                        .map(entry -> entry.name)
+                        .collect(Collectors.toList());
+        assertThat(regressions).containsExactly("wall time", "critical path", COMPILE);
+
+        // Below the absolute threshold.
+        assertThat(
+                        new ProfileAnalysisDiff(
+                                        baseline,
+                                        ProfileAnalyzer.analyze(createProfile(400)),
+                                        1000,
+                                        10)
+                                .hasRegressions())
+                .isFalse();
+    }
+
+    @NonNull
+    private static GradleBuildProfileSpan task(
+            long id,
+            long project,
+            @NonNull GradleTaskExecutionType type,
+            long start,
+            long duration) {
+        return GradleBuildProfileSpan.newBuilder()
+                .setId(id)
+                .setType(ExecutionType.TASK_EXECUTION)
+                .setProject(project)
+                .setStartTimeInMs(BUILD_START + start)
+                .setDurationInMs(duration)
+                .setTask(GradleTaskExecution.newBuilder().setType(type.getNumber()))
+                .build();
+    }
+
+    @NonNull
+    private static GradleBuildProfileSpan processing(
+            long id, long parentId, long start, long duration) {
+        return GradleBuildProfileSpan.newBuilder()
+                .setId(id)
+                .setParentId(parentId)
+                .setType(ExecutionType.SOME_RANDOM_PROCESSING)
+                .setProject(1)
+                .setThreadId(7)
+                .setStartTimeInMs(BUILD_START + start)
+                .setDurationInMs(duration)
+                .build();
+    }
+}